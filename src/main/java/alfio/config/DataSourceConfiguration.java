@@ -19,11 +19,13 @@ package alfio.config;
 import alfio.config.support.ArrayColumnMapper;
 import alfio.config.support.JSONColumnMapper;
 import alfio.config.support.PlatformProvider;
+import alfio.config.support.SavepointAwareTransactionManager;
 import alfio.job.Jobs;
 import alfio.job.executor.ReservationJobExecutor;
 import alfio.manager.*;
 import alfio.manager.i18n.MessageSourceManager;
 import alfio.manager.system.AdminJobManager;
+import alfio.manager.system.ClusterNotificationManager;
 import alfio.manager.system.ConfigurationManager;
 import alfio.manager.user.UserManager;
 import alfio.repository.system.AdminJobQueueRepository;
@@ -44,7 +46,6 @@ import org.springframework.core.env.Environment;
 import org.springframework.jdbc.core.namedparam.EmptySqlParameterSource;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.jdbc.datasource.AbstractDataSource;
-import org.springframework.jdbc.datasource.DataSourceTransactionManager;
 import org.springframework.scheduling.annotation.EnableAsync;
 import org.springframework.scheduling.annotation.EnableScheduling;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
@@ -113,9 +114,9 @@ public class DataSourceConfiguration {
     }
 
     @Bean
-    @Profile("!"+Initializer.PROFILE_SPRING_BOOT)
     public PlatformTransactionManager platformTransactionManager(DataSource dataSource) {
-        return new DataSourceTransactionManager(dataSource);
+        // defined also for spring boot: the row access setup must be restored after a rollback to a savepoint
+        return new SavepointAwareTransactionManager(dataSource);
     }
 
     @Bean
@@ -153,7 +154,9 @@ public class DataSourceConfiguration {
      }
 
     @Bean
-    public MessageSourceManager messageSourceManager(ConfigurationRepository configurationRepository) {
+    public MessageSourceManager messageSourceManager(ConfigurationRepository configurationRepository,
+                                                     ClusterNotificationManager clusterNotificationManager,
+                                                     Environment environment) {
 
         var source = new CustomResourceBundleMessageSource();
         source.setBasenames("alfio.i18n.public", "alfio.i18n.admin");
@@ -163,7 +166,7 @@ public class DataSourceConfiguration {
         source.setFallbackToSystemLocale(false);
         source.setAlwaysUseMessageFormat(true);
 
-        return new MessageSourceManager(source, configurationRepository);
+        return new MessageSourceManager(source, configurationRepository, clusterNotificationManager, environment);
     }
 
     @Bean
@@ -202,19 +205,25 @@ public class DataSourceConfiguration {
                      WaitingQueueSubscriptionProcessor waitingQueueSubscriptionProcessor,
                      TicketReservationManager ticketReservationManager,
                      AdminJobQueueRepository adminJobQueueRepository,
-                     PlatformTransactionManager platformTransactionManager
+                     PlatformTransactionManager platformTransactionManager,
+                     EventStatisticsSnapshotManager eventStatisticsSnapshotManager,
+                     PaymentWebhookInboxManager paymentWebhookInboxManager,
+                     ExpiredReservationsCleaner expiredReservationsCleaner,
+                     InvoiceNumberAllocator invoiceNumberAllocator
                      ) {
         return new Jobs(adminReservationRequestManager, configurationManager, environment, eventManager, fileUploadManager,
             notificationManager, specialPriceTokenGenerator, ticketReservationManager, userManager,
-            waitingQueueSubscriptionProcessor, adminJobManager(adminJobQueueRepository, platformTransactionManager, ticketReservationManager));
+            waitingQueueSubscriptionProcessor, adminJobManager(adminJobQueueRepository, platformTransactionManager, ticketReservationManager, environment),
+            eventStatisticsSnapshotManager, paymentWebhookInboxManager, expiredReservationsCleaner, invoiceNumberAllocator);
 
     }
 
     @Bean
     AdminJobManager adminJobManager(AdminJobQueueRepository adminJobQueueRepository,
                                     PlatformTransactionManager transactionManager,
-                                    TicketReservationManager ticketReservationManager) {
-        return new AdminJobManager(List.of(reservationJobExecutor(ticketReservationManager)), adminJobQueueRepository, transactionManager);
+                                    TicketReservationManager ticketReservationManager,
+                                    Environment environment) {
+        return new AdminJobManager(List.of(reservationJobExecutor(ticketReservationManager)), adminJobQueueRepository, transactionManager, environment);
     }
 
     @Bean
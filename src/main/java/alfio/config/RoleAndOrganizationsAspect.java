@@ -16,12 +16,17 @@
  */
 package alfio.config;
 
+import alfio.config.support.SavepointAwareTransactionManager;
+import alfio.config.support.SavepointAwareTransactionManager.SavepointRollbackListener;
+import alfio.manager.support.MetricsProvider;
 import alfio.repository.user.OrganizationRepository;
+import lombok.Value;
 import lombok.extern.log4j.Log4j2;
+import org.apache.commons.lang3.tuple.Pair;
 import org.aspectj.lang.ProceedingJoinPoint;
 import org.aspectj.lang.annotation.Around;
 import org.aspectj.lang.annotation.Aspect;
-import org.springframework.jdbc.core.namedparam.EmptySqlParameterSource;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.jdbc.datasource.DataSourceUtils;
 import org.springframework.security.core.GrantedAuthority;
@@ -29,20 +34,37 @@ import org.springframework.security.core.context.SecurityContext;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.web.util.matcher.AntPathRequestMatcher;
 import org.springframework.security.web.util.matcher.OrRequestMatcher;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.web.context.request.RequestAttributes;
 import org.springframework.web.context.request.RequestContextHolder;
 import org.springframework.web.context.request.ServletRequestAttributes;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.sql.DataSource;
 import java.sql.Connection;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
+/**
+ * <p>Sets the variables used by the row security policies for logged users which are not admin.</p>
+ *
+ * <p>The organizations of the current user are loaded once per request, and the variables are set once per
+ * transaction and connection, using a single statement. Nested calls to transactional managers find the variables
+ * already in place and skip the setup. Since a rollback to a savepoint reverts the variables, they are applied again
+ * right after it (see {@link SavepointAwareTransactionManager}).</p>
+ */
 @Log4j2
 @Aspect
-public class RoleAndOrganizationsAspect {
+public class RoleAndOrganizationsAspect implements MetricsProvider {
+
+    private static final String ORGANIZATIONS_ATTRIBUTE = RoleAndOrganizationsAspect.class.getName() + ".organizations";
+    // set_config(..., true) is equivalent to "set local", and accepts bind variables
+    private static final String APPLY_ROW_ACCESS = "select set_config('alfio.checkRowAccess', :checkRowAccess, true), set_config('alfio.currentUserOrgs', :orgIds, true)";
 
     private static final OrRequestMatcher IS_PUBLIC_URLS = new OrRequestMatcher(
         new AntPathRequestMatcher("/resources/**"),
@@ -88,8 +110,11 @@ public class RoleAndOrganizationsAspect {
 
     private final NamedParameterJdbcTemplate jdbcTemplate;
     private final OrganizationRepository organizationRepository;
-
-
+    private final AtomicLong setupsApplied = new AtomicLong();
+    private final AtomicLong setupsSkipped = new AtomicLong();
+    private final AtomicLong organizationLookupsSkipped = new AtomicLong();
+    private final AtomicLong statementsAvoided = new AtomicLong();
+    private final AtomicLong reappliedAfterRollback = new AtomicLong();
 
     public RoleAndOrganizationsAspect(NamedParameterJdbcTemplate namedParameterJdbcTemplate,
                                       OrganizationRepository organizationRepository) {
@@ -114,17 +139,7 @@ public class RoleAndOrganizationsAspect {
                 if (mustCheck) {
                     connection = DataSourceUtils.getConnection(dataSource);
                     if (DataSourceUtils.isConnectionTransactional(connection, dataSource)) {
-                        jdbcTemplate.update("reset alfio.checkRowAccess", new EmptySqlParameterSource());
-                        jdbcTemplate.update("reset alfio.currentUserOrgs", new EmptySqlParameterSource());
-                        Set<Integer> orgIds = new TreeSet<>(organizationRepository.findAllOrganizationIdForUser(SecurityContextHolder.getContext().getAuthentication().getName()));
-                        if (orgIds.isEmpty()) {
-                            log.warn("orgIds is empty, was not able to apply currentUserOrgs at join point: {}", joinPoint);
-                        } else {
-                            formattedOrgIds = orgIds.stream().map(s -> Integer.toString(s)).collect(Collectors.joining(","));
-                            jdbcTemplate.update("set local alfio.checkRowAccess = true", new EmptySqlParameterSource());
-                            //cannot use bind variable when calling set local, it's ugly :(
-                            jdbcTemplate.update("set local alfio.currentUserOrgs = '" + formattedOrgIds + "'", new EmptySqlParameterSource());
-                        }
+                        formattedOrgIds = applyRowAccess(connection, joinPoint);
                     }
                     // note, the policy will check if the variable alfio.checkRowAccess is present before doing anything
                     if (log.isTraceEnabled()) {
@@ -141,6 +156,105 @@ public class RoleAndOrganizationsAspect {
     }
 
 
+    private String applyRowAccess(Connection connection, ProceedingJoinPoint joinPoint) {
+        String formattedOrgIds = getOrganizationIdsForCurrentRequest();
+        // each setup used to issue two "reset" and, if the user belongs to at least one organization, two "set local"
+        long legacyStatements = formattedOrgIds.isEmpty() ? 2 : 4;
+        if (formattedOrgIds.isEmpty()) {
+            log.warn("orgIds is empty, was not able to apply currentUserOrgs at join point: {}", joinPoint);
+        }
+        var key = new RowAccessKey(connection);
+        boolean synchronizationActive = TransactionSynchronizationManager.isSynchronizationActive();
+        if (synchronizationActive && formattedOrgIds.equals(TransactionSynchronizationManager.getResource(key))) {
+            setupsSkipped.incrementAndGet();
+            statementsAvoided.addAndGet(legacyStatements);
+            return formattedOrgIds;
+        }
+        executeApplyRowAccess(formattedOrgIds);
+        setupsApplied.incrementAndGet();
+        statementsAvoided.addAndGet(legacyStatements - 1);
+        if (synchronizationActive) {
+            if (TransactionSynchronizationManager.hasResource(key)) {
+                TransactionSynchronizationManager.unbindResource(key);
+            } else {
+                TransactionSynchronizationManager.registerSynchronization(new RowAccessSynchronization(key));
+            }
+            TransactionSynchronizationManager.bindResource(key, formattedOrgIds);
+        }
+        return formattedOrgIds;
+    }
+
+    private void executeApplyRowAccess(String formattedOrgIds) {
+        var params = new MapSqlParameterSource("checkRowAccess", Boolean.toString(!formattedOrgIds.isEmpty()))
+            .addValue("orgIds", formattedOrgIds);
+        jdbcTemplate.queryForList(APPLY_ROW_ACCESS, params);
+    }
+
+    /**
+     * The organizations of the current user are resolved once per request. The lookup is keyed by username,
+     * in case the authentication changes during the request.
+     */
+    @SuppressWarnings("unchecked")
+    private String getOrganizationIdsForCurrentRequest() {
+        String username = SecurityContextHolder.getContext().getAuthentication().getName();
+        RequestAttributes requestAttributes = Objects.requireNonNull(RequestContextHolder.getRequestAttributes());
+        var cached = (Pair<String, String>) requestAttributes.getAttribute(ORGANIZATIONS_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST);
+        if (cached != null && cached.getLeft().equals(username)) {
+            organizationLookupsSkipped.incrementAndGet();
+            statementsAvoided.incrementAndGet();
+            return cached.getRight();
+        }
+        Set<Integer> orgIds = new TreeSet<>(organizationRepository.findAllOrganizationIdForUser(username));
+        String formattedOrgIds = orgIds.stream().map(s -> Integer.toString(s)).collect(Collectors.joining(","));
+        requestAttributes.setAttribute(ORGANIZATIONS_ATTRIBUTE, Pair.of(username, formattedOrgIds), RequestAttributes.SCOPE_REQUEST);
+        return formattedOrgIds;
+    }
+
+    @Override
+    public String getMetricsGroup() {
+        return "row-access-setup";
+    }
+
+    @Override
+    public Map<String, Number> getMetrics() {
+        return Map.of(
+            "applied", setupsApplied.get(),
+            "skipped", setupsSkipped.get(),
+            "organization-lookups-skipped", organizationLookupsSkipped.get(),
+            "statements-avoided", statementsAvoided.get(),
+            "reapplied-after-rollback", reappliedAfterRollback.get()
+        );
+    }
+
+    private class RowAccessSynchronization implements TransactionSynchronization, SavepointRollbackListener {
+
+        private final RowAccessKey key;
+
+        private RowAccessSynchronization(RowAccessKey key) {
+            this.key = key;
+        }
+
+        @Override
+        public void afterRollbackToSavepoint() {
+            // we cannot know whether the variables were set before or after the savepoint, so we set them again
+            var formattedOrgIds = (String) TransactionSynchronizationManager.getResource(key);
+            if (formattedOrgIds != null) {
+                executeApplyRowAccess(formattedOrgIds);
+                reappliedAfterRollback.incrementAndGet();
+            }
+        }
+
+        @Override
+        public void afterCompletion(int status) {
+            TransactionSynchronizationManager.unbindResourceIfPossible(key);
+        }
+    }
+
+    @Value
+    private static class RowAccessKey {
+        Connection connection;
+    }
+
     private static final String LINE_SEPARATOR = "-----------\n";
 
     private static void logEntry(Connection connection, DataSource dataSource,
@@ -18,6 +18,7 @@ package alfio.config;
 
 import com.openhtmltopdf.util.XRLog;
 import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
 import org.springframework.boot.web.servlet.ServletContextInitializer;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -27,7 +28,7 @@ import org.springframework.core.env.Profiles;
 import org.springframework.web.context.WebApplicationContext;
 import org.springframework.web.filter.CharacterEncodingFilter;
 
-import javax.servlet.Filter;
+import javax.servlet.DispatcherType;
 import javax.servlet.SessionCookieConfig;
 import java.util.logging.Level;
 
@@ -58,11 +59,19 @@ public class SpringBootInitializer {
         };
     }
 
+    /**
+     * Every filter must support async requests, otherwise long-polling endpoints (see
+     * {@link org.springframework.web.context.request.async.DeferredResult}) would fail. The Spring Security filter
+     * chain is registered by Spring Boot, see {@code spring.security.filter.dispatcher-types} in application.properties.
+     */
     @Bean
-    public Filter characterEncodingFilter() {
+    public FilterRegistrationBean<CharacterEncodingFilter> characterEncodingFilter() {
         CharacterEncodingFilter cef = new CharacterEncodingFilter();
         cef.setEncoding("UTF-8");
         cef.setForceEncoding(true);
-        return cef;
+        FilterRegistrationBean<CharacterEncodingFilter> registration = new FilterRegistrationBean<>(cef);
+        registration.setAsyncSupported(true);
+        registration.setDispatcherTypes(DispatcherType.REQUEST, DispatcherType.ASYNC, DispatcherType.ERROR);
+        return registration;
     }
 }
@@ -54,6 +54,7 @@ import org.springframework.security.web.util.matcher.NegatedRequestMatcher;
 import org.springframework.security.web.util.matcher.RequestHeaderRequestMatcher;
 import org.springframework.security.web.util.matcher.RequestMatcher;
 import org.springframework.web.filter.GenericFilterBean;
+import org.springframework.web.filter.OncePerRequestFilter;
 
 import javax.servlet.*;
 import javax.servlet.http.Cookie;
@@ -316,13 +317,10 @@ public class WebSecurityConfig {
 
 
             //FIXME create session and set csrf cookie if we are getting a v2 public api (temporary), will switch to pure cookie based
-            http.addFilterBefore(new Filter() {
+            // once per request: the cookie must not be added again when an async request (e.g. long polling) is dispatched
+            http.addFilterBefore(new OncePerRequestFilter() {
                 @Override
-                public void doFilter(ServletRequest servletRequest, ServletResponse servletResponse, FilterChain filterChain) throws IOException, ServletException {
-
-
-                    HttpServletRequest req = (HttpServletRequest) servletRequest;
-                    HttpServletResponse res = (HttpServletResponse) servletResponse;
+                protected void doFilterInternal(HttpServletRequest req, HttpServletResponse res, FilterChain filterChain) throws IOException, ServletException {
                     if (req.getRequestURI().startsWith("/api/v2/public/") && "GET".equalsIgnoreCase(req.getMethod())) {
                         CsrfToken csrf = csrfTokenRepository.loadToken(req);
                         if(csrf == null) {
@@ -332,7 +330,7 @@ public class WebSecurityConfig {
                         cookie.setPath("/");
                         res.addCookie(cookie);
                     }
-                    filterChain.doFilter(servletRequest, servletResponse);
+                    filterChain.doFilter(req, res);
                 }
             }, RecaptchaLoginFilter.class);
 
@@ -0,0 +1,89 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.config.support;
+
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.SavepointManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionException;
+import org.springframework.transaction.support.DefaultTransactionStatus;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+
+/**
+ * <p>{@link DataSourceTransactionManager} which notifies the transaction synchronizations implementing
+ * {@link SavepointRollbackListener} after a rollback to a savepoint, i.e. when a nested transaction is rolled back.</p>
+ *
+ * <p>Spring notifies the synchronizations only when the whole transaction completes, but a rollback to a savepoint
+ * also reverts the transaction-local settings (e.g. {@code set_config(..., true)}) applied after the savepoint.</p>
+ */
+public class SavepointAwareTransactionManager extends DataSourceTransactionManager {
+
+    public SavepointAwareTransactionManager(DataSource dataSource) {
+        super(dataSource);
+    }
+
+    @Override
+    protected DefaultTransactionStatus newTransactionStatus(TransactionDefinition definition, Object transaction, boolean newTransaction,
+                                                            boolean newSynchronization, boolean debug, Object suspendedResources) {
+        // same as the default implementation
+        boolean actualNewSynchronization = newSynchronization && !TransactionSynchronizationManager.isSynchronizationActive();
+        return new SavepointAwareTransactionStatus(transaction, newTransaction, actualNewSynchronization, definition.isReadOnly(), debug, suspendedResources);
+    }
+
+    public interface SavepointRollbackListener {
+        /**
+         * Called on the transaction thread, right after the rollback to a savepoint.
+         */
+        void afterRollbackToSavepoint();
+    }
+
+    private static class SavepointAwareTransactionStatus extends DefaultTransactionStatus {
+
+        private SavepointAwareTransactionStatus(Object transaction, boolean newTransaction, boolean newSynchronization,
+                                                boolean readOnly, boolean debug, Object suspendedResources) {
+            super(transaction, newTransaction, newSynchronization, readOnly, debug, suspendedResources);
+        }
+
+        @Override
+        protected SavepointManager getSavepointManager() {
+            SavepointManager delegate = super.getSavepointManager();
+            return new SavepointManager() {
+                @Override
+                public Object createSavepoint() throws TransactionException {
+                    return delegate.createSavepoint();
+                }
+
+                @Override
+                public void rollbackToSavepoint(Object savepoint) throws TransactionException {
+                    delegate.rollbackToSavepoint(savepoint);
+                    if(TransactionSynchronizationManager.isSynchronizationActive()) {
+                        TransactionSynchronizationManager.getSynchronizations().stream()
+                            .filter(SavepointRollbackListener.class::isInstance)
+                            .forEach(s -> ((SavepointRollbackListener) s).afterRollbackToSavepoint());
+                    }
+                }
+
+                @Override
+                public void releaseSavepoint(Object savepoint) throws TransactionException {
+                    delegate.releaseSavepoint(savepoint);
+                }
+            };
+        }
+    }
+}
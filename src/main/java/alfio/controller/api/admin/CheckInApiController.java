@@ -28,6 +28,8 @@ import alfio.model.system.ConfigurationKeys;
 import alfio.util.Json;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
 import lombok.Data;
 import lombok.Getter;
 import lombok.RequiredArgsConstructor;
@@ -37,10 +39,13 @@ import org.apache.commons.lang3.Validate;
 import org.apache.commons.lang3.time.DateUtils;
 import org.apache.commons.lang3.tuple.Pair;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
 import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.security.Principal;
 import java.util.*;
 import java.util.stream.Collectors;
@@ -54,6 +59,8 @@ import static alfio.util.Wrappers.optionally;
 public class CheckInApiController {
 
     private static final String ALFIO_TIMESTAMP_HEADER = "Alfio-TIME";
+    private static final int MAX_DELTA_PAGE_SIZE = 20_000;
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
     private final CheckInManager checkInManager;
     private final EventManager eventManager;
     private final ConfigurationManager configurationManager;
@@ -203,25 +210,80 @@ public class CheckInApiController {
 
         validateIdList(ids);
         return eventManager.getOptionalByName(eventName, principal.getName())
-            .map(event -> {
-                Set<String> addFields = loadLabelLayout(event)
-                    .map(layout -> {
-                        Set<String> union = new HashSet<>(layout.content.thirdRow);
-                        union.addAll(layout.content.additionalRows);
-                        union.addAll(layout.qrCode.additionalInfo);
-                        if(additionalFields != null && !additionalFields.isEmpty()) {
-                            union.addAll(additionalFields);
-                        }
-                        return union;
-                    })
-                    .orElseGet(() -> {
-                        if(additionalFields != null && !additionalFields.isEmpty()) {
-                            return new HashSet<>(additionalFields);
-                        }
-                        return Collections.singleton("company");
-                    });
-                return checkInManager.getEncryptedAttendeesInformation(event, addFields, ids);
-            }).orElse(Collections.emptyMap());
+            .map(event -> checkInManager.getEncryptedAttendeesInformation(event, getAdditionalFields(event, additionalFields), ids))
+            .orElse(Collections.emptyMap());
+    }
+
+    /**
+     * Incremental feed for offline check-in: streams the encrypted information of the attendees modified since
+     * the given timestamp, as <code>{"tickets": {"hash": "encrypted info", ...}, "lastId": 123, "hasMore": false}</code>.
+     * Results are ordered by ticket id; clients can fetch the next page by passing the returned "lastId" as "afterId".
+     * The Alfio-TIME header must be used as "changedSince" for the next synchronization.
+     */
+    @GetMapping("/check-in/{eventName}/offline-delta")
+    public void streamOfflineEncryptedInfo(@PathVariable("eventName") String eventName,
+                                           @RequestParam(value = "changedSince", required = false) Long changedSince,
+                                           @RequestParam(value = "afterId", required = false) Integer afterId,
+                                           @RequestParam(value = "limit", required = false, defaultValue = "5000") int limit,
+                                           @RequestParam(value = "additionalField", required = false) List<String> additionalFields,
+                                           HttpServletResponse response,
+                                           Principal principal) throws IOException {
+
+        Validate.isTrue(limit > 0 && limit <= MAX_DELTA_PAGE_SIZE, "limit must be between 1 and " + MAX_DELTA_PAGE_SIZE);
+        long timestamp = new Date().getTime();
+        Date since = changedSince == null ? new Date(0) : DateUtils.addSeconds(new Date(changedSince), -1);
+        var event = eventManager.getOptionalByName(eventName, principal.getName())
+            .filter(checkInManager.isOfflineCheckInEnabled());
+        if(event.isEmpty()) {
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+
+        // one more than requested, to know whether there is another page
+        List<Integer> modified = checkInManager.getAttendeesIdentifiers(event.get(), since, afterId == null ? 0 : afterId, limit + 1, principal.getName());
+        boolean hasMore = modified.size() > limit;
+        List<Integer> ids = hasMore ? modified.subList(0, limit) : modified;
+
+        response.setHeader(ALFIO_TIMESTAMP_HEADER, Long.toString(timestamp));
+        response.setContentType(MediaType.APPLICATION_JSON_UTF8_VALUE);
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(response.getOutputStream())) {
+            generator.writeStartObject();
+            generator.writeObjectFieldStart("tickets");
+            checkInManager.writeEncryptedAttendeesInformation(event.get(), getAdditionalFields(event.get(), additionalFields), ids, (key, value) -> {
+                try {
+                    generator.writeStringField(key, value);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            generator.writeEndObject();
+            if(ids.isEmpty()) {
+                generator.writeNullField("lastId");
+            } else {
+                generator.writeNumberField("lastId", ids.get(ids.size() - 1));
+            }
+            generator.writeBooleanField("hasMore", hasMore);
+            generator.writeEndObject();
+        }
+    }
+
+    private Set<String> getAdditionalFields(EventAndOrganizationId event, List<String> additionalFields) {
+        return loadLabelLayout(event)
+            .map(layout -> {
+                Set<String> union = new HashSet<>(layout.content.thirdRow);
+                union.addAll(layout.content.additionalRows);
+                union.addAll(layout.qrCode.additionalInfo);
+                if(additionalFields != null && !additionalFields.isEmpty()) {
+                    union.addAll(additionalFields);
+                }
+                return union;
+            })
+            .orElseGet(() -> {
+                if(additionalFields != null && !additionalFields.isEmpty()) {
+                    return new HashSet<>(additionalFields);
+                }
+                return Collections.singleton("company");
+            });
     }
 
     private static void validateIdList(@RequestBody List<Integer> ids) {
@@ -19,6 +19,7 @@ package alfio.controller.api.admin;
 import alfio.controller.api.support.EventListItem;
 import alfio.controller.api.support.PageAndContent;
 import alfio.controller.api.support.TicketHelper;
+import alfio.controller.support.PdfRenderingService;
 import alfio.controller.support.TemplateProcessor;
 import alfio.manager.*;
 import alfio.manager.i18n.I18nManager;
@@ -60,6 +61,7 @@ import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.math.BigDecimal;
 import java.security.Principal;
 import java.text.DateFormat;
@@ -68,8 +70,8 @@ import java.text.SimpleDateFormat;
 import java.time.ZoneId;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import java.util.function.Function;
-import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import java.util.zip.ZipEntry;
@@ -102,7 +104,7 @@ public class EventApiController {
     private final TemplateManager templateManager;
     private final FileUploadManager fileUploadManager;
     private final ConfigurationManager configurationManager;
-    private final ExtensionManager extensionManager;
+    private final PdfRenderingService pdfRenderingService;
 
 
     @ExceptionHandler(DataAccessException.class)
@@ -167,7 +169,7 @@ public class EventApiController {
     @GetMapping("/events/{name}")
     public ResponseEntity<EventAndOrganization> getSingleEvent(@PathVariable("name") String eventName, Principal principal) {
         final String username = principal.getName();
-        return optionally(() -> eventStatisticsManager.getEventWithAdditionalInfo(eventName, username))
+        return optionally(() -> eventStatisticsManager.getEventWithAdditionalInfoForDashboard(eventName, username))
             .map(event -> {
                 EventAndOrganization out = new EventAndOrganization(event, eventManager.loadOrganizer(event.getEvent(), username));
                 return ResponseEntity.ok(out);
@@ -299,18 +301,26 @@ public class EventApiController {
     }
 
     private void exportTicketExcel(String eventName, HttpServletResponse response, Principal principal, List<String> fields, Map<Integer,TicketCategory> categoriesMap, ZoneId eventZoneId) throws IOException {
-        ExportUtils.exportExcel(eventName + "-export.xlsx",
-            eventName + " export",
-            exportHeader(fields),
-            exportLines(eventName, principal, fields, categoriesMap, eventZoneId), response);
-
+        exportLines(eventName, principal, fields, categoriesMap, eventZoneId, lines -> {
+            try {
+                ExportUtils.exportExcel(eventName + "-export.xlsx", eventName + " export", exportHeader(fields), lines, response);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
     }
 
     private void exportTicketCSV(String eventName, HttpServletResponse response,
                            Principal principal, List<String> fields,
                            Map<Integer, TicketCategory> categoriesMap,
                            ZoneId eventZoneId) throws IOException {
-        ExportUtils.exportCsv(eventName + "-export.csv", exportHeader(fields), exportLines(eventName, principal, fields, categoriesMap, eventZoneId), response);
+        exportLines(eventName, principal, fields, categoriesMap, eventZoneId, lines -> {
+            try {
+                ExportUtils.exportCsv(eventName + "-export.csv", exportHeader(fields), lines, response);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
     }
 
     private String[] exportHeader(List<String> fields) {
@@ -322,35 +332,45 @@ public class EventApiController {
         }).toArray(String[]::new);
     }
 
-    private Stream<String[]> exportLines(String eventName, Principal principal, List<String> fields, Map<Integer, TicketCategory> categoriesMap, ZoneId eventZoneId) {
+    /**
+     * The lines must be written within the consumer, since they are loaded while the stream is consumed.
+     */
+    private void exportLines(String eventName, Principal principal, List<String> fields, Map<Integer, TicketCategory> categoriesMap,
+                             ZoneId eventZoneId, Consumer<Stream<String[]>> consumer) throws IOException {
         var username = principal.getName();
         var eInvoicingEnabled = configurationManager.isItalianEInvoicingEnabled(eventManager.getEventAndOrganizationId(eventName, username));
+        var requested = Set.copyOf(fields);
+        var customFields = fields.stream()
+            .filter(f -> !FIXED_FIELDS.contains(f) && f.startsWith(CUSTOM_FIELDS_PREFIX))
+            .map(f -> f.substring(CUSTOM_FIELDS_PREFIX.length()))
+            .collect(toList());
+        boolean paymentIdRequested = requested.contains("Payment ID");
+        boolean paymentGatewayRequested = requested.contains("Payment Method");
 
-        return eventManager.findAllConfirmedTicketsForCSV(eventName, username).stream().map(trs -> {
+        Function<Pair<TicketWithReservationAndTransaction, Map<String, String>>, String[]> toLine = p -> {
+            var trs = p.getLeft();
             Ticket t = trs.getTicket();
             var currencyCode = t.getCurrencyCode();
             TicketReservation reservation = trs.getTicketReservation();
-            List<String> line = new ArrayList<>();
-            if(fields.contains("ID")) {line.add(t.getUuid());}
-            if(fields.contains("Category")) {line.add(categoriesMap.get(t.getCategoryId()).getName());}
-            if(fields.contains("Event")) {line.add(eventName);}
-            if(fields.contains("Status")) {line.add(t.getStatus().toString());}
-            if(fields.contains("OriginalPrice")) {line.add(MonetaryUtil.centsToUnit(t.getSrcPriceCts(), currencyCode).toString());}
-            if(fields.contains("PaidPrice")) {line.add(MonetaryUtil.centsToUnit(t.getFinalPriceCts(), currencyCode).toString());}
-            if(fields.contains("Discount")) {line.add(MonetaryUtil.centsToUnit(t.getDiscountCts(), currencyCode).toString());}
-            if(fields.contains("VAT")) {line.add(MonetaryUtil.centsToUnit(t.getVatCts(), currencyCode).toString());}
-            if(fields.contains("ReservationID")) {line.add(t.getTicketsReservationId());}
-            if(fields.contains("Full Name")) {line.add(t.getFullName());}
-            if(fields.contains("First Name")) {line.add(t.getFirstName());}
-            if(fields.contains("Last Name")) {line.add(t.getLastName());}
-            if(fields.contains("E-Mail")) {line.add(t.getEmail());}
-            if(fields.contains("Locked")) {line.add(String.valueOf(t.getLockedAssignment()));}
-            if(fields.contains("Language")) {line.add(String.valueOf(t.getUserLanguage()));}
-            if(fields.contains("Confirmation")) {line.add(reservation.getConfirmationTimestamp().withZoneSameInstant(eventZoneId).toString());}
-            if(fields.contains("Billing Address")) {line.add(reservation.getBillingAddress());}
-            if(fields.contains("Country Code")) {line.add(reservation.getVatCountryCode());}
-            boolean paymentIdRequested = fields.contains("Payment ID");
-            boolean paymentGatewayRequested = fields.contains("Payment Method");
+            List<String> line = new ArrayList<>(fields.size());
+            if(requested.contains("ID")) {line.add(t.getUuid());}
+            if(requested.contains("Category")) {line.add(categoriesMap.get(t.getCategoryId()).getName());}
+            if(requested.contains("Event")) {line.add(eventName);}
+            if(requested.contains("Status")) {line.add(t.getStatus().toString());}
+            if(requested.contains("OriginalPrice")) {line.add(MonetaryUtil.centsToUnit(t.getSrcPriceCts(), currencyCode).toString());}
+            if(requested.contains("PaidPrice")) {line.add(MonetaryUtil.centsToUnit(t.getFinalPriceCts(), currencyCode).toString());}
+            if(requested.contains("Discount")) {line.add(MonetaryUtil.centsToUnit(t.getDiscountCts(), currencyCode).toString());}
+            if(requested.contains("VAT")) {line.add(MonetaryUtil.centsToUnit(t.getVatCts(), currencyCode).toString());}
+            if(requested.contains("ReservationID")) {line.add(t.getTicketsReservationId());}
+            if(requested.contains("Full Name")) {line.add(t.getFullName());}
+            if(requested.contains("First Name")) {line.add(t.getFirstName());}
+            if(requested.contains("Last Name")) {line.add(t.getLastName());}
+            if(requested.contains("E-Mail")) {line.add(t.getEmail());}
+            if(requested.contains("Locked")) {line.add(String.valueOf(t.getLockedAssignment()));}
+            if(requested.contains("Language")) {line.add(String.valueOf(t.getUserLanguage()));}
+            if(requested.contains("Confirmation")) {line.add(reservation.getConfirmationTimestamp().withZoneSameInstant(eventZoneId).toString());}
+            if(requested.contains("Billing Address")) {line.add(reservation.getBillingAddress());}
+            if(requested.contains("Country Code")) {line.add(reservation.getVatCountryCode());}
             if((paymentIdRequested || paymentGatewayRequested)) {
                 Optional<Transaction> transaction = trs.getTransaction();
                 if(paymentIdRequested) { line.add(defaultString(transaction.map(Transaction::getPaymentId).orElse(null), transaction.map(Transaction::getTransactionId).orElse(""))); }
@@ -360,24 +380,22 @@ public class EventApiController {
             if(eInvoicingEnabled) {
                 var billingDetails = trs.getBillingDetails();
                 var optionalInvoicingData = Optional.ofNullable(billingDetails.getInvoicingAdditionalInfo()).map(TicketReservationInvoicingAdditionalInfo::getItalianEInvoicing);
-                if(fields.contains("Fiscal Code")) {line.add(optionalInvoicingData.map(ItalianEInvoicing::getFiscalCode).orElse(""));}
-                if(fields.contains("Reference Type")) {line.add(optionalInvoicingData.map(ItalianEInvoicing::getReferenceTypeAsString).orElse(""));}
-                if(fields.contains("Addressee Code")) {line.add(optionalInvoicingData.map(ItalianEInvoicing::getAddresseeCode).orElse(""));}
-                if(fields.contains("PEC")) {line.add(optionalInvoicingData.map(ItalianEInvoicing::getPec).orElse(""));}
+                if(requested.contains("Fiscal Code")) {line.add(optionalInvoicingData.map(ItalianEInvoicing::getFiscalCode).orElse(""));}
+                if(requested.contains("Reference Type")) {line.add(optionalInvoicingData.map(ItalianEInvoicing::getReferenceTypeAsString).orElse(""));}
+                if(requested.contains("Addressee Code")) {line.add(optionalInvoicingData.map(ItalianEInvoicing::getAddresseeCode).orElse(""));}
+                if(requested.contains("PEC")) {line.add(optionalInvoicingData.map(ItalianEInvoicing::getPec).orElse(""));}
             }
 
-            //obviously not optimized
-            Map<String, String> additionalValues = ticketFieldRepository.findAllValuesForTicketId(t.getId());
-
-            Predicate<String> contains = FIXED_FIELDS::contains;
-
-            fields.stream().filter(contains.negate()).filter(f -> f.startsWith(CUSTOM_FIELDS_PREFIX)).forEachOrdered(field -> {
-                String customFieldName = field.substring(CUSTOM_FIELDS_PREFIX.length());
-                line.add(additionalValues.getOrDefault(customFieldName, "").replaceAll("\"", ""));
-            });
+            Map<String, String> additionalValues = p.getRight();
+            customFields.forEach(customFieldName -> line.add(additionalValues.getOrDefault(customFieldName, "").replace("\"", "")));
 
             return line.toArray(new String[0]);
-        });
+        };
+        try {
+            eventManager.exportAllConfirmedTicketsForCSV(eventName, username, Set.copyOf(customFields), tickets -> consumer.accept(tickets.map(toLine)));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
     }
 
     @GetMapping("/events/{eventName}/sponsor-scan/export")
@@ -601,7 +619,7 @@ public class EventApiController {
                 TicketReservation reservation = pair.getLeft();
                 BillingDocument document = pair.getRight();
                 Map<String, Object> reservationModel = document.getModel();
-                Optional<byte[]> pdf = TemplateProcessor.buildInvoicePdf(event, fileUploadManager, LocaleUtil.forLanguageTag(reservation.getUserLanguage()), templateManager, reservationModel, extensionManager);
+                Optional<byte[]> pdf = TemplateProcessor.buildInvoicePdf(event, fileUploadManager, LocaleUtil.forLanguageTag(reservation.getUserLanguage()), templateManager, reservationModel, pdfRenderingService);
 
                 if(pdf.isPresent()) {
                     zipOS.putNextEntry(new ZipEntry("invoice-" + eventName +"-nr-"+ document.getNumber() + "-reservation-" + reservation.getId() + ".pdf"));
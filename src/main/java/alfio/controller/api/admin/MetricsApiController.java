@@ -0,0 +1,47 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.controller.api.admin;
+
+import alfio.manager.support.MetricsProvider;
+import alfio.manager.user.UserManager;
+import lombok.AllArgsConstructor;
+import org.apache.commons.lang3.Validate;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.security.Principal;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+@RestController
+@RequestMapping("/admin/api/metrics")
+@AllArgsConstructor
+public class MetricsApiController {
+
+    private final List<MetricsProvider> metricsProviders;
+    private final UserManager userManager;
+
+    @GetMapping
+    public Map<String, Map<String, Number>> getMetrics(Principal principal) {
+        Validate.isTrue(userManager.isAdmin(userManager.findUserByUsername(principal.getName())));
+        var result = new TreeMap<String, Map<String, Number>>();
+        metricsProviders.forEach(p -> result.put(p.getMetricsGroup(), new TreeMap<>(p.getMetrics())));
+        return result;
+    }
+}
@@ -32,8 +32,8 @@
  */
 package alfio.controller.api.admin;
 
+import alfio.controller.support.PdfRenderingService;
 import alfio.controller.support.TemplateProcessor;
-import alfio.manager.ExtensionManager;
 import alfio.manager.FileUploadManager;
 import alfio.manager.UploadedResourceManager;
 import alfio.manager.i18n.MessageSourceManager;
@@ -90,7 +90,7 @@ public class ResourceController {
     private final TemplateManager templateManager;
     private final OrganizationRepository organizationRepository;
     private final FileUploadManager fileUploadManager;
-    private final ExtensionManager extensionManager;
+    private final PdfRenderingService pdfRenderingService;
 
 
     @ExceptionHandler(Exception.class)
@@ -146,7 +146,7 @@ public class ResourceController {
             }
 
             Organization organization = organizationRepository.getById(organizationId);
-            Optional<TemplateResource.ImageData> image = TemplateProcessor.extractImageModel(event, fileUploadManager);
+            Optional<TemplateResource.ImageData> image = pdfRenderingService.extractImageModel(event, fileUploadManager);
             Map<String, Object> model = name.prepareSampleModel(organization, event, image);
             String renderedTemplate = templateManager.renderString(event, template.getFileAsString(), model, loc, name.getTemplateOutput());
             if(MediaType.TEXT_PLAIN_VALUE.equals(name.getRenderedContentType())) {
@@ -160,7 +160,7 @@ public class ResourceController {
                 try (OutputStream os = response.getOutputStream()) {
                     response.setContentType(MediaType.APPLICATION_PDF_VALUE);
                     response.addHeader("Content-Disposition", "attachment; filename="+name.name()+".pdf");
-                    TemplateProcessor.renderToPdf(renderedTemplate, os, extensionManager, event);
+                    pdfRenderingService.renderToPdf(renderedTemplate, os, event);
                 }
             } else {
                 throw new IllegalStateException("cannot enter here!");
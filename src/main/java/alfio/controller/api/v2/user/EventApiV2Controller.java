@@ -39,7 +39,6 @@ import alfio.model.system.ConfigurationKeys;
 import alfio.model.transaction.PaymentMethod;
 import alfio.model.transaction.PaymentProxy;
 import alfio.repository.*;
-import alfio.repository.user.OrganizationRepository;
 import alfio.util.*;
 import lombok.AllArgsConstructor;
 import org.apache.commons.lang3.StringUtils;
@@ -77,11 +76,8 @@ import static java.util.stream.Collectors.toList;
 public class EventApiV2Controller {
 
     private final EventManager eventManager;
-    private final EventRepository eventRepository;
     private final ConfigurationManager configurationManager;
-    private final OrganizationRepository organizationRepository;
     private final EventDescriptionRepository eventDescriptionRepository;
-    private final TicketCategoryDescriptionRepository ticketCategoryDescriptionRepository;
     private final PaymentManager paymentManager;
     private final MessageSourceManager messageSourceManager;
     private final AdditionalServiceRepository additionalServiceRepository;
@@ -96,6 +92,7 @@ public class EventApiV2Controller {
     private final RecaptchaService recaptchaService;
     private final PromoCodeDiscountRepository promoCodeDiscountRepository;
     private final SpecialPriceRepository specialPriceRepository;
+    private final EventSnapshotCache eventSnapshotCache;
 
 
     @GetMapping("events")
@@ -122,16 +119,17 @@ public class EventApiV2Controller {
 
     @GetMapping("event/{eventName}")
     public ResponseEntity<EventWithAdditionalInfo> getEvent(@PathVariable("eventName") String eventName, HttpSession session) {
-        return eventRepository.findOptionalByShortName(eventName).filter(e -> e.getStatus() != Event.Status.DISABLED)//
-            .map(event -> {
+        return eventSnapshotCache.findByShortName(eventName).filter(s -> s.getEvent().getStatus() != Event.Status.DISABLED)//
+            .map(snapshot -> {
+                var event = snapshot.getEvent();
                 //
                 var messageSourceAndOverride = messageSourceManager.getMessageSourceForEventAndOverride(event);
                 var messageSource = messageSourceAndOverride.getLeft();
                 var i18nOverride = messageSourceAndOverride.getRight();
 
-                var descriptions = applyCommonMark(eventDescriptionRepository.findDescriptionByEventIdAsMap(event.getId()));
+                var descriptions = applyCommonMark(snapshot.getDescriptions());
 
-                var organization = organizationRepository.getContactById(event.getOrganizationId());
+                var organization = snapshot.getOrganizationContact();
 
                 var configurationsValues = configurationManager.getFor(List.of(
                     MAPS_PROVIDER,
@@ -222,8 +220,7 @@ public class EventApiV2Controller {
 
                 //promotion codes
                 boolean hasAccessPromotions = configurationsValues.get(DISPLAY_DISCOUNT_CODE_BOX).getValueAsBooleanOrDefault(true) &&
-                    (ticketCategoryRepository.countAccessRestrictedRepositoryByEventId(event.getId()) > 0 ||
-                        promoCodeDiscountRepository.countByEventAndOrganizationId(event.getId(), event.getOrganizationId()) > 0);
+                    (snapshot.getAccessRestrictedCategoriesCount() > 0 || snapshot.getPromoCodesCount() > 0);
                 boolean usePartnerCode = configurationsValues.get(USE_PARTNER_CODE_INSTEAD_OF_PROMOTIONAL).getValueAsBooleanOrDefault(false);
                 var promoConf = new EventWithAdditionalInfo.PromotionsConfiguration(hasAccessPromotions, usePartnerCode);
                 //
@@ -249,11 +246,7 @@ public class EventApiV2Controller {
 
     private List<PaymentProxy> getActivePaymentMethods(Event event) {
         if(!event.isFreeOfCharge()) {
-            return paymentManager.getPaymentMethods(event)
-                .stream()
-                .filter(p -> TicketReservationManager.isValidPaymentMethod(p, event, configurationManager))
-                .map(PaymentManager.PaymentMethodDTO::getPaymentProxy)
-                .collect(toList());
+            return paymentManager.getActivePaymentMethods(event);
         } else {
             return Collections.emptyList();
         }
@@ -276,7 +269,7 @@ public class EventApiV2Controller {
                                                                              @RequestBody WaitingQueueSubscriptionForm subscription,
                                                                              BindingResult bindingResult) {
 
-        Optional<ResponseEntity<ValidatedResponse<Boolean>>> res = eventRepository.findOptionalByShortName(eventName).map(event -> {
+        Optional<ResponseEntity<ValidatedResponse<Boolean>>> res = eventSnapshotCache.findEventByShortName(eventName).map(event -> {
             Validator.validateWaitingQueueSubscription(subscription, bindingResult, event);
             if (bindingResult.hasErrors()) {
                 return ResponseEntity.status(HttpStatus.UNPROCESSABLE_ENTITY).body(ValidatedResponse.toResponse(bindingResult, null));
@@ -293,7 +286,8 @@ public class EventApiV2Controller {
     public ResponseEntity<ItemsByCategory> getTicketCategories(@PathVariable("eventName") String eventName, @RequestParam(value = "code", required = false) String code) {
 
         //
-        return eventRepository.findOptionalByShortName(eventName).filter(e -> e.getStatus() != Event.Status.DISABLED).map(event -> {
+        return eventSnapshotCache.findByShortName(eventName).filter(s -> s.getEvent().getStatus() != Event.Status.DISABLED).map(snapshot -> {
+            var event = snapshot.getEvent();
 
             var configurations = configurationManager.getFor(List.of(DISPLAY_TICKETS_LEFT_INDICATOR, MAX_AMOUNT_OF_TICKETS_BY_RESERVATION), ConfigurationLevel.event(event));
             var ticketCategoryLevelConfiguration = configurationManager.getAllCategoriesAndValueWith(event, MAX_AMOUNT_OF_TICKETS_BY_RESERVATION);
@@ -306,7 +300,7 @@ public class EventApiV2Controller {
 
             final ZonedDateTime now = ZonedDateTime.now(event.getZoneId());
             //hide access restricted ticket categories
-            var ticketCategories = ticketCategoryRepository.findAllTicketCategories(event.getId());
+            var ticketCategories = snapshot.getTicketCategories();
 
             List<SaleableTicketCategory> saleableTicketCategories = ticketCategories.stream()
                 .filter((c) -> !c.isAccessRestricted() || shouldDisplayRestrictedCategory(specialCode, c, promoCodeDiscount))
@@ -329,8 +323,7 @@ public class EventApiV2Controller {
 
             //
 
-            var ticketCategoryIds = valid.stream().map(SaleableTicketCategory::getId).collect(Collectors.toList());
-            var ticketCategoryDescriptions = ticketCategoryDescriptionRepository.descriptionsByTicketCategory(ticketCategoryIds);
+            var ticketCategoryDescriptions = snapshot.getTicketCategoryDescriptions();
 
             boolean displayTicketsLeft = configurations.get(DISPLAY_TICKETS_LEFT_INDICATOR).getValueAsBooleanOrDefault(false);
             var converted = valid.stream()
@@ -404,7 +397,7 @@ public class EventApiV2Controller {
                             @RequestParam(value = "ticketId", required = false) String ticketId,
                             HttpServletResponse response) {
 
-        eventRepository.findOptionalByShortName(eventName).ifPresentOrElse((ev -> {
+        eventSnapshotCache.findEventByShortName(eventName).ifPresentOrElse((ev -> {
             var description = eventDescriptionRepository.findDescriptionByEventIdTypeAndLocale(ev.getId(), EventDescription.EventDescriptionType.DESCRIPTION, locale).orElse("");
             var category = ticketRepository.findOptionalByUUID(ticketId).map(t -> ticketCategoryRepository.getById(t.getCategoryId())).orElse(null);
             if ("google".equals(calendarType)) {
@@ -448,7 +441,7 @@ public class EventApiV2Controller {
 
 
 
-        Optional<ResponseEntity<ValidatedResponse<String>>> r = eventRepository.findOptionalByShortName(eventName).map(event -> {
+        Optional<ResponseEntity<ValidatedResponse<String>>> r = eventSnapshotCache.findEventByShortName(eventName).map(event -> {
 
             Locale locale = LocaleUtil.forLanguageTag(lang, event);
 
@@ -516,7 +509,7 @@ public class EventApiV2Controller {
     public ResponseEntity<ValidatedResponse<EventCode>> validateCode(@PathVariable("eventName") String eventName,
                                                                      @RequestParam("code") String code) {
 
-        return eventRepository.findOptionalByShortName(eventName).map(e -> {
+        return eventSnapshotCache.findEventByShortName(eventName).map(e -> {
             var res = checkCode(e, code);
             if(res.isSuccess()) {
 
@@ -549,7 +542,7 @@ public class EventApiV2Controller {
             return res.getLeft();
         };
 
-        var url = eventRepository.findOptionalByShortName(eventName).flatMap(e -> {
+        var url = eventSnapshotCache.findEventByShortName(eventName).flatMap(e -> {
 
             var checkedCode = checkCode(e, trimmedCode);
 
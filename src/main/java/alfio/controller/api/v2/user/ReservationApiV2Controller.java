@@ -24,6 +24,7 @@ import alfio.controller.api.v2.model.ReservationStatusInfo;
 import alfio.controller.api.v2.model.ValidatedResponse;
 import alfio.controller.form.ContactAndTicketsForm;
 import alfio.controller.form.PaymentForm;
+import alfio.controller.support.PdfRenderingService;
 import alfio.controller.support.TemplateProcessor;
 import alfio.manager.*;
 import alfio.manager.i18n.MessageSourceManager;
@@ -56,6 +57,7 @@ import org.springframework.validation.BindingResult;
 import org.springframework.validation.Errors;
 import org.springframework.validation.ValidationUtils;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -88,10 +90,13 @@ public class ReservationApiV2Controller {
     private final FileUploadManager fileUploadManager;
     private final TemplateManager templateManager;
     private final ExtensionManager extensionManager;
+    private final PdfRenderingService pdfRenderingService;
     private final TicketHelper ticketHelper;
     private final EuVatChecker vatChecker;
     private final RecaptchaService recaptchaService;
     private final AdditionalServiceItemRepository additionalServiceItemRepository;
+    private final EventSnapshotCache eventSnapshotCache;
+    private final ReservationStatusNotifier reservationStatusNotifier;
 
     /**
      * Note: now it will return for any states of the reservation.
@@ -104,7 +109,7 @@ public class ReservationApiV2Controller {
     public ResponseEntity<ReservationInfo> getReservationInfo(@PathVariable("eventName") String eventName,
                                                               @PathVariable("reservationId") String reservationId) {
 
-        Optional<ReservationInfo> res = eventRepository.findOptionalByShortName(eventName).flatMap(event -> ticketReservationManager.findById(reservationId).flatMap(reservation -> {
+        Optional<ReservationInfo> res = eventSnapshotCache.findEventByShortName(eventName).flatMap(event -> ticketReservationManager.findById(reservationId).flatMap(reservation -> {
 
             var orderSummary = ticketReservationManager.orderSummaryForReservationId(reservationId, event);
 
@@ -209,13 +214,50 @@ public class ReservationApiV2Controller {
 
         Optional<ReservationStatusInfo> res = Optional.empty();
         if (eventRepository.existsByShortName(eventName)) {
-            res = ticketReservationRepository.findOptionalStatusAndValidationById(reservationId)
-                .map(status -> new ReservationStatusInfo(status.getStatus(), Boolean.TRUE.equals(status.getValidated())));
+            res = findReservationStatusInfo(reservationId);
         }
 
         return res.map(ResponseEntity::ok).orElseGet(() -> ResponseEntity.notFound().build());
     }
 
+    /**
+     * Long-polling alternative to {@link #getReservationStatus(String, String)}: the request is parked until the status
+     * of the reservation differs from the given one, or until the wait timeout has elapsed. In the latter case, the
+     * known status is returned and the client is expected to call this endpoint again.
+     *
+     * @param eventName the event
+     * @param reservationId the reservation
+     * @param knownStatus the status known by the client
+     * @return the status of the reservation
+     */
+    @GetMapping("/event/{eventName}/reservation/{reservationId}/status/wait")
+    public DeferredResult<ResponseEntity<ReservationStatusInfo>> waitForReservationStatusChange(@PathVariable("eventName") String eventName,
+                                                                                               @PathVariable("reservationId") String reservationId,
+                                                                                               @RequestParam("status") TicketReservation.TicketReservationStatus knownStatus) {
+        var result = new DeferredResult<ResponseEntity<ReservationStatusInfo>>(reservationStatusNotifier.getWaitTimeoutMs());
+        if(eventSnapshotCache.findByShortName(eventName).isEmpty()) {
+            result.setResult(ResponseEntity.notFound().build());
+            return result;
+        }
+        // we register before loading the status, so that a change cannot be lost in the meantime
+        var change = reservationStatusNotifier.awaitChange(reservationId);
+        var current = findReservationStatusInfo(reservationId);
+        if(current.isEmpty() || current.get().getStatus() != knownStatus) {
+            change.cancel(false);
+            result.setResult(current.map(ResponseEntity::ok).orElseGet(() -> ResponseEntity.notFound().build()));
+            return result;
+        }
+        result.onTimeout(() -> result.setResult(ResponseEntity.ok(current.get())));
+        result.onCompletion(() -> change.cancel(false));
+        change.thenRun(() -> result.setResult(findReservationStatusInfo(reservationId).map(ResponseEntity::ok).orElseGet(() -> ResponseEntity.notFound().build())));
+        return result;
+    }
+
+    private Optional<ReservationStatusInfo> findReservationStatusInfo(String reservationId) {
+        return ticketReservationRepository.findOptionalStatusAndValidationById(reservationId)
+            .map(status -> new ReservationStatusInfo(status.getStatus(), Boolean.TRUE.equals(status.getValidated())));
+    }
+
 
     @DeleteMapping("/event/{eventName}/reservation/{reservationId}")
     public ResponseEntity<Boolean> cancelPendingReservation(@PathVariable("eventName") String eventName,
@@ -427,7 +469,7 @@ public class ReservationApiV2Controller {
         }
 
         try {
-            Optional<VatDetail> vatDetail = eventRepository.findOptionalByShortName(eventName)
+            Optional<VatDetail> vatDetail = eventSnapshotCache.findEventByShortName(eventName)
                 .flatMap(e -> ticketReservationRepository.findOptionalReservationById(reservationId).map(r -> Pair.of(e, r)))
                 .filter(e -> EnumSet.of(INCLUDED, NOT_INCLUDED).contains(e.getKey().getVatStatus()))
                 .filter(e -> vatChecker.isReverseChargeEnabledFor(e.getKey()))
@@ -456,13 +498,13 @@ public class ReservationApiV2Controller {
     }
 
     private Optional<Pair<Event, TicketReservation>> getReservation(String eventName, String reservationId) {
-        return eventRepository.findOptionalByShortName(eventName)
+        return eventSnapshotCache.findEventByShortName(eventName)
             .flatMap(event -> ticketReservationManager.findById(reservationId)
                 .flatMap(reservation -> Optional.of(Pair.of(event, reservation))));
     }
 
     private Optional<Pair<Event, TicketReservation>> getReservationWithPendingStatus(String eventName, String reservationId) {
-        return eventRepository.findOptionalByShortName(eventName)
+        return eventSnapshotCache.findEventByShortName(eventName)
             .flatMap(event -> ticketReservationManager.findById(reservationId)
                 .filter(reservation -> reservation.getStatus() == TicketReservation.TicketReservationStatus.PENDING)
                 .flatMap(reservation -> Optional.of(Pair.of(event, reservation))));
@@ -475,7 +517,7 @@ public class ReservationApiV2Controller {
 
 
 
-        var res = eventRepository.findOptionalByShortName(eventName).map(event ->
+        var res = eventSnapshotCache.findEventByShortName(eventName).map(event ->
             ticketReservationManager.findById(reservationId).map(ticketReservation -> {
                 ticketReservationManager.sendConfirmationEmail(event, ticketReservation, LocaleUtil.forLanguageTag(lang, event));
                 return true;
@@ -511,7 +553,7 @@ public class ReservationApiV2Controller {
 
 
 
-        return eventRepository.findOptionalByShortName(eventName).map(event -> {
+        return eventSnapshotCache.findEventByShortName(eventName).map(event -> {
                 if(canAccessReceiptOrInvoice(event, authentication)) {
                     return ticketReservationManager.findById(reservationId).map(ticketReservation -> with.apply(event, ticketReservation)).orElse(notFound);
                 } else {
@@ -543,7 +585,7 @@ public class ReservationApiV2Controller {
                 FileUtil.sendHeaders(response, event.getShortName(), reservation.getId(), forInvoice ? "invoice" : "receipt");
                 TemplateProcessor.buildReceiptOrInvoicePdf(event, fileUploadManager, LocaleUtil.forLanguageTag(reservation.getUserLanguage()),
                     templateManager, billingModel, forInvoice ? TemplateResource.INVOICE_PDF : TemplateResource.RECEIPT_PDF,
-                    extensionManager, response.getOutputStream());
+                    pdfRenderingService, response.getOutputStream());
                 return ResponseEntity.ok().build();
             } catch (IOException ioe) {
                 return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
@@ -591,7 +633,7 @@ public class ReservationApiV2Controller {
     }
 
     private Optional<Pair<Event, TicketReservation>> getEventReservationPair(String eventName, String reservationId) {
-        return eventRepository.findOptionalByShortName(eventName)
+        return eventSnapshotCache.findEventByShortName(eventName)
             .map(event -> Pair.of(event, ticketReservationManager.findById(reservationId)))
             .filter(pair -> pair.getRight().isPresent())
             .map(pair -> Pair.of(pair.getLeft(), pair.getRight().orElseThrow()));
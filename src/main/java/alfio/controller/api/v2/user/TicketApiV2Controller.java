@@ -21,8 +21,8 @@ import alfio.controller.api.v2.model.TicketInfo;
 import alfio.controller.api.v2.model.ValidatedResponse;
 import alfio.controller.form.UpdateTicketOwnerForm;
 import alfio.controller.support.Formatters;
+import alfio.controller.support.PdfRenderingService;
 import alfio.controller.support.TemplateProcessor;
-import alfio.manager.ExtensionManager;
 import alfio.manager.FileUploadManager;
 import alfio.manager.NotificationManager;
 import alfio.manager.TicketReservationManager;
@@ -61,7 +61,7 @@ public class TicketApiV2Controller {
     private final TicketReservationManager ticketReservationManager;
     private final TicketCategoryRepository ticketCategoryRepository;
     private final MessageSourceManager messageSourceManager;
-    private final ExtensionManager extensionManager;
+    private final PdfRenderingService pdfRenderingService;
     private final FileUploadManager fileUploadManager;
     private final OrganizationRepository organizationRepository;
     private final TemplateManager templateManager;
@@ -112,7 +112,7 @@ public class TicketApiV2Controller {
                 TemplateProcessor.renderPDFTicket(LocaleUtil.getTicketLanguage(ticket, LocaleUtil.forLanguageTag(ticketReservation.getUserLanguage(), event)), event, ticketReservation,
                     ticket, ticketCategory, organization,
                     templateManager, fileUploadManager,
-                    reservationID, os, ticketHelper.buildRetrieveFieldValuesFunction(), extensionManager);
+                    reservationID, os, ticketHelper.buildRetrieveFieldValuesFunction(), pdfRenderingService);
             } catch (IOException ioe) {
                 throw new IllegalStateException(ioe);
             }
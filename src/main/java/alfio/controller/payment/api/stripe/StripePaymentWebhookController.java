@@ -16,7 +16,7 @@
  */
 package alfio.controller.payment.api.stripe;
 
-import alfio.manager.TicketReservationManager;
+import alfio.manager.PaymentWebhookInboxManager;
 import alfio.model.transaction.PaymentMethod;
 import alfio.util.RequestUtils;
 import lombok.AllArgsConstructor;
@@ -34,15 +34,15 @@ import javax.servlet.http.HttpServletRequest;
 @AllArgsConstructor
 public class StripePaymentWebhookController {
 
-    private final TicketReservationManager ticketReservationManager;
+    private final PaymentWebhookInboxManager paymentWebhookInboxManager;
 
     @PostMapping("/api/payment/webhook/stripe/payment")
     public ResponseEntity<String> receivePaymentConfirmation(@RequestHeader(value = "Stripe-Signature") String stripeSignature,
                                                            HttpServletRequest request) {
         return RequestUtils.readRequest(request)
             .map(content -> {
-                var result = ticketReservationManager.processTransactionWebhook(content, stripeSignature, PaymentMethod.CREDIT_CARD);
-                if(result.isSuccessful()) {
+                var result = paymentWebhookInboxManager.receive(content, stripeSignature, PaymentMethod.CREDIT_CARD);
+                if(result.isAccepted()) {
                     return ResponseEntity.ok("OK");
                 } else if(result.isError()) {
                     return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(result.getReason());
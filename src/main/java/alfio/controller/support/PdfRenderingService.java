@@ -0,0 +1,185 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.controller.support;
+
+import alfio.manager.ExtensionManager;
+import alfio.manager.FileUploadManager;
+import alfio.manager.support.MetricsProvider;
+import alfio.model.Event;
+import alfio.util.TemplateResource;
+import ch.digitalfondue.jfiveparse.Parser;
+import ch.digitalfondue.jfiveparse.W3CDom;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.openhtmltopdf.extend.FSStream;
+import com.openhtmltopdf.extend.FSStreamFactory;
+import com.openhtmltopdf.extend.FSSupplier;
+import com.openhtmltopdf.pdfboxout.PdfBoxRenderer;
+import com.openhtmltopdf.pdfboxout.PdfRendererBuilder;
+import lombok.extern.log4j.Log4j2;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.springframework.core.env.Environment;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.stereotype.Component;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Renders HTML pages to PDF.
+ * <p>
+ * Rendering is CPU bound: at most {@code alfio.pdf.max-concurrent-renders} (default: available processors) documents
+ * are rendered at the same time, the other callers wait for a free slot. The default font is read once and kept in
+ * memory; openhtmltopdf binds the parsed font to the {@link PDDocument}, so only its data can be shared across
+ * documents. Decoded event logos are cached by blob id.
+ */
+@Component
+@Log4j2
+public class PdfRenderingService implements MetricsProvider {
+
+    private static final String DEJA_VU_SANS = "/alfio/font/DejaVuSansMono.ttf";
+
+    private final ExtensionManager extensionManager;
+    private final Semaphore renderPermits;
+    private final byte[] defaultFont;
+    // blob ids are content digests, so an entry can never become stale
+    private final Cache<String, TemplateResource.ImageData> imageCache = Caffeine.newBuilder()
+        .maximumSize(200)
+        .expireAfterAccess(1, TimeUnit.HOURS)
+        .build();
+    private final AtomicLong renderedDocuments = new AtomicLong();
+    private final AtomicLong renderTimeNanos = new AtomicLong();
+
+    public PdfRenderingService(ExtensionManager extensionManager, Environment environment) {
+        this.extensionManager = extensionManager;
+        this.renderPermits = new Semaphore(Math.max(1, environment.getProperty("alfio.pdf.max-concurrent-renders", Integer.class,
+            Runtime.getRuntime().availableProcessors())), true);
+        this.defaultFont = loadDefaultFont();
+    }
+
+    public void renderToPdf(String page, OutputStream os, Event event) throws IOException {
+        if(extensionManager.handlePdfTransformation(page, event, os)) {
+            return;
+        }
+        try {
+            renderPermits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while waiting for a free PDF renderer", e);
+        }
+        try {
+            long start = System.nanoTime();
+            renderPdf(page, os);
+            renderTimeNanos.addAndGet(System.nanoTime() - start);
+            renderedDocuments.incrementAndGet();
+        } finally {
+            renderPermits.release();
+        }
+    }
+
+    public Optional<TemplateResource.ImageData> extractImageModel(Event event, FileUploadManager fileUploadManager) {
+        if(!event.getFileBlobIdIsPresent() || event.getFileBlobId() == null) {
+            return TemplateProcessor.extractImageModel(event, fileUploadManager);
+        }
+        return Optional.ofNullable(imageCache.get(event.getFileBlobId(), id -> TemplateProcessor.extractImageModel(event, fileUploadManager).orElse(null)));
+    }
+
+    private void renderPdf(String page, OutputStream os) throws IOException {
+        PdfRendererBuilder builder = new PdfRendererBuilder();
+        PDDocument doc = new PDDocument(MemoryUsageSetting.setupTempFileOnly());
+        builder.usePDDocument(doc);
+        builder.toStream(os);
+        builder.useProtocolsStreamImplementation(new AlfioInternalFSStreamFactory(), "alfio-internal");
+        builder.useProtocolsStreamImplementation(new InvalidProtocolFSStreamFactory(), "http", "https", "file", "jar");
+        builder.useFastMode();
+
+        var parser = new Parser();
+
+        builder.withW3cDocument(W3CDom.toW3CDocument(parser.parse(page)), "");
+        try (PdfBoxRenderer renderer = builder.buildPdfRenderer()) {
+            if (defaultFont != null) {
+                FSSupplier<InputStream> fontData = () -> new ByteArrayInputStream(defaultFont);
+                renderer.getFontResolver().addFont(fontData, "DejaVu Sans Mono", null, null, false);
+            }
+            renderer.layout();
+            renderer.createPDF();
+        }
+    }
+
+    private static byte[] loadDefaultFont() {
+        try (InputStream is = new ClassPathResource(DEJA_VU_SANS).getInputStream()) {
+            return is.readAllBytes();
+        } catch (IOException e) {
+            log.warn("error while loading DejaVuSansMono.ttf font", e);
+            return null;
+        }
+    }
+
+    @Override
+    public String getMetricsGroup() {
+        return "pdf-rendering";
+    }
+
+    @Override
+    public Map<String, Number> getMetrics() {
+        long rendered = renderedDocuments.get();
+        return Map.of(
+            "rendered", rendered,
+            "averageRenderMillis", rendered == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(renderTimeNanos.get()) / rendered,
+            "availablePermits", renderPermits.availablePermits(),
+            "waitingCallers", renderPermits.getQueueLength(),
+            "cachedImages", imageCache.estimatedSize()
+        );
+    }
+
+    private static class AlfioInternalFSStreamFactory implements FSStreamFactory {
+
+        @Override
+        public FSStream getUrl(String url) {
+            return new FSStream() {
+                @Override
+                public InputStream getStream() {
+                    String urlWithoutProtocol = url.substring("alfio-internal:/".length());
+                    try {
+                        return new ClassPathResource("/alfio/font/" + urlWithoutProtocol).getInputStream();
+                    } catch (IOException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+
+                @Override
+                public Reader getReader() {
+                    return new InputStreamReader(getStream(), StandardCharsets.UTF_8);
+                }
+            };
+        }
+    }
+
+    private static class InvalidProtocolFSStreamFactory implements FSStreamFactory {
+
+        @Override
+        public FSStream getUrl(String url) {
+            throw new IllegalStateException(new TemplateProcessor.TemplateAccessException("Protocol for resource '" + url + "' is not supported"));
+        }
+    }
+}
@@ -16,29 +16,14 @@
  */
 package alfio.controller.support;
 
-import alfio.manager.ExtensionManager;
 import alfio.manager.FileUploadManager;
 import alfio.manager.support.PartialTicketTextGenerator;
 import alfio.model.*;
 import alfio.model.user.Organization;
 import alfio.util.TemplateManager;
 import alfio.util.TemplateResource;
-import ch.digitalfondue.jfiveparse.Parser;
-import ch.digitalfondue.jfiveparse.W3CDom;
-import com.github.benmanes.caffeine.cache.Cache;
-import com.github.benmanes.caffeine.cache.Caffeine;
-import com.github.benmanes.caffeine.cache.RemovalCause;
-import com.openhtmltopdf.extend.FSStream;
-import com.openhtmltopdf.extend.FSStreamFactory;
-import com.openhtmltopdf.pdfboxout.PdfBoxRenderer;
-import com.openhtmltopdf.pdfboxout.PdfRendererBuilder;
-import lombok.extern.log4j.Log4j2;
-import org.apache.pdfbox.io.MemoryUsageSetting;
-import org.apache.pdfbox.pdmodel.PDDocument;
-import org.springframework.core.io.ClassPathResource;
 
 import java.io.*;
-import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -46,21 +31,10 @@ import java.util.Optional;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
-@Log4j2
 public final class TemplateProcessor {
 
-    private static final Cache<String, File> FONT_CACHE = Caffeine.newBuilder()
-        .removalListener((String key, File value, RemovalCause cause) -> {
-            if(value != null) {
-                boolean result = value.delete();
-                log.trace("value {} deleted: {}", key, result);
-            }
-        })
-        .build();
-
     private TemplateProcessor() {}
 
-
     public static PartialTicketTextGenerator buildPartialEmail(Event event,
                                                                Organization organization,
                                                                TicketReservation ticketReservation,
@@ -97,91 +71,14 @@ public final class TemplateProcessor {
                                        String reservationID,
                                        OutputStream os,
                                        Function<Ticket, List<TicketFieldConfigurationDescriptionAndValue>> retrieveFieldValues,
-                                       ExtensionManager extensionManager) throws IOException {
-        Optional<TemplateResource.ImageData> imageData = extractImageModel(event, fileUploadManager);
+                                       PdfRenderingService pdfRenderingService) throws IOException {
+        Optional<TemplateResource.ImageData> imageData = pdfRenderingService.extractImageModel(event, fileUploadManager);
         List<TicketFieldConfigurationDescriptionAndValue> fields = retrieveFieldValues.apply(ticket);
         Map<String, Object> model = TemplateResource.buildModelForTicketPDF(organization, event, ticketReservation, ticketCategory, ticket, imageData, reservationID,
             fields.stream().collect(Collectors.toMap(TicketFieldConfigurationDescriptionAndValue::getName, TicketFieldConfigurationDescriptionAndValue::getValueDescription)));
 
         String page = templateManager.renderTemplate(event, TemplateResource.TICKET_PDF, model, language);
-        renderToPdf(page, os, extensionManager, event);
-    }
-
-    public static void renderToPdf(String page, OutputStream os, ExtensionManager extensionManager, Event event) throws IOException {
-
-        if(extensionManager.handlePdfTransformation(page, event, os)) {
-            return;
-        }
-        PdfRendererBuilder builder = new PdfRendererBuilder();
-        PDDocument doc = new PDDocument(MemoryUsageSetting.setupTempFileOnly());
-        builder.usePDDocument(doc);
-        builder.toStream(os);
-        builder.useProtocolsStreamImplementation(new AlfioInternalFSStreamFactory(), "alfio-internal");
-        builder.useProtocolsStreamImplementation(new InvalidProtocolFSStreamFactory(), "http", "https", "file", "jar");
-        builder.useFastMode();
-
-        var parser = new Parser();
-
-        builder.withW3cDocument(W3CDom.toW3CDocument(parser.parse(page)), "");
-        try (PdfBoxRenderer renderer = builder.buildPdfRenderer()) {
-            File defaultFont = FONT_CACHE.get(DEJA_VU_SANS, LOAD_DEJA_VU_SANS_FONT);
-            if (!defaultFont.exists()) { // fallback, the cached font will not be shared though
-                FONT_CACHE.invalidate(DEJA_VU_SANS);
-                defaultFont = LOAD_DEJA_VU_SANS_FONT.apply(DEJA_VU_SANS);
-            }
-            if (defaultFont != null) {
-                renderer.getFontResolver().addFont(defaultFont, "DejaVu Sans Mono", null, null, false);
-            }
-            renderer.layout();
-            renderer.createPDF();
-        }
-    }
-
-    private static final String DEJA_VU_SANS = "/alfio/font/DejaVuSansMono.ttf";
-
-    private static final Function<String, File> LOAD_DEJA_VU_SANS_FONT = classPathResource -> {
-        try {
-            File cachedFile = File.createTempFile("font-cache", ".tmp");
-            cachedFile.deleteOnExit();
-            try (InputStream is = new ClassPathResource(DEJA_VU_SANS).getInputStream(); OutputStream tmpOs = new FileOutputStream(cachedFile)) {
-                is.transferTo(tmpOs);
-            }
-            return cachedFile;
-        } catch (IOException e) {
-            log.warn("error while loading DejaVuSansMono.ttf font", e);
-            return null;
-        }
-    };
-
-    private static class AlfioInternalFSStreamFactory implements FSStreamFactory {
-
-        @Override
-        public FSStream getUrl(String url) {
-            return new FSStream() {
-                @Override
-                public InputStream getStream() {
-                    String urlWithoutProtocol = url.substring("alfio-internal:/".length());
-                    try {
-                        return new ClassPathResource("/alfio/font/" + urlWithoutProtocol).getInputStream();
-                    } catch (IOException e) {
-                        throw new IllegalStateException(e);
-                    }
-                }
-
-                @Override
-                public Reader getReader() {
-                    return new InputStreamReader(getStream(), StandardCharsets.UTF_8);
-                }
-            };
-        }
-    }
-
-    private static class InvalidProtocolFSStreamFactory implements FSStreamFactory {
-
-        @Override
-        public FSStream getUrl(String url) {
-            throw new IllegalStateException(new TemplateAccessException("Protocol for resource '" + url + "' is not supported"));
-        }
+        pdfRenderingService.renderToPdf(page, os, event);
     }
 
     public static class TemplateAccessException  extends IllegalStateException {
@@ -208,19 +105,25 @@ public final class TemplateProcessor {
                                                    TemplateManager templateManager,
                                                    Map<String, Object> model,
                                                    TemplateResource templateResource,
-                                                   ExtensionManager extensionManager,
+                                                   PdfRenderingService pdfRenderingService,
                                                    OutputStream os) {
         try {
-            String html = renderReceiptOrInvoicePdfTemplate(event, fileUploadManager, language, templateManager, model, templateResource);
-            renderToPdf(html, os, extensionManager, event);
+            String html = renderReceiptOrInvoicePdfTemplate(event, fileUploadManager, language, templateManager, model, templateResource, pdfRenderingService);
+            pdfRenderingService.renderToPdf(html, os, event);
             return true;
         } catch (IOException ioe) {
             return false;
         }
     }
 
-    public static String renderReceiptOrInvoicePdfTemplate(Event event, FileUploadManager fileUploadManager, Locale language, TemplateManager templateManager, Map<String, Object> model, TemplateResource templateResource) {
-        extractImageModel(event, fileUploadManager).ifPresent(imageData -> {
+    public static String renderReceiptOrInvoicePdfTemplate(Event event,
+                                                           FileUploadManager fileUploadManager,
+                                                           Locale language,
+                                                           TemplateManager templateManager,
+                                                           Map<String, Object> model,
+                                                           TemplateResource templateResource,
+                                                           PdfRenderingService pdfRenderingService) {
+        pdfRenderingService.extractImageModel(event, fileUploadManager).ifPresent(imageData -> {
             model.put("eventImage", imageData.getEventImage());
             model.put("imageWidth", imageData.getImageWidth());
             model.put("imageHeight", imageData.getImageHeight());
@@ -228,14 +131,14 @@ public final class TemplateProcessor {
         return templateManager.renderTemplate(event, templateResource, model, language);
     }
 
-    public static Optional<byte[]> buildBillingDocumentPdf(BillingDocument.Type documentType, Event event, FileUploadManager fileUploadManager, Locale language, TemplateManager templateManager, Map<String, Object> model, ExtensionManager extensionManager) {
+    public static Optional<byte[]> buildBillingDocumentPdf(BillingDocument.Type documentType, Event event, FileUploadManager fileUploadManager, Locale language, TemplateManager templateManager, Map<String, Object> model, PdfRenderingService pdfRenderingService) {
         switch (documentType) {
             case INVOICE:
-                return buildInvoicePdf(event, fileUploadManager, language, templateManager, model, extensionManager);
+                return buildInvoicePdf(event, fileUploadManager, language, templateManager, model, pdfRenderingService);
             case RECEIPT:
-                return buildReceiptPdf(event, fileUploadManager, language, templateManager, model, extensionManager);
+                return buildReceiptPdf(event, fileUploadManager, language, templateManager, model, pdfRenderingService);
             case CREDIT_NOTE:
-                return buildCreditNotePdf(event, fileUploadManager, language, templateManager, model, extensionManager);
+                return buildCreditNotePdf(event, fileUploadManager, language, templateManager, model, pdfRenderingService);
             default:
                 throw new IllegalStateException(documentType + " not supported");
         }
@@ -247,9 +150,9 @@ public final class TemplateProcessor {
                                               TemplateManager templateManager,
                                               Map<String, Object> model,
                                               TemplateResource templateResource,
-                                              ExtensionManager extensionManager) {
+                                              PdfRenderingService pdfRenderingService) {
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        boolean res = buildReceiptOrInvoicePdf(event, fileUploadManager, language, templateManager, model, templateResource, extensionManager, baos);
+        boolean res = buildReceiptOrInvoicePdf(event, fileUploadManager, language, templateManager, model, templateResource, pdfRenderingService, baos);
         return res ? Optional.of(baos.toByteArray()) : Optional.empty();
     }
 
@@ -258,8 +161,8 @@ public final class TemplateProcessor {
                                                    Locale language,
                                                    TemplateManager templateManager,
                                                    Map<String, Object> model,
-                                                   ExtensionManager extensionManager) {
-        return buildFrom(event, fileUploadManager, language, templateManager, model, TemplateResource.RECEIPT_PDF, extensionManager);
+                                                   PdfRenderingService pdfRenderingService) {
+        return buildFrom(event, fileUploadManager, language, templateManager, model, TemplateResource.RECEIPT_PDF, pdfRenderingService);
     }
 
     public static Optional<byte[]> buildInvoicePdf(Event event,
@@ -267,8 +170,8 @@ public final class TemplateProcessor {
                                                    Locale language,
                                                    TemplateManager templateManager,
                                                    Map<String, Object> model,
-                                                   ExtensionManager extensionManager) {
-        return buildFrom(event, fileUploadManager, language, templateManager, model, TemplateResource.INVOICE_PDF, extensionManager);
+                                                   PdfRenderingService pdfRenderingService) {
+        return buildFrom(event, fileUploadManager, language, templateManager, model, TemplateResource.INVOICE_PDF, pdfRenderingService);
     }
 
     public static Optional<byte[]> buildCreditNotePdf(Event event,
@@ -276,7 +179,7 @@ public final class TemplateProcessor {
                                                       Locale language,
                                                       TemplateManager templateManager,
                                                       Map<String, Object> model,
-                                                      ExtensionManager extensionManager) {
-        return buildFrom(event, fileUploadManager, language, templateManager, model, TemplateResource.CREDIT_NOTE_PDF, extensionManager);
+                                                      PdfRenderingService pdfRenderingService) {
+        return buildFrom(event, fileUploadManager, language, templateManager, model, TemplateResource.CREDIT_NOTE_PDF, pdfRenderingService);
     }
 }
@@ -0,0 +1,111 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.extension;
+
+import alfio.manager.support.MetricsProvider;
+import alfio.manager.system.ClusterAwareCache;
+import alfio.manager.system.ClusterNotificationManager;
+import alfio.model.ExtensionSupport.NameAndValue;
+import alfio.model.ExtensionSupport.ScriptPathNameHash;
+import alfio.repository.ExtensionRepository;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * <p>In-memory dispatch table for the extensions: for each (event type, base path, async) it holds the active
+ * scripts, with the parameters already merged for the given path and the list of the missing mandatory parameters.</p>
+ *
+ * <p>The whole table is evicted, on all nodes, every time an extension or one of its settings is modified.
+ * An empty list is cached as well, so dispatching an event without extensions does not hit the database.</p>
+ */
+@Component
+public class ExtensionDispatchTable implements MetricsProvider {
+
+    private final ClusterAwareCache<DispatchKey, List<ResolvedScript>> cache;
+    private final ExtensionRepository extensionRepository;
+
+    public ExtensionDispatchTable(ExtensionRepository extensionRepository,
+                                  ClusterNotificationManager clusterNotificationManager,
+                                  Environment environment) {
+        this.extensionRepository = extensionRepository;
+        this.cache = new ClusterAwareCache<>("extension-dispatch",
+            Caffeine.newBuilder().maximumSize(10_000).expireAfterWrite(1, TimeUnit.HOURS),
+            clusterNotificationManager,
+            environment,
+            payload -> null);
+    }
+
+    List<ResolvedScript> getScripts(String event, String basePath, boolean async) {
+        return cache.get(new DispatchKey(event, basePath, async), this::resolve);
+    }
+
+    void invalidate() {
+        cache.invalidateAll();
+    }
+
+    private List<ResolvedScript> resolve(DispatchKey key) {
+        // fetch all active scripts
+        // to handle override:
+        // if there are active tree scripts with the same name
+        // with path:
+        //  - -org-event
+        //  - -org
+        //  - -
+        // the one with the longest path win
+        Set<String> paths = ExtensionService.generatePossiblePath(key.basePath);
+        return extensionRepository.findActive(paths, key.async, key.event).stream()
+            .map(script -> {
+                Map<String, String> nameAndValues = extensionRepository.findParametersForScript(script.getName(), script.getPath(), paths)
+                    .stream()
+                    .collect(Collectors.toMap(NameAndValue::getName, NameAndValue::getValue));
+                Set<String> missing = new TreeSet<>(extensionRepository.findMandatoryParametersForScript(script.getName(), script.getPath()));
+                missing.removeAll(nameAndValues.keySet());
+                return new ResolvedScript(script, Collections.unmodifiableMap(nameAndValues), Collections.unmodifiableSet(missing));
+            })
+            .collect(Collectors.toUnmodifiableList());
+    }
+
+    @Override
+    public String getMetricsGroup() {
+        return cache.getMetricsGroup();
+    }
+
+    @Override
+    public Map<String, Number> getMetrics() {
+        return cache.getMetrics();
+    }
+
+    @Value
+    private static class DispatchKey {
+        String event;
+        String basePath;
+        boolean async;
+    }
+
+    @Value
+    static class ResolvedScript {
+        ScriptPathNameHash script;
+        Map<String, String> parameters;
+        Set<String> missingMandatoryParameters;
+    }
+}
@@ -0,0 +1,169 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.extension;
+
+import alfio.config.Initializer;
+import alfio.manager.support.MetricsProvider;
+import alfio.model.ExtensionLog;
+import alfio.repository.ExtensionLogRepository;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.core.env.Environment;
+import org.springframework.core.env.Profiles;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.DefaultTransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.CustomizableThreadFactory;
+
+import javax.annotation.PreDestroy;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Writes the extension_log rows. If {@code alfio.extension.log.buffered} is {@code true} (default, except in the
+ * integration-test profile) the rows are collected in a bounded queue and written in batches by a background thread,
+ * every {@code alfio.extension.log.flush-interval-ms} or as soon as a full batch is available.</p>
+ *
+ * <p>Rows which do not fit in the queue ({@code alfio.extension.log.max-pending}) or cannot be written are discarded
+ * and counted. The queue is flushed synchronously on shutdown.</p>
+ */
+@Component
+@Log4j2
+public class ExtensionLogWriter implements MetricsProvider {
+
+    private static final int MAX_BATCH_SIZE = 500;
+
+    private final boolean buffered;
+    private final ExtensionLogRepository extensionLogRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final BlockingQueue<MapSqlParameterSource> pending;
+    private final ScheduledExecutorService flushExecutor;
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong overflow = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong flushErrors = new AtomicLong();
+
+    public ExtensionLogWriter(ExtensionLogRepository extensionLogRepository,
+                              PlatformTransactionManager transactionManager,
+                              Environment environment) {
+        this.extensionLogRepository = extensionLogRepository;
+        // log rows must be written even if the caller's transaction is rolled back
+        this.transactionTemplate = new TransactionTemplate(transactionManager, new DefaultTransactionDefinition(TransactionDefinition.PROPAGATION_REQUIRES_NEW));
+        this.buffered = environment.getProperty("alfio.extension.log.buffered", Boolean.class,
+            !environment.acceptsProfiles(Profiles.of(Initializer.PROFILE_INTEGRATION_TEST)));
+        if(buffered) {
+            long flushInterval = environment.getProperty("alfio.extension.log.flush-interval-ms", Long.class, 1000L);
+            this.pending = new LinkedBlockingQueue<>(environment.getProperty("alfio.extension.log.max-pending", Integer.class, 10_000));
+            this.flushExecutor = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("alfio-extension-log-"));
+            this.flushExecutor.scheduleWithFixedDelay(this::flushSafely, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+        } else {
+            this.pending = null;
+            this.flushExecutor = null;
+        }
+    }
+
+    void write(String effectivePath, String path, String name, String description, ExtensionLog.Type type) {
+        if(!buffered) {
+            transactionTemplate.execute(s -> extensionLogRepository.insert(effectivePath, path, name, description, type));
+            return;
+        }
+        var params = new MapSqlParameterSource("effectivePath", effectivePath)
+            .addValue("path", path)
+            .addValue("name", name)
+            .addValue("description", description)
+            .addValue("type", type.name())
+            .addValue("eventTs", new Timestamp(System.currentTimeMillis()), Types.TIMESTAMP);
+        if(!pending.offer(params)) {
+            if(overflow.incrementAndGet() % 1000 == 1) {
+                log.warn("extension log queue is full, discarding rows. Discarded so far: {}", overflow.get());
+            }
+        } else if(pending.size() >= MAX_BATCH_SIZE && flushRequested.compareAndSet(false, true)) {
+            try {
+                flushExecutor.execute(this::flushSafely);
+            } catch (RejectedExecutionException e) {
+                // shutting down, the queue will be flushed by shutdown()
+                flushRequested.set(false);
+            }
+        }
+    }
+
+    private void flushSafely() {
+        try {
+            flush();
+        } catch (Exception e) {
+            log.warn("error while writing extension log rows", e);
+        }
+    }
+
+    private synchronized void flush() {
+        flushRequested.set(false);
+        List<MapSqlParameterSource> batch = new ArrayList<>(MAX_BATCH_SIZE);
+        while(pending.drainTo(batch, MAX_BATCH_SIZE) > 0) {
+            try {
+                transactionTemplate.execute(s -> {
+                    extensionLogRepository.bulkInsert(batch.toArray(MapSqlParameterSource[]::new));
+                    return null;
+                });
+                written.addAndGet(batch.size());
+            } catch (RuntimeException e) {
+                flushErrors.incrementAndGet();
+                dropped.addAndGet(batch.size());
+                log.warn("cannot write {} extension log rows, discarding them", batch.size(), e);
+            }
+            batch.clear();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if(flushExecutor != null) {
+            flushExecutor.shutdown();
+            try {
+                flushExecutor.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            flushSafely();
+        }
+    }
+
+    @Override
+    public String getMetricsGroup() {
+        return "extension-log";
+    }
+
+    @Override
+    public Map<String, Number> getMetrics() {
+        return Map.of(
+            "buffered", buffered ? 1 : 0,
+            "pending", buffered ? pending.size() : 0,
+            "written", written.get(),
+            "overflow", overflow.get(),
+            "dropped", dropped.get(),
+            "flushErrors", flushErrors.get()
+        );
+    }
+}
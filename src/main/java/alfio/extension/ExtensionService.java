@@ -31,20 +31,19 @@ import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.Validate;
 import org.apache.commons.lang3.tuple.Pair;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.core.env.StandardEnvironment;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.PlatformTransactionManager;
-import org.springframework.transaction.TransactionDefinition;
 import org.springframework.transaction.annotation.Transactional;
-import org.springframework.transaction.support.DefaultTransactionDefinition;
-import org.springframework.transaction.support.TransactionCallback;
-import org.springframework.transaction.support.TransactionTemplate;
 
 import java.util.*;
 import java.util.stream.Collectors;
 
 @Service
 @Log4j2
-@AllArgsConstructor
 public class ExtensionService {
 
     private final ScriptingExecutionService scriptingExecutionService;
@@ -53,7 +52,42 @@ public class ExtensionService {
 
     private final ExtensionLogRepository extensionLogRepository;
 
-    private final PlatformTransactionManager platformTransactionManager;
+    private final ExtensionLogWriter extensionLogWriter;
+
+    private final ExtensionDispatchTable extensionDispatchTable;
+
+    @Autowired
+    public ExtensionService(ScriptingExecutionService scriptingExecutionService,
+                            ExtensionRepository extensionRepository,
+                            ExtensionLogRepository extensionLogRepository,
+                            ExtensionLogWriter extensionLogWriter,
+                            ExtensionDispatchTable extensionDispatchTable) {
+        this.scriptingExecutionService = scriptingExecutionService;
+        this.extensionRepository = extensionRepository;
+        this.extensionLogRepository = extensionLogRepository;
+        this.extensionLogWriter = extensionLogWriter;
+        this.extensionDispatchTable = extensionDispatchTable;
+    }
+
+    /**
+     * For use outside of the application context, e.g. in the database migrations: log rows are written
+     * synchronously, and the dispatch table is not cached.
+     */
+    public ExtensionService(ScriptingExecutionService scriptingExecutionService,
+                            ExtensionRepository extensionRepository,
+                            ExtensionLogRepository extensionLogRepository,
+                            PlatformTransactionManager transactionManager) {
+        this(scriptingExecutionService, extensionRepository, extensionLogRepository,
+            new ExtensionLogWriter(extensionLogRepository, transactionManager, standaloneEnvironment()),
+            new ExtensionDispatchTable(extensionRepository, null, standaloneEnvironment()));
+    }
+
+    private static Environment standaloneEnvironment() {
+        var environment = new StandardEnvironment();
+        environment.getPropertySources().addFirst(new MapPropertySource("standalone",
+            Map.<String, Object>of("alfio.cache.extension-dispatch.enabled", false, "alfio.extension.log.buffered", false)));
+        return environment;
+    }
 
     private static final String PRELOAD_SCRIPT = "\nvar HashMap = Java.type('java.util.HashMap');\n" +
         "var ExtensionUtils = Java.type('alfio.extension.ExtensionUtils');\n";
@@ -62,36 +96,29 @@ public class ExtensionService {
     @AllArgsConstructor
     private static final class ExtensionLoggerImpl implements ExtensionLogger {
 
-        private final ExtensionLogRepository extensionLogRepository;
-        private final PlatformTransactionManager platformTransactionManager;
+        private final ExtensionLogWriter extensionLogWriter;
         private final String effectivePath;
         private final String path;
         private final String name;
 
         @Override
         public void logWarning(String msg) {
-            executeInNewTransaction(s -> extensionLogRepository.insert(effectivePath, path, name, msg, ExtensionLog.Type.WARNING));
+            extensionLogWriter.write(effectivePath, path, name, msg, ExtensionLog.Type.WARNING);
         }
 
         @Override
         public void logSuccess(String msg) {
-            executeInNewTransaction(s -> extensionLogRepository.insert(effectivePath, path, name, msg, ExtensionLog.Type.SUCCESS));
+            extensionLogWriter.write(effectivePath, path, name, msg, ExtensionLog.Type.SUCCESS);
         }
 
         @Override
         public void logError(String msg) {
-            executeInNewTransaction(s -> extensionLogRepository.insert(effectivePath, path, name, msg, ExtensionLog.Type.ERROR));
+            extensionLogWriter.write(effectivePath, path, name, msg, ExtensionLog.Type.ERROR);
         }
 
         @Override
         public void logInfo(String msg) {
-            executeInNewTransaction(s -> extensionLogRepository.insert(effectivePath, path, name, msg, ExtensionLog.Type.INFO));
-        }
-
-        private void executeInNewTransaction(TransactionCallback<Integer> t) {
-            DefaultTransactionDefinition definition = new DefaultTransactionDefinition(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
-            TransactionTemplate template = new TransactionTemplate(platformTransactionManager, definition);
-            template.execute(t);
+            extensionLogWriter.write(effectivePath, path, name, msg, ExtensionLog.Type.INFO);
         }
     }
 
@@ -150,6 +177,7 @@ public class ExtensionService {
                 }
             }
         }
+        extensionDispatchTable.invalidate();
     }
 
     public List<ExtensionParameterMetadataAndValue> getConfigurationParametersFor(String basePath, String pathPattern, String configurationLevel) {
@@ -176,6 +204,7 @@ public class ExtensionService {
     @Transactional
     public void deleteSettingValue(int id, String path) {
         extensionRepository.deleteSettingValue(id, path);
+        extensionDispatchTable.invalidate();
     }
 
     private void deleteAndInsertSetting(String level, String path, List<ExtensionMetadataValue> toUpdate) {
@@ -187,17 +216,20 @@ public class ExtensionService {
         for (ExtensionMetadataValue v : filtered) {
             extensionRepository.insertSettingValue(v.getId(), path, v.getValue());
         }
+        extensionDispatchTable.invalidate();
     }
 
     @Transactional
     public void toggle(String path, String name, boolean status) {
         extensionRepository.toggle(path, name, status);
+        extensionDispatchTable.invalidate();
     }
 
     @Transactional
     public void delete(String path, String name) {
         extensionRepository.deleteEventsForPath(path, name);
         extensionRepository.deleteScriptForPath(path, name);
+        extensionDispatchTable.invalidate();
     }
 
     @Transactional(readOnly = true)
@@ -217,76 +249,61 @@ public class ExtensionService {
     }
 
     public <T> T executeScriptsForEvent(String event, String basePath, Map<String, Object> payload, Class<T> clazz) {
-        List<ScriptPathNameHash> activePaths = getActiveScriptsForEvent(event, basePath, false);
+        List<ExtensionDispatchTable.ResolvedScript> activeScripts = extensionDispatchTable.getScripts(event, basePath, false);
         T res = null;
+        if(activeScripts.isEmpty()) {
+            return res;
+        }
         Map<String, Object> input = new HashMap<>(payload);
         input.put("extensionEvent", event);
         input.put("output", null);
-        for (ScriptPathNameHash activePath : activePaths) {
+        for (ExtensionDispatchTable.ResolvedScript activeScript : activeScripts) {
+            ScriptPathNameHash activePath = activeScript.getScript();
             String path = activePath.getPath();
             String name = activePath.getName();
-            Pair<Set<String>, Map<String, Object>> params = addExtensionParameters(input, basePath, activePath);
-            input = params.getRight();
-            ExtensionLogger extLogger = new ExtensionLoggerImpl(extensionLogRepository, platformTransactionManager, basePath, path, name);
+            input = addExtensionParameters(input, activeScript);
+            ExtensionLogger extLogger = new ExtensionLoggerImpl(extensionLogWriter, basePath, path, name);
 
-            if(params.getLeft().isEmpty()) {
-                res = scriptingExecutionService.executeScript(name, activePath.getHash(),
+            if(activeScript.getMissingMandatoryParameters().isEmpty()) {
+                res = scriptingExecutionService.executeScript(path, name, activePath.getHash(),
                     () -> PRELOAD_SCRIPT + getScript(path, name)+"\n;GSON.fromJson(JSON.stringify(executeScript(extensionEvent)), returnClass);", input, clazz, extLogger);
                 input.put("output", res);
             } else {
-                extLogger.logInfo("script not run, missing parameters: " + params.getLeft());
+                extLogger.logInfo("script not run, missing parameters: " + activeScript.getMissingMandatoryParameters());
             }
         }
         return res;
     }
 
     public void executeScriptAsync(String event, String basePath, Map<String, Object> payload) {
-        List<ScriptPathNameHash> activePaths = getActiveScriptsForEvent(event, basePath, true);
+        List<ExtensionDispatchTable.ResolvedScript> activeScripts = extensionDispatchTable.getScripts(event, basePath, true);
+        if(activeScripts.isEmpty()) {
+            return;
+        }
         Map<String, Object> input = new HashMap<>(payload);
         input.put("extensionEvent", event);
-        for (ScriptPathNameHash activePath : activePaths) {
+        for (ExtensionDispatchTable.ResolvedScript activeScript : activeScripts) {
+            ScriptPathNameHash activePath = activeScript.getScript();
             String path = activePath.getPath();
             String name = activePath.getName();
-            Pair<Set<String>, Map<String, Object>> params = addExtensionParameters(input, basePath, activePath);
-            input = params.getRight();
-            ExtensionLogger extLogger = new ExtensionLoggerImpl(extensionLogRepository, platformTransactionManager, basePath, path, name);
+            input = addExtensionParameters(input, activeScript);
+            ExtensionLogger extLogger = new ExtensionLoggerImpl(extensionLogWriter, basePath, path, name);
 
-            if(params.getLeft().isEmpty()) {
+            if(activeScript.getMissingMandatoryParameters().isEmpty()) {
                 scriptingExecutionService.executeScriptAsync(path, name, activePath.getHash(), () -> PRELOAD_SCRIPT + getScript(path, name)+"\n;executeScript(extensionEvent);", input, extLogger);
             } else {
-                extLogger.logInfo("script not run, missing parameters: " + params.getLeft());
+                extLogger.logInfo("script not run, missing parameters: " + activeScript.getMissingMandatoryParameters());
             }
         }
     }
 
     /*
-    * Return a copy of the input with added parameters and a set of missing mandatory parameters, if any
+    * Return a copy of the input with the parameters resolved for the script
     * */
-    private Pair<Set<String>, Map<String,Object>> addExtensionParameters(Map<String, Object> input, String basePath, ScriptPathNameHash activePath) {
+    private static Map<String,Object> addExtensionParameters(Map<String, Object> input, ExtensionDispatchTable.ResolvedScript activeScript) {
         Map<String, Object> copy = new HashMap<>(input);
-        Map<String, String> nameAndValues = extensionRepository.findParametersForScript(activePath.getName(), activePath.getPath(), generatePossiblePath(basePath))
-            .stream()
-            .collect(Collectors.toMap(NameAndValue::getName, NameAndValue::getValue));
-
-        Set<String> mandatory = new HashSet<>(extensionRepository.findMandatoryParametersForScript(activePath.getName(), activePath.getPath()));
-
-        mandatory.removeAll(nameAndValues.keySet());
-
-        copy.put("extensionParameters", nameAndValues);
-        return Pair.of(mandatory, copy);
-    }
-
-    private List<ScriptPathNameHash> getActiveScriptsForEvent(String event, String basePath, boolean async) {
-        // fetch all active scripts
-        // to handle override:
-        // if there are active tree scripts with the same name
-        // with path:
-        //  - -org-event
-        //  - -org
-        //  - -
-        // the one with the longest path win
-        Set<String> paths = generatePossiblePath(basePath);
-        return extensionRepository.findActive(paths, async, event);
+        copy.put("extensionParameters", new HashMap<>(activeScript.getParameters()));
+        return copy;
     }
 
     private static Set<String> generatePossiblePath(String basePath, Comparator<String> comparator) {
@@ -305,7 +322,7 @@ public class ExtensionService {
         return paths;
     }
 
-    private static Set<String> generatePossiblePath(String basePath) {
+    static Set<String> generatePossiblePath(String basePath) {
         return generatePossiblePath(basePath, Comparator.naturalOrder());
     }
 
@@ -14,24 +14,28 @@
  * You should have received a copy of the GNU General Public License
  * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
  */
-
 package alfio.extension;
 
+import alfio.manager.support.MetricsProvider;
 import alfio.util.Json;
 import com.github.benmanes.caffeine.cache.Cache;
 import com.github.benmanes.caffeine.cache.Caffeine;
-import com.github.benmanes.caffeine.cache.RemovalCause;
 import lombok.extern.log4j.Log4j2;
 import okhttp3.OkHttpClient;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.core.env.StandardEnvironment;
 import org.springframework.stereotype.Service;
+import org.springframework.util.CustomizableThreadFactory;
 
+import javax.annotation.PreDestroy;
 import javax.script.*;
-import java.util.Collections;
-import java.util.Map;
-import java.util.Optional;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Supplier;
 
 
@@ -42,9 +46,30 @@ import java.util.function.Supplier;
 // -organizationId
 // -organizationId-eventId
 
+/**
+ * <p>Executes the extension scripts on bounded, shared thread pools.</p>
+ *
+ * <p>Asynchronous executions are queued per path: at most {@code alfio.extension.async.max-concurrency-per-path}
+ * scripts of the same path run at the same time (default 1, which preserves the execution order), and at most
+ * {@code alfio.extension.async.max-queue-per-path} executions can be waiting. When the queue is full, the
+ * {@code alfio.extension.async.rejection-policy} decides whether the new execution ({@code DISCARD_NEWEST}, default)
+ * or the oldest waiting one ({@code DISCARD_OLDEST}) is discarded. The queue of a path is kept as long as it has
+ * running or waiting executions.</p>
+ *
+ * <p>Each execution is interrupted after {@code alfio.extension.async.timeout-ms} (asynchronous) or
+ * {@code alfio.extension.sync.timeout-ms} (synchronous). Synchronous executions which time out are reported as errors.
+ * The script engine does not react to interrupts, so a script which does not terminate keeps its worker busy:
+ * the worker is counted as stuck until the script returns, an asynchronous execution which timed out releases its
+ * slot so that the next execution of the same path can start, and new executions are rejected while all the workers
+ * of a pool are busy or stuck. Scripts are never run on the caller's thread.</p>
+ */
 @Service
 @Log4j2
-public class ScriptingExecutionService {
+public class ScriptingExecutionService implements MetricsProvider {
+
+    public enum RejectionPolicy {
+        DISCARD_NEWEST, DISCARD_OLDEST
+    }
 
     private static final OkHttpClient HTTP_CLIENT = new OkHttpClient();
     private static final SimpleHttpClient SIMPLE_HTTP_CLIENT = new SimpleHttpClient(HTTP_CLIENT);
@@ -53,33 +78,301 @@ public class ScriptingExecutionService {
     private final Cache<String, CompiledScript> compiledScriptCache = Caffeine.newBuilder()
         .expireAfterAccess(12, TimeUnit.HOURS)
         .build();
-    private final Cache<String, ExecutorService> asyncExecutors = Caffeine.newBuilder()
-        .expireAfterAccess(12, TimeUnit.HOURS)
-        .removalListener((String key, ExecutorService value, RemovalCause cause) -> {
-            if (value != null) {
-                value.shutdown();
+    private final ConcurrentMap<String, PathQueue> asyncQueues = new ConcurrentHashMap<>();
+    private final Map<String, ExecutionStats> statistics = new ConcurrentHashMap<>();
+
+    private final ThreadPoolExecutor asyncWorkers;
+    private final ThreadPoolExecutor syncWorkers;
+    private final ScheduledExecutorService watchdog;
+    private final int asyncThreads;
+    private final int maxConcurrencyPerPath;
+    private final int maxQueuePerPath;
+    private final long asyncTimeoutMillis;
+    private final long syncTimeoutMillis;
+    private final RejectionPolicy rejectionPolicy;
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicInteger stuckAsyncWorkers = new AtomicInteger();
+    private final AtomicInteger stuckSyncWorkers = new AtomicInteger();
+
+    /**
+     * For use outside of the application context, e.g. in the database migrations. Uses the default settings.
+     */
+    public ScriptingExecutionService() {
+        this(new StandardEnvironment());
+    }
+
+    @Autowired
+    public ScriptingExecutionService(Environment environment) {
+        this.asyncThreads = environment.getProperty("alfio.extension.async.threads", Integer.class, 4);
+        this.asyncWorkers = new ThreadPoolExecutor(asyncThreads, asyncThreads, 1, TimeUnit.MINUTES,
+            new LinkedBlockingQueue<>(), new CustomizableThreadFactory("alfio-extension-async-"));
+        this.asyncWorkers.allowCoreThreadTimeOut(true);
+        // if all the threads are busy (or stuck on a script which did not terminate), the execution is rejected
+        this.syncWorkers = new ThreadPoolExecutor(0, environment.getProperty("alfio.extension.sync.threads", Integer.class, 16), 1, TimeUnit.MINUTES,
+            new SynchronousQueue<>(), new CustomizableThreadFactory("alfio-extension-sync-"), new ThreadPoolExecutor.AbortPolicy());
+        this.watchdog = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("alfio-extension-watchdog-"));
+        this.maxConcurrencyPerPath = environment.getProperty("alfio.extension.async.max-concurrency-per-path", Integer.class, 1);
+        this.maxQueuePerPath = environment.getProperty("alfio.extension.async.max-queue-per-path", Integer.class, 100);
+        this.asyncTimeoutMillis = environment.getProperty("alfio.extension.async.timeout-ms", Long.class, 60_000L);
+        this.syncTimeoutMillis = environment.getProperty("alfio.extension.sync.timeout-ms", Long.class, 10_000L);
+        this.rejectionPolicy = environment.getProperty("alfio.extension.async.rejection-policy", RejectionPolicy.class, RejectionPolicy.DISCARD_NEWEST);
+    }
+
+    public <T> T executeScript(String path, String name, String hash, Supplier<String> scriptFetcher, Map<String, Object> params, Class<T> clazz, ExtensionLogger extensionLogger) {
+        // set by whoever comes first between the worker (completed) and the caller (timed out)
+        var finished = new AtomicBoolean();
+        Future<T> future;
+        try {
+            future = syncWorkers.submit(() -> {
+                try {
+                    return executeScriptAndRecord(path, name, hash, scriptFetcher, params, clazz, extensionLogger);
+                } finally {
+                    if(!finished.compareAndSet(false, true)) {
+                        // the script eventually terminated after the timeout
+                        stuckSyncWorkers.decrementAndGet();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            log.warn("Execution of script {} rejected: all the workers are busy ({} stuck)", name, stuckSyncWorkers.get());
+            extensionLogger.logError("Script not run: too many concurrent executions");
+            throw new IllegalStateException(e);
+        }
+        try {
+            return future.get(syncTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            if(finished.compareAndSet(false, true)) {
+                stuckSyncWorkers.incrementAndGet();
             }
-        })
-        .build();
+            timeouts.incrementAndGet();
+            log.warn("Execution of script {} timed out after {} ms", name, syncTimeoutMillis);
+            extensionLogger.logError("Script execution timed out after " + syncTimeoutMillis + " ms");
+            throw new IllegalStateException(e);
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            if(e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
 
-    public <T> T executeScript(String name, String hash, Supplier<String> scriptFetcher, Map<String, Object> params, Class<T> clazz, ExtensionLogger extensionLogger) {
-        CompiledScript compiledScript = compiledScriptCache.get(hash, key -> {
-            try {
-                return engine.compile(scriptFetcher.get());
-            } catch (Throwable se) {
-                log.warn("Was not able to compile script " + name, se);
-                extensionLogger.logError("Was not able to compile script: " + se.getMessage());
-                throw new IllegalStateException(se);
+    public void executeScriptAsync(String path, String name, String hash, Supplier<String> scriptFetcher, Map<String, Object> params,  ExtensionLogger extensionLogger) {
+        var execution = new AsyncExecution(name, extensionLogger,
+            () -> executeScriptAndRecord(path, name, hash, scriptFetcher, params, Object.class, extensionLogger));
+        // the queue cannot be removed while we're submitting, see PathQueue#removeIfIdle
+        asyncQueues.compute(path, (key, queue) -> {
+            var q = queue != null ? queue : new PathQueue(key);
+            q.submit(execution);
+            // the execution might have been rejected
+            return q.isIdle() ? null : q;
+        });
+    }
+
+    private <T> T executeScriptAndRecord(String path, String name, String hash, Supplier<String> scriptFetcher, Map<String, Object> params, Class<T> clazz, ExtensionLogger extensionLogger) {
+        long start = System.nanoTime();
+        try {
+            CompiledScript compiledScript = compiledScriptCache.get(hash, key -> {
+                try {
+                    return engine.compile(scriptFetcher.get());
+                } catch (Throwable se) {
+                    log.warn("Was not able to compile script " + name, se);
+                    extensionLogger.logError("Was not able to compile script: " + se.getMessage());
+                    throw new IllegalStateException(se);
+                }
+            });
+            return executeScript(name, compiledScript, params, clazz, extensionLogger);
+        } finally {
+            statistics.computeIfAbsent(path + "/" + name, k -> new ExecutionStats()).record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Runs the given execution on the async pool. If it takes longer than the configured timeout, the worker is
+     * interrupted, counted as stuck and the slot is released, so that the next execution of the same path can start.
+     */
+    private void runWithTimeout(AsyncExecution execution, PathQueue queue) {
+        Thread worker = Thread.currentThread();
+        // set by whoever comes first between the worker (completed) and the watchdog (timed out)
+        var finished = new AtomicBoolean();
+        ScheduledFuture<?> timer = watchdog.schedule(() -> {
+            if(finished.compareAndSet(false, true)) {
+                stuckAsyncWorkers.incrementAndGet();
+                timeouts.incrementAndGet();
+                log.warn("Execution of script {} timed out after {} ms, interrupting", execution.name, asyncTimeoutMillis);
+                execution.extensionLogger.logError("Script execution timed out after " + asyncTimeoutMillis + " ms");
+                worker.interrupt();
+                queue.next();
             }
+        }, asyncTimeoutMillis, TimeUnit.MILLISECONDS);
+        try {
+            execution.task.run();
+        } catch (Exception e) {
+            log.trace("async execution of script {} failed", execution.name, e);
+        } finally {
+            timer.cancel(false);
+            if(finished.compareAndSet(false, true)) {
+                queue.next();
+            } else {
+                // the script eventually terminated after the timeout
+                stuckAsyncWorkers.decrementAndGet();
+            }
+            // clear the interrupted flag, if set by the watchdog
+            Thread.interrupted();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        asyncWorkers.shutdownNow();
+        syncWorkers.shutdownNow();
+        watchdog.shutdownNow();
+    }
+
+    @Override
+    public String getMetricsGroup() {
+        return "extension-execution";
+    }
+
+    @Override
+    public Map<String, Number> getMetrics() {
+        var result = new HashMap<String, Number>();
+        result.put("rejected", rejected.get());
+        result.put("timeouts", timeouts.get());
+        result.put("asyncActiveThreads", asyncWorkers.getActiveCount());
+        result.put("syncActiveThreads", syncWorkers.getActiveCount());
+        result.put("stuckAsyncWorkers", stuckAsyncWorkers.get());
+        result.put("stuckSyncWorkers", stuckSyncWorkers.get());
+        asyncQueues.forEach((path, queue) -> result.put("queueDepth." + path, queue.getDepth()));
+        statistics.forEach((extension, stats) -> {
+            result.put("executions." + extension, stats.count.sum());
+            result.put("averageLatencyMs." + extension, stats.getAverageMillis());
+            result.put("maxLatencyMs." + extension, TimeUnit.NANOSECONDS.toMillis(stats.maxNanos.get()));
         });
-        return executeScript(name, compiledScript, params, clazz, extensionLogger);
+        return result;
     }
 
-    public void executeScriptAsync(String path, String name, String hash, Supplier<String> scriptFetcher, Map<String, Object> params,  ExtensionLogger extensionLogger) {
-        Optional.ofNullable(asyncExecutors.get(path, key -> Executors.newSingleThreadExecutor()))
-            .ifPresent(it -> it.submit(() -> executeScript(name, hash, scriptFetcher, params, Object.class, extensionLogger)));
+    private static final class AsyncExecution {
+        private final String name;
+        private final ExtensionLogger extensionLogger;
+        private final Runnable task;
+
+        private AsyncExecution(String name, ExtensionLogger extensionLogger, Runnable task) {
+            this.name = name;
+            this.extensionLogger = extensionLogger;
+            this.task = task;
+        }
     }
 
+    /**
+     * Bounded queue of the pending executions for a given path. Executions are handed to the shared pool
+     * only when a slot is available, so that a slow path cannot fill the pool.
+     */
+    private final class PathQueue {
+        private final String path;
+        private final Deque<AsyncExecution> waiting = new ArrayDeque<>();
+        private int running;
+
+        private PathQueue(String path) {
+            this.path = path;
+        }
+
+        void submit(AsyncExecution execution) {
+            AsyncExecution discarded = null;
+            synchronized (this) {
+                if(running < maxConcurrencyPerPath) {
+                    running++;
+                    dispatch(execution);
+                    return;
+                }
+                if(waiting.size() < maxQueuePerPath) {
+                    waiting.addLast(execution);
+                    return;
+                }
+                if(rejectionPolicy == RejectionPolicy.DISCARD_OLDEST) {
+                    discarded = waiting.pollFirst();
+                    waiting.addLast(execution);
+                } else {
+                    discarded = execution;
+                }
+            }
+            reject(discarded, "too many pending executions for path " + path);
+        }
+
+        /**
+         * Hands the execution to the shared pool, or rejects it if all the workers are stuck.
+         * Must be called while holding the lock, with the slot already taken.
+         */
+        private void dispatch(AsyncExecution execution) {
+            if(stuckAsyncWorkers.get() >= asyncThreads) {
+                running--;
+                reject(execution, "all the workers are stuck on scripts which did not terminate");
+                return;
+            }
+            try {
+                asyncWorkers.execute(() -> runWithTimeout(execution, this));
+            } catch (RejectedExecutionException e) {
+                // shutting down
+                running--;
+            }
+        }
+
+        private void reject(AsyncExecution execution, String reason) {
+            rejected.incrementAndGet();
+            log.warn("script {} for path {} has been discarded: {}", execution.name, path, reason);
+            execution.extensionLogger.logWarning("script not run: " + reason);
+        }
+
+        /**
+         * Releases a slot, starting the next waiting execution if any.
+         */
+        void next() {
+            synchronized (this) {
+                running--;
+                while(running < maxConcurrencyPerPath && !waiting.isEmpty()) {
+                    running++;
+                    dispatch(waiting.pollFirst());
+                }
+            }
+            removeIfIdle();
+        }
+
+        private void removeIfIdle() {
+            // must not hold the lock on this queue here: compute locks the map first, then the queue
+            asyncQueues.computeIfPresent(path, (key, queue) -> queue == this && isIdle() ? null : queue);
+        }
+
+        private synchronized boolean isIdle() {
+            return running == 0 && waiting.isEmpty();
+        }
+
+        synchronized int getDepth() {
+            return waiting.size();
+        }
+    }
+
+    private static final class ExecutionStats {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        void record(long nanos) {
+            count.increment();
+            totalNanos.add(nanos);
+            maxNanos.accumulateAndGet(nanos, Math::max);
+        }
+
+        long getAverageMillis() {
+            long executions = count.sum();
+            return executions == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalNanos.sum() / executions);
+        }
+    }
 
     public static <T> T executeScript(String name, String script, Map<String, Object> params, Class<T> clazz,  ExtensionLogger extensionLogger) {
         try {
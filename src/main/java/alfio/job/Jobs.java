@@ -69,6 +69,10 @@ public class Jobs {
     private final UserManager userManager;
     private final WaitingQueueSubscriptionProcessor waitingQueueSubscriptionProcessor;
     private final AdminJobManager adminJobManager;
+    private final EventStatisticsSnapshotManager eventStatisticsSnapshotManager;
+    private final PaymentWebhookInboxManager paymentWebhookInboxManager;
+    private final ExpiredReservationsCleaner expiredReservationsCleaner;
+    private final InvoiceNumberAllocator invoiceNumberAllocator;
 
 
     //cron each minute: "0 0/1 * * * ?"
@@ -149,6 +153,43 @@ public class Jobs {
     }
 
 
+    @Scheduled(fixedDelay = 1000)
+    public void processPaymentWebhooks() {
+        log.trace("running job processPaymentWebhooks");
+        try {
+            int processed = paymentWebhookInboxManager.processPending();
+            if(processed > 0) {
+                log.debug("processPaymentWebhooks: handled {} webhooks", processed);
+            }
+        } finally {
+            log.trace("end job processPaymentWebhooks");
+        }
+    }
+
+    //run each hour
+    @Scheduled(cron = "0 15 0/1 * * ?")
+    public void cleanupProcessedPaymentWebhooks() {
+        log.trace("running job cleanupProcessedPaymentWebhooks");
+        try {
+            paymentWebhookInboxManager.cleanupProcessed();
+        } finally {
+            log.trace("end job cleanupProcessedPaymentWebhooks");
+        }
+    }
+
+
+    //run each hour
+    @Scheduled(cron = "0 45 0/1 * * ?")
+    public void handleStaleInvoiceNumberAllocations() {
+        log.trace("running job handleStaleInvoiceNumberAllocations");
+        try {
+            invoiceNumberAllocator.handleStaleAllocations();
+        } finally {
+            log.trace("end job handleStaleInvoiceNumberAllocations");
+        }
+    }
+
+
     @Scheduled(fixedRate = THIRTY_MINUTES)
     public void sendOfflinePaymentReminder() {
         log.trace("running job sendOfflinePaymentReminder");
@@ -176,7 +217,7 @@ public class Jobs {
         try {
             //cleanup reservation that have a expiration older than "now minus 10 minutes": this give some additional slack.
             final Date expirationDate = DateUtils.addMinutes(new Date(), -10);
-            ticketReservationManager.cleanupExpiredReservations(expirationDate);
+            expiredReservationsCleaner.cleanup(expirationDate);
             ticketReservationManager.cleanupExpiredOfflineReservations(expirationDate);
             ticketReservationManager.markExpiredInPaymentReservationAsStuck(expirationDate);
         } finally {
@@ -195,6 +236,27 @@ public class Jobs {
         }
     }
 
+    @Scheduled(fixedRateString = "${alfio.statistics.snapshot.refresh-interval-ms:10000}")
+    public void refreshEventStatisticsSnapshot() {
+        log.trace("running job refreshEventStatisticsSnapshot");
+        try {
+            eventStatisticsSnapshotManager.refresh();
+        } finally {
+            log.trace("end job refreshEventStatisticsSnapshot");
+        }
+    }
+
+    //run each hour
+    @Scheduled(cron = "0 30 0/1 * * ?")
+    public void checkEventStatisticsSnapshotConsistency() {
+        log.trace("running job checkEventStatisticsSnapshotConsistency");
+        try {
+            eventStatisticsSnapshotManager.checkConsistency();
+        } finally {
+            log.trace("end job checkEventStatisticsSnapshotConsistency");
+        }
+    }
+
     @Scheduled(fixedRateString = "#{environment.acceptsProfiles('dev') ? (1000 * 60) : (30 * 60 * 1000)}")
     public void checkOfflinePaymentsStatus() {
         log.trace("running job checkOfflinePaymentsStatus");
@@ -16,6 +16,7 @@
  */
 package alfio.manager;
 
+import alfio.controller.support.PdfRenderingService;
 import alfio.controller.support.TemplateProcessor;
 import alfio.manager.i18n.MessageSourceManager;
 import alfio.manager.payment.PaymentSpecification;
@@ -87,6 +88,12 @@ import static org.apache.commons.lang3.StringUtils.trimToNull;
 public class AdminReservationManager {
 
     private static final EnumSet<TicketReservationStatus> UPDATE_INVOICE_STATUSES = EnumSet.of(TicketReservationStatus.OFFLINE_PAYMENT, TicketReservationStatus.PENDING);
+    /**
+     * Returned by {@link #createReservation(AdminReservationModification, String, String, boolean)} if the reservation
+     * cannot be created while holding a shared lock on the event: it would modify the seats of the event or of a
+     * category, assign access codes, or not all the free tickets were available.
+     */
+    public static final String EXCLUSIVE_EVENT_LOCK_REQUIRED = "exclusive-event-lock-required";
     private final EventManager eventManager;
     private final TicketReservationManager ticketReservationManager;
     private final TicketCategoryRepository ticketCategoryRepository;
@@ -105,8 +112,10 @@ public class AdminReservationManager {
     private final AuditingRepository auditingRepository;
     private final UserRepository userRepository;
     private final ExtensionManager extensionManager;
+    private final PdfRenderingService pdfRenderingService;
     private final BillingDocumentRepository billingDocumentRepository;
     private final FileUploadManager fileUploadManager;
+    private final ReservationStatusNotifier reservationStatusNotifier;
 
     //the following methods have an explicit transaction handling, therefore the @Transactional annotation is not helpful here
     public Result<Triple<TicketReservation, List<Ticket>, Event>> confirmReservation(String eventName, String reservationId, String username, Notification notification) {
@@ -163,14 +172,30 @@ public class AdminReservationManager {
     }
 
     public Result<Pair<TicketReservation, List<Ticket>>> createReservation(AdminReservationModification input, String eventName, String username) {
+        return createReservation(input, eventName, username, true);
+    }
+
+    /**
+     * Creates a reservation, locking the event either in exclusive or in shared mode. Reservations which don't need to
+     * modify the capacity of the event can be created concurrently under a shared lock, since the tickets are selected
+     * with {@code for update skip locked}; the others fail with {@link #EXCLUSIVE_EVENT_LOCK_REQUIRED}.
+     *
+     * @param input the reservation
+     * @param eventName the event
+     * @param username the current user
+     * @param exclusiveEventLock whether the event must be locked in exclusive mode
+     * @return the reservation and its tickets, or the errors
+     */
+    public Result<Pair<TicketReservation, List<Ticket>>> createReservation(AdminReservationModification input, String eventName, String username, boolean exclusiveEventLock) {
         DefaultTransactionDefinition definition = new DefaultTransactionDefinition(TransactionDefinition.PROPAGATION_NESTED);
         TransactionTemplate template = new TransactionTemplate(transactionManager, definition);
         return template.execute(status -> {
             var savepoint = status.createSavepoint();
             try {
-                Result<Pair<TicketReservation, List<Ticket>>> result = eventRepository.findOptionalByShortNameForUpdate(eventName)
+                var event = exclusiveEventLock ? eventRepository.findOptionalByShortNameForUpdate(eventName) : eventRepository.findOptionalByShortNameForShare(eventName);
+                Result<Pair<TicketReservation, List<Ticket>>> result = event
                     .map(e -> validateTickets(input, e))
-                    .map(r -> r.flatMap(p -> transactionalCreateReservation(p.getRight(), p.getLeft(), username)))
+                    .map(r -> r.flatMap(p -> transactionalCreateReservation(p.getRight(), p.getLeft(), username, exclusiveEventLock)))
                     .orElse(Result.error(ErrorCode.EventError.NOT_FOUND));
                 if (!result.isSuccess()) {
                     log.debug("Error during update of reservation eventName: {}, username: {}, reservation: {}", eventName, username, AdminReservationModification.summary(input));
@@ -346,19 +371,19 @@ public class AdminReservationManager {
                      .collect(toList()));
     }
 
-    private Result<Pair<TicketReservation, List<Ticket>>> transactionalCreateReservation(AdminReservationModification input, Event event, String username) {
+    private Result<Pair<TicketReservation, List<Ticket>>> transactionalCreateReservation(AdminReservationModification input, Event event, String username, boolean exclusiveEventLock) {
         return optionally(() -> {
                 eventManager.checkOwnership(event, username, event.getOrganizationId());
                 return event;
-            }).map(e -> processReservation(input, username, e))
+            }).map(e -> processReservation(input, username, e, exclusiveEventLock))
             .orElseGet(() -> Result.error(singletonList(ErrorCode.EventError.NOT_FOUND)));
     }
 
-    private Result<Pair<TicketReservation, List<Ticket>>> processReservation(AdminReservationModification input, String username, Event event) {
+    private Result<Pair<TicketReservation, List<Ticket>>> processReservation(AdminReservationModification input, String username, Event event, boolean exclusiveEventLock) {
         return input.getTicketsInfo().stream()
-            .map(ti -> checkCategoryCapacity(ti, event, input, username))
+            .map(ti -> checkCategoryCapacity(ti, event, input, username, exclusiveEventLock))
             .reduce((r1, r2) -> reduceResults(r1, r2, this::joinData))
-            .map(r -> createReservation(r, event, input))
+            .map(r -> createReservation(r, event, input, exclusiveEventLock))
             .orElseGet(() -> Result.error(singletonList(ErrorCode.custom("", "something went wrong..."))));
     }
 
@@ -369,7 +394,7 @@ public class AdminReservationManager {
         return join;
     }
 
-    private Result<Pair<TicketReservation, List<Ticket>>> createReservation(Result<List<TicketsInfo>> input, Event event, AdminReservationModification arm) {
+    private Result<Pair<TicketReservation, List<Ticket>>> createReservation(Result<List<TicketsInfo>> input, Event event, AdminReservationModification arm, boolean exclusiveEventLock) {
         final TicketsInfo empty = new TicketsInfo(null, null, false, false);
         return input.flatMap(t -> {
             String reservationId = UUID.randomUUID().toString();
@@ -382,7 +407,7 @@ public class AdminReservationManager {
                 customerData.getBillingAddress(), null, null, customerData.getCustomerReference());
 
             Result<List<Ticket>> result = flattenTicketsInfo(event, empty, t)
-                .map(pair -> reserveForTicketsInfo(event, arm, reservationId, pair))
+                .map(pair -> reserveForTicketsInfo(event, arm, reservationId, pair, exclusiveEventLock))
                 .reduce(this::reduceReservationResults)
                 .orElseGet(() -> Result.error(ErrorCode.custom("", "unknown error")));
 
@@ -390,14 +415,19 @@ public class AdminReservationManager {
         });
     }
 
-    private Result<List<Ticket>> reserveForTicketsInfo(Event event, AdminReservationModification arm, String reservationId, Pair<TicketCategory, TicketsInfo> pair) {
+    private Result<List<Ticket>> reserveForTicketsInfo(Event event, AdminReservationModification arm, String reservationId, Pair<TicketCategory, TicketsInfo> pair, boolean exclusiveEventLock) {
         TicketCategory category = pair.getLeft();
         TicketsInfo ticketsInfo = pair.getRight();
         int categoryId = category.getId();
         List<Attendee> attendees = ticketsInfo.getAttendees();
+        if(!exclusiveEventLock && category.isAccessRestricted()) {
+            // access codes are not selected with skip locked
+            return exclusiveEventLockRequired();
+        }
         List<Integer> reservedForUpdate = ticketReservationManager.reserveTickets(event.getId(), categoryId, attendees.size(), singletonList(Ticket.TicketStatus.FREE));
         if (reservedForUpdate.isEmpty()|| reservedForUpdate.size() != attendees.size()) {
-            return Result.error(ErrorCode.CategoryError.NOT_ENOUGH_SEATS);
+            // some tickets might have been skipped because they're locked by a concurrent transaction
+            return exclusiveEventLock ? Result.error(ErrorCode.CategoryError.NOT_ENOUGH_SEATS) : exclusiveEventLockRequired();
         }
         var currencyCode = category.getCurrencyCode();
         ticketRepository.reserveTickets(reservationId, reservedForUpdate, categoryId, arm.getLanguage(), category.getSrcPriceCts(), currencyCode);
@@ -406,8 +436,8 @@ public class AdminReservationManager {
         ticketRepository.updateTicketPrice(reservedForUpdate, categoryId, event.getId(), category.getSrcPriceCts(), unitToCents(priceContainer.getFinalPrice(), currencyCode), unitToCents(priceContainer.getVAT(), currencyCode), unitToCents(priceContainer.getAppliedDiscount(), currencyCode), currencyCode);
         List<SpecialPrice> codes = category.isAccessRestricted() ? bindSpecialPriceTokens(categoryId, attendees) : Collections.emptyList();
         assignTickets(event, attendees, categoryId, reservedForUpdate, codes, reservationId, arm.getLanguage(), category.getSrcPriceCts());
-        List<Ticket> tickets = reservedForUpdate.stream().map(id -> ticketRepository.findById(id, categoryId)).collect(toList());
-        return Result.success(tickets);
+        Map<Integer, Ticket> ticketsById = ticketRepository.findByIds(reservedForUpdate).stream().collect(toMap(Ticket::getId, Function.identity()));
+        return Result.success(reservedForUpdate.stream().map(ticketsById::get).collect(toList()));
     }
 
     private Result<List<Ticket>> reduceReservationResults(Result<List<Ticket>> r1, Result<List<Ticket>> r2) {
@@ -470,20 +500,31 @@ public class AdminReservationManager {
                                int srcPriceCts) {
 
         Optional<Iterator<SpecialPrice>> specialPriceIterator = Optional.of(codes).filter(c -> !c.isEmpty()).map(Collection::iterator);
+        // owners and additional fields are sent in batches, so that reservations with thousands of attendees can be imported
+        List<MapSqlParameterSource> owners = new ArrayList<>();
+        Map<Integer, Map<String, List<String>>> additionalInfo = new HashMap<>();
         for(int i=0; i<reservedForUpdate.size(); i++) {
             Attendee attendee = attendees.get(i);
             Integer ticketId = reservedForUpdate.get(i);
             if(!attendee.isEmpty()) {
-                ticketRepository.updateTicketOwnerById(ticketId, attendee.getEmailAddress(), attendee.getFullName(), attendee.getFirstName(), attendee.getLastName());
+                owners.add(new MapSqlParameterSource("id", ticketId)
+                    .addValue("email", attendee.getEmailAddress())
+                    .addValue("fullName", attendee.getFullName())
+                    .addValue("firstName", attendee.getFirstName())
+                    .addValue("lastName", attendee.getLastName()));
                 if(StringUtils.isNotBlank(attendee.getReference()) || attendee.isReassignmentForbidden()) {
                     updateExtRefAndLocking(categoryId, attendee, ticketId);
                 }
                 if(!attendee.getAdditionalInfo().isEmpty()) {
-                    ticketFieldRepository.updateOrInsert(attendee.getAdditionalInfo(), ticketId, event.getId());
+                    additionalInfo.put(ticketId, attendee.getAdditionalInfo());
                 }
             }
             specialPriceIterator.map(Iterator::next).ifPresent(code -> ticketRepository.reserveTicket(reservationId, ticketId, code.getId(), userLanguage, srcPriceCts, event.getCurrency()));
         }
+        if(!owners.isEmpty()) {
+            ticketRepository.bulkUpdateTicketOwnerById(owners);
+        }
+        ticketFieldRepository.bulkUpdateOrInsert(additionalInfo, event.getId());
     }
 
     private void updateExtRefAndLocking(int categoryId, Attendee attendee, Integer ticketId) {
@@ -495,8 +536,15 @@ public class AdminReservationManager {
         }
     }
 
-    private Result<List<TicketsInfo>> checkCategoryCapacity(TicketsInfo ti, Event event, AdminReservationModification reservation, String username) {
-        Result<TicketCategory> ticketCategoryResult = ti.getCategory().isExisting() ? checkExistingCategory(ti, event, username) : createCategory(ti, event, reservation, username);
+    private static <T> Result<T> exclusiveEventLockRequired() {
+        return Result.error(ErrorCode.custom(EXCLUSIVE_EVENT_LOCK_REQUIRED, "the event must be locked in exclusive mode"));
+    }
+
+    private Result<List<TicketsInfo>> checkCategoryCapacity(TicketsInfo ti, Event event, AdminReservationModification reservation, String username, boolean exclusiveEventLock) {
+        if(!ti.getCategory().isExisting() && !exclusiveEventLock) {
+            return exclusiveEventLockRequired();
+        }
+        Result<TicketCategory> ticketCategoryResult = ti.getCategory().isExisting() ? checkExistingCategory(ti, event, username, exclusiveEventLock) : createCategory(ti, event, reservation, username);
         return ticketCategoryResult
             .map(tc -> Collections.singletonList(new TicketsInfo(new Category(tc.getId(), tc.getName(), tc.getPrice()), ti.getAttendees(), ti.isAddSeatsIfNotAvailable(), ti.isUpdateAttendees())));
     }
@@ -521,7 +569,7 @@ public class AdminReservationManager {
             createMissingTickets(event, missingTickets);
             //update seats and reload event
             log.debug("adding {} extra seats to the event", missingTickets);
-            eventRepository.updateAvailableSeats(event.getId(), eventRepository.countExistingTickets(event.getId()) + missingTickets);
+            eventManager.updateAvailableSeats(event.getId(), eventRepository.countExistingTickets(event.getId()) + missingTickets);
             modified = eventRepository.findById(event.getId());
         }
         return modified;
@@ -531,7 +579,7 @@ public class AdminReservationManager {
         return ticketRepository.countFreeTicketsForUnbounded(event.getId());
     }
 
-    private Result<TicketCategory> checkExistingCategory(TicketsInfo ti, Event event, String username) {
+    private Result<TicketCategory> checkExistingCategory(TicketsInfo ti, Event event, String username, boolean exclusiveEventLock) {
         Category category = ti.getCategory();
         List<Attendee> attendees = ti.getAttendees();
         int tickets = attendees.size();
@@ -541,6 +589,10 @@ public class AdminReservationManager {
         int freeTicketsInCategory = ticketRepository.countFreeTickets(eventId, existingCategoryId);
         int notAllocated = getNotAllocatedTickets(event);
         int missingTickets = Math.max(tickets - (freeTicketsInCategory + notAllocated), 0);
+        boolean capacityChangeRequired = (missingTickets > 0 && ti.isAddSeatsIfNotAvailable()) || (freeTicketsInCategory < tickets && existing.isBounded());
+        if(capacityChangeRequired && !exclusiveEventLock) {
+            return exclusiveEventLockRequired();
+        }
         Event modified = increaseSeatsIfNeeded(ti, event, missingTickets, event);
         if(freeTicketsInCategory < tickets && existing.isBounded()) {
             int maxTickets = existing.getMaxTickets() + (tickets - freeTicketsInCategory);
@@ -612,7 +664,7 @@ public class AdminReservationManager {
     public Result<Pair<BillingDocument, byte[]>> getSingleBillingDocumentAsPdf(String eventName, String reservationId, long documentId, String username) {
         return loadReservation(eventName, reservationId, username).map(res -> {
             BillingDocument billingDocument = billingDocumentRepository.findById(documentId, reservationId).orElseThrow(IllegalArgumentException::new);
-            Function<Map<String, Object>, Optional<byte[]>> pdfGenerator = model -> TemplateProcessor.buildBillingDocumentPdf(billingDocument.getType(), res.getRight(), fileUploadManager, LocaleUtil.forLanguageTag(res.getLeft().getUserLanguage()), templateManager, model, extensionManager);
+            Function<Map<String, Object>, Optional<byte[]>> pdfGenerator = model -> TemplateProcessor.buildBillingDocumentPdf(billingDocument.getType(), res.getRight(), fileUploadManager, LocaleUtil.forLanguageTag(res.getLeft().getUserLanguage()), templateManager, model, pdfRenderingService);
             Map<String, Object> billingModel = billingDocument.getModel();
             return Pair.of(billingDocument, pdfGenerator.apply(billingModel).orElse(null));
         });
@@ -754,6 +806,7 @@ public class AdminReservationManager {
 
     private void markAsCancelled(TicketReservation ticketReservation, String username, int eventId) {
         ticketReservationRepository.updateReservationStatus(ticketReservation.getId(), TicketReservationStatus.CANCELLED.toString());
+        reservationStatusNotifier.statusChanged(ticketReservation.getId());
         auditingRepository.insert(ticketReservation.getId(), userRepository.nullSafeFindIdByUserName(username).orElse(null),
             eventId, Audit.EventType.CANCEL_RESERVATION, new Date(), Audit.EntityType.RESERVATION, ticketReservation.getId());
     }
@@ -25,34 +25,50 @@ import alfio.model.user.User;
 import alfio.repository.AdminReservationRequestRepository;
 import alfio.repository.EventRepository;
 import alfio.repository.user.UserRepository;
-import lombok.RequiredArgsConstructor;
 import lombok.extern.log4j.Log4j2;
-import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.tuple.Pair;
 import org.apache.commons.lang3.tuple.Triple;
+import org.springframework.core.env.Environment;
 import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.transaction.support.DefaultTransactionDefinition;
 import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.CustomizableThreadFactory;
 
-import java.util.List;
-import java.util.Map;
-import java.util.UUID;
+import javax.annotation.PreDestroy;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 import static alfio.model.modification.AdminReservationModification.Notification.orEmpty;
 import static java.util.Collections.singletonList;
 import static java.util.Optional.ofNullable;
 
+/**
+ * <p>Schedules and processes the reservations requested by the admin, one by one or as a bulk import.</p>
+ *
+ * <p>Pending requests are processed on a pool of {@code alfio.admin-reservation.threads} workers, with up to
+ * {@code alfio.admin-reservation.workers-per-event} workers for the same event. Each worker claims chunks of
+ * {@code alfio.admin-reservation.chunk-size} requests with {@code for update skip locked} and processes them in a
+ * dedicated transaction, which updates the status of the requests and the progress counters of
+ * {@code admin_reservation_request_stats} before committing.</p>
+ *
+ * <p>Reservations are created holding a shared lock on the event, so that workers of the same event don't block each
+ * other. As soon as a request needs to modify the capacity of the event (see
+ * {@link AdminReservationManager#EXCLUSIVE_EVENT_LOCK_REQUIRED}), it is left pending and the remaining chunks of the
+ * event are processed holding an exclusive lock, i.e. one at a time.</p>
+ */
 @Component
 @Transactional
 @Log4j2
-@RequiredArgsConstructor
 public class AdminReservationRequestManager {
 
     private final AdminReservationManager adminReservationManager;
@@ -61,6 +77,34 @@ public class AdminReservationRequestManager {
     private final AdminReservationRequestRepository adminReservationRequestRepository;
     private final EventRepository eventRepository;
     private final PlatformTransactionManager transactionManager;
+    private final TransactionTemplate requiresNewTransactionTemplate;
+    private final ExecutorService workers;
+    private final int chunkSize;
+    private final int workersPerEvent;
+    private final long timeBudgetMs;
+    private final int maxAttendeesPerReservation;
+
+    public AdminReservationRequestManager(AdminReservationManager adminReservationManager,
+                                          EventManager eventManager,
+                                          UserRepository userRepository,
+                                          AdminReservationRequestRepository adminReservationRequestRepository,
+                                          EventRepository eventRepository,
+                                          PlatformTransactionManager transactionManager,
+                                          Environment environment) {
+        this.adminReservationManager = adminReservationManager;
+        this.eventManager = eventManager;
+        this.userRepository = userRepository;
+        this.adminReservationRequestRepository = adminReservationRequestRepository;
+        this.eventRepository = eventRepository;
+        this.transactionManager = transactionManager;
+        this.requiresNewTransactionTemplate = new TransactionTemplate(transactionManager, new DefaultTransactionDefinition(TransactionDefinition.PROPAGATION_REQUIRES_NEW));
+        this.workers = Executors.newFixedThreadPool(environment.getProperty("alfio.admin-reservation.threads", Integer.class, 4),
+            new CustomizableThreadFactory("alfio-admin-reservation-"));
+        this.chunkSize = environment.getProperty("alfio.admin-reservation.chunk-size", Integer.class, 50);
+        this.workersPerEvent = environment.getProperty("alfio.admin-reservation.workers-per-event", Integer.class, 4);
+        this.timeBudgetMs = environment.getProperty("alfio.admin-reservation.time-budget-ms", Long.class, 60_000L);
+        this.maxAttendeesPerReservation = environment.getProperty("alfio.admin-reservation.max-attendees-per-reservation", Integer.class, 5000);
+    }
 
     public Result<AdminReservationRequestStats> getRequestStatus(String requestId, String eventName, String username) {
         return eventManager.getOptionalEventAndOrganizationIdByName(eventName, username)
@@ -74,11 +118,9 @@ public class AdminReservationRequestManager {
                                                boolean singleReservation,
                                                String username) {
 
-        //safety check: if there are more than 150 people in a single reservation, the reservation page could take a while before showing up.
-        //therefore we will limit the maximum amount of people in a single reservation to 100. This will be addressed in rel. 2.0
-
-        if(singleReservation && body.getTicketsInfo().stream().mapToLong(ti -> ti.getAttendees().size()).sum() > 100) {
-            return Result.error(ErrorCode.custom("MAX_NUMBER_EXCEEDED", "Maximum allowed attendees per reservation is 100"));
+        //safety check: tickets and additional fields are saved in batches, but a single reservation is still processed in one transaction
+        if(singleReservation && body.getTicketsInfo().stream().mapToLong(ti -> ti.getAttendees().size()).sum() > maxAttendeesPerReservation) {
+            return Result.error(ErrorCode.custom("MAX_NUMBER_EXCEEDED", "Maximum allowed attendees per reservation is " + maxAttendeesPerReservation));
         }
 
         // #620 - validate reference:
@@ -102,32 +144,102 @@ public class AdminReservationRequestManager {
             .orElseGet(() -> Result.error(ErrorCode.ReservationError.UPDATE_FAILED));
     }
 
-    //TODO: rewrite, and add test!
+    /**
+     * Processes the pending requests, until there are no more or the time budget has been exhausted.
+     *
+     * @return number of successful and failed requests
+     */
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
     public Pair<Integer, Integer> processPendingReservations() {
-        Map<Boolean, List<MapSqlParameterSource>> result = adminReservationRequestRepository.findPendingForUpdate(1000)
-            .stream()
-            .map(id -> {
-                AdminReservationRequest request = adminReservationRequestRepository.fetchCompleteById(id);
-
-                Result<Triple<TicketReservation, List<Ticket>, Event>> reservationResult = Result.fromNullable(eventRepository.findOptionalById((int) request.getEventId()).orElse(null), ErrorCode.EventError.NOT_FOUND)
-                    .flatMap(e -> Result.fromNullable(userRepository.findOptionalById((int) request.getUserId()).map(u -> Pair.of(e, u)).orElse(null), ErrorCode.EventError.ACCESS_DENIED))
-                    .flatMap(p -> processReservation(request, p.getLeft(), p.getRight()));
-                return buildParameterSource(id, reservationResult);
-            }).collect(Collectors.partitioningBy(ps -> AdminReservationRequest.Status.SUCCESS.name().equals(ps.getValue("status"))));
+        List<Long> eventIds = adminReservationRequestRepository.findEventsWithPendingRequests();
+        if(eventIds.isEmpty()) {
+            return Pair.of(0, 0);
+        }
+        long deadline = System.currentTimeMillis() + timeBudgetMs;
+        List<Future<Pair<Integer, Integer>>> results = eventIds.stream()
+            .flatMap(eventId -> {
+                var exclusiveEventLock = new AtomicBoolean();
+                return IntStream.range(0, workersPerEvent)
+                    .mapToObj(i -> workers.submit(() -> processPendingReservationsForEvent(eventId, exclusiveEventLock, deadline)));
+            })
+            .collect(Collectors.toList());
+        int success = 0;
+        int failure = 0;
+        for (Future<Pair<Integer, Integer>> result : results) {
+            try {
+                var counts = result.get();
+                success += counts.getLeft();
+                failure += counts.getRight();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException e) {
+                log.error("unexpected error while processing reservation requests", e.getCause());
+            }
+        }
+        return Pair.of(success, failure);
+    }
 
-        result.values().forEach(list -> {
+    private Pair<Integer, Integer> processPendingReservationsForEvent(long eventId, AtomicBoolean exclusiveEventLock, long deadline) {
+        Optional<Event> event = eventRepository.findOptionalById((int) eventId);
+        Map<Long, Optional<User>> users = new HashMap<>();
+        int success = 0;
+        int failure = 0;
+        while(System.currentTimeMillis() < deadline) {
+            ChunkResult chunk;
             try {
-                adminReservationRequestRepository.updateStatus(list);
+                chunk = requiresNewTransactionTemplate.execute(status -> processChunk(eventId, event, users, exclusiveEventLock));
             } catch(Exception e) {
-                log.fatal("cannot update the status of "+list.size()+" reservations", e);
+                log.fatal("cannot process reservation requests for event " + eventId, e);
+                break;
             }
-        });
+            success += Objects.requireNonNull(chunk).success;
+            failure += chunk.failure;
+            if(chunk.claimed < chunkSize && chunk.deferred == 0) {
+                break;
+            }
+        }
+        return Pair.of(success, failure);
+    }
 
-        return Pair.of(CollectionUtils.size(result.get(true)), CollectionUtils.size(result.get(false)));
+    private ChunkResult processChunk(long eventId, Optional<Event> event, Map<Long, Optional<User>> users, AtomicBoolean exclusiveEventLock) {
+        List<Long> ids = adminReservationRequestRepository.findPendingForUpdate(eventId, chunkSize);
+        if(ids.isEmpty()) {
+            return new ChunkResult(0, 0, 0, 0);
+        }
+        // the lock mode must not change within the same transaction, otherwise concurrent workers could deadlock
+        boolean exclusive = exclusiveEventLock.get();
+        List<Pair<AdminReservationRequest, MapSqlParameterSource>> processed = new ArrayList<>();
+        for (AdminReservationRequest request : adminReservationRequestRepository.fetchCompleteByIds(ids)) {
+            Result<Triple<TicketReservation, List<Ticket>, Event>> reservationResult = Result.fromNullable(event.orElse(null), ErrorCode.EventError.NOT_FOUND)
+                .flatMap(e -> Result.fromNullable(users.computeIfAbsent(request.getUserId(), id -> userRepository.findOptionalById((int) id)).map(u -> Pair.of(e, u)).orElse(null), ErrorCode.EventError.ACCESS_DENIED))
+                .flatMap(p -> processReservation(request, p.getLeft(), p.getRight(), exclusive));
+            if(!exclusive && requiresExclusiveEventLock(reservationResult)) {
+                // the request stays pending and will be claimed again, holding an exclusive lock
+                exclusiveEventLock.set(true);
+                continue;
+            }
+            processed.add(Pair.of(request, buildParameterSource(request.getId(), reservationResult)));
+        }
 
+        if(!processed.isEmpty()) {
+            adminReservationRequestRepository.updateStatus(processed.stream().map(Pair::getRight).collect(Collectors.toList()));
+        }
+        int success = 0;
+        for (var entry : processed.stream().collect(Collectors.groupingBy(p -> p.getLeft().getRequestId(), Collectors.mapping(Pair::getRight, Collectors.toList()))).entrySet()) {
+            int successForRequest = (int) entry.getValue().stream().filter(ps -> AdminReservationRequest.Status.SUCCESS.name().equals(ps.getValue("status"))).count();
+            adminReservationRequestRepository.updateProgress(entry.getKey(), successForRequest, entry.getValue().size() - successForRequest);
+            success += successForRequest;
+        }
+        return new ChunkResult(ids.size(), ids.size() - processed.size(), success, processed.size() - success);
+    }
+
+    private static boolean requiresExclusiveEventLock(Result<?> result) {
+        return !result.isSuccess() && result.getErrors().stream()
+            .anyMatch(e -> AdminReservationManager.EXCLUSIVE_EVENT_LOCK_REQUIRED.equals(e.getCode()));
     }
 
-    private Result<Triple<TicketReservation, List<Ticket>, Event>> processReservation(AdminReservationRequest request, Event event, User user) {
+    private Result<Triple<TicketReservation, List<Ticket>, Event>> processReservation(AdminReservationRequest request, Event event, User user, boolean exclusiveEventLock) {
         DefaultTransactionDefinition definition = new DefaultTransactionDefinition(TransactionDefinition.PROPAGATION_NESTED);
         TransactionTemplate template = new TransactionTemplate(transactionManager, definition);
         return template.execute(status -> {
@@ -135,7 +247,7 @@ public class AdminReservationRequestManager {
             try {
                 String eventName = event.getShortName();
                 String username = user.getUsername();
-                Result<Triple<TicketReservation, List<Ticket>, Event>> result = adminReservationManager.createReservation(request.getBody(), eventName, username)
+                Result<Triple<TicketReservation, List<Ticket>, Event>> result = adminReservationManager.createReservation(request.getBody(), eventName, username, exclusiveEventLock)
                     .flatMap(r -> adminReservationManager.confirmReservation(eventName, r.getLeft().getId(), username, orEmpty(request.getBody().getNotification())));
                 if(!result.isSuccess()) {
                     status.rollbackToSavepoint(savepoint);
@@ -168,6 +280,32 @@ public class AdminReservationRequestManager {
         }
     }
 
+    @PreDestroy
+    public void shutdown() {
+        workers.shutdown();
+        try {
+            if(!workers.awaitTermination(30, TimeUnit.SECONDS)) {
+                log.warn("reservation requests still being processed at shutdown");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static class ChunkResult {
+        private final int claimed;
+        private final int deferred;
+        private final int success;
+        private final int failure;
+
+        private ChunkResult(int claimed, int deferred, int success, int failure) {
+            this.claimed = claimed;
+            this.deferred = deferred;
+            this.success = success;
+            this.failure = failure;
+        }
+    }
+
     private Stream<AdminReservationModification> spread(AdminReservationModification src, boolean single) {
         if(single) {
             return Stream.of(src);
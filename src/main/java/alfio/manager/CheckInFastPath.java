@@ -0,0 +1,368 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.manager;
+
+import alfio.manager.support.CheckInStatus;
+import alfio.manager.support.MetricsProvider;
+import alfio.model.Audit;
+import alfio.model.Ticket;
+import alfio.model.TicketCategory;
+import alfio.model.audit.ScanAudit;
+import alfio.repository.AuditingRepository;
+import alfio.repository.TicketCategoryRepository;
+import alfio.repository.TicketRepository;
+import alfio.repository.audit.ScanAuditRepository;
+import alfio.repository.user.UserRepository;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.RequiredArgsConstructor;
+import lombok.ToString;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.core.env.Environment;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.CustomizableThreadFactory;
+
+import javax.annotation.PreDestroy;
+import java.time.ZonedDateTime;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * <p>Support for the check-in hot path. If {@code alfio.check-in.fast-path.enabled} is {@code true}:</p>
+ * <ul>
+ *     <li>the confirmed tickets of each event are kept in an in-memory index (rebuilt every
+ *     {@code alfio.check-in.fast-path.index-ttl-seconds}, default 60), so that a regular check-in does not need to
+ *     lock the ticket before evaluating it</li>
+ *     <li>ticket categories and user ids are served from memory (categories for max. 1 minute)</li>
+ *     <li>scan audit and auditing rows are handed over after commit to a dedicated writer thread, which writes them
+ *     in batches in its own transaction, as soon as they arrive</li>
+ * </ul>
+ * <p>Otherwise every call goes straight to the database, as before.</p>
+ *
+ * <p>The index is trusted only for the successful check-in, which is applied with a conditional update on the
+ * ticket status and on the data signed in the ticket code, so that the guarantee against double check-in holds across
+ * nodes. Any other outcome is evaluated again on the locked row. Auditing rows of the types used for detecting a
+ * second scan on the same day are always written in the check-in transaction if the event has a
+ * {@link TicketCategory.TicketCheckInStrategy#ONCE_PER_DAY} category, so that the check is made against the database.</p>
+ *
+ * <p>Rows are never discarded: if the queue is full, callers wait for the writer, and failed writes are retried until
+ * they succeed. Rows which have been committed but not yet written are lost only if the JVM crashes.</p>
+ */
+@Component
+@Log4j2
+public class CheckInFastPath implements MetricsProvider {
+
+    /**
+     * Auditing types used for detecting a second scan on the same day.
+     */
+    static final Set<String> DAILY_SCAN_TYPES = Set.of(Audit.EventType.CHECK_IN.name(), Audit.EventType.MANUAL_CHECK_IN.name(), Audit.EventType.BADGE_SCAN.name());
+
+    private static final int MAX_BATCH_SIZE = 500;
+    private static final int MAX_QUEUE_SIZE = 50_000;
+    private static final int MAX_INDEXED_TICKETS = 200_000;
+    private static final long MAX_RETRY_INTERVAL_MS = 30_000L;
+    private static final long SHUTDOWN_TIMEOUT_MS = 20_000L;
+    private static final long POLL_TIMEOUT_MS = 100L;
+
+    private final boolean enabled;
+    private final long retryInterval;
+    private final TicketRepository ticketRepository;
+    private final TicketCategoryRepository ticketCategoryRepository;
+    private final UserRepository userRepository;
+    private final ScanAuditRepository scanAuditRepository;
+    private final AuditingRepository auditingRepository;
+    private final TransactionTemplate transactionTemplate;
+
+    private final Cache<Integer, Map<String, Ticket>> ticketIndex;
+    private final Cache<Integer, TicketCategory> categories = Caffeine.newBuilder()
+        .maximumSize(1000)
+        .expireAfterWrite(1, TimeUnit.MINUTES)
+        .build();
+    private final Cache<Integer, Boolean> dailyScanEvents = Caffeine.newBuilder()
+        .maximumSize(1000)
+        .expireAfterWrite(1, TimeUnit.MINUTES)
+        .build();
+    private final Cache<String, Optional<Integer>> userIds = Caffeine.newBuilder()
+        .maximumSize(1000)
+        .expireAfterWrite(10, TimeUnit.MINUTES)
+        .build();
+
+    private final BlockingQueue<PendingRow> pendingRows = new LinkedBlockingQueue<>(MAX_QUEUE_SIZE);
+    private final ExecutorService writer;
+    private volatile boolean stopped;
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong writeErrors = new AtomicLong();
+    private final AtomicLong notWrittenOnShutdown = new AtomicLong();
+    private final AtomicLong indexHits = new AtomicLong();
+    private final AtomicLong indexMisses = new AtomicLong();
+
+    public CheckInFastPath(Environment environment,
+                           TicketRepository ticketRepository,
+                           TicketCategoryRepository ticketCategoryRepository,
+                           UserRepository userRepository,
+                           ScanAuditRepository scanAuditRepository,
+                           AuditingRepository auditingRepository,
+                           PlatformTransactionManager transactionManager) {
+        this.enabled = environment.getProperty("alfio.check-in.fast-path.enabled", Boolean.class, false);
+        this.retryInterval = environment.getProperty("alfio.check-in.fast-path.retry-interval-ms", Long.class, 500L);
+        this.ticketRepository = ticketRepository;
+        this.ticketCategoryRepository = ticketCategoryRepository;
+        this.userRepository = userRepository;
+        this.scanAuditRepository = scanAuditRepository;
+        this.auditingRepository = auditingRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.ticketIndex = Caffeine.newBuilder()
+            .maximumWeight(MAX_INDEXED_TICKETS)
+            .<Integer, Map<String, Ticket>>weigher((k, v) -> Math.max(1, v.size()))
+            .expireAfterWrite(environment.getProperty("alfio.check-in.fast-path.index-ttl-seconds", Long.class, 60L), TimeUnit.SECONDS)
+            .build();
+        if(enabled) {
+            this.writer = Executors.newSingleThreadExecutor(new CustomizableThreadFactory("alfio-check-in-audit-"));
+            this.writer.execute(this::writePendingRows);
+        } else {
+            this.writer = null;
+        }
+    }
+
+    /**
+     * Returns the in-memory copy of a confirmed ticket. The copy can be stale: it must be used only together with
+     * {@link TicketRepository#checkInIfUnchanged}.
+     *
+     * @param eventId the event
+     * @param uuid the ticket uuid
+     * @return the indexed ticket, or empty if the fast path is disabled or the ticket is not in the index
+     */
+    Optional<Ticket> findIndexedTicket(int eventId, String uuid) {
+        if(!enabled) {
+            return Optional.empty();
+        }
+        var ticket = Optional.ofNullable(ticketIndex.get(eventId, this::loadConfirmedTickets).get(uuid));
+        (ticket.isPresent() ? indexHits : indexMisses).incrementAndGet();
+        return ticket;
+    }
+
+    /**
+     * Removes the ticket from the index, after its status has been modified by this node. The ticket will be served
+     * from the database until the index is rebuilt.
+     */
+    void ticketModified(int eventId, String uuid) {
+        var eventTickets = ticketIndex.getIfPresent(eventId);
+        if(eventTickets != null) {
+            eventTickets.remove(uuid);
+        }
+    }
+
+    private Map<String, Ticket> loadConfirmedTickets(int eventId) {
+        return ticketRepository.findAllConfirmed(eventId).stream()
+            .collect(Collectors.toConcurrentMap(Ticket::getUuid, Function.identity(), (a, b) -> a));
+    }
+
+    TicketCategory getCategory(int categoryId) {
+        if(!enabled) {
+            return ticketCategoryRepository.getById(categoryId);
+        }
+        return categories.get(categoryId, ticketCategoryRepository::getById);
+    }
+
+    Integer findUserId(String username) {
+        if(!enabled) {
+            return userRepository.findIdByUserName(username).orElse(null);
+        }
+        return userIds.get(username, userRepository::findIdByUserName).orElse(null);
+    }
+
+    void scanAudit(String ticketUuid, int eventId, ZonedDateTime timestamp, String username, CheckInStatus status, ScanAudit.Operation operation) {
+        if(!enabled) {
+            scanAuditRepository.insert(ticketUuid, eventId, timestamp, username, status, operation);
+            return;
+        }
+        var scan = new ScanAudit(ticketUuid, eventId, timestamp, username, status, operation);
+        afterCommit(() -> enqueue(new PendingRow(scan, null)));
+    }
+
+    void audit(String reservationId, Integer userId, int eventId, Audit.EventType eventType, Date eventTime, Audit.EntityType entityType, String entityId) {
+        if(!enabled || (DAILY_SCAN_TYPES.contains(eventType.name()) && hasDailyScanCategories(eventId))) {
+            auditingRepository.insert(reservationId, userId, eventId, eventType, eventTime, entityType, entityId);
+            return;
+        }
+        var params = new MapSqlParameterSource("reservationId", reservationId)
+            .addValue("userId", userId)
+            .addValue("eventId", eventId)
+            .addValue("eventType", eventType.name())
+            .addValue("eventTime", eventTime)
+            .addValue("entityType", entityType.name())
+            .addValue("entityId", entityId)
+            .addValue("modifications", null);
+        afterCommit(() -> enqueue(new PendingRow(null, params)));
+    }
+
+    private boolean hasDailyScanCategories(int eventId) {
+        return dailyScanEvents.get(eventId, id -> ticketCategoryRepository.findAllTicketCategories(id).stream()
+            .anyMatch(tc -> tc.getTicketCheckInStrategy() == TicketCategory.TicketCheckInStrategy.ONCE_PER_DAY));
+    }
+
+    private static void afterCommit(Runnable action) {
+        if(TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
+    }
+
+    private void enqueue(PendingRow row) {
+        try {
+            // back-pressure: if the writer cannot keep up, the caller waits
+            pendingRows.put(row);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("interrupted while waiting for the check-in audit writer, writing the row on the caller thread");
+            while(!write(List.of(row))) {
+                sleepQuietly(retryInterval);
+            }
+        }
+    }
+
+    /**
+     * Writer loop. Runs on its own thread, outside of any request transaction, and is the only one to write
+     * the pending rows, so it doesn't need any lock. A failed batch is retried, with an increasing interval,
+     * until it has been written.
+     */
+    private void writePendingRows() {
+        List<PendingRow> batch = new ArrayList<>();
+        int failedAttempts = 0;
+        try {
+            while(!stopped) {
+                if(batch.isEmpty()) {
+                    var first = pendingRows.poll(POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                    if(first == null) {
+                        continue;
+                    }
+                    batch.add(first);
+                }
+                pendingRows.drainTo(batch, MAX_BATCH_SIZE - batch.size());
+                if(write(batch)) {
+                    batch = new ArrayList<>();
+                    failedAttempts = 0;
+                } else {
+                    failedAttempts++;
+                    Thread.sleep(Math.min(MAX_RETRY_INTERVAL_MS, retryInterval * failedAttempts));
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // shutdown: keep trying for a while, then log what could not be written
+        pendingRows.drainTo(batch);
+        long deadline = System.currentTimeMillis() + SHUTDOWN_TIMEOUT_MS;
+        for(int i = 0; i < batch.size(); i += MAX_BATCH_SIZE) {
+            var chunk = batch.subList(i, Math.min(batch.size(), i + MAX_BATCH_SIZE));
+            boolean success = write(chunk);
+            while(!success && System.currentTimeMillis() < deadline) {
+                sleepQuietly(retryInterval);
+                success = write(chunk);
+            }
+            if(!success) {
+                notWrittenOnShutdown.addAndGet(chunk.size());
+                chunk.forEach(r -> log.error("check-in audit row not written: {}", r));
+            }
+        }
+    }
+
+    private boolean write(List<PendingRow> batch) {
+        var scans = batch.stream().map(r -> r.scan).filter(Objects::nonNull).collect(Collectors.toList());
+        var audits = batch.stream().map(r -> r.audit).filter(Objects::nonNull).toArray(MapSqlParameterSource[]::new);
+        try {
+            transactionTemplate.execute(status -> {
+                if(!scans.isEmpty()) {
+                    scanAuditRepository.bulkInsert(scans);
+                }
+                if(audits.length > 0) {
+                    auditingRepository.bulkInsert(audits);
+                }
+                return null;
+            });
+        } catch (RuntimeException e) {
+            writeErrors.incrementAndGet();
+            log.warn("error while writing {} check-in audit rows", batch.size(), e);
+            return false;
+        }
+        written.addAndGet(batch.size());
+        return true;
+    }
+
+    private static void sleepQuietly(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if(writer != null) {
+            stopped = true;
+            writer.shutdown();
+            try {
+                if(!writer.awaitTermination(SHUTDOWN_TIMEOUT_MS + 10_000L, TimeUnit.MILLISECONDS)) {
+                    log.warn("check-in audit writer did not terminate, {} rows have not been written", pendingRows.size());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    public String getMetricsGroup() {
+        return "check-in-fast-path";
+    }
+
+    @Override
+    public Map<String, Number> getMetrics() {
+        return Map.of(
+            "enabled", enabled ? 1 : 0,
+            "pending", pendingRows.size(),
+            "written", written.get(),
+            "writeErrors", writeErrors.get(),
+            "notWrittenOnShutdown", notWrittenOnShutdown.get(),
+            "indexedEvents", ticketIndex.estimatedSize(),
+            "indexHits", indexHits.get(),
+            "indexMisses", indexMisses.get()
+        );
+    }
+
+    @RequiredArgsConstructor
+    @ToString
+    private static class PendingRow {
+        private final ScanAudit scan;
+        private final MapSqlParameterSource audit;
+    }
+}
@@ -25,9 +25,7 @@ import alfio.model.audit.ScanAudit;
 import alfio.model.support.CheckInOutputColorConfiguration;
 import alfio.model.transaction.PaymentProxy;
 import alfio.repository.*;
-import alfio.repository.audit.ScanAuditRepository;
 import alfio.repository.user.OrganizationRepository;
-import alfio.repository.user.UserRepository;
 import alfio.util.Json;
 import alfio.util.MonetaryUtil;
 import com.google.gson.reflect.TypeToken;
@@ -35,6 +33,7 @@ import lombok.AllArgsConstructor;
 import lombok.extern.log4j.Log4j2;
 import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.collections4.ListUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.Validate;
 import org.apache.commons.lang3.tuple.Pair;
@@ -53,7 +52,7 @@ import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
-import java.util.function.Function;
+import java.util.function.BiConsumer;
 import java.util.function.Predicate;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -76,24 +75,58 @@ public class CheckInManager {
     private final TicketReservationRepository ticketReservationRepository;
     private final TicketFieldRepository ticketFieldRepository;
     private final TicketCategoryRepository ticketCategoryRepository;
-    private final ScanAuditRepository scanAuditRepository;
     private final AuditingRepository auditingRepository;
     private final ConfigurationManager configurationManager;
     private final OrganizationRepository organizationRepository;
-    private final UserRepository userRepository;
     private final TicketReservationManager ticketReservationManager;
     private final ExtensionManager extensionManager;
     private final AdditionalServiceItemRepository additionalServiceItemRepository;
+    private final CheckInFastPath checkInFastPath;
 
+    private static final int ATTENDEES_PAGE_SIZE = 200;
 
-    private void checkIn(String uuid) {
-        Ticket ticket = ticketRepository.findByUUID(uuid);
-        Validate.isTrue(ticket.getStatus() == TicketStatus.ACQUIRED);
-        ticketRepository.updateTicketStatusWithUUID(uuid, TicketStatus.CHECKED_IN.toString());
-        ticketRepository.toggleTicketLocking(ticket.getId(), ticket.getCategoryId(), true);
+
+    private void checkIn(int eventId, String uuid, int ticketId, int categoryId) {
+        // the update is conditional, so that a ticket cannot be checked in twice
+        Validate.isTrue(ticketRepository.checkIn(uuid) == 1, "Ticket is not in ACQUIRED state");
+        afterCheckIn(eventId, uuid, ticketId, categoryId);
+    }
+
+    private void afterCheckIn(int eventId, String uuid, int ticketId, int categoryId) {
+        checkInFastPath.ticketModified(eventId, uuid);
+        ticketRepository.toggleTicketLocking(ticketId, categoryId, true);
         extensionManager.handleTicketCheckedIn(ticketRepository.findByUUID(uuid));
     }
 
+    /**
+     * Tries to check in the ticket using the in-memory index. The update is applied only if the ticket is still
+     * ACQUIRED and the data used for validating the ticket code has not been modified in the meantime.
+     */
+    private Optional<TicketAndCheckInResult> indexedCheckIn(int eventId, String ticketIdentifier, Optional<String> ticketCode, String user) {
+        var indexed = checkInFastPath.findIndexedTicket(eventId, ticketIdentifier);
+        if(indexed.isEmpty()) {
+            return Optional.empty();
+        }
+        var descriptor = extractStatus(eventId, indexed, ticketIdentifier, ticketCode);
+        var ticket = indexed.get();
+        if(descriptor.getResult().getStatus() != OK_READY_TO_BE_CHECKED_IN
+            || ticketRepository.checkInIfUnchanged(ticketIdentifier, ticket.getTicketsReservationId(), ticket.getCategoryId(),
+                ticket.getFullName(), ticket.getFirstName(), ticket.getLastName(), ticket.getEmail()) != 1) {
+            // the outcome must be confirmed on the locked row
+            checkInFastPath.ticketModified(eventId, ticketIdentifier);
+            return Optional.empty();
+        }
+        afterCheckIn(eventId, ticketIdentifier, ticket.getId(), ticket.getCategoryId());
+        return Optional.of(checkedIn(eventId, descriptor.getTicket(), user));
+    }
+
+    private TicketAndCheckInResult checkedIn(int eventId, TicketWithCategory ticket, String user) {
+        checkInFastPath.scanAudit(ticket.getUuid(), eventId, ZonedDateTime.now(), user, SUCCESS, ScanAudit.Operation.SCAN);
+        checkInFastPath.audit(ticket.getTicketsReservationId(), checkInFastPath.findUserId(user), eventId, CHECK_IN, new Date(), Audit.EntityType.TICKET, Integer.toString(ticket.getId()));
+        // return also additional items, if any
+        return new SuccessfulCheckIn(ticket, getAdditionalServicesForTicket(ticket), loadBoxColor(ticket));
+    }
+
     private void acquire(String uuid) {
         Ticket ticket = ticketRepository.findByUUID(uuid);
         Validate.isTrue(ticket.getStatus() == TicketStatus.TO_BE_PAID);
@@ -137,19 +170,20 @@ public class CheckInManager {
     }
 
     public TicketAndCheckInResult checkIn(int eventId, String ticketIdentifier, Optional<String> ticketCode, String user) {
+        var indexed = indexedCheckIn(eventId, ticketIdentifier, ticketCode, user);
+        if(indexed.isPresent()) {
+            return indexed.get();
+        }
         TicketAndCheckInResult descriptor = extractStatus(eventId, ticketRepository.findByUUIDForUpdate(ticketIdentifier), ticketIdentifier, ticketCode);
         var checkInStatus = descriptor.getResult().getStatus();
         if(checkInStatus == OK_READY_TO_BE_CHECKED_IN) {
-            checkIn(ticketIdentifier);
             TicketWithCategory ticket = descriptor.getTicket();
-            scanAuditRepository.insert(ticketIdentifier, eventId, ZonedDateTime.now(), user, SUCCESS, ScanAudit.Operation.SCAN);
-            auditingRepository.insert(ticket.getTicketsReservationId(), userRepository.findIdByUserName(user).orElse(null), eventId, CHECK_IN, new Date(), Audit.EntityType.TICKET, Integer.toString(descriptor.getTicket().getId()));
-            // return also additional items, if any
-            return new SuccessfulCheckIn(ticket, getAdditionalServicesForTicket(ticket), loadBoxColor(ticket));
+            checkIn(eventId, ticketIdentifier, ticket.getId(), ticket.getCategoryId());
+            return checkedIn(eventId, ticket, user);
         } else if(checkInStatus == BADGE_SCAN_ALREADY_DONE || checkInStatus == OK_READY_FOR_BADGE_SCAN) {
             var auditingStatus = checkInStatus == OK_READY_FOR_BADGE_SCAN ? BADGE_SCAN_SUCCESS : checkInStatus;
-            scanAuditRepository.insert(ticketIdentifier, eventId, ZonedDateTime.now(), user, auditingStatus, ScanAudit.Operation.SCAN);
-            auditingRepository.insert(descriptor.getTicket().getTicketsReservationId(), userRepository.findIdByUserName(user).orElse(null), eventId, BADGE_SCAN, new Date(), Audit.EntityType.TICKET, Integer.toString(descriptor.getTicket().getId()));
+            checkInFastPath.scanAudit(ticketIdentifier, eventId, ZonedDateTime.now(), user, auditingStatus, ScanAudit.Operation.SCAN);
+            checkInFastPath.audit(descriptor.getTicket().getTicketsReservationId(), checkInFastPath.findUserId(user), eventId, BADGE_SCAN, new Date(), Audit.EntityType.TICKET, Integer.toString(descriptor.getTicket().getId()));
             return new TicketAndCheckInResult(null, new DefaultCheckInResult(auditingStatus, checkInStatus == OK_READY_FOR_BADGE_SCAN ? "scan successful" : "already scanned"));
         }
         return descriptor;
@@ -163,9 +197,9 @@ public class CheckInManager {
                 acquire(ticketIdentifier);
             }
 
-            checkIn(ticketIdentifier);
-            scanAuditRepository.insert(ticketIdentifier, eventId, ZonedDateTime.now(), user, SUCCESS, ScanAudit.Operation.SCAN);
-            auditingRepository.insert(t.getTicketsReservationId(), userRepository.findIdByUserName(user).orElse(null), eventId, Audit.EventType.MANUAL_CHECK_IN, new Date(), Audit.EntityType.TICKET, Integer.toString(t.getId()));
+            checkIn(eventId, ticketIdentifier, t.getId(), t.getCategoryId());
+            checkInFastPath.scanAudit(ticketIdentifier, eventId, ZonedDateTime.now(), user, SUCCESS, ScanAudit.Operation.SCAN);
+            checkInFastPath.audit(t.getTicketsReservationId(), checkInFastPath.findUserId(user), eventId, Audit.EventType.MANUAL_CHECK_IN, new Date(), Audit.EntityType.TICKET, Integer.toString(t.getId()));
             return true;
         }).orElse(false);
     }
@@ -176,8 +210,9 @@ public class CheckInManager {
                 TicketReservation reservation = ticketReservationRepository.findReservationById(t.getTicketsReservationId());
                 TicketStatus revertedStatus = reservation.getPaymentMethod() == PaymentProxy.ON_SITE ? TicketStatus.TO_BE_PAID : TicketStatus.ACQUIRED;
                 ticketRepository.updateTicketStatusWithUUID(ticketIdentifier, revertedStatus.toString());
-                scanAuditRepository.insert(ticketIdentifier, eventId, ZonedDateTime.now(), user, OK_READY_TO_BE_CHECKED_IN, ScanAudit.Operation.REVERT);
-                auditingRepository.insert(t.getTicketsReservationId(), userRepository.findIdByUserName(user).orElse(null), eventId, Audit.EventType.REVERT_CHECK_IN, new Date(), Audit.EntityType.TICKET, Integer.toString(t.getId()));
+                checkInFastPath.ticketModified(eventId, ticketIdentifier);
+                checkInFastPath.scanAudit(ticketIdentifier, eventId, ZonedDateTime.now(), user, OK_READY_TO_BE_CHECKED_IN, ScanAudit.Operation.REVERT);
+                checkInFastPath.audit(t.getTicketsReservationId(), checkInFastPath.findUserId(user), eventId, Audit.EventType.REVERT_CHECK_IN, new Date(), Audit.EntityType.TICKET, Integer.toString(t.getId()));
                 extensionManager.handleTicketRevertCheckedIn(ticketRepository.findByUUID(ticketIdentifier));
                 return true;
             }
@@ -216,7 +251,7 @@ public class CheckInManager {
             return new TicketAndCheckInResult(new TicketWithCategory(ticket, null), new DefaultCheckInResult(INVALID_TICKET_STATE, "Invalid ticket state"));
         }
 
-        TicketCategory tc = ticketCategoryRepository.getById(ticket.getCategoryId());
+        TicketCategory tc = checkInFastPath.getCategory(ticket.getCategoryId());
 
         Event event = maybeEvent.get();
         if(ticketCode.filter(StringUtils::isNotBlank).isEmpty()) {
@@ -226,8 +261,9 @@ public class CheckInManager {
                     return new TicketAndCheckInResult(new TicketWithCategory(ticket, null), new DefaultCheckInResult(INVALID_TICKET_CATEGORY_CHECK_IN_DATE, "Not allowed to check in at this time."));
                 }
                 var ticketsReservationId = ticket.getTicketsReservationId();
-                int previousScan = auditingRepository.countAuditsOfTypesInTheSameDay(ticketsReservationId, Set.of(CHECK_IN.name(), MANUAL_CHECK_IN.name(), BADGE_SCAN.name()), ZonedDateTime.now(event.getZoneId()));
-                if(previousScan > 0) {
+                // the fast path writes these audit types synchronously for events with ONCE_PER_DAY categories
+                var referenceDate = ZonedDateTime.now(event.getZoneId());
+                if(auditingRepository.countAuditsOfTypesInTheSameDay(ticketsReservationId, CheckInFastPath.DAILY_SCAN_TYPES, referenceDate) > 0) {
                     return new TicketAndCheckInResult(new TicketWithCategory(ticket, null), new DefaultCheckInResult(BADGE_SCAN_ALREADY_DONE, "Badge scan already done"));
                 }
                 return new TicketAndCheckInResult(new TicketWithCategory(ticket, null), new DefaultCheckInResult(OK_READY_FOR_BADGE_SCAN, "Badge scan already done"));
@@ -281,16 +317,24 @@ public class CheckInManager {
         return Optional.ofNullable(in).map(d -> d.withZoneSameInstant(zoneId));
     }
 
+    // Cipher and SecretKeyFactory are not thread safe, but can be reused: init() resets their state
+    private static final ThreadLocal<Pair<Cipher, SecretKeyFactory>> CIPHERS = ThreadLocal.withInitial(() -> {
+        try {
+            return Pair.of(Cipher.getInstance("AES/CBC/PKCS5Padding"), SecretKeyFactory.getInstance("PBKDF2WithHmacSHA1"));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
     private static Pair<Cipher, SecretKeySpec>  getCypher(String key) {
         try {
-            SecretKeyFactory factory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA1");
+            var cipherAndFactory = CIPHERS.get();
             int iterations = 1000;
             int keyLength = 256;
             PBEKeySpec spec = new PBEKeySpec(key.toCharArray(), key.getBytes(StandardCharsets.UTF_8), iterations, keyLength);
-            SecretKey secretKey = factory.generateSecret(spec);
+            SecretKey secretKey = cipherAndFactory.getRight().generateSecret(spec);
             SecretKeySpec secret = new SecretKeySpec(secretKey.getEncoded(), "AES");
-            Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
-            return Pair.of(cipher, secret);
+            return Pair.of(cipherAndFactory.getLeft(), secret);
         } catch (GeneralSecurityException e) {
             throw new IllegalStateException(e);
         }
@@ -332,6 +376,18 @@ public class CheckInManager {
             .orElseGet(Collections::emptyList);
     }
 
+    /**
+     * Returns at most {@code limit} identifiers of the attendees modified since the given date, in ascending order,
+     * starting after {@code afterId}.
+     */
+    public List<Integer> getAttendeesIdentifiers(EventAndOrganizationId ev, Date changedSince, int afterId, int limit, String username) {
+        return Optional.ofNullable(ev)
+            .filter(EventManager.checkOwnership(username, organizationRepository))
+            .filter(isOfflineCheckInEnabled())
+            .map(event -> ticketRepository.findAssignedByEventIdAfter(event.getId(), changedSince, afterId, limit))
+            .orElseGet(Collections::emptyList);
+    }
+
     public List<Integer> getAttendeesIdentifiers(int eventId, Date changedSince, String username) {
         return eventRepository.findOptionalById(eventId)
             .filter(EventManager.checkOwnership(username, organizationRepository))
@@ -355,81 +411,108 @@ public class CheckInManager {
     }
 
     public Map<String,String> getEncryptedAttendeesInformation(Event ev, Set<String> additionalFields, List<Integer> ids) {
+        Map<String, String> result = new HashMap<>();
+        writeEncryptedAttendeesInformation(ev, additionalFields, ids, result::put);
+        return result;
+    }
 
+    /**
+     * Encrypts the information of the given attendees, loading them {@value #ATTENDEES_PAGE_SIZE} at a time, and passes
+     * each (hashed ticket info, encrypted info) pair to the given consumer, so that the result can be streamed.
+     *
+     * @param ev the event
+     * @param additionalFields additional fields to be included
+     * @param ids the ticket ids
+     * @param consumer receives the encrypted information
+     * @return {@code false} if offline check-in is not enabled for the event
+     */
+    public boolean writeEncryptedAttendeesInformation(Event ev, Set<String> additionalFields, List<Integer> ids, BiConsumer<String, String> consumer) {
+        if(ev == null || !isOfflineCheckInEnabled().test(ev)) {
+            return false;
+        }
+        Map<Integer, TicketCategory> categories = ticketCategoryRepository.findByEventIdAsMap(ev.getId());
+        String eventKey = ev.getPrivateKey();
+        var outputColorConfiguration = getOutputColorConfiguration(ev, configurationManager);
+        for (List<Integer> page : ListUtils.partition(ids, ATTENDEES_PAGE_SIZE)) {
+            Map<Integer, List<TicketFieldValueAndDescription>> fieldValues = additionalFields.isEmpty() ? Map.of() :
+                ticketFieldRepository.findValueForTicketIds(page, additionalFields).stream()
+                    .collect(Collectors.groupingBy(TicketFieldValueAndDescription::getTicketId));
+            var tickets = ticketRepository.findAllFullTicketInfoAssignedByEventId(ev.getId(), page);
+            var additionalServices = getAdditionalServicesForTickets(ev.getId(), tickets);
+            for (FullTicketInfo ticket : tickets) {
+                var ticketFields = fieldValues.getOrDefault(ticket.getId(), List.of());
+                consumer.accept(DigestUtils.sha256Hex(ticket.hmacTicketInfo(eventKey)),
+                    encryptAttendeeInformation(ev, ticket, categories.get(ticket.getCategoryId()), additionalFields, ticketFields,
+                        additionalServices.getOrDefault(ticket.getId(), List.of()), outputColorConfiguration));
+            }
+        }
+        return true;
+    }
 
-        return Optional.ofNullable(ev).filter(isOfflineCheckInEnabled()).map(event -> {
-            Map<Integer, TicketCategory> categories = ticketCategoryRepository.findByEventIdAsMap(event.getId());
-            String eventKey = event.getPrivateKey();
-
-            Function<FullTicketInfo, String> hashedHMAC = ticket -> DigestUtils.sha256Hex(ticket.hmacTicketInfo(eventKey));
-            var outputColorConfiguration = getOutputColorConfiguration(event, configurationManager);
-
-            Function<FullTicketInfo, String> encryptedBody = ticket -> {
-                Map<String, String> info = new HashMap<>();
-                info.put("firstName", ticket.getFirstName());
-                info.put("lastName", ticket.getLastName());
-                info.put("fullName", ticket.getFullName());
-                info.put("email", ticket.getEmail());
-                info.put("status", ticket.getStatus().toString());
-                info.put("uuid", ticket.getUuid());
-                info.put("category", ticket.getTicketCategory().getName());
-                if(outputColorConfiguration != null) {
-                    info.put("boxColor", detectBoxColor(outputColorConfiguration, ticket.getCategoryId()));
-                }
+    private String encryptAttendeeInformation(Event event,
+                                              FullTicketInfo ticket,
+                                              TicketCategory tc,
+                                              Set<String> additionalFields,
+                                              List<TicketFieldValueAndDescription> ticketFields,
+                                              List<AdditionalServiceInfo> additionalServicesInfo,
+                                              CheckInOutputColorConfiguration outputColorConfiguration) {
+        Map<String, String> info = new HashMap<>();
+        info.put("firstName", ticket.getFirstName());
+        info.put("lastName", ticket.getLastName());
+        info.put("fullName", ticket.getFullName());
+        info.put("email", ticket.getEmail());
+        info.put("status", ticket.getStatus().toString());
+        info.put("uuid", ticket.getUuid());
+        info.put("category", ticket.getTicketCategory().getName());
+        if(outputColorConfiguration != null) {
+            info.put("boxColor", detectBoxColor(outputColorConfiguration, ticket.getCategoryId()));
+        }
 
-                if (!additionalFields.isEmpty()) {
-                    Map<String, String> fields = new HashMap<>();
-                    fields.put("company", trimToEmpty(ticket.getBillingDetails().getCompanyName()));
-                    fields.putAll(ticketFieldRepository.findValueForTicketId(ticket.getId(), additionalFields).stream()
-                        .map(vd -> {
-                            try {
-                                if(StringUtils.isNotBlank(vd.getDescription())) {
-                                    Map<String, Object> description = Json.GSON.fromJson(vd.getDescription(), new TypeToken<Map<String, Object>>(){}.getType());
-                                    Object rv = description.get("restrictedValues");
-                                    if(rv instanceof Map) {
-                                        @SuppressWarnings("unchecked")
-                                        Map<String, String> restrictedValues = (Map<String, String>) rv;
-                                        return Pair.of(vd.getName(), restrictedValues.getOrDefault(vd.getValue(), vd.getValue()));
-                                    }
-                                }
-                            } catch (Exception e) {
-                                log.error("cannot deserialize restricted values", e);
+        if (!additionalFields.isEmpty()) {
+            Map<String, String> fields = new HashMap<>();
+            fields.put("company", trimToEmpty(ticket.getBillingDetails().getCompanyName()));
+            fields.putAll(ticketFields.stream()
+                .map(vd -> {
+                    try {
+                        if(StringUtils.isNotBlank(vd.getDescription())) {
+                            Map<String, Object> description = Json.GSON.fromJson(vd.getDescription(), new TypeToken<Map<String, Object>>(){}.getType());
+                            Object rv = description.get("restrictedValues");
+                            if(rv instanceof Map) {
+                                @SuppressWarnings("unchecked")
+                                Map<String, String> restrictedValues = (Map<String, String>) rv;
+                                return Pair.of(vd.getName(), restrictedValues.getOrDefault(vd.getValue(), vd.getValue()));
                             }
-                            return Pair.of(vd.getName(), vd.getValue());
-                        })
-                        .collect(toMap(Pair::getLeft, Pair::getRight)));
-                    info.put("additionalInfoJson", Json.toJson(fields));
-                }
-
-                //
-                TicketCategory tc = categories.get(ticket.getCategoryId());
-                if (tc.getValidCheckInFrom() != null) {
-                    info.put("validCheckInFrom", Long.toString(tc.getValidCheckInFrom(event.getZoneId()).toEpochSecond()));
-                }
-                if (tc.getValidCheckInTo() != null) {
-                    info.put("validCheckInTo", Long.toString(tc.getValidCheckInTo(event.getZoneId()).toEpochSecond()));
-                }
-                if (tc.getTicketValidityStart() != null) {
-                    info.put("ticketValidityStart", Long.toString(tc.getTicketValidityStart(event.getZoneId()).toEpochSecond()));
-                }
-                if (tc.getTicketValidityEnd() != null) {
-                    info.put("ticketValidityEnd", Long.toString(tc.getTicketValidityEnd(event.getZoneId()).toEpochSecond()));
-                }
-                info.put("categoryCheckInStrategy", tc.getTicketCheckInStrategy().name());
-                //
+                        }
+                    } catch (Exception e) {
+                        log.error("cannot deserialize restricted values", e);
+                    }
+                    return Pair.of(vd.getName(), vd.getValue());
+                })
+                .collect(toMap(Pair::getLeft, Pair::getRight)));
+            info.put("additionalInfoJson", Json.toJson(fields));
+        }
 
-                var additionalServicesInfo = getAdditionalServicesForTicket(ticket);
-                if(!additionalServicesInfo.isEmpty()) {
-                    info.put("additionalServicesInfoJson", Json.toJson(additionalServicesInfo));
-                }
-                String key = ticket.ticketCode(eventKey);
-                return encrypt(key, Json.toJson(info));
-            };
-            return ticketRepository.findAllFullTicketInfoAssignedByEventId(event.getId(), ids)
-                .stream()
-                .collect(toMap(hashedHMAC, encryptedBody));
+        //
+        if (tc.getValidCheckInFrom() != null) {
+            info.put("validCheckInFrom", Long.toString(tc.getValidCheckInFrom(event.getZoneId()).toEpochSecond()));
+        }
+        if (tc.getValidCheckInTo() != null) {
+            info.put("validCheckInTo", Long.toString(tc.getValidCheckInTo(event.getZoneId()).toEpochSecond()));
+        }
+        if (tc.getTicketValidityStart() != null) {
+            info.put("ticketValidityStart", Long.toString(tc.getTicketValidityStart(event.getZoneId()).toEpochSecond()));
+        }
+        if (tc.getTicketValidityEnd() != null) {
+            info.put("ticketValidityEnd", Long.toString(tc.getTicketValidityEnd(event.getZoneId()).toEpochSecond()));
+        }
+        info.put("categoryCheckInStrategy", tc.getTicketCheckInStrategy().name());
+        //
 
-        }).orElseGet(Collections::emptyMap);
+        if(!additionalServicesInfo.isEmpty()) {
+            info.put("additionalServicesInfoJson", Json.toJson(additionalServicesInfo));
+        }
+        String key = ticket.ticketCode(event.getPrivateKey());
+        return encrypt(key, Json.toJson(info));
     }
 
     static CheckInOutputColorConfiguration getOutputColorConfiguration(EventAndOrganizationId event, ConfigurationManager configurationManager) {
@@ -455,26 +538,48 @@ public class CheckInManager {
     }
 
     List<AdditionalServiceInfo> getAdditionalServicesForTicket(TicketInfoContainer ticket) {
+        return getAdditionalServicesForTickets(ticket.getEventId(), List.of(ticket)).getOrDefault(ticket.getId(), List.of());
+    }
 
-        // temporary: return a result only for the first ticket
-        String ticketsReservationId = ticket.getTicketsReservationId();
-        int firstId = ticketRepository.findFirstTicketIdInReservation(ticketsReservationId).orElseThrow();
-        if(ticket.getId() != firstId) {
-            return List.of();
+    /**
+     * Loads the additional services booked for the given tickets with a fixed number of queries.
+     *
+     * @param eventId the event
+     * @param tickets the tickets
+     * @return the additional services, by ticket id
+     */
+    private Map<Integer, List<AdditionalServiceInfo>> getAdditionalServicesForTickets(int eventId, List<? extends TicketInfoContainer> tickets) {
+        if(tickets.isEmpty()) {
+            return Map.of();
         }
-
-        List<BookedAdditionalService> additionalServices = additionalServiceItemRepository.getAdditionalServicesBookedForReservation(ticketsReservationId, ticket.getUserLanguage(), ticket.getEventId());
-        boolean additionalServicesEmpty = additionalServices.isEmpty();
-        if(!additionalServicesEmpty) {
-            List<Integer> additionalServiceIds = additionalServices.stream().map(BookedAdditionalService::getAdditionalServiceId).collect(Collectors.toList());
-            Map<Integer, List<TicketFieldValueForAdditionalService>> fields = ticketFieldRepository.loadTicketFieldsForAdditionalService(ticket.getId(), additionalServiceIds)
-                .stream().collect(Collectors.groupingBy(TicketFieldValueForAdditionalService::getAdditionalServiceId));
-
-            return additionalServices.stream()
-                .map(as -> new AdditionalServiceInfo(as.getAdditionalServiceName(), as.getCount(), fields.get(as.getAdditionalServiceId())))
-                .collect(Collectors.toList());
+        // temporary: return a result only for the first ticket of each reservation
+        var reservationIds = tickets.stream().map(TicketInfoContainer::getTicketsReservationId).collect(Collectors.toSet());
+        var firstTicketIds = new HashSet<>(ticketRepository.findFirstTicketIdInReservations(reservationIds));
+        var firstTickets = tickets.stream().filter(t -> firstTicketIds.contains(t.getId())).collect(Collectors.toList());
+        if(firstTickets.isEmpty()) {
+            return Map.of();
+        }
+        var firstTicketIdsInPage = firstTickets.stream().map(TicketInfoContainer::getId).collect(Collectors.toList());
+        Map<String, List<BookedAdditionalService>> servicesByReservation = additionalServiceItemRepository.getAdditionalServicesBookedForTickets(firstTicketIdsInPage, eventId)
+            .stream().collect(Collectors.groupingBy(BookedAdditionalService::getReservationId));
+        if(servicesByReservation.isEmpty()) {
+            return Map.of();
         }
-        return List.of();
+        var additionalServiceIds = servicesByReservation.values().stream()
+            .flatMap(List::stream)
+            .map(BookedAdditionalService::getAdditionalServiceId)
+            .collect(Collectors.toSet());
+        Map<Integer, Map<Integer, List<TicketFieldValueForAdditionalService>>> fieldsByTicket = ticketFieldRepository.loadTicketFieldsForAdditionalService(firstTicketIdsInPage, additionalServiceIds)
+            .stream().collect(Collectors.groupingBy(TicketFieldValueForAdditionalService::getTicketId, Collectors.groupingBy(TicketFieldValueForAdditionalService::getAdditionalServiceId)));
+
+        return firstTickets.stream()
+            .filter(t -> servicesByReservation.containsKey(t.getTicketsReservationId()))
+            .collect(toMap(TicketInfoContainer::getId, t -> {
+                var fields = fieldsByTicket.getOrDefault(t.getId(), Map.of());
+                return servicesByReservation.get(t.getTicketsReservationId()).stream()
+                    .map(as -> new AdditionalServiceInfo(as.getAdditionalServiceName(), as.getCount(), fields.get(as.getAdditionalServiceId())))
+                    .collect(Collectors.toList());
+            }));
     }
 
     public CheckInStatistics getStatistics(String eventName, String username) {
@@ -44,9 +44,11 @@ import ch.digitalfondue.npjt.AffectedRowCountAndKey;
 import lombok.AllArgsConstructor;
 import lombok.extern.log4j.Log4j2;
 import org.apache.commons.collections.CollectionUtils;
+import org.apache.commons.collections4.ListUtils;
 import org.apache.commons.lang3.ObjectUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.Validate;
+import org.apache.commons.lang3.tuple.Pair;
 import org.apache.commons.lang3.tuple.Triple;
 import org.flywaydb.core.Flyway;
 import org.springframework.core.env.Environment;
@@ -86,6 +88,7 @@ import static java.util.stream.Collectors.*;
 @AllArgsConstructor
 public class EventManager {
 
+    private static final int CSV_EXPORT_PAGE_SIZE = 1000;
     private static final Predicate<TicketCategory> IS_CATEGORY_BOUNDED = TicketCategory::isBounded;
     private final UserManager userManager;
     private final EventRepository eventRepository;
@@ -108,6 +111,7 @@ public class EventManager {
     private final GroupRepository groupRepository;
     private final NamedParameterJdbcTemplate jdbcTemplate;
     private final ConfigurationRepository configurationRepository;
+    private final EventSnapshotCache eventSnapshotCache;
 
 
     public Event getSingleEvent(String eventName, String username) {
@@ -196,6 +200,7 @@ public class EventManager {
         }
         Event.Status status = activate ? Event.Status.PUBLIC : Event.Status.DRAFT;
         eventRepository.updateEventStatus(id, status);
+        eventSnapshotCache.invalidate(id);
         extensionManager.handleEventStatusChange(event, status);
     }
 
@@ -315,7 +320,7 @@ public class EventManager {
             begin, end, timeZone, em.getOrganizationId(), em.getLocales());
 
         createOrUpdateEventDescription(eventId, em);
-
+        eventSnapshotCache.invalidate(eventId);
 
         if(!original.getBegin().equals(begin) || !original.getEnd().equals(end)) {
             fixOutOfRangeCategories(em, username, zoneId, end);
@@ -340,6 +345,7 @@ public class EventManager {
         String paymentProxies = collectPaymentProxies(em);
         BigDecimal vat = em.isFreeOfCharge() ? BigDecimal.ZERO : em.getVatPercentage();
         eventRepository.updatePrices(em.getCurrency(), em.getAvailableSeats(), em.isVatIncluded(), vat, paymentProxies, eventId, em.getVatStatus(), em.getPriceInCents());
+        eventSnapshotCache.invalidate(eventId);
         if(seatsDifference != 0) {
             Event modified = eventRepository.findById(eventId);
             if(seatsDifference > 0) {
@@ -515,6 +521,7 @@ public class EventManager {
             ticketRepository.resetTickets(lockedTickets);
         }
         specialPriceRepository.cancelExpiredTokens(src.getId());
+        eventSnapshotCache.invalidate(event.getId());
     }
 
     public void unbindTickets(String eventName, int categoryId, String username) {
@@ -612,6 +619,7 @@ public class EventManager {
 
         insertOrUpdateTicketCategoryDescription(category.getKey(), tc, event);
         saveBadgeColorConfiguration(tc.getBadgeColor(), event, category.getKey());
+        eventSnapshotCache.invalidate(eventId);
         return category.getKey();
     }
 
@@ -648,6 +656,7 @@ public class EventManager {
             } else {
                 configurationRepository.insertEventLevel(event.getOrganizationId(), event.getId(), CHECK_IN_COLOR_CONFIGURATION.name(), Json.toJson(colorConfiguration), null);
             }
+            configurationManager.configurationModified(ConfigurationLevel.event(event));
 
         }
     }
@@ -705,7 +714,7 @@ public class EventManager {
         saveBadgeColorConfiguration(tc.getBadgeColor(), event, tc.getId());
 
         auditingRepository.insertUpdateTicketInCategoryId(tc.getId());
-
+        eventSnapshotCache.invalidate(eventId);
     }
 
     private void handleTicketAllocationStrategyChange(EventAndOrganizationId event, TicketCategory original, TicketCategoryModification updated) {
@@ -883,10 +892,16 @@ public class EventManager {
         }
 
         promoCodeRepository.addPromoCode(promoCode, eventId, organizationId, start, end, discountAmount, discountType, Json.GSON.toJson(categoriesId), maxUsage, description, emailReference, codeType, hiddenCategoryId);
+        if(eventId != null) {
+            eventSnapshotCache.invalidate(eventId);
+        } else {
+            eventSnapshotCache.invalidateAll();
+        }
     }
     
     public void deletePromoCode(int promoCodeId) {
         promoCodeRepository.deletePromoCode(promoCodeId);
+        eventSnapshotCache.invalidateAll();
     }
 
     public void updatePromoCode(int promoCodeId, ZonedDateTime start, ZonedDateTime end, Integer maxUsage, List<Integer> categories, String description, String emailReference, Integer hiddenCategoryId) {
@@ -912,10 +927,34 @@ public class EventManager {
         return StringUtils.removeEnd(baseUrl, "/") + "/event/" + event.getShortName() + "/";
     }
 
-    public List<TicketWithReservationAndTransaction> findAllConfirmedTicketsForCSV(String eventName, String username) {
+    /**
+     * Passes the confirmed tickets of the event, together with the requested additional field values, to the given
+     * consumer. Rows are loaded in pages of {@value #CSV_EXPORT_PAGE_SIZE} tickets while the stream is consumed, so the
+     * consumer must not collect it. The stream is valid only until the consumer returns, i.e. while the current
+     * transaction and the organization scope are still active.
+     *
+     * @param eventName the event
+     * @param username the current user
+     * @param additionalFields names of the additional fields to load
+     * @param consumer receives the tickets, in confirmation order, with their field values
+     */
+    @Transactional(readOnly = true)
+    public void exportAllConfirmedTicketsForCSV(String eventName,
+                                                String username,
+                                                Set<String> additionalFields,
+                                                Consumer<Stream<Pair<TicketWithReservationAndTransaction, Map<String, String>>>> consumer) {
         EventAndOrganizationId event = getEventAndOrganizationId(eventName, username);
         checkOwnership(event, username, event.getOrganizationId());
-        return ticketRepository.findAllConfirmedForCSV(event.getId());
+        int eventId = event.getId();
+        var tickets = ListUtils.partition(ticketRepository.findAllConfirmedIdsForCSV(eventId), CSV_EXPORT_PAGE_SIZE).stream()
+            .flatMap(page -> {
+                Map<Integer, Map<String, String>> fieldValues = additionalFields.isEmpty() ? Map.of() :
+                    ticketFieldRepository.findValuesByTicketIdsAndNames(page, additionalFields).stream()
+                        .collect(groupingBy(TicketFieldValue::getTicketId, toMap(TicketFieldValue::getName, TicketFieldValue::getValue)));
+                return ticketRepository.findAllConfirmedForCSV(eventId, page).stream()
+                    .map(t -> Pair.of(t, fieldValues.getOrDefault(t.getTicket().getId(), Map.of())));
+            });
+        consumer.accept(tickets);
     }
 
     public List<Event> getPublishedEvents() {
@@ -1022,12 +1061,13 @@ public class EventManager {
         eventDeleterRepository.deleteScanAudit(eventId);
 		
 		eventDeleterRepository.deleteEvent(eventId);
-		
+		eventSnapshotCache.invalidate(eventId);
 	}
 
     public void disableEventsFromUsers(List<Integer> userIds) {
         if(!userIds.isEmpty()) {
             eventRepository.disableEventsForUsers(userIds);
+            eventSnapshotCache.invalidateAll();
         }
     }
 
@@ -1058,6 +1098,12 @@ public class EventManager {
             ticketRepository.resetTickets(ticketIds);
             Validate.isTrue(ticketsCount == ticketRepository.unbindTicketsFromCategory(eventId, categoryId, ticketIds), "Cannot remove tickets from category.");
         }
+        eventSnapshotCache.invalidate(eventId);
+    }
+
+    public void updateAvailableSeats(int eventId, int availableSeats) {
+        eventRepository.updateAvailableSeats(eventId, availableSeats);
+        eventSnapshotCache.invalidate(eventId);
     }
 
     public void rearrangeCategories(String eventName, List<CategoryOrdinalModification> categories, String username) {
@@ -1071,6 +1117,7 @@ public class EventManager {
                 .toArray(MapSqlParameterSource[]::new);
             int[] results = jdbcTemplate.batchUpdate(ticketCategoryRepository.updateOrdinal(), parameterSources);
             Validate.isTrue(IntStream.of(results).sum() == categories.size(), "Unexpected result from update.");
+            eventSnapshotCache.invalidate(eventId);
         } else {
             log.warn("unauthorized access to event {}", eventName);
         }
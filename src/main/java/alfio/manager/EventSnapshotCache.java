@@ -0,0 +1,159 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.manager;
+
+import alfio.manager.support.MetricsProvider;
+import alfio.manager.system.ClusterAwareCache;
+import alfio.manager.system.ClusterNotificationManager;
+import alfio.model.Event;
+import alfio.model.TicketCategory;
+import alfio.model.user.Organization;
+import alfio.repository.EventDescriptionRepository;
+import alfio.repository.EventRepository;
+import alfio.repository.PromoCodeDiscountRepository;
+import alfio.repository.TicketCategoryDescriptionRepository;
+import alfio.repository.TicketCategoryRepository;
+import alfio.repository.user.OrganizationRepository;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.Value;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+/**
+ * <p>Read-through cache for the public event pages: for a given short name it keeps the {@link Event}, its
+ * descriptions, the organizer contact and the metadata of the active ticket categories.</p>
+ *
+ * <p>Entries expire after {@code alfio.cache.event-snapshot.ttl-seconds} (default 30) and are evicted on all nodes
+ * whenever the event, its categories or its organization are modified: code which updates them must call
+ * {@link #invalidate(int)} or {@link #invalidateAll()}. Availability counters are not part of the snapshot
+ * and must always be read from the database.</p>
+ */
+@Component
+@Log4j2
+public class EventSnapshotCache implements MetricsProvider {
+
+    private final ClusterAwareCache<String, EventSnapshot> cache;
+    private final EventRepository eventRepository;
+    private final EventDescriptionRepository eventDescriptionRepository;
+    private final OrganizationRepository organizationRepository;
+    private final TicketCategoryRepository ticketCategoryRepository;
+    private final TicketCategoryDescriptionRepository ticketCategoryDescriptionRepository;
+    private final PromoCodeDiscountRepository promoCodeDiscountRepository;
+
+    public EventSnapshotCache(ClusterNotificationManager clusterNotificationManager,
+                              Environment environment,
+                              EventRepository eventRepository,
+                              EventDescriptionRepository eventDescriptionRepository,
+                              OrganizationRepository organizationRepository,
+                              TicketCategoryRepository ticketCategoryRepository,
+                              TicketCategoryDescriptionRepository ticketCategoryDescriptionRepository,
+                              PromoCodeDiscountRepository promoCodeDiscountRepository) {
+        this.eventRepository = eventRepository;
+        this.eventDescriptionRepository = eventDescriptionRepository;
+        this.organizationRepository = organizationRepository;
+        this.ticketCategoryRepository = ticketCategoryRepository;
+        this.ticketCategoryDescriptionRepository = ticketCategoryDescriptionRepository;
+        this.promoCodeDiscountRepository = promoCodeDiscountRepository;
+        int ttl = environment.getProperty("alfio.cache.event-snapshot.ttl-seconds", Integer.class, 30);
+        this.cache = new ClusterAwareCache<>("event-snapshot",
+            Caffeine.newBuilder().maximumSize(1_000).expireAfterWrite(ttl, TimeUnit.SECONDS),
+            clusterNotificationManager,
+            environment,
+            this::scopeMatcher);
+    }
+
+    public Optional<EventSnapshot> findByShortName(String shortName) {
+        return Optional.ofNullable(cache.get(shortName, this::load));
+    }
+
+    public Optional<Event> findEventByShortName(String shortName) {
+        return findByShortName(shortName).map(EventSnapshot::getEvent);
+    }
+
+    /**
+     * Evict the snapshot of the given event, on all nodes.
+     *
+     * @param eventId the modified event
+     */
+    public void invalidate(int eventId) {
+        cache.invalidate(Integer.toString(eventId));
+    }
+
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    private EventSnapshot load(String shortName) {
+        return eventRepository.findOptionalByShortName(shortName).map(event -> {
+            int eventId = event.getId();
+            var categories = List.copyOf(ticketCategoryRepository.findAllTicketCategories(eventId));
+            var categoryIds = categories.stream().map(TicketCategory::getId).collect(Collectors.toList());
+            var categoryDescriptions = ticketCategoryDescriptionRepository.descriptionsByTicketCategory(categoryIds).entrySet().stream()
+                .collect(Collectors.toUnmodifiableMap(Map.Entry::getKey, e -> Map.copyOf(e.getValue())));
+            return new EventSnapshot(event,
+                Map.copyOf(eventDescriptionRepository.findDescriptionByEventIdAsMap(eventId)),
+                organizationRepository.getContactById(event.getOrganizationId()),
+                categories,
+                categoryDescriptions,
+                ticketCategoryRepository.countAccessRestrictedRepositoryByEventId(eventId),
+                promoCodeDiscountRepository.countByEventAndOrganizationId(eventId, event.getOrganizationId()));
+        }).orElse(null);
+    }
+
+    private Predicate<String> scopeMatcher(String payload) {
+        try {
+            int eventId = Integer.parseInt(payload);
+            // the event id is read from the cached entry, so that there is nothing else to keep in sync
+            return shortName -> {
+                var snapshot = cache.peek(shortName);
+                return snapshot != null && snapshot.getEvent().getId() == eventId;
+            };
+        } catch (NumberFormatException e) {
+            log.warn("cannot parse payload {}", payload, e);
+            return null;
+        }
+    }
+
+    @Override
+    public String getMetricsGroup() {
+        return cache.getMetricsGroup();
+    }
+
+    @Override
+    public Map<String, Number> getMetrics() {
+        return cache.getMetrics();
+    }
+
+    @Value
+    public static class EventSnapshot {
+        Event event;
+        Map<String, String> descriptions;
+        Organization.OrganizationContact organizationContact;
+        List<TicketCategory> ticketCategories;
+        Map<Integer, Map<String, String>> ticketCategoryDescriptions;
+        int accessRestrictedCategoriesCount;
+        int promoCodesCount;
+    }
+}
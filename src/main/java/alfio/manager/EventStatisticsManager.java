@@ -54,6 +54,7 @@ public class EventStatisticsManager {
     private final TicketCategoryDescriptionRepository ticketCategoryDescriptionRepository;
     private final TicketReservationRepository ticketReservationRepository;
     private final SpecialPriceRepository specialPriceRepository;
+    private final EventStatisticsSnapshotManager eventStatisticsSnapshotManager;
     private final ConfigurationManager configurationManager;
     private final UserManager userManager;
 
@@ -69,7 +70,7 @@ public class EventStatisticsManager {
         if(!mappedEvent.isEmpty()) {
             boolean isOwner = userManager.isOwner(userManager.findUserByUsername(username));
             Set<Integer> ids = mappedEvent.keySet();
-            Stream<EventStatisticView> stats = isOwner ? eventRepository.findStatisticsFor(ids).stream() : ids.stream().map(EventStatisticView::empty);
+            Stream<EventStatisticView> stats = isOwner ? eventStatisticsSnapshotManager.findStatisticsFor(ids).stream() : ids.stream().map(EventStatisticView::empty);
             return stats.map(stat -> {
                 Event event = mappedEvent.get(stat.getEventId());
                 return new EventStatistic(event, stat, displayStatisticsForEvent(event));
@@ -89,10 +90,22 @@ public class EventStatisticsManager {
     }
 
     public EventWithAdditionalInfo getEventWithAdditionalInfo(String eventName, String username) {
+        return getEventWithAdditionalInfo(eventName, username, false);
+    }
+
+    /**
+     * Same as {@link #getEventWithAdditionalInfo(String, String)}, but the statistics can be read from the snapshot.
+     * Must not be used if the result is going to be used for modifying the event.
+     */
+    public EventWithAdditionalInfo getEventWithAdditionalInfoForDashboard(String eventName, String username) {
+        return getEventWithAdditionalInfo(eventName, username, true);
+    }
+
+    private EventWithAdditionalInfo getEventWithAdditionalInfo(String eventName, String username, boolean fromSnapshot) {
         Event event = getEventAndCheckOwnership(eventName, username);
         Map<String, String> description = eventDescriptionRepository.findByEventIdAsMap(event.getId());
         boolean owner = userManager.isOwner(userManager.findUserByUsername(username));
-        EventStatisticView statistics = owner ? eventRepository.findStatisticsFor(event.getId()) : EventStatisticView.empty(event.getId());
+        EventStatisticView statistics = owner ? loadStatistics(event, fromSnapshot) : EventStatisticView.empty(event.getId());
         EventStatistic eventStatistic = new EventStatistic(event, statistics, displayStatisticsForEvent(event));
         BigDecimal grossIncome = owner ? MonetaryUtil.centsToUnit(eventRepository.getGrossIncome(event.getId()), event.getCurrency()) : BigDecimal.ZERO;
 
@@ -100,7 +113,7 @@ public class EventStatisticsManager {
         List<Integer> ticketCategoriesIds = ticketCategories.stream().map(TicketCategory::getId).collect(Collectors.toList());
 
         Map<Integer, Map<String, String>> descriptions = ticketCategoryDescriptionRepository.descriptionsByTicketCategory(ticketCategoriesIds);
-        Map<Integer, TicketCategoryStatisticView> ticketCategoriesStatistics = owner ? ticketCategoryRepository.findStatisticsForEventIdByCategoryId(event.getId()) : ticketCategoriesIds.stream().collect(toMap(Function.identity(), id -> TicketCategoryStatisticView.empty(id, event.getId())));
+        Map<Integer, TicketCategoryStatisticView> ticketCategoriesStatistics = owner ? loadTicketCategoriesStatistics(event, fromSnapshot) : ticketCategoriesIds.stream().collect(toMap(Function.identity(), id -> TicketCategoryStatisticView.empty(id, event.getId())));
         Map<Integer, List<SpecialPrice>> specialPrices = ticketCategoriesIds.isEmpty() ? Collections.emptyMap() : specialPriceRepository.findAllByCategoriesIdsMapped(ticketCategoriesIds);
 
         List<TicketCategoryWithAdditionalInfo> tWithInfo = ticketCategories.stream()
@@ -110,6 +123,14 @@ public class EventStatisticsManager {
         return new EventWithAdditionalInfo(event, tWithInfo, eventStatistic, description, grossIncome);
     }
 
+    private EventStatisticView loadStatistics(Event event, boolean fromSnapshot) {
+        return fromSnapshot ? eventStatisticsSnapshotManager.findStatisticsFor(event.getId()) : eventRepository.findStatisticsFor(event.getId());
+    }
+
+    private Map<Integer, TicketCategoryStatisticView> loadTicketCategoriesStatistics(Event event, boolean fromSnapshot) {
+        return fromSnapshot ? eventStatisticsSnapshotManager.findTicketCategoryStatisticsFor(event.getId()) : ticketCategoryRepository.findStatisticsForEventIdByCategoryId(event.getId());
+    }
+
     private List<TicketCategory> loadTicketCategories(EventAndOrganizationId event) {
         return ticketCategoryRepository.findAllTicketCategories(event.getId());
     }
@@ -0,0 +1,204 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.manager;
+
+import alfio.config.Initializer;
+import alfio.manager.support.MetricsProvider;
+import alfio.model.EventStatisticView;
+import alfio.model.TicketCategoryStatisticView;
+import alfio.repository.EventRepository;
+import alfio.repository.StatisticsSnapshotRepository;
+import alfio.repository.TicketCategoryRepository;
+import lombok.extern.log4j.Log4j2;
+import org.apache.commons.collections4.ListUtils;
+import org.springframework.core.env.Environment;
+import org.springframework.core.env.Profiles;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * <p>Manages the statistics snapshot served to the admin dashboard: {@code events_statistics_snapshot} and
+ * {@code ticket_category_statistics_snapshot} are equivalent to {@code events_statistics} and
+ * {@code ticket_category_statistics}, but the ticket counters, which are expensive to compute when there are many
+ * events and tickets, are read from tables.</p>
+ *
+ * <p>Triggers on {@code ticket} and {@code tickets_reservation} record the modified events in
+ * {@code statistics_snapshot_change}. A scheduled job recomputes the counters of those events only; the job runs on
+ * one node at a time, the other nodes return as soon as they fail to get the lock.</p>
+ *
+ * <p>If a modification has not been applied within {@code alfio.statistics.snapshot.max-staleness-seconds}
+ * (default 60), or the snapshot has never been built, the statistics are loaded from the live views.</p>
+ */
+@Component
+@Log4j2
+public class EventStatisticsSnapshotManager implements MetricsProvider {
+
+    // random, used for serializing the refresh between nodes
+    private static final long REFRESH_LOCK_KEY = 7_355_421_086_310_294_519L;
+    private static final int REFRESH_CHUNK_SIZE = 500;
+
+    private final EventRepository eventRepository;
+    private final TicketCategoryRepository ticketCategoryRepository;
+    private final StatisticsSnapshotRepository statisticsSnapshotRepository;
+    private final boolean enabled;
+    private final int maxStalenessSeconds;
+    private final AtomicLong snapshotReads = new AtomicLong();
+    private final AtomicLong liveReads = new AtomicLong();
+    private final AtomicLong refreshes = new AtomicLong();
+    private final AtomicLong refreshedEvents = new AtomicLong();
+    private final AtomicLong lastRefreshDurationMillis = new AtomicLong();
+    private final AtomicLong lastInconsistencies = new AtomicLong();
+
+    public EventStatisticsSnapshotManager(EventRepository eventRepository,
+                                          TicketCategoryRepository ticketCategoryRepository,
+                                          StatisticsSnapshotRepository statisticsSnapshotRepository,
+                                          Environment environment) {
+        this.eventRepository = eventRepository;
+        this.ticketCategoryRepository = ticketCategoryRepository;
+        this.statisticsSnapshotRepository = statisticsSnapshotRepository;
+        // tests check the statistics right after having modified the tickets
+        this.enabled = environment.getProperty("alfio.statistics.snapshot.enabled", Boolean.class,
+            !environment.acceptsProfiles(Profiles.of(Initializer.PROFILE_INTEGRATION_TEST)));
+        this.maxStalenessSeconds = environment.getProperty("alfio.statistics.snapshot.max-staleness-seconds", Integer.class, 60);
+    }
+
+    @Transactional(readOnly = true)
+    public List<EventStatisticView> findStatisticsFor(Set<Integer> ids) {
+        if(!enabled || ids.isEmpty() || !isSnapshotFresh()) {
+            liveReads.incrementAndGet();
+            return eventRepository.findStatisticsFor(ids);
+        }
+        snapshotReads.incrementAndGet();
+        List<EventStatisticView> result = new ArrayList<>(statisticsSnapshotRepository.findEventStatisticsFor(ids));
+        if(result.size() < ids.size()) {
+            // events without categories are not in the view, as in events_statistics
+            Set<Integer> found = result.stream().map(EventStatisticView::getEventId).collect(Collectors.toSet());
+            Set<Integer> missing = ids.stream().filter(id -> !found.contains(id)).collect(Collectors.toSet());
+            result.addAll(eventRepository.findStatisticsFor(missing));
+        }
+        return result;
+    }
+
+    @Transactional(readOnly = true)
+    public EventStatisticView findStatisticsFor(int eventId) {
+        return findStatisticsFor(Set.of(eventId)).stream().findFirst().orElseGet(() -> eventRepository.findStatisticsFor(eventId));
+    }
+
+    @Transactional(readOnly = true)
+    public Map<Integer, TicketCategoryStatisticView> findTicketCategoryStatisticsFor(int eventId) {
+        if(!enabled || !isSnapshotFresh()) {
+            liveReads.incrementAndGet();
+            return ticketCategoryRepository.findStatisticsForEventIdByCategoryId(eventId);
+        }
+        snapshotReads.incrementAndGet();
+        return statisticsSnapshotRepository.findTicketCategoryStatisticsFor(eventId).stream()
+            .collect(Collectors.toMap(TicketCategoryStatisticView::getId, Function.identity()));
+    }
+
+    /**
+     * Recomputes the counters of the events modified since the last run, or of all the events if the snapshot has
+     * never been built.
+     */
+    @Transactional
+    public void refresh() {
+        if(!enabled || !eventRepository.tryAdvisoryTransactionLock(REFRESH_LOCK_KEY)) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        boolean built = statisticsSnapshotRepository.getDelaySeconds() != null;
+        // modifications committed from now on will be applied by the next run
+        Set<Integer> changed = new TreeSet<>(statisticsSnapshotRepository.consumeChanges());
+        if(built && changed.isEmpty()) {
+            return;
+        }
+        List<Integer> eventIds = built ? new ArrayList<>(changed) : statisticsSnapshotRepository.findAllEventIds();
+        refreshEvents(eventIds);
+        statisticsSnapshotRepository.updateRefreshTimestamp();
+        refreshes.incrementAndGet();
+        refreshedEvents.addAndGet(eventIds.size());
+        lastRefreshDurationMillis.set(System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Compares the snapshot which is currently served with the live views, then refreshes the events which differ.
+     * Events modified after the last refresh are expected to differ; a high number of differences means that the
+     * modifications are not tracked, or that the snapshot definition is wrong.
+     *
+     * @return the ids of the events having different statistics before the refresh
+     */
+    @Transactional
+    public List<Integer> checkConsistency() {
+        if(!enabled || !eventRepository.tryAdvisoryTransactionLock(REFRESH_LOCK_KEY)) {
+            return List.of();
+        }
+        Set<Integer> inconsistent = new TreeSet<>(findDifferences(statisticsSnapshotRepository.findAllEventStatistics(),
+            eventRepository.findAllStatistics(), EventStatisticView::getEventId, EventStatisticView::getEventId));
+        inconsistent.addAll(findDifferences(statisticsSnapshotRepository.findAllTicketCategoryStatistics(),
+            ticketCategoryRepository.findAllStatistics(), TicketCategoryStatisticView::getId, TicketCategoryStatisticView::getEventId));
+        if(!inconsistent.isEmpty()) {
+            log.warn("statistics snapshot is not consistent with the live views for events {}", inconsistent);
+            refreshEvents(new ArrayList<>(inconsistent));
+        }
+        lastInconsistencies.set(inconsistent.size());
+        return List.copyOf(inconsistent);
+    }
+
+    private static <T> Set<Integer> findDifferences(List<T> snapshot, List<T> live, Function<T, Integer> key, Function<T, Integer> eventId) {
+        Map<Integer, T> snapshotByKey = snapshot.stream().collect(Collectors.toMap(key, Function.identity()));
+        return live.stream()
+            .filter(stat -> !stat.equals(snapshotByKey.get(key.apply(stat))))
+            .map(eventId)
+            .collect(Collectors.toSet());
+    }
+
+    private void refreshEvents(List<Integer> eventIds) {
+        for (List<Integer> chunk : ListUtils.partition(eventIds, REFRESH_CHUNK_SIZE)) {
+            statisticsSnapshotRepository.deleteTicketCategoryCounts(chunk);
+            statisticsSnapshotRepository.insertTicketCategoryCounts(chunk);
+            statisticsSnapshotRepository.deleteEventCounts(chunk);
+            statisticsSnapshotRepository.insertEventCounts(chunk);
+        }
+    }
+
+    private boolean isSnapshotFresh() {
+        Integer delay = statisticsSnapshotRepository.getDelaySeconds();
+        return delay != null && delay <= maxStalenessSeconds;
+    }
+
+    @Override
+    public String getMetricsGroup() {
+        return "events-statistics-snapshot";
+    }
+
+    @Override
+    public Map<String, Number> getMetrics() {
+        return Map.of(
+            "enabled", enabled ? 1 : 0,
+            "snapshotReads", snapshotReads.get(),
+            "liveReads", liveReads.get(),
+            "refreshes", refreshes.get(),
+            "refreshedEvents", refreshedEvents.get(),
+            "lastRefreshDurationMillis", lastRefreshDurationMillis.get(),
+            "lastInconsistencies", lastInconsistencies.get()
+        );
+    }
+}
@@ -0,0 +1,119 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.manager;
+
+import alfio.manager.support.MetricsProvider;
+import alfio.repository.TicketReservationRepository;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.DefaultTransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.Date;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Removes the expired PENDING reservations in chunks of {@code alfio.reservation.cleanup.chunk-size}, each one
+ * in its own short transaction, so that the row locks on tickets and reservations are not held for the whole backlog
+ * and live checkouts are not blocked.</p>
+ *
+ * <p>Each run stops after {@code alfio.reservation.cleanup.time-budget-ms}: the remaining reservations will be
+ * removed by the next runs.</p>
+ */
+@Component
+@Log4j2
+public class ExpiredReservationsCleaner implements MetricsProvider {
+
+    private final TicketReservationManager ticketReservationManager;
+    private final TicketReservationRepository ticketReservationRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final int chunkSize;
+    private final long timeBudgetMs;
+
+    private final AtomicLong backlog = new AtomicLong();
+    private final AtomicLong removed = new AtomicLong();
+    private final AtomicLong lastRunRemoved = new AtomicLong();
+    private final AtomicLong lastRunDurationMs = new AtomicLong();
+    private final AtomicLong lastRunThroughput = new AtomicLong();
+    private final AtomicLong budgetExhausted = new AtomicLong();
+
+    public ExpiredReservationsCleaner(TicketReservationManager ticketReservationManager,
+                                      TicketReservationRepository ticketReservationRepository,
+                                      PlatformTransactionManager transactionManager,
+                                      Environment environment) {
+        this.ticketReservationManager = ticketReservationManager;
+        this.ticketReservationRepository = ticketReservationRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager, new DefaultTransactionDefinition(TransactionDefinition.PROPAGATION_REQUIRES_NEW));
+        this.chunkSize = environment.getProperty("alfio.reservation.cleanup.chunk-size", Integer.class, 500);
+        this.timeBudgetMs = environment.getProperty("alfio.reservation.cleanup.time-budget-ms", Long.class, 10_000L);
+    }
+
+    /**
+     * @param expirationDate reservations expired before this date will be removed
+     * @return the number of removed reservations
+     */
+    public int cleanup(Date expirationDate) {
+        long start = System.currentTimeMillis();
+        long deadline = start + timeBudgetMs;
+        int total = 0;
+        int lastChunk;
+        do {
+            lastChunk = Objects.requireNonNull(transactionTemplate.execute(status -> ticketReservationManager.cleanupExpiredReservations(expirationDate, chunkSize)));
+            total += lastChunk;
+        } while (lastChunk == chunkSize && System.currentTimeMillis() < deadline);
+
+        long duration = Math.max(1L, System.currentTimeMillis() - start);
+        removed.addAndGet(total);
+        lastRunRemoved.set(total);
+        lastRunDurationMs.set(duration);
+        lastRunThroughput.set(total * 1000L / duration);
+        if(lastChunk == chunkSize) {
+            budgetExhausted.incrementAndGet();
+            int remaining = ticketReservationRepository.countExpiredReservations(expirationDate);
+            backlog.set(remaining);
+            log.warn("removed {} expired reservations in {} ms, {} still to be removed", total, duration, remaining);
+        } else {
+            backlog.set(0);
+            if(total > 0) {
+                log.debug("removed {} expired reservations in {} ms", total, duration);
+            }
+        }
+        return total;
+    }
+
+    @Override
+    public String getMetricsGroup() {
+        return "expired-reservations-cleanup";
+    }
+
+    @Override
+    public Map<String, Number> getMetrics() {
+        return Map.of(
+            "backlog", backlog.get(),
+            "removed", removed.get(),
+            "lastRunRemoved", lastRunRemoved.get(),
+            "lastRunDurationMs", lastRunDurationMs.get(),
+            "lastRunThroughputPerSecond", lastRunThroughput.get(),
+            "budgetExhausted", budgetExhausted.get()
+        );
+    }
+}
@@ -0,0 +1,259 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.manager;
+
+import alfio.repository.InvoiceSequencesRepository;
+import ch.digitalfondue.npjt.QueryFactory;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import lombok.extern.log4j.Log4j2;
+import org.apache.commons.lang3.Validate;
+import org.apache.commons.lang3.tuple.Pair;
+import org.springframework.core.env.Environment;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.AbstractPlatformTransactionManager;
+import org.springframework.transaction.support.DefaultTransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.CustomizableThreadFactory;
+
+import javax.annotation.PreDestroy;
+import javax.sql.DataSource;
+import java.sql.SQLException;
+import java.time.ZonedDateTime;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.function.IntFunction;
+
+/**
+ * <p>Allocates gapless invoice numbers.</p>
+ *
+ * <p>By default, the organization sequence is locked in the caller's transaction until it completes, so that
+ * invoice numbers follow the chronological order of the confirmations.</p>
+ *
+ * <p>Organizations can opt in to {@link alfio.model.system.ConfigurationKeys#REUSE_RELEASED_INVOICE_NUMBERS}: the
+ * sequence row is then locked only in a short, separate transaction, which records the allocation. The allocation is
+ * confirmed or released when the caller's transaction completes, and released numbers are assigned first by the
+ * following allocations, so that no holes are left in the numbering. As a consequence, an invoice could get a number
+ * lower than the one of an invoice issued before.</p>
+ *
+ * <p>Separate transactions run on a dedicated pool of {@code alfio.invoice.allocation-pool-size} connections (default: 2),
+ * so that they never compete with the caller's transaction for a connection of the main pool. A caller never waits for
+ * a dedicated connection: when none is available, the number is allocated in its own transaction as above.</p>
+ */
+@Component
+@Log4j2
+public class InvoiceNumberAllocator {
+
+    private final InvoiceSequencesRepository invoiceSequencesRepository;
+    private final TransactionTemplate requiresNewTransactionTemplate;
+    private final int staleAllocationMinutes;
+    private final HikariDataSource allocationDataSource;
+    private final InvoiceSequencesRepository allocationRepository;
+    private final TransactionTemplate allocationTransactionTemplate;
+    private final Semaphore allocationConnections;
+    private final ExecutorService completionExecutor;
+
+    public InvoiceNumberAllocator(InvoiceSequencesRepository invoiceSequencesRepository,
+                                  PlatformTransactionManager transactionManager,
+                                  DataSource dataSource,
+                                  Environment environment) {
+        this.invoiceSequencesRepository = invoiceSequencesRepository;
+        this.requiresNewTransactionTemplate = new TransactionTemplate(transactionManager, new DefaultTransactionDefinition(TransactionDefinition.PROPAGATION_REQUIRES_NEW));
+        this.staleAllocationMinutes = environment.getProperty("alfio.invoice.stale-allocation-minutes", Integer.class, 60);
+        int poolSize = environment.getProperty("alfio.invoice.allocation-pool-size", Integer.class, 2);
+        this.allocationDataSource = poolSize > 0 ? createAllocationDataSource(dataSource, poolSize) : null;
+        if(allocationDataSource != null) {
+            this.allocationRepository = QueryFactory.from(InvoiceSequencesRepository.class, "PGSQL", allocationDataSource);
+            var allocationTransactionManager = new DataSourceTransactionManager(allocationDataSource);
+            // the synchronizations registered by the caller's transaction must not be triggered by the allocation
+            allocationTransactionManager.setTransactionSynchronization(AbstractPlatformTransactionManager.SYNCHRONIZATION_NEVER);
+            this.allocationTransactionTemplate = new TransactionTemplate(allocationTransactionManager);
+        } else {
+            this.allocationRepository = null;
+            this.allocationTransactionTemplate = null;
+        }
+        // one permit per connection: getConnection on the dedicated pool never waits for a connection to be released
+        this.allocationConnections = new Semaphore(allocationDataSource != null ? poolSize : 0);
+        this.completionExecutor = Executors.newSingleThreadExecutor(new CustomizableThreadFactory("alfio-invoice-allocation-"));
+    }
+
+    private static HikariDataSource createAllocationDataSource(DataSource dataSource, int poolSize) {
+        try {
+            if(dataSource.isWrapperFor(HikariDataSource.class)) {
+                var config = new HikariConfig();
+                var main = dataSource.unwrap(HikariDataSource.class);
+                main.copyStateTo(config);
+                config.setPoolName(Objects.requireNonNullElse(main.getPoolName(), "alfio") + "-invoice-allocation");
+                config.setMaximumPoolSize(poolSize);
+                config.setMinimumIdle(0);
+                return new HikariDataSource(config);
+            }
+            log.info("the connection pool cannot be copied, invoice numbers will be allocated in the current transaction");
+        } catch (SQLException e) {
+            log.warn("cannot create the invoice number allocation pool", e);
+        }
+        return null;
+    }
+
+    /**
+     * Allocates the next invoice number for the given organization. The caller must save the number on the
+     * reservation in its current transaction.
+     *
+     * @param organizationId the organization
+     * @param reservationId the reservation which will hold the invoice number
+     * @param reuseReleasedNumbers whether the organization allows the reuse of released numbers, see
+     *                             {@link alfio.model.system.ConfigurationKeys#REUSE_RELEASED_INVOICE_NUMBERS}
+     * @param formatter transforms the sequence in the invoice number
+     * @return the invoice number
+     */
+    public String allocate(int organizationId, String reservationId, boolean reuseReleasedNumbers, IntFunction<String> formatter) {
+        if(!reuseReleasedNumbers) {
+            return allocateInCurrentTransaction(organizationId, false, formatter);
+        }
+        if(!allocationConnections.tryAcquire()) {
+            log.debug("no allocation connection available, allocating invoice number for reservation {} in the current transaction", reservationId);
+            return allocateInCurrentTransaction(organizationId, true, formatter);
+        }
+        Pair<Integer, String> allocation;
+        try {
+            allocation = Objects.requireNonNull(allocationTransactionTemplate.execute(status -> {
+                int nextSequence = allocationRepository.lockReservationForUpdate(organizationId);
+                var released = allocationRepository.findFirstReleased(organizationId);
+                int sequence = released.orElse(nextSequence);
+                String invoiceNumber = formatter.apply(sequence);
+                if(released.isPresent()) {
+                    // the row is locked through the sequence, so it must still be there
+                    Validate.isTrue(allocationRepository.reassignReleased(organizationId, sequence, reservationId, invoiceNumber) == 1,
+                        "cannot reassign released invoice number %d of organization %d", sequence, organizationId);
+                } else {
+                    allocationRepository.incrementSequenceFor(organizationId);
+                    allocationRepository.insertAllocation(organizationId, sequence, reservationId, invoiceNumber);
+                }
+                return Pair.of(sequence, invoiceNumber);
+            }));
+        } finally {
+            allocationConnections.release();
+        }
+
+        int sequence = allocation.getLeft();
+        if(TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    // with STATUS_UNKNOWN we cannot tell whether the number has been used: the stale allocations check will do it
+                    if(status != STATUS_UNKNOWN) {
+                        complete(organizationId, sequence);
+                    }
+                }
+            });
+        }
+        // without a transaction, the allocation stays pending until the stale allocations check
+        return allocation.getRight();
+    }
+
+    /**
+     * Allocates the number in the caller's transaction: the number is used if the transaction commits, and returned
+     * to the sequence (or to the released numbers) if it rolls back, so there is nothing to complete afterwards.
+     */
+    private String allocateInCurrentTransaction(int organizationId, boolean reuseReleasedNumbers, IntFunction<String> formatter) {
+        int nextSequence = invoiceSequencesRepository.lockReservationForUpdate(organizationId);
+        var released = reuseReleasedNumbers ? invoiceSequencesRepository.findFirstReleased(organizationId) : Optional.<Integer>empty();
+        if(released.isPresent()) {
+            int sequence = released.get();
+            Validate.isTrue(invoiceSequencesRepository.deleteReleased(organizationId, sequence) == 1,
+                "cannot reuse released invoice number %d of organization %d", sequence, organizationId);
+            return formatter.apply(sequence);
+        }
+        invoiceSequencesRepository.incrementSequenceFor(organizationId);
+        return formatter.apply(nextSequence);
+    }
+
+    /**
+     * Confirms or releases the allocations which have not been completed after
+     * {@code alfio.invoice.stale-allocation-minutes} (e.g. because the node crashed).
+     */
+    public void handleStaleAllocations() {
+        var olderThan = ZonedDateTime.now().minusMinutes(staleAllocationMinutes);
+        requiresNewTransactionTemplate.execute(status -> {
+            int confirmed = invoiceSequencesRepository.confirmStaleAllocations(olderThan);
+            int released = invoiceSequencesRepository.releaseStaleAllocations(olderThan);
+            if(confirmed + released > 0) {
+                log.info("stale invoice number allocations: confirmed {}, released {}", confirmed, released);
+            }
+            return null;
+        });
+    }
+
+    private void complete(int organizationId, int sequence) {
+        if(allocationConnections.tryAcquire()) {
+            completeAllocation(organizationId, sequence);
+            return;
+        }
+        // the caller still holds its connection: the completion is done in background, where it can wait
+        try {
+            completionExecutor.execute(() -> {
+                try {
+                    allocationConnections.acquire();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    log.debug("interrupted, invoice number {} of organization {} will be completed by the stale allocations check", sequence, organizationId);
+                    return;
+                }
+                completeAllocation(organizationId, sequence);
+            });
+        } catch (RejectedExecutionException e) {
+            log.debug("shutting down, invoice number {} of organization {} will be completed by the stale allocations check", sequence, organizationId);
+        }
+    }
+
+    /**
+     * Must be called holding a permit of {@link #allocationConnections}, which will be released.
+     */
+    private void completeAllocation(int organizationId, int sequence) {
+        try {
+            allocationTransactionTemplate.execute(status -> {
+                // the reservation transaction could have committed without the number, e.g. after a rollback to savepoint
+                if(allocationRepository.confirmAllocation(organizationId, sequence) == 0) {
+                    allocationRepository.releaseAllocation(organizationId, sequence);
+                    log.debug("invoice number {} of organization {} has been released", sequence, organizationId);
+                }
+                return null;
+            });
+        } catch(Exception e) {
+            log.warn("cannot complete allocation of invoice number {} for organization {}", sequence, organizationId, e);
+        } finally {
+            allocationConnections.release();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        completionExecutor.shutdown();
+        if(allocationDataSource != null) {
+            allocationDataSource.close();
+        }
+    }
+}
@@ -16,10 +16,14 @@
  */
 package alfio.manager;
 
+import alfio.controller.support.PdfRenderingService;
 import alfio.controller.support.TemplateProcessor;
 import alfio.manager.i18n.MessageSourceManager;
+import alfio.manager.support.AttachmentStore;
 import alfio.manager.support.CustomMessageManager;
+import alfio.manager.support.MetricsProvider;
 import alfio.manager.support.PartialTicketTextGenerator;
+import alfio.manager.support.RateLimiter;
 import alfio.manager.support.TextTemplateGenerator;
 import alfio.manager.system.ConfigurationLevel;
 import alfio.manager.system.ConfigurationManager;
@@ -41,14 +45,18 @@ import org.apache.commons.lang3.time.DateUtils;
 import org.apache.commons.lang3.tuple.Pair;
 import org.apache.commons.lang3.tuple.Triple;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
 import org.springframework.security.crypto.codec.Hex;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.TransactionDefinition;
-import org.springframework.transaction.annotation.Transactional;
 import org.springframework.transaction.support.DefaultTransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.CustomizableThreadFactory;
 
+import javax.annotation.PreDestroy;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.lang.reflect.Type;
@@ -58,7 +66,8 @@ import java.security.NoSuchAlgorithmException;
 import java.time.Clock;
 import java.time.ZonedDateTime;
 import java.util.*;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -67,9 +76,10 @@ import static alfio.model.EmailMessage.Status.*;
 
 @Component
 @Log4j2
-public class NotificationManager {
+public class NotificationManager implements MetricsProvider {
 
     public static final Clock UTC = Clock.systemUTC();
+    private static final long MAX_DISPATCH_DURATION_MILLIS = TimeUnit.MINUTES.toMillis(1);
     private final Mailer mailer;
     private final MessageSourceManager messageSourceManager;
     private final EmailMessageRepository emailMessageRepository;
@@ -78,6 +88,20 @@ public class NotificationManager {
     private final OrganizationRepository organizationRepository;
     private final ConfigurationManager configurationManager;
     private final Gson gson;
+    private final Environment environment;
+    private final int dispatchThreads;
+    private final int dispatchBatchSize;
+    private final int statusFlushSize;
+    private final ThreadPoolExecutor dispatchExecutor;
+    private final AttachmentStore attachmentStore;
+    private final ThreadPoolExecutor preRenderExecutor;
+    private final Map<String, RateLimiter> rateLimiters = new ConcurrentHashMap<>();
+    private final AtomicLong sentMessages = new AtomicLong();
+    private final AtomicLong failedMessages = new AtomicLong();
+    private final AtomicLong discardedMessages = new AtomicLong();
+    private final AtomicLong sendTimeNanos = new AtomicLong();
+    private final AtomicLong lastBatchSize = new AtomicLong();
+    private final AtomicLong lastBatchDurationMillis = new AtomicLong();
 
     private final EnumMap<Mailer.AttachmentIdentifier, Function<Map<String, String>, byte[]>> attachmentTransformer;
 
@@ -98,8 +122,30 @@ public class NotificationManager {
                                TicketRepository ticketRepository,
                                TicketFieldRepository ticketFieldRepository,
                                AdditionalServiceItemRepository additionalServiceItemRepository,
-                               ExtensionManager extensionManager) {
+                               PdfRenderingService pdfRenderingService,
+                               Environment environment,
+                               AttachmentStore attachmentStore) {
         this.messageSourceManager = messageSourceManager;
+        this.environment = environment;
+        this.dispatchThreads = Math.max(1, environment.getProperty("alfio.email.dispatch.threads", Integer.class, 4));
+        this.dispatchBatchSize = Math.max(1, environment.getProperty("alfio.email.dispatch.batch-size", Integer.class, 200));
+        this.statusFlushSize = Math.max(1, environment.getProperty("alfio.email.dispatch.status-flush-size", Integer.class, 20));
+        // bounded queue: when full, the scheduler thread sends the messages itself
+        this.dispatchExecutor = new ThreadPoolExecutor(dispatchThreads, dispatchThreads, 60L, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(dispatchThreads * 4),
+            new CustomizableThreadFactory("alfio-email-dispatch-"),
+            new ThreadPoolExecutor.CallerRunsPolicy());
+        this.attachmentStore = attachmentStore;
+        if(environment.getProperty("alfio.email.attachments.pre-render", Boolean.class, false)) {
+            int preRenderThreads = Math.max(1, environment.getProperty("alfio.email.attachments.pre-render.threads", Integer.class, 2));
+            // pre-rendering is best-effort: if the queue is full, attachments will be rendered at dispatch time
+            this.preRenderExecutor = new ThreadPoolExecutor(preRenderThreads, preRenderThreads, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(1000),
+                new CustomizableThreadFactory("alfio-attachment-pre-render-"),
+                new ThreadPoolExecutor.DiscardPolicy());
+        } else {
+            this.preRenderExecutor = null;
+        }
         this.mailer = mailer;
         this.emailMessageRepository = emailMessageRepository;
         this.eventRepository = eventRepository;
@@ -113,14 +159,14 @@ public class NotificationManager {
         attachmentTransformer = new EnumMap<>(Mailer.AttachmentIdentifier.class);
         attachmentTransformer.put(Mailer.AttachmentIdentifier.CALENDAR_ICS, generateICS(eventRepository, eventDescriptionRepository, ticketCategoryRepository));
         attachmentTransformer.put(Mailer.AttachmentIdentifier.RECEIPT_PDF, receiptOrInvoiceFactory(eventRepository,
-            payload -> TemplateProcessor.buildReceiptPdf(payload.getLeft(), fileUploadManager, payload.getMiddle(), templateManager, payload.getRight(), extensionManager)));
+            payload -> TemplateProcessor.buildReceiptPdf(payload.getLeft(), fileUploadManager, payload.getMiddle(), templateManager, payload.getRight(), pdfRenderingService)));
         attachmentTransformer.put(Mailer.AttachmentIdentifier.INVOICE_PDF, receiptOrInvoiceFactory(eventRepository,
-            payload -> TemplateProcessor.buildInvoicePdf(payload.getLeft(), fileUploadManager, payload.getMiddle(), templateManager, payload.getRight(), extensionManager)));
+            payload -> TemplateProcessor.buildInvoicePdf(payload.getLeft(), fileUploadManager, payload.getMiddle(), templateManager, payload.getRight(), pdfRenderingService)));
         attachmentTransformer.put(Mailer.AttachmentIdentifier.CREDIT_NOTE_PDF, receiptOrInvoiceFactory(eventRepository,
-            payload -> TemplateProcessor.buildCreditNotePdf(payload.getLeft(), fileUploadManager, payload.getMiddle(), templateManager, payload.getRight(), extensionManager)));
+            payload -> TemplateProcessor.buildCreditNotePdf(payload.getLeft(), fileUploadManager, payload.getMiddle(), templateManager, payload.getRight(), pdfRenderingService)));
         attachmentTransformer.put(Mailer.AttachmentIdentifier.PASSBOOK, passKitManager::getPass);
         Function<Ticket, List<TicketFieldConfigurationDescriptionAndValue>> retrieveFieldValues = EventUtil.retrieveFieldValues(ticketRepository, ticketFieldRepository, additionalServiceItemRepository);
-        attachmentTransformer.put(Mailer.AttachmentIdentifier.TICKET_PDF, generateTicketPDF(eventRepository, organizationRepository, configurationManager, fileUploadManager, templateManager, ticketReservationRepository, retrieveFieldValues, extensionManager));
+        attachmentTransformer.put(Mailer.AttachmentIdentifier.TICKET_PDF, generateTicketPDF(eventRepository, organizationRepository, configurationManager, fileUploadManager, templateManager, ticketReservationRepository, retrieveFieldValues, pdfRenderingService));
     }
 
     private static Function<Map<String, String>, byte[]> generateTicketPDF(EventRepository eventRepository,
@@ -130,7 +176,7 @@ public class NotificationManager {
                                                                            TemplateManager templateManager,
                                                                            TicketReservationRepository ticketReservationRepository,
                                                                            Function<Ticket, List<TicketFieldConfigurationDescriptionAndValue>> retrieveFieldValues,
-                                                                           ExtensionManager extensionManager) {
+                                                                           PdfRenderingService pdfRenderingService) {
         return model -> {
             ByteArrayOutputStream baos = new ByteArrayOutputStream();
             Ticket ticket = Json.fromJson(model.get("ticket"), Ticket.class);
@@ -141,7 +187,7 @@ public class NotificationManager {
                 Organization organization = organizationRepository.getById(Integer.valueOf(model.get("organizationId"), 10));
                 TemplateProcessor.renderPDFTicket(LocaleUtil.forLanguageTag(ticket.getUserLanguage()), event, reservation,
                     ticket, ticketCategory, organization, templateManager, fileUploadManager,
-                    configurationManager.getShortReservationID(event, reservation), baos, retrieveFieldValues, extensionManager);
+                    configurationManager.getShortReservationID(event, reservation), baos, retrieveFieldValues, pdfRenderingService);
             } catch (IOException e) {
                 log.warn("was not able to generate ticket pdf for ticket with id" + ticket.getId(), e);
             }
@@ -212,6 +258,7 @@ public class NotificationManager {
             );
             return null;
         });
+        preRenderAttachments(encodedAttachments);
     }
 
     public void sendSimpleEmail(EventAndOrganizationId event, String reservationId, String recipient, List<String> cc, String subject, TextTemplateGenerator textBuilder) {
@@ -247,6 +294,34 @@ public class NotificationManager {
 
         existing.ifPresentOrElse(id -> emailMessageRepository.updateStatus(event.getId(), WAITING.name(), id),
             () -> emailMessageRepository.insert(event.getId(), reservationId, recipient, encodedCC, subject, text, encodedAttachments, checksum, ZonedDateTime.now(UTC)));
+        preRenderAttachments(encodedAttachments);
+    }
+
+    /**
+     * If enabled, renders the attachments in background as soon as the message is enqueued (after commit, if there is
+     * a transaction), so that they are already available in the {@link AttachmentStore} at dispatch time.
+     */
+    private void preRenderAttachments(String encodedAttachments) {
+        if(preRenderExecutor == null || StringUtils.isBlank(encodedAttachments)) {
+            return;
+        }
+        Runnable task = () -> preRenderExecutor.execute(() -> {
+            try {
+                decodeAttachments(encodedAttachments, new ArrayList<>(), loadAttachmentDataVersions(List.of(encodedAttachments)));
+            } catch (Exception e) {
+                log.warn("error while pre-rendering attachments", e);
+            }
+        });
+        if(TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    task.run();
+                }
+            });
+        } else {
+            task.run();
+        }
     }
 
     public Pair<Integer, List<LightweightMailMessage>> loadAllMessagesForEvent(int eventId, Integer page, String search) {
@@ -265,60 +340,221 @@ public class NotificationManager {
         return emailMessageRepository.findByEventIdAndMessageId(eventId, messageId);
     }
 
-    @Transactional
+    /**
+     * Send the queued messages for all the active events.
+     * <p>
+     * Messages are claimed in batches (single "for update skip locked" over all active events) and marked as IN_PROCESS
+     * in a short transaction. Each batch is then partitioned by event and dispatched on a bounded worker pool, respecting
+     * the rate limit configured for the mailer type. Each worker persists the outcome of its messages in small batches
+     * while sending. Messages left in IN_PROCESS by a crashed node will be retried one hour after they have been claimed.
+     *
+     * @return the number of messages successfully sent
+     */
     public int sendWaitingMessages() {
         Date now = new Date();
 
-        emailMessageRepository.setToRetryOldInProcess(DateUtils.addHours(now, -1));
+        tx.execute(status -> emailMessageRepository.setToRetryOldInProcess(DateUtils.addHours(now, -1)));
 
-        AtomicInteger counter = new AtomicInteger();
+        List<Integer> activeEventIds = eventRepository.findAllActiveIds(ZonedDateTime.now(UTC));
+        if(activeEventIds.isEmpty()) {
+            return 0;
+        }
 
-        eventRepository.findAllActiveIds(ZonedDateTime.now(UTC))
-            .stream()
-            .flatMap(id -> emailMessageRepository.loadIdsWaitingForProcessing(id, now).stream())
-            .distinct()
-            .forEach(messageId -> counter.addAndGet(processMessage(messageId)));
-        return counter.get();
+        int sent = 0;
+        long deadline = System.currentTimeMillis() + MAX_DISPATCH_DURATION_MILLIS;
+        List<EmailMessage> batch;
+        do {
+            batch = claimMessages(activeEventIds, now);
+            if(!batch.isEmpty()) {
+                sent += dispatchBatch(batch);
+            }
+        } while(batch.size() == dispatchBatchSize && System.currentTimeMillis() < deadline);
+        return sent;
     }
 
-    private int processMessage(int messageId) {
-        EmailMessage message = emailMessageRepository.findById(messageId);
-        EventAndOrganizationId event = eventRepository.findEventAndOrganizationIdById(message.getEventId());
-        if(message.getAttempts() >= configurationManager.getFor(ConfigurationKeys.MAIL_ATTEMPTS_COUNT, ConfigurationLevel.event(event)).getValueAsIntOrDefault(10)) {
-            tx.execute(status -> emailMessageRepository.updateStatusAndAttempts(messageId, ERROR.name(), message.getAttempts(), Arrays.asList(IN_PROCESS.name(), WAITING.name(), RETRY.name())));
-            log.warn("Message with id " + messageId + " will be discarded");
-            return 0;
+    private List<EmailMessage> claimMessages(List<Integer> eventIds, Date now) {
+        return Objects.requireNonNullElse(tx.execute(status -> {
+            List<Integer> ids = emailMessageRepository.loadIdsWaitingForProcessing(eventIds, now, dispatchBatchSize);
+            if(ids.isEmpty()) {
+                return List.<EmailMessage>of();
+            }
+            emailMessageRepository.setToInProcess(ids, new Date());
+            return emailMessageRepository.findByIds(ids);
+        }), List.of());
+    }
+
+    private int dispatchBatch(List<EmailMessage> batch) {
+        long start = System.currentTimeMillis();
+        List<Integer> discarded = new ArrayList<>();
+        List<Future<Integer>> results = new ArrayList<>();
+        // fingerprints of the data used by the attachments of the whole batch, loaded at once
+        var dataVersions = loadAttachmentDataVersions(batch.stream().map(EmailMessage::getAttachments).collect(Collectors.toList()));
+
+        batch.stream()
+            .collect(Collectors.groupingBy(EmailMessage::getEventId))
+            .forEach((eventId, messages) -> {
+                EventAndOrganizationId event = eventRepository.findEventAndOrganizationIdById(eventId);
+                var configuration = configurationManager.getFor(Set.of(ConfigurationKeys.MAIL_ATTEMPTS_COUNT, ConfigurationKeys.MAILER_TYPE), ConfigurationLevel.event(event));
+                int maxAttempts = configuration.get(ConfigurationKeys.MAIL_ATTEMPTS_COUNT).getValueAsIntOrDefault(10);
+                String mailerType = configuration.get(ConfigurationKeys.MAILER_TYPE).getValueOrDefault("disabled").toLowerCase(Locale.ENGLISH);
+                String displayName = eventRepository.getDisplayNameById(eventId);
+                RateLimiter rateLimiter = rateLimiters.computeIfAbsent(mailerType,
+                    type -> new RateLimiter(environment.getProperty("alfio.email.dispatch.rate-limit." + type, Double.class, 0D)));
+
+                List<EmailMessage> toBeSent = new ArrayList<>();
+                messages.forEach(m -> {
+                    if(m.getAttempts() >= maxAttempts) {
+                        log.warn("Message with id " + m.getId() + " will be discarded");
+                        discarded.add(m.getId());
+                    } else {
+                        toBeSent.add(m);
+                    }
+                });
+
+                // split big partitions, so that a single event can use all the workers
+                int chunkSize = Math.max(1, (toBeSent.size() + dispatchThreads - 1) / dispatchThreads);
+                for (int i = 0; i < toBeSent.size(); i += chunkSize) {
+                    var chunk = toBeSent.subList(i, Math.min(toBeSent.size(), i + chunkSize));
+                    results.add(dispatchExecutor.submit(() -> sendMessages(event, displayName, rateLimiter, chunk, dataVersions)));
+                }
+            });
+
+        if(!discarded.isEmpty()) {
+            tx.execute(status -> emailMessageRepository.updateStatusToError(discarded));
         }
 
+        int sent = 0;
+        for (Future<Integer> f : results) {
+            try {
+                sent += f.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                // messages will be retried once the IN_PROCESS timeout expires
+                log.warn("unexpected error while dispatching messages", e);
+            }
+        }
 
-        try {
-            int result = Optional.ofNullable(tx.execute(status -> emailMessageRepository.updateStatus(message.getEventId(), message.getChecksum(), IN_PROCESS.name(), Arrays.asList(WAITING.name(), RETRY.name())))).orElse(0);
-            if(result > 0) {
-                return Optional.ofNullable(tx.execute(status -> {
-                    sendMessage(event, message);
-                    return 1;
-                })).orElse(0);
-            } else {
-                log.debug("no messages have been updated on DB for the following criteria: eventId: {}, checksum: {}", message.getEventId(), message.getChecksum());
+        discardedMessages.addAndGet(discarded.size());
+        lastBatchSize.set(batch.size());
+        lastBatchDurationMillis.set(System.currentTimeMillis() - start);
+        return sent;
+    }
+
+    /**
+     * Sends the given messages, persisting the outcome every {@code statusFlushSize} messages, so that a crash
+     * in the middle of a batch can cause at most a few already sent messages to be sent again.
+     *
+     * @return the number of messages successfully sent
+     */
+    private int sendMessages(EventAndOrganizationId event,
+                             String displayName,
+                             RateLimiter rateLimiter,
+                             List<EmailMessage> messages,
+                             Map<Map<String, String>, String> dataVersions) {
+        var outcome = new DispatchOutcome();
+        int sent = 0;
+        for (EmailMessage message : messages) {
+            List<String> attachmentKeys = new ArrayList<>();
+            try {
+                rateLimiter.acquire();
+                long start = System.nanoTime();
+                mailer.send(event, displayName, message.getRecipient(), message.getCc(), message.getSubject(), message.getMessage(), Optional.empty(), decodeAttachments(message.getAttachments(), attachmentKeys, dataVersions));
+                sendTimeNanos.addAndGet(System.nanoTime() - start);
+                outcome.sent.add(message.getId());
+                outcome.renderedAttachments.addAll(attachmentKeys);
+                sent++;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                outcome.failed.add(message.getId());
+            } catch (Exception e) {
+                log.warn("could not send message: ", e);
+                outcome.failed.add(message.getId());
+            }
+            if(outcome.size() >= statusFlushSize) {
+                flushOutcome(outcome);
             }
-        } catch(Exception e) {
-            tx.execute(status -> emailMessageRepository.updateStatusAndAttempts(message.getId(), RETRY.name(), DateUtils.addMinutes(new Date(), message.getAttempts() + 1), message.getAttempts() + 1, Arrays.asList(IN_PROCESS.name(), WAITING.name(), RETRY.name())));
-            log.warn("could not send message: ",e);
         }
-        return 0;
+        flushOutcome(outcome);
+        return sent;
     }
 
-    private void sendMessage(EventAndOrganizationId event, EmailMessage message) {
-        String displayName = eventRepository.getDisplayNameById(message.getEventId());
-        mailer.send(event, displayName, message.getRecipient(), message.getCc(), message.getSubject(), message.getMessage(), Optional.empty(), decodeAttachments(message.getAttachments()));
-        emailMessageRepository.updateStatusToSent(message.getEventId(), message.getChecksum(), ZonedDateTime.now(UTC), Collections.singletonList(IN_PROCESS.name()));
+    private void flushOutcome(DispatchOutcome outcome) {
+        if(outcome.size() == 0) {
+            return;
+        }
+        try {
+            tx.execute(status -> {
+                if(!outcome.sent.isEmpty()) {
+                    emailMessageRepository.updateStatusToSent(List.copyOf(outcome.sent), ZonedDateTime.now(UTC));
+                }
+                if(!outcome.failed.isEmpty()) {
+                    emailMessageRepository.updateStatusToRetry(List.copyOf(outcome.failed));
+                }
+                return null;
+            });
+            // generated attachments are kept only until the message has been sent
+            attachmentStore.release(List.copyOf(outcome.renderedAttachments));
+        } catch (Exception e) {
+            // the messages will be retried once the IN_PROCESS timeout expires
+            log.warn("cannot update the status of messages {} {}", outcome.sent, outcome.failed, e);
+        }
+        sentMessages.addAndGet(outcome.sent.size());
+        failedMessages.addAndGet(outcome.failed.size());
+        outcome.clear();
+    }
+
+    private static class DispatchOutcome {
+        private final List<Integer> sent = new ArrayList<>();
+        private final List<Integer> failed = new ArrayList<>();
+        private final List<String> renderedAttachments = new ArrayList<>();
+
+        private int size() {
+            return sent.size() + failed.size();
+        }
+
+        private void clear() {
+            sent.clear();
+            failed.clear();
+            renderedAttachments.clear();
+        }
+    }
+
+    @PreDestroy
+    public void shutdownDispatcher() {
+        dispatchExecutor.shutdown();
+        if(preRenderExecutor != null) {
+            preRenderExecutor.shutdownNow();
+        }
+    }
+
+    @Override
+    public String getMetricsGroup() {
+        return "email-dispatch";
+    }
+
+    @Override
+    public Map<String, Number> getMetrics() {
+        long sentCount = sentMessages.get();
+        return Map.of(
+            "sent", sentCount,
+            "failed", failedMessages.get(),
+            "discarded", discardedMessages.get(),
+            "averageSendMillis", sentCount == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(sendTimeNanos.get()) / sentCount,
+            "lastBatchSize", lastBatchSize.get(),
+            "lastBatchDurationMillis", lastBatchDurationMillis.get(),
+            "activeWorkers", dispatchExecutor.getActiveCount(),
+            "queuedChunks", dispatchExecutor.getQueue().size()
+        );
     }
 
     private String encodeAttachments(Mailer.Attachment... files) {
         return gson.toJson(files);
     }
 
-    private Mailer.Attachment[] decodeAttachments(String input) {
+    private Mailer.Attachment[] decodeAttachments(String input,
+                                                  Collection<String> renderedAttachmentKeys,
+                                                  Map<Map<String, String>, String> dataVersions) {
         if(StringUtils.isBlank(input)) {
             return new Mailer.Attachment[0];
         }
@@ -331,7 +567,7 @@ public class NotificationManager {
             .collect(Collectors.toList());
 
         List<Mailer.Attachment> generated = Arrays.stream(attachments)
-            .map(attachment -> this.transformAttachment(attachment, attachment.getIdentifier()))
+            .map(attachment -> this.transformAttachment(attachment, attachment.getIdentifier(), renderedAttachmentKeys, dataVersions))
             .filter(Objects::nonNull)
             .collect(Collectors.toList());
 
@@ -339,7 +575,7 @@ public class NotificationManager {
         toReinterpret.forEach(attachment ->
             attachment.getIdentifier().reinterpretAs().stream()
                 .filter(identifier -> !alreadyPresents.contains(identifier))
-                .forEach(identifier -> reinterpreted.add(this.transformAttachment(attachment, identifier))
+                .forEach(identifier -> reinterpreted.add(this.transformAttachment(attachment, identifier, renderedAttachmentKeys, dataVersions))
             )
         );
 
@@ -347,15 +583,76 @@ public class NotificationManager {
         return generated.toArray(new Mailer.Attachment[0]);
     }
 
-    private Mailer.Attachment transformAttachment(Mailer.Attachment attachment, Mailer.AttachmentIdentifier identifier) {
+    private Mailer.Attachment transformAttachment(Mailer.Attachment attachment,
+                                                  Mailer.AttachmentIdentifier identifier,
+                                                  Collection<String> renderedAttachmentKeys,
+                                                  Map<Map<String, String>, String> dataVersions) {
         if(identifier != null) {
-            byte[] result = attachmentTransformer.get(identifier).apply(attachment.getModel());
+            String dataVersion = attachment.getModel() == null ? "" : dataVersions.getOrDefault(attachment.getModel(), "");
+            String key = AttachmentStore.key(identifier, attachment.getModel(), dataVersion);
+            renderedAttachmentKeys.add(key);
+            byte[] result = attachmentStore.getOrRender(key, () -> attachmentTransformer.get(identifier).apply(attachment.getModel()));
             return result == null ? null : new Mailer.Attachment(identifier.fileName(attachment.getFilename()), result, identifier.contentType(attachment.getContentType()), null, null);
         } else {
             return attachment;
         }
     }
 
+    /**
+     * Attachments are rendered using also the current state of the ticket, of the reservation and of the event,
+     * which is not part of the model: its fingerprint is added to the store key. Fingerprints are loaded with
+     * at most one query per table for all the given messages.
+     *
+     * @return the data version for each attachment model
+     */
+    private Map<Map<String, String>, String> loadAttachmentDataVersions(Collection<String> encodedAttachments) {
+        Map<Map<String, String>, AttachmentDataReference> references = new HashMap<>();
+        encodedAttachments.stream()
+            .filter(StringUtils::isNotBlank)
+            .flatMap(input -> Arrays.stream(gson.fromJson(input, Mailer.Attachment[].class)))
+            .filter(attachment -> attachment.getIdentifier() != null && attachment.getModel() != null)
+            .forEach(attachment -> references.computeIfAbsent(attachment.getModel(), AttachmentDataReference::from));
+        if(references.isEmpty()) {
+            return Map.of();
+        }
+        var ticketUuids = references.values().stream().map(r -> r.ticketUuid).filter(Objects::nonNull).collect(Collectors.toSet());
+        var reservationIds = references.values().stream().map(r -> r.reservationId).filter(Objects::nonNull).collect(Collectors.toSet());
+        var eventIds = references.values().stream().map(r -> r.eventId).filter(Objects::nonNull).collect(Collectors.toSet());
+        var tickets = ticketUuids.isEmpty() ? Map.<String, String>of() : toVersionMap(emailMessageRepository.findTicketDataVersions(ticketUuids));
+        var reservations = reservationIds.isEmpty() ? Map.<String, String>of() : toVersionMap(emailMessageRepository.findReservationDataVersions(reservationIds));
+        var events = eventIds.isEmpty() ? Map.<String, String>of() : toVersionMap(emailMessageRepository.findEventDataVersions(eventIds));
+        Map<Map<String, String>, String> result = new HashMap<>();
+        references.forEach((model, r) -> result.put(model, String.join("|",
+            Objects.requireNonNullElse(tickets.get(r.ticketUuid), ""),
+            Objects.requireNonNullElse(reservations.get(r.reservationId), ""),
+            Objects.requireNonNullElse(r.eventId == null ? null : events.get(r.eventId.toString()), ""))));
+        return result;
+    }
+
+    private static Map<String, String> toVersionMap(List<DataVersion> versions) {
+        return versions.stream().collect(Collectors.toMap(v -> v.getId().trim(), DataVersion::getVersion));
+    }
+
+    private static class AttachmentDataReference {
+        private final String ticketUuid;
+        private final String reservationId;
+        private final Integer eventId;
+
+        private AttachmentDataReference(String ticketUuid, String reservationId, Integer eventId) {
+            this.ticketUuid = ticketUuid;
+            this.reservationId = reservationId;
+            this.eventId = eventId;
+        }
+
+        private static AttachmentDataReference from(Map<String, String> model) {
+            Map<String, Object> ticket = model.containsKey("ticket") ? Json.fromJson(model.get("ticket"), new TypeReference<>() {}) : Map.of();
+            String reservationId = Optional.ofNullable(model.get("reservationId")).orElse((String) ticket.get("ticketsReservationId"));
+            Integer eventId = Optional.ofNullable(model.get("eventId")).map(Integer::valueOf)
+                .orElse(ticket.get("eventId") instanceof Number ? ((Number) ticket.get("eventId")).intValue() : null);
+            return new AttachmentDataReference((String) ticket.get("uuid"), reservationId, eventId);
+        }
+    }
+
     private static String calculateChecksum(String recipient, String attachments, String subject, String text)  {
         try {
             MessageDigest digest = MessageDigest.getInstance("SHA-256");
@@ -0,0 +1,219 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.manager;
+
+import alfio.manager.support.MetricsProvider;
+import alfio.manager.system.ClusterAwareCache;
+import alfio.manager.system.ClusterNotificationManager;
+import alfio.manager.system.ConfigurationCache;
+import alfio.manager.system.ConfigurationLevel;
+import alfio.model.Event;
+import alfio.model.system.ConfigurationKeys;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.ryantenney.passkit4j.PassResource;
+import com.ryantenney.passkit4j.sign.PassSigner;
+import com.ryantenney.passkit4j.sign.PassSignerImpl;
+import com.ryantenney.passkit4j.sign.PassSigningException;
+import lombok.Value;
+import lombok.extern.log4j.Log4j2;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.imgscalr.Scalr;
+import org.springframework.core.env.Environment;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StreamUtils;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import static alfio.model.system.ConfigurationKeys.*;
+
+/**
+ * <p>Parsed PassKit signer and pre-built pass resources (icons and resized logo) for an event.
+ * Loading the PKCS12 keystore and resizing the logo are by far the most expensive steps of generating a pass,
+ * and without caching they would be repeated for every ticket email.</p>
+ *
+ * <p>The key contains a SHA-256 digest of the PASSBOOK_* configuration and the logo id, so an entry is never reused
+ * after a change, while the keystore and its password are not kept in the key; entries are also evicted, on all nodes,
+ * when the configuration of the event (or of a parent level) is modified.</p>
+ */
+@Component
+@Log4j2
+public class PassKitAssetsCache implements MetricsProvider {
+
+    private static final List<String> ICONS = List.of("icon.png", "icon@2x.png", "icon@3x.png");
+    private static final String APPLE_INTERMEDIATE_CERTIFICATE = "/alfio/certificates/AppleWWDRCA.cer";
+
+    private final ClusterAwareCache<CacheKey, PassKitAssets> cache;
+    private final FileUploadManager fileUploadManager;
+    private final Map<String, byte[]> icons;
+
+    public PassKitAssetsCache(ClusterNotificationManager clusterNotificationManager,
+                              ConfigurationCache configurationCache,
+                              FileUploadManager fileUploadManager,
+                              Environment environment) {
+        this.cache = new ClusterAwareCache<>("passkit-assets",
+            Caffeine.newBuilder().maximumSize(200).expireAfterAccess(1, TimeUnit.HOURS),
+            clusterNotificationManager,
+            environment,
+            PassKitAssetsCache::scopeMatcher);
+        this.fileUploadManager = fileUploadManager;
+        this.icons = loadIcons();
+        configurationCache.addDependent(level -> cache.invalidate(ConfigurationCache.toPayload(level)));
+    }
+
+    /**
+     * @param event the event
+     * @param config the PASSBOOK_* configuration of the event
+     * @return the cached assets
+     * @throws PassSigningException if the keystore cannot be loaded
+     */
+    PassKitAssets get(Event event, Map<ConfigurationKeys, String> config) throws PassSigningException {
+        var key = new CacheKey(ConfigurationLevel.event(event), event.getFileBlobId(), digest(config));
+        try {
+            return Objects.requireNonNull(cache.get(key, k -> load(k.fileBlobId, config)));
+        } catch (SignerLoadingException e) {
+            throw e.getCause();
+        }
+    }
+
+    private PassKitAssets load(String fileBlobId, Map<ConfigurationKeys, String> config) {
+        var resources = new LinkedHashMap<>(icons);
+        loadLogo(fileBlobId).ifPresent(resources::putAll);
+        try(InputStream appleCert = new ClassPathResource(APPLE_INTERMEDIATE_CERTIFICATE).getInputStream()) {
+            PassSigner signer = PassSignerImpl.builder()
+                .keystore(new ByteArrayInputStream(Base64.getDecoder().decode(config.get(PASSBOOK_KEYSTORE))), config.get(PASSBOOK_KEYSTORE_PASSWORD))
+                .alias(config.get(PASSBOOK_PRIVATE_KEY_ALIAS))
+                .intermediateCertificate(appleCert)
+                .build();
+            return new PassKitAssets(signer, Collections.unmodifiableMap(resources));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (PassSigningException e) {
+            throw new SignerLoadingException(e);
+        }
+    }
+
+    private Optional<Map<String, byte[]>> loadLogo(String fileBlobId) {
+        return fileUploadManager.findMetadata(fileBlobId)
+            .filter(metadata -> metadata.getContentType().equals("image/png") || metadata.getContentType().equals("image/jpeg"))
+            .flatMap(metadata -> {
+                try {
+                    var baos = new ByteArrayOutputStream();
+                    fileUploadManager.outputFile(fileBlobId, baos);
+                    BufferedImage sourceImage = ImageIO.read(new ByteArrayInputStream(baos.toByteArray()));
+                    return Optional.of(Map.of(
+                        "logo.png", scaleLogo(sourceImage, 1),
+                        "logo@2x.png", scaleLogo(sourceImage, 2),
+                        "logo@3x.png", scaleLogo(sourceImage, 3)));
+                } catch (IOException e) {
+                    log.warn("Error during image conversion", e);
+                    return Optional.empty();
+                }
+            });
+    }
+
+    private static byte[] scaleLogo(BufferedImage sourceImage, int factor) throws IOException {
+        // base image is 160 x 50 points.
+        // On retina displays, a point can be two or three pixels, depending on the device model
+        int finalWidth = 160 * factor;
+        int finalHeight = 50 * factor;
+        var thumbImg = Scalr.resize(sourceImage, Scalr.Method.QUALITY, Scalr.Mode.AUTOMATIC, finalWidth, finalHeight, Scalr.OP_ANTIALIAS);
+        var outputStream = new ByteArrayOutputStream();
+        ImageIO.write(thumbImg, "png", outputStream);
+        return outputStream.toByteArray();
+    }
+
+    private static Map<String, byte[]> loadIcons() {
+        var result = new LinkedHashMap<String, byte[]>();
+        for (String icon : ICONS) {
+            try(InputStream is = new ClassPathResource("/alfio/icon/" + icon).getInputStream()) {
+                result.put(icon, StreamUtils.copyToByteArray(is));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    private static String digest(Map<ConfigurationKeys, String> config) {
+        var sorted = new EnumMap<ConfigurationKeys, String>(ConfigurationKeys.class);
+        sorted.putAll(config);
+        var content = new StringBuilder();
+        sorted.forEach((k, v) -> content.append(k.name()).append('=').append(v).append('\n'));
+        return DigestUtils.sha256Hex(content.toString());
+    }
+
+    private static Predicate<CacheKey> scopeMatcher(String payload) {
+        var affected = ConfigurationCache.affectedLevels(payload);
+        return affected == null ? null : k -> affected.test(k.level);
+    }
+
+    @Override
+    public String getMetricsGroup() {
+        return cache.getMetricsGroup();
+    }
+
+    @Override
+    public Map<String, Number> getMetrics() {
+        return cache.getMetrics();
+    }
+
+    @Value
+    static class CacheKey {
+        ConfigurationLevel level;
+        String fileBlobId;
+        /**
+         * SHA-256 of the PASSBOOK_* configuration, so that we don't keep the keystore password in the key
+         */
+        String configurationDigest;
+    }
+
+    @Value
+    static class PassKitAssets {
+        PassSigner signer;
+        /**
+         * file name to content. A new {@link PassResource} must be created for each pass.
+         */
+        Map<String, byte[]> resources;
+
+        PassResource[] toPassResources() {
+            return resources.entrySet().stream()
+                .map(e -> new PassResource(e.getKey(), e.getValue()))
+                .toArray(PassResource[]::new);
+        }
+    }
+
+    private static class SignerLoadingException extends RuntimeException {
+        private SignerLoadingException(PassSigningException cause) {
+            super(cause);
+        }
+
+        @Override
+        public synchronized PassSigningException getCause() {
+            return (PassSigningException) super.getCause();
+        }
+    }
+}
@@ -28,29 +28,19 @@ import alfio.repository.*;
 import alfio.repository.user.OrganizationRepository;
 import alfio.util.Json;
 import alfio.util.LocaleUtil;
-import com.github.benmanes.caffeine.cache.Cache;
-import com.github.benmanes.caffeine.cache.Caffeine;
 import com.ryantenney.passkit4j.Pass;
-import com.ryantenney.passkit4j.PassResource;
 import com.ryantenney.passkit4j.PassSerializer;
 import com.ryantenney.passkit4j.model.*;
-import com.ryantenney.passkit4j.sign.PassSigner;
-import com.ryantenney.passkit4j.sign.PassSignerImpl;
 import com.ryantenney.passkit4j.sign.PassSigningException;
 import lombok.AllArgsConstructor;
 import lombok.extern.log4j.Log4j2;
 import org.apache.commons.lang3.tuple.Pair;
-import org.imgscalr.Scalr;
-import org.springframework.core.io.ClassPathResource;
 import org.springframework.stereotype.Component;
 
-import javax.imageio.ImageIO;
-import java.awt.image.BufferedImage;
 import java.io.*;
 import java.time.format.DateTimeFormatter;
 import java.time.format.FormatStyle;
 import java.util.*;
-import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 import static alfio.model.system.ConfigurationKeys.*;
@@ -61,14 +51,10 @@ import static alfio.model.system.ConfigurationKeys.*;
 public class PassKitManager {
 
     private static final String APPLE_PASS = "ApplePass";
-    private final Cache<String, Optional<byte[]>> passKitLogoCache = Caffeine.newBuilder()
-        .maximumSize(20)
-        .expireAfterWrite(20, TimeUnit.MINUTES)
-        .build();
     private final EventRepository eventRepository;
     private final OrganizationRepository organizationRepository;
     private final ConfigurationManager configurationManager;
-    private final FileUploadManager fileUploadManager;
+    private final PassKitAssetsCache passKitAssetsCache;
     private final EventDescriptionRepository eventDescriptionRepository;
     private final TicketCategoryRepository ticketCategoryRepository;
     private final TicketRepository ticketRepository;
@@ -149,10 +135,6 @@ public class PassKitManager {
         var ticketLocale = LocaleUtil.forLanguageTag(ticket.getUserLanguage());
         String teamIdentifier = config.get(PASSBOOK_TEAM_IDENTIFIER);
         String typeIdentifier = config.get(PASSBOOK_TYPE_IDENTIFIER);
-        byte[] keystoreRaw = Base64.getDecoder().decode(config.get(PASSBOOK_KEYSTORE));
-        String keystorePwd = config.get(PASSBOOK_KEYSTORE_PASSWORD);
-        String privateKeyAlias = config.get(PASSBOOK_PRIVATE_KEY_ALIAS);
-
 
         String eventDescription = eventDescriptionRepository.findDescriptionByEventIdTypeAndLocale(event.getId(), EventDescription.EventDescriptionType.DESCRIPTION, ticket.getUserLanguage()).orElse("");
         Pass pass = new Pass()
@@ -195,34 +177,9 @@ public class PassKitManager {
             pass.locations(new Location(Double.parseDouble(event.getLatitude()), Double.parseDouble(event.getLongitude())).altitude(0D));
         }
 
-        List<PassResource> passResources = new ArrayList<>(6);
-
-        passResources.add(new PassResource("icon.png", () -> new ClassPathResource("/alfio/icon/icon.png").getInputStream()));
-        passResources.add(new PassResource("icon@2x.png", () -> new ClassPathResource("/alfio/icon/icon@2x.png").getInputStream()));
-        passResources.add(new PassResource("icon@3x.png", () -> new ClassPathResource("/alfio/icon/icon@3x.png").getInputStream()));
-
-        fileUploadManager.findMetadata(event.getFileBlobId()).ifPresent(metadata -> {
-            if(metadata.getContentType().equals("image/png") || metadata.getContentType().equals("image/jpeg")) {
-                Optional<byte[]> cachedLogo = passKitLogoCache.get(event.getFileBlobId(), id -> {
-                    ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                    fileUploadManager.outputFile(event.getFileBlobId(), baos);
-                    return readAndConvertImage(baos);
-                });
-                if(cachedLogo != null && cachedLogo.isPresent()) {
-                    addLogoResources(cachedLogo.get(), passResources);
-                }
-            }
-        });
-
-        pass.files(passResources.toArray(new PassResource[0]));
-        try(InputStream appleCert = new ClassPathResource("/alfio/certificates/AppleWWDRCA.cer").getInputStream()) {
-            PassSigner signer = PassSignerImpl.builder()
-                .keystore(new ByteArrayInputStream(keystoreRaw), keystorePwd)
-                .alias(privateKeyAlias)
-                .intermediateCertificate(appleCert)
-                .build();
-            PassSerializer.writePkPassArchive(pass, signer, out);
-        }
+        var assets = passKitAssetsCache.get(event, config);
+        pass.files(assets.toPassResources());
+        PassSerializer.writePkPassArchive(pass, assets.getSigner(), out);
     }
 
     private String buildAuthenticationToken(Ticket ticket, EventAndOrganizationId event, String privateKey) {
@@ -260,39 +217,8 @@ public class PassKitManager {
             .map(t -> Pair.of(event, t));
     }
 
-    private void addLogoResources(byte[] logo, List<PassResource> passResources) {
-        try {
-            var srcImage = ImageIO.read(new ByteArrayInputStream(logo));
-            passResources.add(new PassResource("logo.png", scaleLogo(srcImage, 1)));
-            passResources.add(new PassResource("logo@2x.png", scaleLogo(srcImage, 2)));
-            passResources.add(new PassResource("logo@3x.png", logo));
-        } catch (IOException e) {
-            log.warn("Error during image conversion", e);
-        }
-    }
-
     private List<Field<?>> getAuxiliaryFields(Ticket ticket) {
         //TODO add additional options here.
         return null;
     }
-
-    private static Optional<byte[]> readAndConvertImage(ByteArrayOutputStream baos) {
-        try {
-            BufferedImage sourceImage = ImageIO.read(new ByteArrayInputStream(baos.toByteArray()));
-            return Optional.of(scaleLogo(sourceImage, 3));
-        } catch (IOException e) {
-            return Optional.empty();
-        }
-    }
-
-    private static byte[] scaleLogo(BufferedImage sourceImage, int factor) throws IOException {
-        // base image is 160 x 50 points.
-        // On retina displays, a point can be two or three pixels, depending on the device model
-        int finalWidth = 160 * factor;
-        int finalHeight = 50 * factor;
-        var thumbImg = Scalr.resize(sourceImage, Scalr.Method.QUALITY, Scalr.Mode.AUTOMATIC, finalWidth, finalHeight, Scalr.OP_ANTIALIAS);
-        var outputStream = new ByteArrayOutputStream();
-        ImageIO.write(thumbImg, "png", outputStream);
-        return outputStream.toByteArray();
-    }
 }
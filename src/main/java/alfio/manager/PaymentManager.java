@@ -51,6 +51,7 @@ public class PaymentManager {
     private final UserRepository userRepository;
 
     private final List<PaymentProvider> paymentProviders; // injected by Spring
+    private final PaymentMethodsCache paymentMethodsCache;
 
     public Optional<PaymentProvider> lookupProviderByMethod(PaymentMethod paymentMethod, PaymentContext context) {
         return compatibleStream(paymentMethod, context).findFirst();
@@ -84,25 +85,46 @@ public class PaymentManager {
             .filter(p -> p.accept(paymentMethod, context));
     }
 
-    private List<PaymentMethodDTO> getPaymentMethods(PaymentContext context) {
+    private PaymentMethodsCache.PaymentMethodsSnapshot getSnapshot(PaymentContext context) {
+        return paymentMethodsCache.get(context.getEvent(), context.getConfigurationLevel(), k -> loadSnapshot(context));
+    }
+
+    private PaymentMethodsCache.PaymentMethodsSnapshot loadSnapshot(PaymentContext context) {
         String blacklist = configurationManager.getFor(ConfigurationKeys.PAYMENT_METHODS_BLACKLIST, context.getConfigurationLevel()).getValueOrDefault("");
-        return PaymentProxy.availableProxies()
+        var paymentMethods = new ArrayList<PaymentMethodDTO>();
+        var activeProviders = new EnumMap<PaymentProxy, PaymentProvider>(PaymentProxy.class);
+        PaymentProxy.availableProxies()
             .stream()
             .filter(p -> !blacklist.contains(p.getKey()))
-            .map(p -> {
+            .forEach(p -> {
                 Optional<PaymentProvider> paymentProvider = lookupProviderByMethod(p.getPaymentMethod(), context);
                 PaymentMethodDTO.PaymentMethodStatus status = paymentProvider.isPresent() ? PaymentMethodDTO.PaymentMethodStatus.ACTIVE : PaymentMethodDTO.PaymentMethodStatus.ERROR;
-                return new PaymentMethodDTO(p, status);
-            })
-            .collect(Collectors.toList());
+                var dto = new PaymentMethodDTO(p, status);
+                paymentMethods.add(dto);
+                if(context.getEvent() != null && TicketReservationManager.isValidPaymentMethod(dto, context.getEvent(), configurationManager)) {
+                    activeProviders.put(p, paymentProvider.orElseThrow());
+                }
+            });
+        return new PaymentMethodsCache.PaymentMethodsSnapshot(List.copyOf(paymentMethods), Collections.unmodifiableMap(activeProviders));
     }
 
     public List<PaymentMethodDTO> getPaymentMethods(Event event) {
-        return getPaymentMethods(new PaymentContext(event));
+        return getSnapshot(new PaymentContext(event)).getPaymentMethods();
     }
 
     public List<PaymentMethodDTO> getPaymentMethods(int organizationId) {
-        return getPaymentMethods(new PaymentContext(null, ConfigurationLevel.organization(organizationId)));
+        return getSnapshot(new PaymentContext(null, ConfigurationLevel.organization(organizationId))).getPaymentMethods();
+    }
+
+    /**
+     * Returns the payment methods which can be offered to the attendees of the given event, that is, the ones
+     * not blacklisted, allowed by the event and with an active provider.
+     *
+     * @param event the event
+     * @return the active payment methods
+     */
+    public List<PaymentProxy> getActivePaymentMethods(Event event) {
+        return List.copyOf(getSnapshot(new PaymentContext(event)).getActiveProviders().keySet());
     }
 
     public boolean refund(TicketReservation reservation, Event event, Integer amount, String username) {
@@ -172,7 +194,9 @@ public class PaymentManager {
     }
 
     private Stream<? extends Map.Entry<String, ?>> getProviderOptions(PaymentContext context, PaymentProxy pp) {
-        return lookupProviderByMethod(pp.getPaymentMethod(), context).stream()
+        return Optional.ofNullable(getSnapshot(context).getActiveProviders().get(pp))
+            .or(() -> lookupProviderByMethod(pp.getPaymentMethod(), context))
+            .stream()
             .flatMap(it -> it.getModelOptions(context).entrySet().stream().filter(kv -> kv.getValue() != null));
     }
 
@@ -0,0 +1,112 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.manager;
+
+import alfio.manager.PaymentManager.PaymentMethodDTO;
+import alfio.manager.support.MetricsProvider;
+import alfio.manager.system.ClusterAwareCache;
+import alfio.manager.system.ClusterNotificationManager;
+import alfio.manager.system.ConfigurationCache;
+import alfio.manager.system.ConfigurationLevel;
+import alfio.model.Event;
+import alfio.model.transaction.PaymentProvider;
+import alfio.model.transaction.PaymentProxy;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * <p>Snapshot of the payment methods available for an organization or an event, as computed by
+ * {@link PaymentManager}. Resolving them requires asking every {@link PaymentProvider} for every
+ * {@link PaymentProxy}, each one reading its own configuration.</p>
+ *
+ * <p>Entries are evicted, on all nodes, whenever the configuration of the same level (or of a parent level) is
+ * modified. For events, the key contains the allowed proxies, the begin date and the current date, since the
+ * availability of offline payments depends on the number of days left before the event.</p>
+ */
+@Component
+public class PaymentMethodsCache implements MetricsProvider {
+
+    private final ClusterAwareCache<CacheKey, PaymentMethodsSnapshot> cache;
+
+    public PaymentMethodsCache(ClusterNotificationManager clusterNotificationManager,
+                               ConfigurationCache configurationCache,
+                               Environment environment) {
+        this.cache = new ClusterAwareCache<>("payment-methods",
+            Caffeine.newBuilder().maximumSize(5_000).expireAfterWrite(10, TimeUnit.MINUTES),
+            clusterNotificationManager,
+            environment,
+            PaymentMethodsCache::scopeMatcher);
+        configurationCache.addDependent(level -> cache.invalidate(ConfigurationCache.toPayload(level)));
+    }
+
+    PaymentMethodsSnapshot get(Event event, ConfigurationLevel level, Function<CacheKey, PaymentMethodsSnapshot> loader) {
+        var key = event == null ? new CacheKey(level, Set.of(), null, null)
+            : new CacheKey(level, toSet(event.getAllowedPaymentProxies()), event.getBegin().withZoneSameInstant(event.getZoneId()).toLocalDate(), LocalDate.now(event.getZoneId()));
+        return Objects.requireNonNull(cache.get(key, loader));
+    }
+
+    private static Set<PaymentProxy> toSet(List<PaymentProxy> proxies) {
+        return proxies == null || proxies.isEmpty() ? Set.of() : EnumSet.copyOf(proxies);
+    }
+
+    private static Predicate<CacheKey> scopeMatcher(String payload) {
+        var affected = ConfigurationCache.affectedLevels(payload);
+        return affected == null ? null : k -> affected.test(k.level);
+    }
+
+    @Override
+    public String getMetricsGroup() {
+        return cache.getMetricsGroup();
+    }
+
+    @Override
+    public Map<String, Number> getMetrics() {
+        return cache.getMetrics();
+    }
+
+    @Value
+    static class CacheKey {
+        ConfigurationLevel level;
+        Set<PaymentProxy> allowedPaymentProxies;
+        LocalDate eventBegin;
+        LocalDate today;
+    }
+
+    @Value
+    static class PaymentMethodsSnapshot {
+        /**
+         * all the available proxies, except the blacklisted ones
+         */
+        List<PaymentMethodDTO> paymentMethods;
+        /**
+         * proxies which can be offered to the attendees of the event, with their provider
+         */
+        Map<PaymentProxy, PaymentProvider> activeProviders;
+    }
+}
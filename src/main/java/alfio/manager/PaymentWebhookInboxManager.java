@@ -0,0 +1,255 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.manager;
+
+import alfio.manager.support.MetricsProvider;
+import alfio.manager.support.PaymentWebhookResult;
+import alfio.model.transaction.PaymentContext;
+import alfio.model.transaction.PaymentMethod;
+import alfio.model.transaction.PaymentWebhookInboxItem;
+import alfio.model.transaction.capabilities.SignedWebhookHandler;
+import alfio.repository.PaymentWebhookInboxRepository;
+import lombok.extern.log4j.Log4j2;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionException;
+import org.springframework.transaction.support.DefaultTransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * <p>Durable inbox for the payment webhooks. The HTTP thread only verifies the signature and stores the payload,
+ * deduplicated on the id assigned by the provider, so that the provider gets an immediate acknowledgement.</p>
+ *
+ * <p>The stored payloads are then processed by {@link alfio.job.Jobs}, one per transaction: rows are claimed with
+ * {@code for update skip locked}, so that multiple instances can run the worker at the same time. Failed payloads are
+ * retried with an exponential backoff, up to {@code alfio.payment.webhook.inbox.max-attempts} times. The processing
+ * runs in a savepoint: if it fails, only the savepoint is rolled back and the failure is recorded in the same
+ * transaction, so that no other instance can claim the row in the meantime. If the transaction cannot be committed
+ * anyway (e.g. because the processing marked it as rollback-only), the failure is recorded in a new transaction,
+ * provided that the row has not been claimed by another instance in the meantime.</p>
+ */
+@Component
+@Log4j2
+public class PaymentWebhookInboxManager implements MetricsProvider {
+
+    private static final int MAX_RETRY_DELAY_SECONDS = 60 * 60;
+    private static final int MAX_ERROR_LENGTH = 2048;
+
+    private final PaymentManager paymentManager;
+    private final TicketReservationManager ticketReservationManager;
+    private final PaymentWebhookInboxRepository paymentWebhookInboxRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final TransactionTemplate nestedTransactionTemplate;
+    private final int batchSize;
+    private final int maxAttempts;
+    private final int retryDelaySeconds;
+    private final int retentionDays;
+
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong duplicates = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong processed = new AtomicLong();
+    private final AtomicLong retried = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong lastProcessingLagMs = new AtomicLong();
+    private final AtomicLong maxProcessingLagMs = new AtomicLong();
+
+    public PaymentWebhookInboxManager(PaymentManager paymentManager,
+                                      TicketReservationManager ticketReservationManager,
+                                      PaymentWebhookInboxRepository paymentWebhookInboxRepository,
+                                      PlatformTransactionManager transactionManager,
+                                      Environment environment) {
+        this.paymentManager = paymentManager;
+        this.ticketReservationManager = ticketReservationManager;
+        this.paymentWebhookInboxRepository = paymentWebhookInboxRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager, new DefaultTransactionDefinition(TransactionDefinition.PROPAGATION_REQUIRES_NEW));
+        this.nestedTransactionTemplate = new TransactionTemplate(transactionManager, new DefaultTransactionDefinition(TransactionDefinition.PROPAGATION_NESTED));
+        this.batchSize = environment.getProperty("alfio.payment.webhook.inbox.batch-size", Integer.class, 50);
+        this.maxAttempts = environment.getProperty("alfio.payment.webhook.inbox.max-attempts", Integer.class, 10);
+        this.retryDelaySeconds = environment.getProperty("alfio.payment.webhook.inbox.retry-delay-seconds", Integer.class, 5);
+        this.retentionDays = environment.getProperty("alfio.payment.webhook.inbox.retention-days", Integer.class, 30);
+    }
+
+    /**
+     * Verifies and stores a webhook payload. Deliveries already received are acknowledged without being stored again.
+     *
+     * @param body the request body
+     * @param signature the signature sent by the provider
+     * @param paymentMethod the payment method
+     * @return {@link PaymentWebhookResult.Type#ACCEPTED} if the payload has been stored (or was already there),
+     * an error otherwise
+     */
+    public PaymentWebhookResult receive(String body, String signature, PaymentMethod paymentMethod) {
+        //load the payment provider using system configuration
+        var optionalHandler = lookupWebhookHandler(paymentMethod);
+        if(optionalHandler.isEmpty()) {
+            rejected.incrementAndGet();
+            return PaymentWebhookResult.error("payment provider not found");
+        }
+        var handler = optionalHandler.get();
+        if(handler.parseTransactionPayload(body, signature).isEmpty()) {
+            rejected.incrementAndGet();
+            return PaymentWebhookResult.error("payload not recognized");
+        }
+        String providerEventId = handler.getWebhookEventId(body);
+        if(paymentWebhookInboxRepository.insertIfAbsent(paymentMethod.name(), providerEventId, body, signature) == 0) {
+            duplicates.incrementAndGet();
+            log.debug("discarding duplicate webhook {} for {}", providerEventId, paymentMethod);
+            return PaymentWebhookResult.accepted("duplicate");
+        }
+        received.incrementAndGet();
+        return PaymentWebhookResult.accepted("queued");
+    }
+
+    /**
+     * Processes up to {@code alfio.payment.webhook.inbox.batch-size} pending payloads.
+     *
+     * @return the number of payloads handled, either successfully or not
+     */
+    public int processPending() {
+        Map<PaymentMethod, Optional<SignedWebhookHandler>> handlers = new HashMap<>();
+        int count = 0;
+        while(count < batchSize && processNext(handlers)) {
+            count++;
+        }
+        return count;
+    }
+
+    public int cleanupProcessed() {
+        return paymentWebhookInboxRepository.deleteProcessedOlderThan(retentionDays);
+    }
+
+    private boolean processNext(Map<PaymentMethod, Optional<SignedWebhookHandler>> handlers) {
+        var claimed = new AtomicReference<PaymentWebhookInboxItem>();
+        try {
+            Boolean found = transactionTemplate.execute(status -> {
+                var optionalItem = paymentWebhookInboxRepository.lockNextPending();
+                optionalItem.ifPresent(claimed::set);
+                return optionalItem.map(item -> processLocked(item, handlers)).orElse(false);
+            });
+            return Boolean.TRUE.equals(found);
+        } catch (TransactionException e) {
+            var item = claimed.get();
+            if(item == null) {
+                throw e;
+            }
+            log.warn("transaction rolled back while processing webhook {} for {}", item.getProviderEventId(), item.getPaymentMethod(), e);
+            // the lock has been released together with the transaction
+            transactionTemplate.execute(status -> paymentWebhookInboxRepository.lockPendingById(item.getId())
+                .map(locked -> registerFailure(locked, errorMessage(e)))
+                .orElse(0));
+            return true;
+        }
+    }
+
+    private boolean processLocked(PaymentWebhookInboxItem item, Map<PaymentMethod, Optional<SignedWebhookHandler>> handlers) {
+        var handler = handlers.computeIfAbsent(item.getPaymentMethod(), this::lookupWebhookHandler);
+        String error;
+        try {
+            // the payload is processed in a savepoint, so that a failure can be recorded while we still hold the lock on the row
+            var result = nestedTransactionTemplate.execute(nested -> {
+                var r = process(item, handler);
+                if(r.isError()) {
+                    nested.setRollbackOnly();
+                }
+                return r;
+            });
+            error = result.isError() ? result.getReason() : null;
+            if(error == null) {
+                paymentWebhookInboxRepository.markAsDone(item.getId(), result.getType().name());
+                processed.incrementAndGet();
+                long lag = Duration.between(item.getReceivedTs(), ZonedDateTime.now(item.getReceivedTs().getZone())).toMillis();
+                lastProcessingLagMs.set(lag);
+                maxProcessingLagMs.accumulateAndGet(lag, Math::max);
+            }
+        } catch (RuntimeException e) {
+            log.warn("error while processing webhook {} for {}", item.getProviderEventId(), item.getPaymentMethod(), e);
+            error = errorMessage(e);
+        }
+        if(error != null) {
+            registerFailure(item, error);
+        }
+        return true;
+    }
+
+    private static String errorMessage(Exception e) {
+        return StringUtils.defaultIfBlank(e.getMessage(), e.getClass().getName());
+    }
+
+    private PaymentWebhookResult process(PaymentWebhookInboxItem item, Optional<SignedWebhookHandler> handler) {
+        if(handler.isEmpty()) {
+            return PaymentWebhookResult.error("payment provider not found");
+        }
+        return handler.get().parseVerifiedTransactionPayload(item.getBody(), item.getSignature())
+            .map(payload -> ticketReservationManager.processTransactionWebhook(payload, item.getPaymentMethod()))
+            .orElseGet(() -> PaymentWebhookResult.error("payload not recognized"));
+    }
+
+    private int registerFailure(PaymentWebhookInboxItem item, String error) {
+        int attempts = item.getAttempts() + 1;
+        boolean giveUp = attempts >= maxAttempts;
+        if(giveUp) {
+            failed.incrementAndGet();
+            log.error("giving up on webhook {} for {} after {} attempts: {}", item.getProviderEventId(), item.getPaymentMethod(), attempts, error);
+        } else {
+            retried.incrementAndGet();
+        }
+        int delay = (int) Math.min((long) retryDelaySeconds << Math.min(item.getAttempts(), 20), MAX_RETRY_DELAY_SECONDS);
+        var status = giveUp ? PaymentWebhookInboxItem.Status.ERROR : PaymentWebhookInboxItem.Status.PENDING;
+        return paymentWebhookInboxRepository.markAsFailed(item.getId(), status.name(), StringUtils.abbreviate(error, MAX_ERROR_LENGTH), delay);
+    }
+
+    private Optional<SignedWebhookHandler> lookupWebhookHandler(PaymentMethod paymentMethod) {
+        return paymentManager.lookupProviderByMethod(paymentMethod, new PaymentContext())
+            .filter(pp -> pp instanceof SignedWebhookHandler)
+            .map(pp -> (SignedWebhookHandler) pp);
+    }
+
+    @Override
+    public String getMetricsGroup() {
+        return "payment-webhook-inbox";
+    }
+
+    @Override
+    public Map<String, Number> getMetrics() {
+        var stats = paymentWebhookInboxRepository.getStats();
+        return Map.ofEntries(
+            Map.entry("pending", stats.getPending()),
+            Map.entry("failedRows", stats.getFailed()),
+            Map.entry("oldestPendingAgeSeconds", stats.getOldestPendingAgeSeconds()),
+            Map.entry("received", received.get()),
+            Map.entry("duplicates", duplicates.get()),
+            Map.entry("rejected", rejected.get()),
+            Map.entry("processed", processed.get()),
+            Map.entry("retried", retried.get()),
+            Map.entry("failed", failed.get()),
+            Map.entry("lastProcessingLagMs", lastProcessingLagMs.get()),
+            Map.entry("maxProcessingLagMs", maxProcessingLagMs.get())
+        );
+    }
+}
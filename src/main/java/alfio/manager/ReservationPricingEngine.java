@@ -0,0 +1,257 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.manager;
+
+import alfio.model.*;
+import alfio.model.PromoCodeDiscount.DiscountType;
+import alfio.model.decorator.AdditionalServiceItemPriceContainer;
+import alfio.model.decorator.TicketPriceContainer;
+import alfio.repository.*;
+import alfio.util.LocaleUtil;
+import lombok.Value;
+import org.apache.commons.lang3.tuple.Pair;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.util.*;
+import java.util.function.Function;
+
+import static alfio.util.MonetaryUtil.formatCents;
+import static alfio.util.MonetaryUtil.unitToCents;
+import static java.util.stream.Collectors.*;
+
+/**
+ * <p>Computes the total price and the summary rows of a reservation.</p>
+ *
+ * <p>Tickets, additional service items, categories, additional services and their titles are loaded with one query
+ * each. Items sharing the same category (or additional service) and the same price have the same price breakdown,
+ * so the breakdown is computed once per group and multiplied by the group size. The rounding rules are the ones
+ * defined by {@link PriceContainer}, so the result is exactly the same as summing the single items.
+ * Summary rows are sorted by category id, then by additional service id.</p>
+ *
+ * <p>Results are not cached: checking whether a cached result is still valid would require loading the same data
+ * used for the computation.</p>
+ */
+@Component
+@Log4j2
+public class ReservationPricingEngine {
+
+    private final TicketRepository ticketRepository;
+    private final TicketCategoryRepository ticketCategoryRepository;
+    private final AdditionalServiceRepository additionalServiceRepository;
+    private final AdditionalServiceItemRepository additionalServiceItemRepository;
+    private final AdditionalServiceTextRepository additionalServiceTextRepository;
+    private final PromoCodeDiscountRepository promoCodeDiscountRepository;
+
+    public ReservationPricingEngine(TicketRepository ticketRepository,
+                                    TicketCategoryRepository ticketCategoryRepository,
+                                    AdditionalServiceRepository additionalServiceRepository,
+                                    AdditionalServiceItemRepository additionalServiceItemRepository,
+                                    AdditionalServiceTextRepository additionalServiceTextRepository,
+                                    PromoCodeDiscountRepository promoCodeDiscountRepository) {
+        this.ticketRepository = ticketRepository;
+        this.ticketCategoryRepository = ticketCategoryRepository;
+        this.additionalServiceRepository = additionalServiceRepository;
+        this.additionalServiceItemRepository = additionalServiceItemRepository;
+        this.additionalServiceTextRepository = additionalServiceTextRepository;
+        this.promoCodeDiscountRepository = promoCodeDiscountRepository;
+    }
+
+    /**
+     * @param event the event
+     * @param reservation the reservation. The VAT status of the given instance is used, even if it differs from the stored one.
+     * @return the price of the reservation, computed using the data currently stored
+     */
+    public ReservationPrice get(Event event, TicketReservation reservation) {
+        return compute(event, reservation, ticketRepository.findTicketsInReservation(reservation.getId()));
+    }
+
+    /**
+     * Computes the price of a reservation using the given tickets.
+     */
+    public ReservationPrice compute(Event event, TicketReservation reservation, List<Ticket> tickets) {
+        return compute(event, reservation.getId(), reservation.getVatStatus(), findPromoCodeDiscount(reservation), tickets, LocaleUtil.forLanguageTag(reservation.getUserLanguage()));
+    }
+
+    ReservationPrice compute(Event event,
+                             String reservationId,
+                             PriceContainer.VatStatus reservationVatStatus,
+                             PromoCodeDiscount promoCodeDiscount,
+                             List<Ticket> tickets,
+                             Locale locale) {
+        var items = additionalServiceItemRepository.findByReservationUuid(reservationId);
+        var additionalServiceIds = items.stream().map(AdditionalServiceItem::getAdditionalServiceId).collect(toSet());
+        Map<Integer, AdditionalService> additionalServices = additionalServiceIds.isEmpty() ? Map.of() : additionalServiceRepository.findAllByIds(additionalServiceIds, event.getId()).stream()
+            .collect(toMap(AdditionalService::getId, Function.identity()));
+        var categoryIds = tickets.stream().map(Ticket::getCategoryId).collect(toSet());
+        Map<Integer, String> categoryNames = categoryIds.isEmpty() ? Map.of() : ticketCategoryRepository.findByIds(categoryIds).stream()
+            .collect(toMap(TicketCategory::getId, TicketCategory::getName, (a, b) -> a));
+        Map<Integer, String> titles = additionalServices.isEmpty() ? Map.of() : findTitles(additionalServices.keySet(), locale.getLanguage());
+        return compute(event, reservationVatStatus, promoCodeDiscount, tickets, items, additionalServices, categoryNames, titles);
+    }
+
+    private PromoCodeDiscount findPromoCodeDiscount(TicketReservation reservation) {
+        return Optional.ofNullable(reservation.getPromoCodeDiscountId()).map(promoCodeDiscountRepository::findById).orElse(null);
+    }
+
+    private Map<Integer, String> findTitles(Collection<Integer> additionalServiceIds, String language) {
+        Map<Integer, List<AdditionalServiceText>> textsById = additionalServiceTextRepository.findAllByAdditionalServiceIds(additionalServiceIds).stream()
+            .filter(t -> t.getType() == AdditionalServiceText.TextType.TITLE)
+            .collect(groupingBy(AdditionalServiceText::getAdditionalServiceId));
+        Map<Integer, String> titles = new HashMap<>();
+        additionalServiceIds.forEach(id -> {
+            var texts = textsById.getOrDefault(id, List.of());
+            var title = texts.stream().filter(t -> language.equals(t.getLocale())).findFirst();
+            if(title.isEmpty()) {
+                log.debug("additional service {}: title not found for locale {}", id, language);
+            }
+            titles.put(id, title.or(() -> texts.stream().findFirst()).map(AdditionalServiceText::getValue).orElse("N/A"));
+        });
+        return titles;
+    }
+
+    /**
+     * Computes totals and summary rows in a single pass over the given data.
+     *
+     * @param event the event
+     * @param reservationVatStatus VAT status of the reservation, if overridden
+     * @param promoCodeDiscount the applied discount, can be null
+     * @param tickets tickets
+     * @param items additional service items
+     * @param additionalServices additional services, by id
+     * @param categoryNames category names, by id
+     * @param titles additional service titles, by id
+     * @return the price of the reservation
+     */
+    static ReservationPrice compute(Event event,
+                                    PriceContainer.VatStatus reservationVatStatus,
+                                    PromoCodeDiscount promoCodeDiscount,
+                                    List<Ticket> tickets,
+                                    List<AdditionalServiceItem> items,
+                                    Map<Integer, AdditionalService> additionalServices,
+                                    Map<Integer, String> categoryNames,
+                                    Map<Integer, String> titles) {
+        String currencyCode = event.getCurrency();
+        var totals = new Totals();
+        List<SummaryRow> summary = new ArrayList<>();
+
+        tickets.stream()
+            .collect(groupingBy(Ticket::getCategoryId, TreeMap::new, groupingBy(t -> Pair.of(t.getSrcPriceCts(), t.getCurrencyCode()), LinkedHashMap::new, toList())))
+            .forEach((categoryId, ticketsByPrice) -> {
+                var row = new RowAccumulator();
+                ticketsByPrice.values().forEach(group -> {
+                    var container = TicketPriceContainer.from(group.get(0), reservationVatStatus, event.getVat(), event.getVatStatus(), promoCodeDiscount);
+                    totals.add(container, group.size(), true);
+                    row.add(container, container.getSummarySrcPriceCts(), group.size());
+                });
+                summary.add(row.toSummaryRow(categoryNames.get(categoryId), currencyCode, SummaryRow.SummaryType.TICKET));
+            });
+
+        items.stream()
+            .collect(groupingBy(AdditionalServiceItem::getAdditionalServiceId, TreeMap::new, groupingBy(i -> Optional.ofNullable(i.getSrcPriceCts()).orElse(0), LinkedHashMap::new, toList())))
+            .forEach((additionalServiceId, itemsByPrice) -> {
+                var additionalService = additionalServices.get(additionalServiceId);
+                var row = new RowAccumulator();
+                itemsByPrice.values().forEach(group -> {
+                    var item = group.get(0);
+                    totals.add(AdditionalServiceItemPriceContainer.from(item, additionalService, event, promoCodeDiscount), group.size(), false);
+                    // the summary shows the price before discount
+                    var container = AdditionalServiceItemPriceContainer.from(item, additionalService, event, null);
+                    row.add(container, container.getSrcPriceCts(), group.size());
+                });
+                summary.add(row.toSummaryRow(titles.get(additionalServiceId), currencyCode, SummaryRow.SummaryType.ADDITIONAL_SERVICE));
+            });
+
+        var totalPrice = totals.toTotalPrice(promoCodeDiscount, currencyCode);
+        if(promoCodeDiscount != null) {
+            String formattedSingleAmount = "-" + (promoCodeDiscount.getDiscountType() == DiscountType.FIXED_AMOUNT ? formatCents(promoCodeDiscount.getDiscountAmount(), currencyCode) : (promoCodeDiscount.getDiscountAmount()+"%"));
+            summary.add(new SummaryRow(formatPromoCode(promoCodeDiscount, tickets, categoryNames),
+                formattedSingleAmount,
+                formattedSingleAmount,
+                totalPrice.getDiscountAppliedCount(),
+                formatCents(totalPrice.getDiscount(), currencyCode), formatCents(totalPrice.getDiscount(), currencyCode), totalPrice.getDiscount(), SummaryRow.SummaryType.PROMOTION_CODE));
+        }
+        return new ReservationPrice(totalPrice, Collections.unmodifiableList(summary));
+    }
+
+    private static String formatPromoCode(PromoCodeDiscount promoCodeDiscount, List<Ticket> tickets, Map<Integer, String> categoryNames) {
+        var categories = promoCodeDiscount.getCategories();
+        List<Integer> discountedCategories = tickets.stream().map(Ticket::getCategoryId).filter(categories::contains).distinct().collect(toList());
+        if (categories.isEmpty() || discountedCategories.isEmpty()) {
+            return promoCodeDiscount.getPromoCode();
+        }
+        return promoCodeDiscount.getPromoCode() + " " + discountedCategories.stream().map(categoryNames::get).collect(joining(", ", "(", ")"));
+    }
+
+    private static class Totals {
+        private BigDecimal vat = BigDecimal.ZERO;
+        private BigDecimal discount = BigDecimal.ZERO;
+        private BigDecimal net = BigDecimal.ZERO;
+        private int discountedTickets = 0;
+
+        private void add(PriceContainer container, int count, boolean ticket) {
+            var multiplier = BigDecimal.valueOf(count);
+            var appliedDiscount = container.getAppliedDiscount();
+            vat = vat.add(container.getRawVAT().multiply(multiplier));
+            discount = discount.add(appliedDiscount.multiply(multiplier));
+            net = net.add(container.getFinalPrice().multiply(multiplier));
+            if(ticket && appliedDiscount.compareTo(BigDecimal.ZERO) > 0) {
+                discountedTickets += count;
+            }
+        }
+
+        private TotalPrice toTotalPrice(PromoCodeDiscount promoCodeDiscount, String currencyCode) {
+            int discountAppliedCount = discountedTickets <= 1 || promoCodeDiscount.getDiscountType() == DiscountType.FIXED_AMOUNT ? discountedTickets : 1;
+            return new TotalPrice(unitToCents(net, currencyCode), unitToCents(vat, currencyCode), -(unitToCents(discount, currencyCode)), discountAppliedCount, currencyCode);
+        }
+    }
+
+    private static class RowAccumulator {
+        private int count = 0;
+        private int subTotal = 0;
+        private BigDecimal subTotalBeforeVat = BigDecimal.ZERO;
+        private String rowCurrencyCode;
+        private int firstPriceCts;
+        private BigDecimal firstPriceBeforeVat;
+
+        private void add(SummaryPriceContainer container, int priceCts, int groupSize) {
+            if(count == 0) {
+                rowCurrencyCode = container.getCurrencyCode();
+                firstPriceCts = priceCts;
+            }
+            var priceBeforeVat = SummaryPriceContainer.getSummaryPriceBeforeVat(container, rowCurrencyCode);
+            if(count == 0) {
+                firstPriceBeforeVat = priceBeforeVat;
+            }
+            count += groupSize;
+            subTotal += priceCts * groupSize;
+            subTotalBeforeVat = subTotalBeforeVat.add(priceBeforeVat.multiply(BigDecimal.valueOf(groupSize)));
+        }
+
+        private SummaryRow toSummaryRow(String name, String currencyCode, SummaryRow.SummaryType type) {
+            return new SummaryRow(name, formatCents(firstPriceCts, currencyCode), formatCents(unitToCents(firstPriceBeforeVat, rowCurrencyCode), currencyCode),
+                count, formatCents(subTotal, currencyCode), formatCents(unitToCents(subTotalBeforeVat, rowCurrencyCode), currencyCode), subTotal, type);
+        }
+    }
+
+    @Value
+    public static class ReservationPrice {
+        TotalPrice totalPrice;
+        List<SummaryRow> summary;
+    }
+}
@@ -0,0 +1,150 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.manager;
+
+import alfio.manager.support.MetricsProvider;
+import alfio.manager.system.ClusterNotificationManager;
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.util.CustomizableThreadFactory;
+
+import javax.annotation.PreDestroy;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Lets a client wait for a change in the status of a reservation, instead of polling for it.</p>
+ *
+ * <p>Every code path which changes the status of a reservation, or removes it, must call {@link #statusChanged(String)}.
+ * Changes are signaled in-process after the commit of the current transaction, and to the other nodes through
+ * the {@link ClusterNotificationManager}. Waiters are completed on a dedicated pool, so that the listener
+ * is never blocked by the code reacting to the change.</p>
+ */
+@Component
+@Log4j2
+public class ReservationStatusNotifier implements MetricsProvider {
+
+    private static final String CHANNEL = "alfio_reservation_status";
+
+    private final ClusterNotificationManager clusterNotificationManager;
+    private final Map<String, Set<CompletableFuture<Void>>> waiters = new ConcurrentHashMap<>();
+    private final ExecutorService dispatcher;
+    @Getter
+    private final long waitTimeoutMs;
+    private final AtomicLong notifications = new AtomicLong();
+
+    public ReservationStatusNotifier(ClusterNotificationManager clusterNotificationManager, Environment environment) {
+        this.clusterNotificationManager = clusterNotificationManager;
+        this.waitTimeoutMs = environment.getProperty("alfio.reservation.status-wait-timeout-ms", Long.class, 25_000L);
+        this.dispatcher = Executors.newFixedThreadPool(environment.getProperty("alfio.reservation.status-dispatcher-threads", Integer.class, 2),
+            new CustomizableThreadFactory("alfio-reservation-status-"));
+        clusterNotificationManager.subscribe(CHANNEL, new ClusterNotificationManager.Listener() {
+            @Override
+            public void onNotification(String payload) {
+                wakeUp(payload);
+            }
+
+            @Override
+            public void onConnectionReset() {
+                // changes could have been lost, waiters must check the status again
+                List.copyOf(waiters.keySet()).forEach(ReservationStatusNotifier.this::wakeUp);
+            }
+        });
+    }
+
+    /**
+     * Registers a waiter for the given reservation. The caller must check the current status <em>after</em>
+     * having registered, and cancel the returned future if it is not interested anymore.
+     *
+     * @param reservationId the reservation
+     * @return a future which will be completed at the next change of the reservation status
+     */
+    public CompletableFuture<Void> awaitChange(String reservationId) {
+        var future = new CompletableFuture<Void>();
+        waiters.compute(reservationId, (k, set) -> {
+            var futures = set != null ? set : ConcurrentHashMap.<CompletableFuture<Void>>newKeySet();
+            futures.add(future);
+            return futures;
+        });
+        future.whenComplete((r, t) -> waiters.computeIfPresent(reservationId, (k, set) -> {
+            set.remove(future);
+            return set.isEmpty() ? null : set;
+        }));
+        return future;
+    }
+
+    /**
+     * Signals that the status of the given reservation has changed. If there is an active transaction,
+     * the waiters will be notified after commit.
+     *
+     * @param reservationId the reservation
+     */
+    public void statusChanged(String reservationId) {
+        notifications.incrementAndGet();
+        if(TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    wakeUp(reservationId);
+                }
+            });
+        } else {
+            wakeUp(reservationId);
+        }
+        // will be delivered after commit, if there is a transaction. This node will receive it as well.
+        clusterNotificationManager.publish(CHANNEL, reservationId);
+    }
+
+    private void wakeUp(String reservationId) {
+        var futures = waiters.remove(reservationId);
+        if(futures == null) {
+            return;
+        }
+        try {
+            dispatcher.execute(() -> futures.forEach(f -> f.complete(null)));
+        } catch (RejectedExecutionException e) {
+            log.trace("shutting down, cannot notify waiters for reservation {}", reservationId);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        dispatcher.shutdown();
+    }
+
+    @Override
+    public String getMetricsGroup() {
+        return "reservation-status";
+    }
+
+    @Override
+    public Map<String, Number> getMetrics() {
+        var metrics = new LinkedHashMap<String, Number>();
+        metrics.put("waitingReservations", waiters.size());
+        metrics.put("waiters", waiters.values().stream().mapToInt(Set::size).sum());
+        metrics.put("notifications", notifications.get());
+        return metrics;
+    }
+}
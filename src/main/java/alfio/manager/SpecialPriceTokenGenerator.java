@@ -26,23 +26,37 @@ import alfio.repository.EventRepository;
 import alfio.repository.SpecialPriceRepository;
 import alfio.repository.TicketCategoryRepository;
 import lombok.extern.log4j.Log4j2;
+import org.apache.commons.collections4.ListUtils;
 import org.apache.commons.lang3.RandomStringUtils;
 import org.apache.commons.lang3.time.StopWatch;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.DefaultTransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.*;
+
+import static java.util.stream.Collectors.*;
 
 /**
  * Class SpecialPriceTokenGenerator.
  * This class generates a bunch of tokens which will be used for
  * granting a special price to a specific user category.
+ * <p>
+ * Codes are generated in batches: the candidates are checked against the existing codes with a single query,
+ * then written with a batch update. Since the update relies on the unique constraint, a batch which collides with
+ * a concurrently generated code is rolled back to its savepoint and generated again.
  */
 @Component
 @Log4j2
 @Transactional
 public class SpecialPriceTokenGenerator {
 
+    static final int BATCH_SIZE = 1000;
     private static final char[] ADMITTED_CHARACTERS = new char[]{
             'A', 'B', 'C', 'D', 'E', 'F',
             'G', 'H', 'J', 'K', 'M', 'N',
@@ -55,56 +69,85 @@ public class SpecialPriceTokenGenerator {
     private final TicketCategoryRepository ticketCategoryRepository;
     private final EventRepository eventRepository;
     private final ConfigurationManager configurationManager;
+    private final TransactionTemplate nestedTransactionTemplate;
 
     @Autowired
     public SpecialPriceTokenGenerator(ConfigurationManager configurationManager,
                                       SpecialPriceRepository specialPriceRepository,
                                       TicketCategoryRepository ticketCategoryRepository,
-                                      EventRepository eventRepository) {
+                                      EventRepository eventRepository,
+                                      PlatformTransactionManager transactionManager) {
         this.specialPriceRepository = specialPriceRepository;
         this.configurationManager = configurationManager;
         this.ticketCategoryRepository = ticketCategoryRepository;
         this.eventRepository = eventRepository;
+        this.nestedTransactionTemplate = new TransactionTemplate(transactionManager, new DefaultTransactionDefinition(TransactionDefinition.PROPAGATION_NESTED));
     }
 
     public void generatePendingCodes() {
         StopWatch stopWatch = new StopWatch();
         log.trace("start pending codes generation");
         stopWatch.start();
-        specialPriceRepository.findWaitingElements().forEach(this::generateCode);
+        generateCodes(specialPriceRepository.findWaitingElements());
         stopWatch.stop();
         log.trace("end. Took {} ms", stopWatch.getTime());
     }
 
     public void generatePendingCodesForCategory(int categoryId) {
-        specialPriceRepository.findWaitingElementsForCategory(categoryId).forEach(this::generateCode);
+        generateCodes(specialPriceRepository.findWaitingElementsForCategory(categoryId));
     }
 
-    private void generateCode(SpecialPrice.SpecialPriceTicketCategoryId specialPrice) {
+    private void generateCodes(List<SpecialPrice.SpecialPriceTicketCategoryId> waitingElements) {
+        waitingElements.stream()
+            .collect(groupingBy(SpecialPrice.SpecialPriceTicketCategoryId::getTicketCategoryId, mapping(SpecialPrice.SpecialPriceTicketCategoryId::getId, toList())))
+            .forEach(this::generateCodesForCategory);
+    }
 
-        TicketCategory ticketCategory = ticketCategoryRepository.getByIdAndActive(specialPrice.getTicketCategoryId()).orElseThrow(IllegalStateException::new);
+    private void generateCodesForCategory(int categoryId, List<Integer> specialPriceIds) {
+        TicketCategory ticketCategory = ticketCategoryRepository.getByIdAndActive(categoryId).orElseThrow(IllegalStateException::new);
         EventAndOrganizationId event = eventRepository.findEventAndOrganizationIdById(ticketCategory.getEventId());
         int maxLength = configurationManager.getFor(ConfigurationKeys.SPECIAL_PRICE_CODE_LENGTH, ConfigurationLevel.ticketCategory(event, ticketCategory.getId())).getValueAsIntOrDefault(6);
 
-        while (true) {
-            try {
-                log.trace("generate code for special price with id {}", specialPrice.getId());
-                specialPriceRepository.updateCode(nextValidCode(maxLength), specialPrice.getId());
-                log.trace("done.");
-                return;
-            } catch (DataAccessException e) {
-                log.warn("got a duplicate. Retrying...", e);
+        int generated = 0;
+        for (List<Integer> batch : ListUtils.partition(specialPriceIds, BATCH_SIZE)) {
+            while (!tryAssignCodes(batch, maxLength)) {
+                log.warn("got a duplicate while generating codes for category {}. Retrying...", categoryId);
             }
+            generated += batch.size();
+            log.debug("generated {}/{} codes for category {}", generated, specialPriceIds.size(), categoryId);
         }
+        log.info("generated {} codes for category {}", generated, categoryId);
+    }
+
+    private boolean tryAssignCodes(List<Integer> specialPriceIds, int maxLength) {
+        var codes = nextValidCodes(specialPriceIds.size(), maxLength).iterator();
+        Map<Integer, String> codesById = new LinkedHashMap<>();
+        specialPriceIds.forEach(id -> codesById.put(id, codes.next()));
+        return Objects.requireNonNull(nestedTransactionTemplate.execute(status -> {
+            try {
+                specialPriceRepository.bulkUpdateCodes(codesById);
+                return true;
+            } catch (DuplicateKeyException e) {
+                status.setRollbackOnly();
+                return false;
+            }
+        }));
     }
 
-    private String nextValidCode(int maxLength) {
-        while (true) {
-            String code = generateRandomCode(maxLength);
-            if (specialPriceRepository.countByCode(code) == 0) {
-                return code;
+    private Set<String> nextValidCodes(int count, int maxLength) {
+        Set<String> codes = new HashSet<>(count * 2);
+        while (codes.size() < count) {
+            Set<String> candidates = new HashSet<>();
+            while (codes.size() + candidates.size() < count) {
+                String code = generateRandomCode(maxLength);
+                if(!codes.contains(code)) {
+                    candidates.add(code);
+                }
             }
+            candidates.removeAll(specialPriceRepository.findExistingCodes(candidates));
+            codes.addAll(candidates);
         }
+        return codes;
     }
 
     private String generateRandomCode(int maxLength) {
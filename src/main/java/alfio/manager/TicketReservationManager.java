@@ -27,11 +27,9 @@ import alfio.manager.system.ConfigurationManager;
 import alfio.manager.system.Mailer;
 import alfio.model.*;
 import alfio.model.AdditionalServiceItem.AdditionalServiceItemStatus;
-import alfio.model.PromoCodeDiscount.DiscountType;
 import alfio.model.SpecialPrice.Status;
 import alfio.model.Ticket.TicketStatus;
 import alfio.model.TicketReservation.TicketReservationStatus;
-import alfio.model.decorator.AdditionalServiceItemPriceContainer;
 import alfio.model.decorator.AdditionalServicePriceContainer;
 import alfio.model.decorator.TicketPriceContainer;
 import alfio.model.group.LinkedGroup;
@@ -129,7 +127,7 @@ public class TicketReservationManager {
     private final AdditionalServiceRepository additionalServiceRepository;
     private final AdditionalServiceItemRepository additionalServiceItemRepository;
     private final AdditionalServiceTextRepository additionalServiceTextRepository;
-    private final InvoiceSequencesRepository invoiceSequencesRepository;
+    private final InvoiceNumberAllocator invoiceNumberAllocator;
     private final AuditingRepository auditingRepository;
     private final UserRepository userRepository;
     private final ExtensionManager extensionManager;
@@ -138,6 +136,8 @@ public class TicketReservationManager {
     private final BillingDocumentRepository billingDocumentRepository;
     private final NamedParameterJdbcTemplate jdbcTemplate;
     private final Json json;
+    private final ReservationPricingEngine reservationPricingEngine;
+    private final ReservationStatusNotifier reservationStatusNotifier;
 
     public static class NotEnoughTicketsException extends RuntimeException {
 
@@ -173,14 +173,16 @@ public class TicketReservationManager {
                                     AdditionalServiceRepository additionalServiceRepository,
                                     AdditionalServiceItemRepository additionalServiceItemRepository,
                                     AdditionalServiceTextRepository additionalServiceTextRepository,
-                                    InvoiceSequencesRepository invoiceSequencesRepository,
+                                    InvoiceNumberAllocator invoiceNumberAllocator,
                                     AuditingRepository auditingRepository,
                                     UserRepository userRepository,
                                     ExtensionManager extensionManager, TicketSearchRepository ticketSearchRepository,
                                     GroupManager groupManager,
                                     BillingDocumentRepository billingDocumentRepository,
                                     NamedParameterJdbcTemplate jdbcTemplate,
-                                    Json json) {
+                                    Json json,
+                                    ReservationPricingEngine reservationPricingEngine,
+                                    ReservationStatusNotifier reservationStatusNotifier) {
         this.eventRepository = eventRepository;
         this.organizationRepository = organizationRepository;
         this.ticketRepository = ticketRepository;
@@ -205,7 +207,7 @@ public class TicketReservationManager {
         this.additionalServiceRepository = additionalServiceRepository;
         this.additionalServiceItemRepository = additionalServiceItemRepository;
         this.additionalServiceTextRepository = additionalServiceTextRepository;
-        this.invoiceSequencesRepository = invoiceSequencesRepository;
+        this.invoiceNumberAllocator = invoiceNumberAllocator;
         this.auditingRepository = auditingRepository;
         this.userRepository = userRepository;
         this.extensionManager = extensionManager;
@@ -214,6 +216,8 @@ public class TicketReservationManager {
         this.billingDocumentRepository = billingDocumentRepository;
         this.jdbcTemplate = jdbcTemplate;
         this.json = json;
+        this.reservationPricingEngine = reservationPricingEngine;
+        this.reservationStatusNotifier = reservationStatusNotifier;
     }
     
     /**
@@ -533,10 +537,10 @@ public class TicketReservationManager {
         });
 
         String invoiceNumber = optionalInvoiceNumber.orElseGet(() -> {
-                int invoiceSequence = invoiceSequencesRepository.lockReservationForUpdate(spec.getEvent().getOrganizationId());
-                invoiceSequencesRepository.incrementSequenceFor(spec.getEvent().getOrganizationId());
                 String pattern = configurationManager.getFor(ConfigurationKeys.INVOICE_NUMBER_PATTERN, ConfigurationLevel.event(spec.getEvent())).getValueOrDefault("%d");
-                return String.format(pattern, invoiceSequence);
+                int organizationId = spec.getEvent().getOrganizationId();
+                boolean reuseReleasedNumbers = configurationManager.getFor(ConfigurationKeys.REUSE_RELEASED_INVOICE_NUMBERS, ConfigurationLevel.organization(organizationId)).getValueAsBooleanOrDefault(false);
+                return invoiceNumberAllocator.allocate(organizationId, reservationId, reuseReleasedNumbers, invoiceSequence -> String.format(pattern, invoiceSequence));
         });
 
         ticketReservationRepository.setInvoiceNumber(reservationId, invoiceNumber);
@@ -762,6 +766,7 @@ public class TicketReservationManager {
     public void issueCreditNoteForReservation(Event event, String reservationId, String username) {
         TicketReservation reservation = ticketReservationRepository.findReservationById(reservationId);
         ticketReservationRepository.updateReservationStatus(reservationId, TicketReservationStatus.CREDIT_NOTE_ISSUED.toString());
+        reservationStatusNotifier.statusChanged(reservationId);
         auditingRepository.insert(reservationId, userRepository.nullSafeFindIdByUserName(username).orElse(null), event.getId(), Audit.EventType.CREDIT_NOTE_ISSUED, new Date(), RESERVATION, reservationId);
         Map<String, Object> model = prepareModelForReservationEmail(event, reservation);
         Map<String, Object> billingDocumentModel = createBillingDocumentModel(event, reservation, username, BillingDocument.Type.CREDIT_NOTE);
@@ -874,6 +879,7 @@ public class TicketReservationManager {
                     spec.getCustomerName().getFirstName(), spec.getCustomerName().getLastName(),
                     spec.getLocale().getLanguage(), spec.getBillingAddress(),null, PaymentProxy.STRIPE.toString(), spec.getCustomerReference());
                 Validate.isTrue(updatedReservation == 1, "expected exactly one updated reservation, got " + updatedReservation);
+                reservationStatusNotifier.statusChanged(spec.getReservationId());
             }
             return null;
         });
@@ -901,6 +907,7 @@ public class TicketReservationManager {
     private void reTransitionToPending(String reservationId) {
         int updatedReservation = ticketReservationRepository.updateReservationStatus(reservationId, TicketReservationStatus.PENDING.toString());
         Validate.isTrue(updatedReservation == 1, "expected exactly one updated reservation, got "+updatedReservation);
+        reservationStatusNotifier.statusChanged(reservationId);
         // delete all pending transactions, if any
         transactionRepository.deleteForReservationsWithStatus(List.of(reservationId), Transaction.Status.PENDING);
     }
@@ -987,6 +994,7 @@ public class TicketReservationManager {
         int updatedReservation = ticketReservationRepository.updateTicketReservation(reservationId, TicketReservationStatus.COMPLETE.toString(), email,
             customerName.getFullName(), customerName.getFirstName(), customerName.getLastName(), userLanguage, billingAddress, timestamp, paymentProxy.toString(), customerReference);
         Validate.isTrue(updatedReservation == 1, "expected exactly one updated reservation, got " + updatedReservation);
+        reservationStatusNotifier.statusChanged(reservationId);
         waitingQueueManager.fireReservationConfirmed(reservationId);
         //we must notify the plugins about ticket assignment and send them by email
         TicketReservation reservation = findById(reservationId).orElseThrow(IllegalStateException::new);
@@ -1017,13 +1025,22 @@ public class TicketReservationManager {
         };
     }
 
+    /**
+     * Removes at most {@code maxReservations} expired reservations, releasing their tickets.
+     * Callers are expected to invoke this method repeatedly, each time in a new transaction, so that the row locks
+     * are held only for one chunk. See {@link ExpiredReservationsCleaner}.
+     *
+     * @param expirationDate expiration date
+     * @param maxReservations maximum number of reservations to remove
+     * @return the number of removed reservations
+     */
     @Transactional
-    public void cleanupExpiredReservations(Date expirationDate) {
-        List<String> expiredReservationIds = ticketReservationRepository.findExpiredReservationForUpdate(expirationDate);
+    public int cleanupExpiredReservations(Date expirationDate, int maxReservations) {
+        List<String> expiredReservationIds = ticketReservationRepository.findExpiredReservationForUpdate(expirationDate, maxReservations);
         if(expiredReservationIds.isEmpty()) {
-            return;
+            return 0;
         }
-        
+
         specialPriceRepository.resetToFreeAndCleanupForReservation(expiredReservationIds);
         ticketRepository.resetCategoryIdForUnboundedCategories(expiredReservationIds);
         ticketFieldRepository.deleteAllValuesForReservations(expiredReservationIds);
@@ -1044,6 +1061,8 @@ public class TicketReservationManager {
         });
         //
         ticketReservationRepository.remove(expiredReservationIds);
+        expiredReservationIds.forEach(reservationStatusNotifier::statusChanged);
+        return expiredReservationIds.size();
     }
 
     public void cleanupExpiredOfflineReservations(Date expirationDate) {
@@ -1078,6 +1097,7 @@ public class TicketReservationManager {
         List<String> stuckReservations = ticketReservationRepository.findStuckReservationsForUpdate(expirationDate);
         if(!stuckReservations.isEmpty()) {
             ticketReservationRepository.updateReservationsStatus(stuckReservations, TicketReservationStatus.STUCK.name());
+            stuckReservations.forEach(reservationStatusNotifier::statusChanged);
 
             Map<Integer, List<ReservationIdAndEventId>> reservationsGroupedByEvent = ticketReservationRepository
                 .getReservationIdAndEventId(stuckReservations)
@@ -1095,38 +1115,6 @@ public class TicketReservationManager {
         }
     }
 
-    private static TotalPrice totalReservationCostWithVAT(PromoCodeDiscount promoCodeDiscount,
-                                                          Event event,
-                                                          PriceContainer.VatStatus reservationVatStatus,
-                                                          List<Ticket> tickets,
-                                                          Stream<Pair<AdditionalService, List<AdditionalServiceItem>>> additionalServiceItems) {
-
-        List<TicketPriceContainer> ticketPrices = tickets.stream().map(t -> TicketPriceContainer.from(t, reservationVatStatus, event.getVat(), event.getVatStatus(), promoCodeDiscount)).collect(toList());
-        BigDecimal totalVAT = calcTotal(ticketPrices, PriceContainer::getRawVAT);
-        BigDecimal totalDiscount = calcTotal(ticketPrices, PriceContainer::getAppliedDiscount);
-        BigDecimal totalNET = calcTotal(ticketPrices, PriceContainer::getFinalPrice);
-        int discountedTickets = (int) ticketPrices.stream().filter(t -> t.getAppliedDiscount().compareTo(BigDecimal.ZERO) > 0).count();
-        int discountAppliedCount = discountedTickets <= 1 || promoCodeDiscount.getDiscountType() == DiscountType.FIXED_AMOUNT ? discountedTickets : 1;
-
-        List<AdditionalServiceItemPriceContainer> asPrices = additionalServiceItems
-            .flatMap(generateASIPriceContainers(event, promoCodeDiscount))
-            .collect(toList());
-
-        BigDecimal asTotalVAT = calcTotal(asPrices, PriceContainer::getRawVAT);
-        BigDecimal asTotalDiscount = calcTotal(asPrices, PriceContainer::getAppliedDiscount);
-        BigDecimal asTotalNET = calcTotal(asPrices, PriceContainer::getFinalPrice);
-        String currencyCode = event.getCurrency();
-        return new TotalPrice(unitToCents(totalNET.add(asTotalNET), currencyCode), unitToCents(totalVAT.add(asTotalVAT), currencyCode), -(MonetaryUtil.unitToCents(totalDiscount.add(asTotalDiscount), currencyCode)), discountAppliedCount, currencyCode);
-    }
-
-    private static BigDecimal calcTotal(List<? extends PriceContainer> elements, Function<? super PriceContainer, BigDecimal> operator) {
-        return elements.stream().map(operator).reduce(BigDecimal.ZERO, BigDecimal::add);
-    }
-
-    private static Function<Pair<AdditionalService, List<AdditionalServiceItem>>, Stream<? extends AdditionalServiceItemPriceContainer>> generateASIPriceContainers(Event event, PromoCodeDiscount discount) {
-        return p -> p.getValue().stream().map(asi -> AdditionalServiceItemPriceContainer.from(asi, p.getKey(), event, discount));
-    }
-
     /**
      * Get the total cost with VAT if it's not included in the ticket price.
      * 
@@ -1138,31 +1126,11 @@ public class TicketReservationManager {
     }
 
     public TotalPrice totalReservationCostWithVAT(TicketReservation reservation) {
-        return totalReservationCostWithVAT(eventRepository.findByReservationId(reservation.getId()), reservation, ticketRepository.findTicketsInReservation(reservation.getId()));
+        return reservationPricingEngine.get(eventRepository.findByReservationId(reservation.getId()), reservation).getTotalPrice();
     }
 
     public TotalPrice totalReservationCostWithVAT(Event event, TicketReservation reservation, List<Ticket> tickets) {
-        Optional<PromoCodeDiscount> promoCodeDiscount = Optional.ofNullable(reservation.getPromoCodeDiscountId()).map(promoCodeDiscountRepository::findById);
-        return totalReservationCostWithVAT(promoCodeDiscount.orElse(null), event, reservation.getVatStatus(), tickets, collectAdditionalServiceItems(reservation.getId(), event));
-    }
-
-    private String formatPromoCode(PromoCodeDiscount promoCodeDiscount, List<Ticket> tickets) {
-
-        List<Ticket> filteredTickets = tickets.stream().filter(ticket -> promoCodeDiscount.getCategories().contains(ticket.getCategoryId())).collect(toList());
-
-        if (promoCodeDiscount.getCategories().isEmpty() || filteredTickets.isEmpty()) {
-            return promoCodeDiscount.getPromoCode();
-        }
-
-        String formattedDiscountedCategories = filteredTickets.stream()
-            .map(Ticket::getCategoryId)
-            .collect(toSet())
-            .stream()
-            .map(categoryId -> ticketCategoryRepository.getByIdAndActive(categoryId, promoCodeDiscount.getEventId()).getName())
-            .collect(Collectors.joining(", ", "(", ")"));
-
-
-        return promoCodeDiscount.getPromoCode() + " " + formattedDiscountedCategories;
+        return reservationPricingEngine.compute(event, reservation, tickets).getTotalPrice();
     }
 
     public OrderSummary orderSummaryForReservationId(String reservationId, Event event) {
@@ -1171,8 +1139,8 @@ public class TicketReservationManager {
     }
 
     public OrderSummary orderSummaryForReservation(TicketReservation reservation, Event event) {
-        TotalPrice reservationCost = totalReservationCostWithVAT(reservation);
-        PromoCodeDiscount discount = Optional.ofNullable(reservation.getPromoCodeDiscountId()).map(promoCodeDiscountRepository::findById).orElse(null);
+        var reservationPrice = reservationPricingEngine.get(event, reservation);
+        TotalPrice reservationCost = reservationPrice.getTotalPrice();
         //
         boolean free = reservationCost.getPriceWithVAT() == 0;
         String refundedAmount = null;
@@ -1185,7 +1153,7 @@ public class TicketReservationManager {
 
         var currencyCode = reservation.getCurrencyCode();
         return new OrderSummary(reservationCost,
-            extractSummary(reservation.getId(), reservation.getVatStatus(), event, LocaleUtil.forLanguageTag(reservation.getUserLanguage()), discount, reservationCost),
+            reservationPrice.getSummary(),
             free,
             formatCents(reservationCost.getPriceWithVAT(), currencyCode),
             formatCents(reservationCost.getVAT(), currencyCode),
@@ -1197,55 +1165,8 @@ public class TicketReservationManager {
     }
     
     List<SummaryRow> extractSummary(String reservationId, PriceContainer.VatStatus reservationVatStatus,
-                                    Event event, Locale locale, PromoCodeDiscount promoCodeDiscount, TotalPrice reservationCost) {
-        List<SummaryRow> summary = new ArrayList<>();
-        var currencyCode = reservationCost.getCurrencyCode();
-        List<TicketPriceContainer> tickets = ticketRepository.findTicketsInReservation(reservationId).stream()
-            .map(t -> TicketPriceContainer.from(t, reservationVatStatus, event.getVat(), event.getVatStatus(), promoCodeDiscount)).collect(toList());
-        tickets.stream()
-            .collect(Collectors.groupingBy(TicketPriceContainer::getCategoryId))
-            .forEach((categoryId, ticketsByCategory) -> {
-                final int subTotal = ticketsByCategory.stream().mapToInt(TicketPriceContainer::getSummarySrcPriceCts).sum();
-                final int subTotalBeforeVat = SummaryPriceContainer.getSummaryPriceBeforeVatCts(ticketsByCategory);
-                TicketPriceContainer firstTicket = ticketsByCategory.get(0);
-                final int ticketPriceCts = firstTicket.getSummarySrcPriceCts();
-                final int priceBeforeVat = SummaryPriceContainer.getSummaryPriceBeforeVatCts(singletonList(firstTicket));
-                String categoryName = ticketCategoryRepository.getByIdAndActive(categoryId, event.getId()).getName();
-                summary.add(new SummaryRow(categoryName, formatCents(ticketPriceCts, currencyCode), formatCents(priceBeforeVat, currencyCode), ticketsByCategory.size(), formatCents(subTotal, currencyCode), formatCents(subTotalBeforeVat, currencyCode), subTotal, SummaryRow.SummaryType.TICKET));
-            });
-
-        summary.addAll(collectAdditionalServiceItems(reservationId, event)
-            .map(entry -> {
-                String language = locale.getLanguage();
-                AdditionalServiceText title = additionalServiceTextRepository.findBestMatchByLocaleAndType(entry.getKey().getId(), language, AdditionalServiceText.TextType.TITLE);
-                if(!title.getLocale().equals(language) || title.getId() == -1) {
-                    log.debug("additional service {}: title not found for locale {}", title.getAdditionalServiceId(), language);
-                }
-                List<AdditionalServiceItemPriceContainer> prices = generateASIPriceContainers(event, null).apply(entry).collect(toList());
-                AdditionalServiceItemPriceContainer first = prices.get(0);
-                final int subtotal = prices.stream().mapToInt(AdditionalServiceItemPriceContainer::getSrcPriceCts).sum();
-                final int subtotalBeforeVat = SummaryPriceContainer.getSummaryPriceBeforeVatCts(prices);
-                return new SummaryRow(title.getValue(), formatCents(first.getSrcPriceCts(), currencyCode), formatCents(SummaryPriceContainer.getSummaryPriceBeforeVatCts(singletonList(first)), currencyCode), prices.size(), formatCents(subtotal, currencyCode), formatCents(subtotalBeforeVat, currencyCode), subtotal, SummaryRow.SummaryType.ADDITIONAL_SERVICE);
-            }).collect(toList()));
-
-        Optional.ofNullable(promoCodeDiscount).ifPresent(promo -> {
-            String formattedSingleAmount = "-" + (promo.getDiscountType() == DiscountType.FIXED_AMOUNT ? formatCents(promo.getDiscountAmount(), currencyCode) : (promo.getDiscountAmount()+"%"));
-            summary.add(new SummaryRow(formatPromoCode(promo, ticketRepository.findTicketsInReservation(reservationId)),
-                formattedSingleAmount,
-                formattedSingleAmount,
-                reservationCost.getDiscountAppliedCount(),
-                formatCents(reservationCost.getDiscount(), currencyCode), formatCents(reservationCost.getDiscount(), currencyCode), reservationCost.getDiscount(), SummaryRow.SummaryType.PROMOTION_CODE));
-        });
-        return summary;
-    }
-
-    private Stream<Pair<AdditionalService, List<AdditionalServiceItem>>> collectAdditionalServiceItems(String reservationId, Event event) {
-        return additionalServiceItemRepository.findByReservationUuid(reservationId)
-            .stream()
-            .collect(Collectors.groupingBy(AdditionalServiceItem::getAdditionalServiceId))
-            .entrySet()
-            .stream()
-            .map(entry -> Pair.of(additionalServiceRepository.getById(entry.getKey(), event.getId()), entry.getValue()));
+                                    Event event, Locale locale, PromoCodeDiscount promoCodeDiscount) {
+        return reservationPricingEngine.compute(event, reservationId, reservationVatStatus, promoCodeDiscount, ticketRepository.findTicketsInReservation(reservationId), locale).getSummary();
     }
 
     String reservationUrl(String reservationId) {
@@ -1352,6 +1273,7 @@ public class TicketReservationManager {
         }
         int removedReservation = ticketReservationRepository.remove(wrappedReservationIdToRemove);
         Validate.isTrue(removedReservation == 1, "expected exactly one removed reservation, got " + removedReservation);
+        reservationStatusNotifier.statusChanged(reservationIdToRemove);
         auditingRepository.insert(reservationIdToRemove, userRepository.nullSafeFindIdByUserName(username).orElse(null), event.getId(), expired ? Audit.EventType.CANCEL_RESERVATION_EXPIRED : Audit.EventType.CANCEL_RESERVATION, new Date(), Audit.EntityType.RESERVATION, reservationIdToRemove);
     }
 
@@ -1809,21 +1731,14 @@ public class TicketReservationManager {
         return StringUtils.isEmpty(reservation.getUserLanguage()) ? Locale.ENGLISH : LocaleUtil.forLanguageTag(reservation.getUserLanguage());
     }
 
-    public PaymentWebhookResult processTransactionWebhook(String body, String signature, PaymentMethod paymentMethod) {
-        //load the payment provider using system configuration
-        var paymentProviderOptional = paymentManager.lookupProviderByMethod(paymentMethod, new PaymentContext())
-            .filter(pp -> pp instanceof SignedWebhookHandler);
-        if(paymentProviderOptional.isEmpty()) {
-            return PaymentWebhookResult.error("payment provider not found");
-        }
-
-        var paymentProvider = paymentProviderOptional.get();
-        var optionalTransactionWebhookPayload = ((SignedWebhookHandler) paymentProvider).parseTransactionPayload(body, signature);
-        if(optionalTransactionWebhookPayload.isEmpty()) {
-            return PaymentWebhookResult.error("payload not recognized");
-        }
-        var transactionPayload = optionalTransactionWebhookPayload.get();
-
+    /**
+     * Applies a webhook payload, already parsed and verified by the system-level provider, to its reservation.
+     *
+     * @param transactionPayload the payload
+     * @param paymentMethod the payment method
+     * @return the processing result
+     */
+    public PaymentWebhookResult processTransactionWebhook(TransactionWebhookPayload transactionPayload, PaymentMethod paymentMethod) {
         var optionalReservation = ticketReservationRepository.findOptionalReservationById(transactionPayload.getReservationId());
         if(optionalReservation.isEmpty()) {
             return PaymentWebhookResult.notRelevant("reservation not found");
@@ -1836,14 +1751,13 @@ public class TicketReservationManager {
             return PaymentWebhookResult.notRelevant("reservation status is not compatible");
         }
 
-
         //reload the payment provider, this time within a more sensible context
-        var paymentContext = new PaymentContext(eventRepository.findByReservationId(reservation.getId()));
+        var event = eventRepository.findByReservationId(reservation.getId());
+        var paymentContext = new PaymentContext(event);
         return paymentManager.lookupProviderByMethod(paymentMethod, paymentContext)
             .filter(pp -> pp instanceof SignedWebhookHandler)
             .map(provider -> {
                 var paymentWebhookResult = ((SignedWebhookHandler) provider).processWebhook(transactionPayload, transaction, paymentContext);
-                var event = eventRepository.findByReservationId(reservation.getId());
                 switch(paymentWebhookResult.getType()) {
                     case NOT_RELEVANT: {
                         log.trace("Discarding event {} for reservation {}", transactionPayload.getType(), reservation.getId());
@@ -1854,6 +1768,7 @@ public class TicketReservationManager {
                             String status = WAITING_EXTERNAL_CONFIRMATION.name();
                             log.trace("Event {} received. Setting status {} for reservation {}", transactionPayload.getType(), status, reservation.getId());
                             ticketReservationRepository.updateReservationStatus(reservation.getId(), status);
+                            reservationStatusNotifier.statusChanged(reservation.getId());
                         } else {
                             log.trace("Ignoring Event {}, as it cannot be applied for reservation {} ({})", transactionPayload.getType(), reservation.getId(), reservation.getStatus());
                         }
@@ -1974,6 +1889,7 @@ public class TicketReservationManager {
             return false;
         }
         ticketReservationRepository.updateReservationStatus(reservation.getId(), EXTERNAL_PROCESSING_PAYMENT.name());
+        reservationStatusNotifier.statusChanged(reservation.getId());
         return true;
     }
 
@@ -16,12 +16,18 @@
  */
 package alfio.manager;
 
+import alfio.manager.system.ClusterAwareCache;
+import alfio.manager.system.ClusterNotificationManager;
+import alfio.manager.support.MetricsProvider;
 import alfio.model.UploadedResource;
 import alfio.model.modification.UploadBase64FileModification;
 import alfio.repository.UploadedResourceRepository;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.Value;
 import lombok.extern.log4j.Log4j2;
 import org.apache.commons.lang3.StringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -32,20 +38,30 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.TimeUnit;
 
 @Component
 @Transactional
 @Log4j2
-public class UploadedResourceManager {
+public class UploadedResourceManager implements MetricsProvider {
 
     public static final String ATTR_IMG_WIDTH = "width";
     public static final String ATTR_IMG_HEIGHT = "height";
 
     private final UploadedResourceRepository uploadedResourceRepository;
+    // resolved content for findCascading, keyed by (organization, event, name). Invalidated by resource name.
+    private final ClusterAwareCache<CascadingKey, Optional<byte[]>> cascadingCache;
 
     @Autowired
-    public UploadedResourceManager(UploadedResourceRepository uploadedResourceRepository) {
+    public UploadedResourceManager(UploadedResourceRepository uploadedResourceRepository,
+                                   ClusterNotificationManager clusterNotificationManager,
+                                   Environment environment) {
         this.uploadedResourceRepository = uploadedResourceRepository;
+        this.cascadingCache = new ClusterAwareCache<>("uploaded-resource",
+            Caffeine.newBuilder().maximumSize(1000).expireAfterAccess(1, TimeUnit.HOURS),
+            clusterNotificationManager,
+            environment,
+            name -> k -> k.name.equals(name));
     }
 
     public boolean hasResource(String name) {
@@ -90,6 +106,7 @@ public class UploadedResourceManager {
             uploadedResourceRepository.delete(file.getName());
         }
 
+        cascadingCache.invalidate(file.getName());
         return Optional.ofNullable(uploadedResourceRepository.upload(null, null, file, getAttributes(file)));
     }
 
@@ -98,6 +115,7 @@ public class UploadedResourceManager {
             uploadedResourceRepository.delete(organizationId, file.getName());
         }
 
+        cascadingCache.invalidate(file.getName());
         return Optional.ofNullable(uploadedResourceRepository.upload(organizationId, null, file, getAttributes(file)));
     }
 
@@ -106,19 +124,23 @@ public class UploadedResourceManager {
             uploadedResourceRepository.delete(organizationId, eventId, file.getName());
         }
 
+        cascadingCache.invalidate(file.getName());
         return Optional.ofNullable(uploadedResourceRepository.upload(organizationId, eventId, file, getAttributes(file)));
     }
 
     public void deleteResource(String name) {
         uploadedResourceRepository.delete(name);
+        cascadingCache.invalidate(name);
     }
 
     public void deleteResource(int organizationId, String name) {
         uploadedResourceRepository.delete(organizationId, name);
+        cascadingCache.invalidate(name);
     }
 
     public void deleteResource(int organizationId, int eventId, String name) {
         uploadedResourceRepository.delete(organizationId, eventId, name);
+        cascadingCache.invalidate(name);
     }
 
     public List<UploadedResource> findAll() {
@@ -150,7 +172,20 @@ public class UploadedResourceManager {
         }
     }
 
+    /**
+     * Find the most specific resource with the given name, looking first at the event level, then organization
+     * and system level. The result is cached until the resource is saved or deleted.
+     *
+     * @param organizationId organization id
+     * @param eventId event id
+     * @param savedName resource name
+     * @return the resource content, if present
+     */
     public Optional<byte[]> findCascading(int organizationId, int eventId, String savedName) {
+        return cascadingCache.get(new CascadingKey(organizationId, eventId, savedName), k -> loadCascading(organizationId, eventId, savedName));
+    }
+
+    private Optional<byte[]> loadCascading(int organizationId, int eventId, String savedName) {
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
         if(hasResource(organizationId, eventId, savedName)) {
             outputResource(organizationId, eventId, savedName, baos);
@@ -165,4 +200,21 @@ public class UploadedResourceManager {
             return Optional.empty();
         }
     }
+
+    @Override
+    public String getMetricsGroup() {
+        return cascadingCache.getMetricsGroup();
+    }
+
+    @Override
+    public Map<String, Number> getMetrics() {
+        return cascadingCache.getMetrics();
+    }
+
+    @Value
+    private static class CascadingKey {
+        int organizationId;
+        int eventId;
+        String name;
+    }
 }
@@ -16,27 +16,44 @@
  */
 package alfio.manager.i18n;
 
+import alfio.manager.support.MetricsProvider;
+import alfio.manager.system.ClusterAwareCache;
+import alfio.manager.system.ClusterNotificationManager;
 import alfio.model.EventAndOrganizationId;
 import alfio.repository.system.ConfigurationRepository;
 import alfio.util.CustomResourceBundleMessageSource;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.Value;
 import org.apache.commons.lang3.tuple.Pair;
 import org.springframework.context.MessageSource;
 import org.springframework.context.support.AbstractMessageSource;
+import org.springframework.core.env.Environment;
 
 import java.text.MessageFormat;
-import java.util.Locale;
-import java.util.Map;
-import java.util.Set;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
 
-public class MessageSourceManager {
+public class MessageSourceManager implements MetricsProvider {
+
+    private static final OverrideKey SYSTEM_KEY = new OverrideKey(-1, -1);
 
     private final CustomResourceBundleMessageSource messageSource;
     private final ConfigurationRepository configurationRepository;
+    private final ClusterAwareCache<OverrideKey, MessageSourceWithOverride> snapshots;
 
     public MessageSourceManager(CustomResourceBundleMessageSource messageSource,
-                                ConfigurationRepository configurationRepository) {
+                                ConfigurationRepository configurationRepository,
+                                ClusterNotificationManager clusterNotificationManager,
+                                Environment environment) {
         this.messageSource = messageSource;
         this.configurationRepository = configurationRepository;
+        this.snapshots = new ClusterAwareCache<>("message-source",
+            Caffeine.newBuilder().maximumSize(1000).expireAfterAccess(1, TimeUnit.HOURS),
+            clusterNotificationManager,
+            environment,
+            MessageSourceManager::scopeMatcher);
     }
 
     public Set<String> getKeys(String basename, Locale locale) {
@@ -44,8 +61,9 @@ public class MessageSourceManager {
     }
 
     public Pair<MessageSource, Map<String, Map<String, String>>> getMessageSourceForEventAndOverride(EventAndOrganizationId eventAndOrganizationId) {
-        var override = configurationRepository.getEventOverrideMessages(eventAndOrganizationId.getOrganizationId(), eventAndOrganizationId.getId());
-        return Pair.of(new MessageSourceWithOverride(messageSource, override), override);
+        var snapshot = snapshots.get(new OverrideKey(eventAndOrganizationId.getOrganizationId(), eventAndOrganizationId.getId()),
+            k -> new MessageSourceWithOverride(messageSource, configurationRepository.getEventOverrideMessages(k.organizationId, k.eventId)));
+        return Pair.of(snapshot, snapshot.override);
     }
 
     public MessageSource getMessageSourceForEvent(EventAndOrganizationId eventAndOrganizationId) {
@@ -58,27 +76,75 @@ public class MessageSourceManager {
 
     public MessageSource getRootMessageSource(boolean withSystemOverride) {
         if (withSystemOverride) {
-            return new MessageSourceWithOverride(messageSource, configurationRepository.getSystemOverrideMessages());
+            return snapshots.get(SYSTEM_KEY, k -> new MessageSourceWithOverride(messageSource, configurationRepository.getSystemOverrideMessages()));
         } else {
             return messageSource;
         }
     }
 
+    /**
+     * Discard the cached overrides after a modification of the TRANSLATION_OVERRIDE configuration.
+     *
+     * @param organizationId the organization, or {@code null} if the system configuration has been modified
+     * @param eventId the event, or {@code null} if the modified configuration is not at event level
+     */
+    public void overrideModified(Integer organizationId, Integer eventId) {
+        if(eventId != null) {
+            snapshots.invalidate("event:" + eventId);
+        } else if(organizationId != null) {
+            snapshots.invalidate("organization:" + organizationId);
+        } else {
+            snapshots.invalidateAll();
+        }
+    }
+
+    private static Predicate<OverrideKey> scopeMatcher(String scope) {
+        var parts = scope.split(":");
+        if(parts.length != 2) {
+            return null;
+        }
+        int id = Integer.parseInt(parts[1]);
+        return "event".equals(parts[0]) ? k -> k.eventId == id : k -> k.organizationId == id;
+    }
+
+    @Override
+    public String getMetricsGroup() {
+        return snapshots.getMetricsGroup();
+    }
+
+    @Override
+    public Map<String, Number> getMetrics() {
+        return snapshots.getMetrics();
+    }
+
+    @Value
+    private static class OverrideKey {
+        int organizationId;
+        int eventId;
+    }
+
+    /**
+     * Immutable snapshot of the translation overrides. Parsed {@link MessageFormat}s are kept for the lifetime
+     * of the snapshot; they are not thread safe, but {@link AbstractMessageSource} synchronizes on them before formatting.
+     */
     private static class MessageSourceWithOverride extends AbstractMessageSource {
 
         private final CustomResourceBundleMessageSource messageSource;
         private final Map<String, Map<String, String>> override;
+        private final Map<Pair<String, Locale>, MessageFormat> parsedOverrides = new ConcurrentHashMap<>();
 
         private MessageSourceWithOverride(CustomResourceBundleMessageSource messageSource, Map<String, Map<String, String>> override) {
             this.messageSource = messageSource;
-            this.override = override;
+            var copy = new HashMap<String, Map<String, String>>();
+            override.forEach((language, messages) -> copy.put(language, messages == null ? Map.of() : Collections.unmodifiableMap(new HashMap<>(messages))));
+            this.override = Collections.unmodifiableMap(copy);
         }
 
         @Override
         protected MessageFormat resolveCode(String s, Locale locale) {
             var language = locale.getLanguage();
             if (override.containsKey(language) && override.get(language).containsKey(s)) {
-                return new MessageFormat(override.get(language).get(s), locale);
+                return parsedOverrides.computeIfAbsent(Pair.of(s, locale), k -> new MessageFormat(override.get(language).get(s), locale));
             }
             return messageSource.getMessageFormatFor(s, locale);
         }
@@ -16,6 +16,7 @@
  */
 package alfio.manager.payment;
 
+import alfio.manager.ReservationStatusNotifier;
 import alfio.manager.support.PaymentResult;
 import alfio.manager.system.ConfigurationLevel;
 import alfio.manager.system.ConfigurationManager;
@@ -46,6 +47,7 @@ public class BankTransferManager implements PaymentProvider {
     private final ConfigurationManager configurationManager;
     private final TicketReservationRepository ticketReservationRepository;
     private final TransactionRepository transactionRepository;
+    private final ReservationStatusNotifier reservationStatusNotifier;
 
     @Override
     public boolean accept(PaymentMethod paymentMethod, PaymentContext paymentContext) {
@@ -98,6 +100,7 @@ public class BankTransferManager implements PaymentProvider {
         int updatedReservation = ticketReservationRepository.postponePayment(spec.getReservationId(), Date.from(deadline.toInstant()), spec.getEmail(),
             spec.getCustomerName().getFullName(), spec.getCustomerName().getFirstName(), spec.getCustomerName().getLastName(), spec.getBillingAddress(), spec.getCustomerReference());
         Validate.isTrue(updatedReservation == 1, "expected exactly one updated reservation, got " + updatedReservation);
+        reservationStatusNotifier.statusChanged(spec.getReservationId());
     }
 
     public static ZonedDateTime getOfflinePaymentDeadline(PaymentContext context, ConfigurationManager configurationManager) {
@@ -16,6 +16,7 @@
  */
 package alfio.manager.payment;
 
+import alfio.manager.ReservationStatusNotifier;
 import alfio.manager.i18n.MessageSourceManager;
 import alfio.manager.support.PaymentResult;
 import alfio.manager.system.ConfigurationLevel;
@@ -51,6 +52,7 @@ public class MollieCreditCardManager implements PaymentProvider {
     private final MessageSourceManager messageSourceManager;
     private final TicketReservationRepository ticketReservationRepository;
     private final EventRepository eventRepository;
+    private final ReservationStatusNotifier reservationStatusNotifier;
 
     public void handleWebhook(String eventShortName, String reservationId, String paymentId) throws Exception {
         Event event = eventRepository.findByShortName(eventShortName);
@@ -129,6 +131,7 @@ public class MollieCreditCardManager implements PaymentProvider {
                 String respBody = responseBody != null ? responseBody.string() : "null";
                 if (resp.isSuccessful()) {
                     ticketReservationRepository.updateReservationStatus(spec.getReservationId(), TicketReservation.TicketReservationStatus.EXTERNAL_PROCESSING_PAYMENT.toString());
+                    reservationStatusNotifier.statusChanged(spec.getReservationId());
                     Map<String, Object> res = Json.GSON.fromJson(respBody, (new TypeToken<Map<String, Object>>() {}).getType());
                     @SuppressWarnings("unchecked")
                     Map<String, String> links = (Map<String, String>) res.get("links");
@@ -31,6 +31,9 @@ import alfio.model.transaction.webhook.StripeChargeTransactionWebhookPayload;
 import alfio.model.transaction.webhook.StripePaymentIntentWebhookPayload;
 import alfio.repository.*;
 import alfio.repository.system.ConfigurationRepository;
+import alfio.util.Json;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
 import com.stripe.Stripe;
 import com.stripe.exception.StripeException;
 import com.stripe.model.BalanceTransaction;
@@ -171,8 +174,27 @@ public class StripeWebhookPaymentManager implements PaymentProvider, RefundReque
 
     @Override
     public Optional<TransactionWebhookPayload> parseTransactionPayload(String body, String signature) {
+        return parseTransactionPayload(body, signature, Webhook.DEFAULT_TOLERANCE);
+    }
+
+    @Override
+    public Optional<TransactionWebhookPayload> parseVerifiedTransactionPayload(String body, String signature) {
+        // a tolerance of 0 disables the timestamp check, as the event could have been queued for a while
+        return parseTransactionPayload(body, signature, 0);
+    }
+
+    @Override
+    public String getWebhookEventId(String body) {
+        return Optional.ofNullable(Json.GSON.fromJson(body, JsonObject.class))
+            .map(o -> o.get("id"))
+            .filter(JsonElement::isJsonPrimitive)
+            .map(JsonElement::getAsString)
+            .orElseGet(() -> SignedWebhookHandler.super.getWebhookEventId(body));
+    }
+
+    private Optional<TransactionWebhookPayload> parseTransactionPayload(String body, String signature, long tolerance) {
         try {
-            var stripeEvent = Webhook.constructEvent(body, signature, getWebhookSignatureKey());
+            var stripeEvent = Webhook.constructEvent(body, signature, getWebhookSignatureKey(), tolerance);
             String eventType = stripeEvent.getType();
             if(eventType.startsWith("charge.")) {
                 return deserializeObject(stripeEvent).map(obj -> new StripeChargeTransactionWebhookPayload(eventType, (Charge)obj));
@@ -0,0 +1,106 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.manager.support;
+
+import alfio.manager.system.Mailer;
+import alfio.util.Json;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Content-addressed store for generated email attachments (tickets, receipts, invoices, passes...).
+ * <p>
+ * Entries are keyed by the hash of the attachment identifier, its model and the version of the data read by the
+ * renderer (ticket, field values, reservation, event), so that a retried message does not need to render its
+ * attachments again, while a modification of the ticket or of its attendee always produces a new rendering.
+ * <p>
+ * Entries are released once the message has been sent; unused entries expire after
+ * {@code alfio.email.attachments.store.expire-minutes} (default 120). The total size is bounded by
+ * {@code alfio.email.attachments.store.max-size-mb} (default 64).
+ */
+@Component
+public class AttachmentStore implements MetricsProvider {
+
+    private final Cache<String, byte[]> store;
+
+    public AttachmentStore(Environment environment) {
+        long maxSizeBytes = environment.getProperty("alfio.email.attachments.store.max-size-mb", Long.class, 64L) * 1024 * 1024;
+        this.store = Caffeine.newBuilder()
+            .maximumWeight(maxSizeBytes)
+            .<String, byte[]>weigher((k, v) -> v.length)
+            .expireAfterAccess(environment.getProperty("alfio.email.attachments.store.expire-minutes", Long.class, 120L), TimeUnit.MINUTES)
+            .recordStats()
+            .build();
+    }
+
+    /**
+     * @param identifier the attachment type
+     * @param model the attachment model
+     * @param dataVersion fingerprint of the data read by the renderer which is not part of the model
+     * @return the store key
+     */
+    public static String key(Mailer.AttachmentIdentifier identifier, Map<String, String> model, String dataVersion) {
+        var sortedModel = model == null ? Map.of() : new TreeMap<>(model);
+        return DigestUtils.sha256Hex(identifier.name() + ":" + dataVersion + ":" + Json.toJson(sortedModel));
+    }
+
+    /**
+     * Returns the stored content for the given key, rendering it if necessary. Concurrent calls for the same key
+     * wait for a single rendering. Empty or {@code null} results are not stored.
+     *
+     * @param key the attachment key, see {@link #key(Mailer.AttachmentIdentifier, Map, String)}
+     * @param renderer the attachment renderer
+     * @return the rendered content, or {@code null}
+     */
+    public byte[] getOrRender(String key, Supplier<byte[]> renderer) {
+        byte[][] rendered = new byte[1][];
+        byte[] stored = store.get(key, k -> {
+            rendered[0] = renderer.get();
+            return rendered[0] != null && rendered[0].length > 0 ? rendered[0] : null;
+        });
+        return stored != null ? stored : rendered[0];
+    }
+
+    public void release(Collection<String> keys) {
+        store.invalidateAll(keys);
+    }
+
+    @Override
+    public String getMetricsGroup() {
+        return "email-attachment-store";
+    }
+
+    @Override
+    public Map<String, Number> getMetrics() {
+        var stats = store.stats();
+        return Map.of(
+            "size", store.estimatedSize(),
+            "hits", stats.hitCount(),
+            "misses", stats.missCount(),
+            "evictions", stats.evictionCount()
+        );
+    }
+}
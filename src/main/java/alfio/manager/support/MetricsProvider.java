@@ -0,0 +1,36 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.manager.support;
+
+import java.util.Map;
+
+/**
+ * Implemented by components that want to expose internal counters (cache hits, queue depth, ...).
+ * All the implementations are collected and published by {@link alfio.controller.api.admin.MetricsApiController}.
+ */
+public interface MetricsProvider {
+
+    /**
+     * @return the name of the group, must be unique
+     */
+    String getMetricsGroup();
+
+    /**
+     * @return a snapshot of the current values
+     */
+    Map<String, Number> getMetrics();
+}
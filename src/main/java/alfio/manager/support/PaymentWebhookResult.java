@@ -30,7 +30,8 @@ public class PaymentWebhookResult {
         TRANSACTION_INITIATED,
         SUCCESSFUL,
         FAILED,
-        ERROR
+        ERROR,
+        ACCEPTED
     }
 
     private final Type type;
@@ -45,6 +46,10 @@ public class PaymentWebhookResult {
         return type == Type.ERROR;
     }
 
+    public boolean isAccepted() {
+        return type == Type.ACCEPTED;
+    }
+
     public static PaymentWebhookResult successful(PaymentToken paymentToken) {
         return new PaymentWebhookResult(Type.SUCCESSFUL, paymentToken, null);
     }
@@ -61,6 +66,10 @@ public class PaymentWebhookResult {
         return new PaymentWebhookResult(Type.NOT_RELEVANT, null, reason);
     }
 
+    public static PaymentWebhookResult accepted(String reason) {
+        return new PaymentWebhookResult(Type.ACCEPTED, null, reason);
+    }
+
     public static PaymentWebhookResult processStarted(PaymentToken paymentToken) {
         return new PaymentWebhookResult(Type.TRANSACTION_INITIATED, paymentToken, null);
     }
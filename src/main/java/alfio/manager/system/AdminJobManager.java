@@ -16,6 +16,7 @@
  */
 package alfio.manager.system;
 
+import alfio.manager.support.MetricsProvider;
 import alfio.manager.system.AdminJobExecutor.JobName;
 import alfio.model.result.ErrorCode;
 import alfio.model.result.Result;
@@ -23,6 +24,7 @@ import alfio.model.system.AdminJobSchedule;
 import alfio.repository.system.AdminJobQueueRepository;
 import lombok.extern.log4j.Log4j2;
 import org.apache.commons.lang3.tuple.Pair;
+import org.springframework.core.env.Environment;
 import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.transaction.PlatformTransactionManager;
@@ -30,67 +32,114 @@ import org.springframework.transaction.TransactionDefinition;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.transaction.support.DefaultTransactionDefinition;
 import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.CustomizableThreadFactory;
 
+import javax.annotation.PreDestroy;
 import java.time.ZonedDateTime;
 import java.time.temporal.ChronoUnit;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
 import static alfio.model.system.AdminJobSchedule.Status.EXECUTED;
+import static alfio.model.system.AdminJobSchedule.Status.FAILED;
+import static alfio.model.system.AdminJobSchedule.Status.RUNNING;
 import static java.util.stream.Collectors.*;
 
+/**
+ * <p>Executes the jobs stored in {@code admin_job_queue}. Every node polls the queue every
+ * {@code alfio.admin-job.poll-interval-ms} and claims the due schedules with {@code for update skip locked},
+ * obtaining a lease of {@code alfio.admin-job.lease-seconds}. The lease is renewed while the job is running, so
+ * that the schedule can be taken over by another node only if this one stops working.</p>
+ *
+ * <p>Claimed jobs run on a pool of {@code alfio.admin-job.threads} threads. On each node, at most
+ * {@code alfio.admin-job.max-concurrency.[JOB_NAME]} (default 1) schedules of the same job run at the same time.
+ * Failed schedules are retried with an exponential backoff, up to {@code alfio.admin-job.max-attempts} times.</p>
+ */
 @Transactional
 @Log4j2
-public class AdminJobManager {
+public class AdminJobManager implements MetricsProvider {
+
+    private static final int MAX_RETRY_DELAY_SECONDS = 60 * 60;
 
     private final Map<JobName, List<AdminJobExecutor>> executorsByJobId;
     private final AdminJobQueueRepository adminJobQueueRepository;
-    private final TransactionTemplate nestedTransactionTemplate;
+    private final TransactionTemplate requiresNewTransactionTemplate;
     private final Set<String> executedStatuses;
     private final Set<String> notExecutedStatuses;
+    private final String owner = UUID.randomUUID().toString();
+    private final int leaseSeconds;
+    private final int maxAttempts;
+    private final int retryDelaySeconds;
+    private final ExecutorService jobExecutor;
+    private final ScheduledExecutorService leaseRenewer;
+    private final Map<JobName, Semaphore> permits = new EnumMap<>(JobName.class);
+    private final Map<JobName, JobStats> stats = new EnumMap<>(JobName.class);
+    private final Map<Long, AdminJobSchedule> running = new ConcurrentHashMap<>();
+    private final AtomicLong leasesLost = new AtomicLong();
 
     public AdminJobManager(List<AdminJobExecutor> jobExecutors,
                            AdminJobQueueRepository adminJobQueueRepository,
-                           PlatformTransactionManager transactionManager) {
+                           PlatformTransactionManager transactionManager,
+                           Environment environment) {
 
         this.executorsByJobId = jobExecutors.stream()
             .flatMap(je -> je.getJobNames().stream().map(n -> Pair.of(n, je)))
             .collect(groupingBy(Pair::getLeft, () -> new EnumMap<>(JobName.class), mapping(Pair::getValue, toList())));
         this.adminJobQueueRepository = adminJobQueueRepository;
-        this.nestedTransactionTemplate = new TransactionTemplate(transactionManager, new DefaultTransactionDefinition((TransactionDefinition.PROPAGATION_NESTED)));
+        this.requiresNewTransactionTemplate = new TransactionTemplate(transactionManager, new DefaultTransactionDefinition(TransactionDefinition.PROPAGATION_REQUIRES_NEW));
         var executed = EnumSet.of(EXECUTED);
         this.executedStatuses = executed.stream().map(Enum::name).collect(toSet());
-        this.notExecutedStatuses = EnumSet.complementOf(executed).stream().map(Enum::name).collect(toSet());
+        // running schedules are handled by failAbandonedSchedules
+        this.notExecutedStatuses = EnumSet.complementOf(EnumSet.of(EXECUTED, RUNNING)).stream().map(Enum::name).collect(toSet());
+        this.leaseSeconds = environment.getProperty("alfio.admin-job.lease-seconds", Integer.class, 300);
+        this.maxAttempts = environment.getProperty("alfio.admin-job.max-attempts", Integer.class, 3);
+        this.retryDelaySeconds = environment.getProperty("alfio.admin-job.retry-delay-seconds", Integer.class, 60);
+        executorsByJobId.keySet().forEach(jobName -> {
+            permits.put(jobName, new Semaphore(environment.getProperty("alfio.admin-job.max-concurrency." + jobName.name(), Integer.class, 1)));
+            stats.put(jobName, new JobStats());
+        });
+        this.jobExecutor = Executors.newFixedThreadPool(environment.getProperty("alfio.admin-job.threads", Integer.class, 4),
+            new CustomizableThreadFactory("alfio-admin-job-"));
+        this.leaseRenewer = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("alfio-admin-job-lease-"));
+        long renewInterval = Math.max(1, leaseSeconds / 3);
+        this.leaseRenewer.scheduleWithFixedDelay(this::renewLeases, renewInterval, renewInterval, TimeUnit.SECONDS);
     }
 
-    @Scheduled(fixedDelay = 60 * 1000)
+    @Scheduled(fixedDelayString = "${alfio.admin-job.poll-interval-ms:10000}")
     void processPendingRequests() {
         log.trace("Processing pending requests");
-        adminJobQueueRepository.loadPendingSchedules()
-            .stream()
-            .map(this::processPendingRequest)
-            .filter(p -> !p.getRight().isEmpty())
-            .forEach(scheduleWithResults -> {
-                var schedule = scheduleWithResults.getLeft();
-                var partitionedResults = scheduleWithResults.getRight().stream().collect(Collectors.partitioningBy(Result::isSuccess));
-                if(!partitionedResults.get(false).isEmpty()) {
-                    partitionedResults.get(false).forEach(r -> log.warn("Processing failed for {}: {}", schedule.getJobName(), r.getErrors()));
-                    adminJobQueueRepository.updateSchedule(schedule.getId(), AdminJobSchedule.Status.FAILED, ZonedDateTime.now(), Map.of());
-                } else {
-                    partitionedResults.get(true).forEach(result -> {
-                        if(result.getData() != null) {
-                            log.trace("Message from {}: {}", schedule.getJobName(), result.getData());
-                        }
-                    });
-                    adminJobQueueRepository.updateSchedule(schedule.getId(), EXECUTED, ZonedDateTime.now(), Map.of());
+        permits.forEach((jobName, semaphore) -> {
+            int available = semaphore.availablePermits();
+            if(available == 0) {
+                return;
+            }
+            var now = ZonedDateTime.now();
+            var claimed = requiresNewTransactionTemplate.execute(status -> adminJobQueueRepository.claimSchedules(jobName.name(), owner, now, now.plusSeconds(leaseSeconds), maxAttempts, available));
+            Objects.requireNonNull(claimed).forEach(schedule -> {
+                // this is the only thread acquiring permits, so the claimed schedules always fit
+                semaphore.acquireUninterruptibly();
+                running.put(schedule.getId(), schedule);
+                try {
+                    jobExecutor.execute(() -> execute(schedule, semaphore));
+                } catch (RejectedExecutionException e) {
+                    // shutting down. The lease will expire and the schedule will be picked up by another node
+                    running.remove(schedule.getId());
+                    semaphore.release();
                 }
             });
+        });
         log.trace("done processing pending requests");
     }
 
     @Scheduled(cron = "#{environment.acceptsProfiles('dev') ? '0 * * * * *' : '0 0 0 * * *'}")
     void cleanupExpiredRequests() {
         log.trace("Cleanup expired requests");
+        int failed = adminJobQueueRepository.failAbandonedSchedules(ZonedDateTime.now(), maxAttempts);
+        if(failed > 0) {
+            log.warn("Marked {} abandoned jobs as failed", failed);
+        }
         int deleted = adminJobQueueRepository.removePastSchedules(ZonedDateTime.now().minusDays(1), executedStatuses);
         if(deleted > 0) {
             log.trace("Deleted {} executed jobs", deleted);
@@ -111,16 +160,131 @@ public class AdminJobManager {
         }
     }
 
-    private Pair<AdminJobSchedule, List<Result<String>>> processPendingRequest(AdminJobSchedule schedule) {
-        return Pair.of(schedule, executorsByJobId.getOrDefault(schedule.getJobName(), List.of())
+    private void execute(AdminJobSchedule schedule, Semaphore semaphore) {
+        var jobStats = stats.get(schedule.getJobName());
+        long start = System.nanoTime();
+        try {
+            var results = processPendingRequest(schedule);
+            var partitionedResults = results.stream().collect(Collectors.partitioningBy(Result::isSuccess));
+            boolean success = partitionedResults.get(false).isEmpty();
+            if(success) {
+                partitionedResults.get(true).forEach(result -> {
+                    if(result.getData() != null) {
+                        log.trace("Message from {}: {}", schedule.getJobName(), result.getData());
+                    }
+                });
+            } else {
+                partitionedResults.get(false).forEach(r -> log.warn("Processing failed for {}: {}", schedule.getJobName(), r.getErrors()));
+            }
+            jobStats.record(System.nanoTime() - start, success);
+            boolean retry = !success && schedule.getAttempts() < maxAttempts;
+            int updated = Objects.requireNonNull(requiresNewTransactionTemplate.execute(status -> complete(schedule, success, retry)));
+            if(updated == 0) {
+                leasesLost.incrementAndGet();
+                log.warn("Lease for job {} ({}) has been lost before completion", schedule.getJobName(), schedule.getId());
+            } else if(retry) {
+                jobStats.retries.incrementAndGet();
+            }
+        } catch (Exception e) {
+            log.error("Unexpected error while executing job {} ({})", schedule.getJobName(), schedule.getId(), e);
+        } finally {
+            running.remove(schedule.getId());
+            semaphore.release();
+        }
+    }
+
+    private int complete(AdminJobSchedule schedule, boolean success, boolean retry) {
+        if(retry) {
+            long delay = Math.min((long) retryDelaySeconds << Math.min(schedule.getAttempts() - 1, 20), MAX_RETRY_DELAY_SECONDS);
+            return adminJobQueueRepository.rescheduleAfterFailure(schedule.getId(), owner, ZonedDateTime.now().plusSeconds(delay));
+        }
+        return adminJobQueueRepository.completeSchedule(schedule.getId(), owner, success ? EXECUTED.name() : FAILED.name(), ZonedDateTime.now(), Map.of());
+    }
+
+    private List<Result<String>> processPendingRequest(AdminJobSchedule schedule) {
+        return executorsByJobId.getOrDefault(schedule.getJobName(), List.of())
             .stream()
             .map(s -> {
                 try {
-                    return Result.success(nestedTransactionTemplate.execute(status -> s.process(schedule)));
+                    return Result.success(requiresNewTransactionTemplate.execute(status -> s.process(schedule)));
                 } catch (Exception ex) {
                     return Result.<String>error(ErrorCode.custom("exception", ex.getMessage()));
                 }
             })
-            .collect(Collectors.toList()));
+            .collect(Collectors.toList());
+    }
+
+    private void renewLeases() {
+        try {
+            var ids = Set.copyOf(running.keySet());
+            if(ids.isEmpty()) {
+                return;
+            }
+            int renewed = Objects.requireNonNull(requiresNewTransactionTemplate.execute(status -> adminJobQueueRepository.renewLeases(ids, owner, ZonedDateTime.now().plusSeconds(leaseSeconds))));
+            if(renewed < ids.size()) {
+                log.warn("Renewed {} leases out of {}", renewed, ids.size());
+            }
+        } catch (Exception e) {
+            log.warn("Error while renewing job leases", e);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        jobExecutor.shutdown();
+        try {
+            if(!jobExecutor.awaitTermination(30, TimeUnit.SECONDS)) {
+                log.warn("{} jobs still running at shutdown", running.size());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        leaseRenewer.shutdownNow();
+    }
+
+    @Override
+    public String getMetricsGroup() {
+        return "admin-jobs";
+    }
+
+    @Override
+    public Map<String, Number> getMetrics() {
+        var metrics = new LinkedHashMap<String, Number>();
+        metrics.put("running", running.size());
+        metrics.put("leasesLost", leasesLost.get());
+        stats.forEach((jobName, jobStats) -> {
+            String prefix = jobName.name() + ".";
+            metrics.put(prefix + "executions", jobStats.executions.get());
+            metrics.put(prefix + "failures", jobStats.failures.get());
+            metrics.put(prefix + "retries", jobStats.retries.get());
+            metrics.put(prefix + "averageDurationMs", jobStats.averageDurationMs());
+            metrics.put(prefix + "maxDurationMs", TimeUnit.NANOSECONDS.toMillis(jobStats.maxDurationNanos.get()));
+            metrics.put(prefix + "lastDurationMs", TimeUnit.NANOSECONDS.toMillis(jobStats.lastDurationNanos.get()));
+        });
+        return metrics;
+    }
+
+    private static class JobStats {
+        private final AtomicLong executions = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+        private final AtomicLong retries = new AtomicLong();
+        private final AtomicLong totalDurationNanos = new AtomicLong();
+        private final AtomicLong maxDurationNanos = new AtomicLong();
+        private final AtomicLong lastDurationNanos = new AtomicLong();
+
+        void record(long durationNanos, boolean success) {
+            executions.incrementAndGet();
+            if(!success) {
+                failures.incrementAndGet();
+            }
+            totalDurationNanos.addAndGet(durationNanos);
+            maxDurationNanos.accumulateAndGet(durationNanos, Math::max);
+            lastDurationNanos.set(durationNanos);
+        }
+
+        long averageDurationMs() {
+            long count = executions.get();
+            return count == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalDurationNanos.get() / count);
+        }
     }
 }
@@ -0,0 +1,188 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.manager.system;
+
+import alfio.config.Initializer;
+import alfio.manager.support.MetricsProvider;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.core.env.Environment;
+import org.springframework.core.env.Profiles;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * <p>Local cache which is kept coherent across the cluster: calling {@link #invalidate(String)} evicts the entries
+ * matching the given scope on this node and, through {@link ClusterNotificationManager}, on all the other nodes.</p>
+ *
+ * <p>As long as the current transaction contains uncommitted modifications, the cache is bypassed, so that we never
+ * publish values which might be rolled back. Once the transaction is completed, the scope is evicted again, since
+ * concurrent transactions could have loaded the old values in the meantime.</p>
+ *
+ * <p>The cache can be disabled by setting the property {@code alfio.cache.[name].enabled} to {@code false}.
+ * By default it is disabled in the integration-test profile, since tests modify the database directly.</p>
+ *
+ * @param <K> key type
+ * @param <V> value type
+ */
+@Log4j2
+public class ClusterAwareCache<K, V> implements MetricsProvider {
+
+    public static final String ALL = "*";
+
+    private final String name;
+    private final String channel;
+    private final String pendingModificationsKey;
+    private final Cache<K, V> cache;
+    private final ClusterNotificationManager clusterNotificationManager;
+    private final Function<String, Predicate<K>> scopeMatcher;
+    private final boolean enabled;
+    private final AtomicLong invalidations = new AtomicLong();
+    private final AtomicLong bypassed = new AtomicLong();
+
+    /**
+     * @param name cache name, must contain only lowercase letters and dashes
+     * @param builder Caffeine configuration (size, expiration)
+     * @param clusterNotificationManager notification manager
+     * @param environment environment
+     * @param scopeMatcher given an invalidation scope, returns the predicate for selecting the entries to be evicted
+     */
+    public ClusterAwareCache(String name,
+                             Caffeine<Object, Object> builder,
+                             ClusterNotificationManager clusterNotificationManager,
+                             Environment environment,
+                             Function<String, Predicate<K>> scopeMatcher) {
+        this.name = name;
+        this.channel = "alfio_cache_" + name.replace('-', '_');
+        this.pendingModificationsKey = ClusterAwareCache.class.getName() + "." + name;
+        this.cache = builder.recordStats().build();
+        this.clusterNotificationManager = clusterNotificationManager;
+        this.scopeMatcher = scopeMatcher;
+        this.enabled = environment.getProperty("alfio.cache." + name + ".enabled", Boolean.class,
+            !environment.acceptsProfiles(Profiles.of(Initializer.PROFILE_INTEGRATION_TEST)));
+        if(enabled) {
+            clusterNotificationManager.subscribe(channel, new ClusterNotificationManager.Listener() {
+                @Override
+                public void onNotification(String payload) {
+                    evict(payload);
+                }
+
+                @Override
+                public void onConnectionReset() {
+                    cache.invalidateAll();
+                }
+            });
+        }
+    }
+
+    public V get(K key, Function<? super K, ? extends V> loader) {
+        if(!enabled) {
+            return loader.apply(key);
+        }
+        if(TransactionSynchronizationManager.hasResource(pendingModificationsKey)) {
+            bypassed.incrementAndGet();
+            return loader.apply(key);
+        }
+        return cache.get(key, loader);
+    }
+
+    /**
+     * Returns the value cached for the given key, if any, without loading it and without affecting the statistics.
+     *
+     * @param key the key
+     * @return the cached value or {@code null}
+     */
+    public V peek(K key) {
+        return cache.asMap().get(key);
+    }
+
+    /**
+     * Evict all the entries matching the given scope, on all nodes.
+     *
+     * @param scope the scope, as understood by the scopeMatcher, or {@link #ALL}
+     */
+    public void invalidate(String scope) {
+        if(!enabled) {
+            return;
+        }
+        invalidations.incrementAndGet();
+        evict(scope);
+        if(TransactionSynchronizationManager.isSynchronizationActive()) {
+            registerPendingScope(scope);
+        }
+        // will be delivered after commit, if there is a transaction
+        clusterNotificationManager.publish(channel, scope);
+    }
+
+    public void invalidateAll() {
+        invalidate(ALL);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void registerPendingScope(String scope) {
+        if(TransactionSynchronizationManager.hasResource(pendingModificationsKey)) {
+            ((Set<String>) TransactionSynchronizationManager.getResource(pendingModificationsKey)).add(scope);
+            return;
+        }
+        Set<String> scopes = new HashSet<>();
+        scopes.add(scope);
+        TransactionSynchronizationManager.bindResource(pendingModificationsKey, scopes);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                TransactionSynchronizationManager.unbindResourceIfPossible(pendingModificationsKey);
+                scopes.forEach(ClusterAwareCache.this::evict);
+            }
+        });
+    }
+
+    private void evict(String scope) {
+        Predicate<K> predicate = ALL.equals(scope) ? null : scopeMatcher.apply(scope);
+        if(predicate == null) {
+            cache.invalidateAll();
+        } else {
+            cache.asMap().keySet().removeIf(predicate);
+        }
+    }
+
+    @Override
+    public String getMetricsGroup() {
+        return "cache-" + name;
+    }
+
+    @Override
+    public Map<String, Number> getMetrics() {
+        var stats = cache.stats();
+        return Map.of(
+            "enabled", enabled ? 1 : 0,
+            "size", cache.estimatedSize(),
+            "hits", stats.hitCount(),
+            "misses", stats.missCount(),
+            "evictions", stats.evictionCount(),
+            "invalidations", invalidations.get(),
+            "bypassed", bypassed.get()
+        );
+    }
+}
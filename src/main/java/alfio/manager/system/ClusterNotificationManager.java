@@ -0,0 +1,201 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.manager.system;
+
+import com.zaxxer.hikari.HikariDataSource;
+import lombok.extern.log4j.Log4j2;
+import org.apache.commons.lang3.Validate;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.regex.Pattern;
+
+/**
+ * <p>Thin wrapper around the PostgreSQL LISTEN/NOTIFY mechanism, used for propagating "something has changed"
+ * events (e.g. cache invalidation) to all the alf.io instances connected to the same database.</p>
+ *
+ * <p>Notifications are sent through {@code pg_notify}: when called inside a transaction, PostgreSQL delivers them
+ * only if and when the transaction commits. Note that the node that sends a notification will receive it as well.</p>
+ *
+ * <p>The listener uses a dedicated connection which is opened outside of the connection pool, if possible.</p>
+ */
+@Component
+@Log4j2
+public class ClusterNotificationManager implements DisposableBean {
+
+    private static final Pattern VALID_CHANNEL_NAME = Pattern.compile("^[a-z_][a-z0-9_]*$");
+    private static final int POLL_TIMEOUT_MILLIS = 500;
+    private static final long RECONNECT_DELAY_MILLIS = 5000L;
+
+    private final DataSource dataSource;
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final Map<String, List<Listener>> listeners = new ConcurrentHashMap<>();
+    private volatile boolean running = true;
+    private Thread listenerThread;
+
+    public ClusterNotificationManager(DataSource dataSource, NamedParameterJdbcTemplate jdbcTemplate) {
+        this.dataSource = dataSource;
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Register a listener for the given channel. The background listener will be started at the first subscription.
+     *
+     * @param channel the channel name. Must be a valid lowercase PostgreSQL identifier.
+     * @param listener the listener
+     */
+    public void subscribe(String channel, Listener listener) {
+        Validate.isTrue(VALID_CHANNEL_NAME.matcher(channel).matches(), "invalid channel name %s", channel);
+        listeners.computeIfAbsent(channel, k -> new CopyOnWriteArrayList<>()).add(listener);
+        startListenerIfNeeded();
+    }
+
+    /**
+     * Send a notification to all the subscribers of the given channel, on all nodes.
+     * If there is an active transaction, the notification will be delivered after commit.
+     *
+     * @param channel the channel name
+     * @param payload the payload, must be shorter than 8000 bytes
+     */
+    public void publish(String channel, String payload) {
+        try {
+            jdbcTemplate.query("select pg_notify(:channel, :payload)", new MapSqlParameterSource("channel", channel).addValue("payload", payload), rs -> null);
+        } catch (RuntimeException e) {
+            log.warn("cannot publish notification on channel {}", channel, e);
+        }
+    }
+
+    private synchronized void startListenerIfNeeded() {
+        if(listenerThread == null && running) {
+            listenerThread = new Thread(this::listen, "alfio-cluster-notification-listener");
+            listenerThread.setDaemon(true);
+            listenerThread.start();
+        }
+    }
+
+    private void listen() {
+        while(running) {
+            try (Connection connection = openDedicatedConnection()) {
+                connection.setAutoCommit(true);
+                PGConnection pgConnection = connection.unwrap(PGConnection.class);
+                Set<String> subscribedChannels = new HashSet<>();
+                boolean connectionReset = true;
+                while(running) {
+                    subscribeNewChannels(connection, subscribedChannels);
+                    if(connectionReset) {
+                        // notifications sent while we were disconnected are lost, so we inform the listeners
+                        listeners.values().forEach(l -> l.forEach(ClusterNotificationManager::fireConnectionReset));
+                        connectionReset = false;
+                    }
+                    PGNotification[] notifications = pgConnection.getNotifications(POLL_TIMEOUT_MILLIS);
+                    if(notifications != null) {
+                        for (PGNotification notification : notifications) {
+                            dispatch(notification.getName(), notification.getParameter());
+                        }
+                    }
+                }
+            } catch (SQLException | RuntimeException e) {
+                if(running) {
+                    log.warn("error while listening for cluster notifications, will retry in {} ms", RECONNECT_DELAY_MILLIS, e);
+                    sleepQuietly();
+                }
+            }
+        }
+    }
+
+    private void subscribeNewChannels(Connection connection, Set<String> subscribedChannels) throws SQLException {
+        for (String channel : listeners.keySet()) {
+            if(!subscribedChannels.contains(channel)) {
+                try (Statement statement = connection.createStatement()) {
+                    // channel name has been validated in subscribe()
+                    statement.execute("LISTEN " + channel);
+                }
+                subscribedChannels.add(channel);
+            }
+        }
+    }
+
+    private Connection openDedicatedConnection() throws SQLException {
+        if(dataSource.isWrapperFor(HikariDataSource.class)) {
+            HikariDataSource hikariDataSource = dataSource.unwrap(HikariDataSource.class);
+            return DriverManager.getConnection(hikariDataSource.getJdbcUrl(), hikariDataSource.getUsername(), hikariDataSource.getPassword());
+        }
+        return dataSource.getConnection();
+    }
+
+    private void dispatch(String channel, String payload) {
+        listeners.getOrDefault(channel, List.of()).forEach(listener -> {
+            try {
+                listener.onNotification(payload);
+            } catch (RuntimeException e) {
+                log.warn("error while dispatching notification on channel {}", channel, e);
+            }
+        });
+    }
+
+    private static void fireConnectionReset(Listener listener) {
+        try {
+            listener.onConnectionReset();
+        } catch (RuntimeException e) {
+            log.warn("error while handling connection reset", e);
+        }
+    }
+
+    private void sleepQuietly() {
+        try {
+            Thread.sleep(RECONNECT_DELAY_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            running = false;
+        }
+    }
+
+    @Override
+    public synchronized void destroy() {
+        running = false;
+        if(listenerThread != null) {
+            listenerThread.interrupt();
+        }
+    }
+
+    public interface Listener {
+
+        void onNotification(String payload);
+
+        /**
+         * Called each time the listening connection has been (re)established. Since notifications sent in the
+         * meantime are lost, listeners should discard any state derived from them.
+         */
+        default void onConnectionReset() {
+        }
+    }
+}
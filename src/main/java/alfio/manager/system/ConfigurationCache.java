@@ -0,0 +1,191 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.manager.system;
+
+import alfio.manager.support.MetricsProvider;
+import alfio.manager.system.ConfigurationLevels.CategoryLevel;
+import alfio.manager.system.ConfigurationLevels.EventLevel;
+import alfio.manager.system.ConfigurationLevels.OrganizationLevel;
+import alfio.manager.system.ConfigurationManager.MaybeConfiguration;
+import alfio.model.system.ConfigurationKeys;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.Value;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * <p>Cache for the resolved configuration values, as returned by {@link ConfigurationManager#getFor(Collection, ConfigurationLevel)}.</p>
+ *
+ * <p>Entries are keyed by (level, requested keys) and already contain the result of the override chain
+ * SYSTEM &rarr; ORGANIZATION &rarr; EVENT &rarr; TICKET_CATEGORY. When a configuration is modified, all the entries
+ * "below" the modified level are evicted, locally and on the other nodes.</p>
+ */
+@Component
+@Log4j2
+public class ConfigurationCache implements MetricsProvider {
+
+    private final ClusterAwareCache<CacheKey, Map<ConfigurationKeys, MaybeConfiguration>> cache;
+    private final List<Consumer<ConfigurationLevel>> dependents = new CopyOnWriteArrayList<>();
+
+    public ConfigurationCache(ClusterNotificationManager clusterNotificationManager, Environment environment) {
+        this.cache = new ClusterAwareCache<>("configuration",
+            Caffeine.newBuilder().maximumSize(10_000).expireAfterWrite(10, TimeUnit.MINUTES),
+            clusterNotificationManager,
+            environment,
+            ConfigurationCache::scopeMatcher);
+    }
+
+    Map<ConfigurationKeys, MaybeConfiguration> get(ConfigurationLevel level,
+                                                   Collection<ConfigurationKeys> keys,
+                                                   Supplier<Map<ConfigurationKeys, MaybeConfiguration>> loader) {
+        var keySet = keys.isEmpty() ? EnumSet.noneOf(ConfigurationKeys.class) : EnumSet.copyOf(keys);
+        var result = cache.get(new CacheKey(level, keySet), k -> Collections.unmodifiableMap(loader.get()));
+        // callers are allowed to modify the result
+        return new EnumMap<>(Objects.requireNonNull(result));
+    }
+
+    /**
+     * Evict all the entries affected by a modification at the given level, on all nodes.
+     *
+     * @param modifiedLevel the level of the modified configuration
+     */
+    void invalidate(ConfigurationLevel modifiedLevel) {
+        cache.invalidate(toPayload(modifiedLevel));
+        dependents.forEach(d -> d.accept(modifiedLevel));
+    }
+
+    /**
+     * Register a cache whose content is derived from the configuration. The callback is invoked on this node
+     * only, so the dependent cache is responsible for propagating the invalidation to the other nodes.
+     *
+     * @param dependent callback, invoked with the modified level
+     */
+    public void addDependent(Consumer<ConfigurationLevel> dependent) {
+        dependents.add(dependent);
+    }
+
+    private static Predicate<CacheKey> scopeMatcher(String payload) {
+        var affected = affectedLevels(payload);
+        return affected == null ? null : k -> affected.test(k.level);
+    }
+
+    /**
+     * @param payload the invalidation payload, as produced by {@link #toPayload(ConfigurationLevel)}
+     * @return the predicate selecting the levels affected by the modification, or {@code null} if all levels are affected
+     */
+    public static Predicate<ConfigurationLevel> affectedLevels(String payload) {
+        var modifiedLevel = fromPayload(payload);
+        return modifiedLevel == null ? null : isAffectedBy(modifiedLevel);
+    }
+
+    private static Predicate<ConfigurationLevel> isAffectedBy(ConfigurationLevel modifiedLevel) {
+        switch (modifiedLevel.getPathLevel()) {
+            case ORGANIZATION: {
+                int organizationId = ((OrganizationLevel) modifiedLevel).organizationId;
+                return l -> organizationId(l).filter(id -> id == organizationId).isPresent();
+            }
+            case EVENT: {
+                int eventId = ((EventLevel) modifiedLevel).eventId;
+                return l -> eventId(l).filter(id -> id == eventId).isPresent();
+            }
+            case TICKET_CATEGORY: {
+                var modifiedCategory = (CategoryLevel) modifiedLevel;
+                return l -> l instanceof CategoryLevel
+                    && ((CategoryLevel) l).eventId == modifiedCategory.eventId
+                    && ((CategoryLevel) l).categoryId == modifiedCategory.categoryId;
+            }
+            default:
+                return l -> true;
+        }
+    }
+
+    private static Optional<Integer> organizationId(ConfigurationLevel level) {
+        switch (level.getPathLevel()) {
+            case ORGANIZATION: return Optional.of(((OrganizationLevel) level).organizationId);
+            case EVENT: return Optional.of(((EventLevel) level).organizationId);
+            case TICKET_CATEGORY: return Optional.of(((CategoryLevel) level).organizationId);
+            default: return Optional.empty();
+        }
+    }
+
+    private static Optional<Integer> eventId(ConfigurationLevel level) {
+        switch (level.getPathLevel()) {
+            case EVENT: return Optional.of(((EventLevel) level).eventId);
+            case TICKET_CATEGORY: return Optional.of(((CategoryLevel) level).eventId);
+            default: return Optional.empty();
+        }
+    }
+
+    public static String toPayload(ConfigurationLevel level) {
+        switch (level.getPathLevel()) {
+            case ORGANIZATION: return "ORGANIZATION:" + ((OrganizationLevel) level).organizationId;
+            case EVENT: {
+                var eventLevel = (EventLevel) level;
+                return "EVENT:" + eventLevel.organizationId + ":" + eventLevel.eventId;
+            }
+            case TICKET_CATEGORY: {
+                var categoryLevel = (CategoryLevel) level;
+                return "TICKET_CATEGORY:" + categoryLevel.organizationId + ":" + categoryLevel.eventId + ":" + categoryLevel.categoryId;
+            }
+            default: return "SYSTEM";
+        }
+    }
+
+    /**
+     * @param payload the notification payload
+     * @return the modified level, or {@code null} if the payload is not recognized
+     */
+    static ConfigurationLevel fromPayload(String payload) {
+        try {
+            var parts = Objects.requireNonNull(payload).split(":");
+            switch (parts[0]) {
+                case "SYSTEM": return ConfigurationLevel.system();
+                case "ORGANIZATION": return new OrganizationLevel(Integer.parseInt(parts[1]));
+                case "EVENT": return new EventLevel(Integer.parseInt(parts[1]), Integer.parseInt(parts[2]));
+                case "TICKET_CATEGORY": return new CategoryLevel(Integer.parseInt(parts[1]), Integer.parseInt(parts[2]), Integer.parseInt(parts[3]));
+                default: break;
+            }
+        } catch (RuntimeException e) {
+            log.warn("cannot parse payload {}", payload, e);
+        }
+        return null;
+    }
+
+    @Override
+    public String getMetricsGroup() {
+        return cache.getMetricsGroup();
+    }
+
+    @Override
+    public Map<String, Number> getMetrics() {
+        return cache.getMetrics();
+    }
+
+    @Value
+    private static class CacheKey {
+        ConfigurationLevel level;
+        Set<ConfigurationKeys> keys;
+    }
+}
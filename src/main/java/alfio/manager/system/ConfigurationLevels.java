@@ -18,11 +18,15 @@ package alfio.manager.system;
 
 import alfio.model.system.ConfigurationPathLevel;
 import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.ToString;
 
 import static alfio.model.system.ConfigurationPathLevel.*;
 import static alfio.model.system.ConfigurationPathLevel.TICKET_CATEGORY;
 
 class ConfigurationLevels {
+    @EqualsAndHashCode
+    @ToString
     static class SystemLevel implements ConfigurationLevel {
         @Override
         public ConfigurationPathLevel getPathLevel() {
@@ -31,6 +35,8 @@ class ConfigurationLevels {
     }
 
     @AllArgsConstructor
+    @EqualsAndHashCode
+    @ToString
     static class OrganizationLevel implements ConfigurationLevel {
         final int organizationId;
 
@@ -41,6 +47,8 @@ class ConfigurationLevels {
     }
 
     @AllArgsConstructor
+    @EqualsAndHashCode
+    @ToString
     static class EventLevel implements ConfigurationLevel {
         final int organizationId;
         final int eventId;
@@ -52,6 +60,8 @@ class ConfigurationLevels {
     }
 
     @AllArgsConstructor
+    @EqualsAndHashCode
+    @ToString
     static class CategoryLevel implements ConfigurationLevel {
         final int organizationId;
         final int eventId;
@@ -19,6 +19,7 @@ package alfio.manager.system;
 import alfio.manager.system.ConfigurationLevels.CategoryLevel;
 import alfio.manager.system.ConfigurationLevels.EventLevel;
 import alfio.manager.system.ConfigurationLevels.OrganizationLevel;
+import alfio.manager.i18n.MessageSourceManager;
 import alfio.manager.user.UserManager;
 import alfio.model.EventAndOrganizationId;
 import alfio.model.TicketReservation;
@@ -66,6 +67,8 @@ public class ConfigurationManager {
     private final ConfigurationRepository configurationRepository;
     private final UserManager userManager;
     private final EventRepository eventRepository;
+    private final ConfigurationCache configurationCache;
+    private final MessageSourceManager messageSourceManager;
 
     //TODO: refactor, not the most beautiful code, find a better solution...
     private Optional<Configuration> findByConfigurationPathAndKey(ConfigurationPath path, ConfigurationKeys key) {
@@ -138,6 +141,7 @@ public class ConfigurationManager {
         } else {
             configurationRepository.insertOrganizationLevel(organizationId, key, value.get(), ConfigurationKeys.fromString(key).getDescription());
         }
+        configurationModified(ConfigurationLevel.organization(organizationId), key);
     }
 
     public void saveAllOrganizationConfiguration(int organizationId, List<ConfigurationModification> list, String username) {
@@ -157,6 +161,7 @@ public class ConfigurationManager {
         } else {
             configurationRepository.insertEventLevel(organizationId, eventId, key, value.get(), ConfigurationKeys.fromString(key).getDescription());
         }
+        configurationModified(new EventLevel(organizationId, eventId), key);
     }
 
     public void saveAllEventConfiguration(int eventId, int organizationId, List<ConfigurationModification> list, String username) {
@@ -190,6 +195,7 @@ public class ConfigurationManager {
                     configurationRepository.insertTicketCategoryLevel(event.getOrganizationId(), eventId, categoryId, c.getKey(), value.get(), ConfigurationKeys.fromString(c.getKey()).getDescription());
                 }
             });
+        configurationCache.invalidate(ConfigurationLevel.ticketCategory(event, categoryId));
     }
 
     private Optional<String> evaluateValue(String key, String value) {
@@ -224,6 +230,7 @@ public class ConfigurationManager {
                 configurationRepository.update(key.getValue(), value);
             }
         }
+        configurationModified(ConfigurationLevel.system(), key.getValue());
     }
 
     /**
@@ -383,11 +390,13 @@ public class ConfigurationManager {
 
     public void deleteKey(String key) {
         configurationRepository.deleteByKey(key);
+        configurationModified(ConfigurationLevel.system(), key);
     }
 
     public void deleteOrganizationLevelByKey(String key, int organizationId, String username) {
         Validate.isTrue(userManager.isOwnerOfOrganization(userManager.findUserByUsername(username), organizationId), "User is not owner of the organization. Therefore, delete is not allowed.");
         configurationRepository.deleteOrganizationLevelByKey(key, organizationId);
+        configurationModified(ConfigurationLevel.organization(organizationId), key);
     }
 
     public void deleteEventLevelByKey(String key, int eventId, String username) {
@@ -395,6 +404,7 @@ public class ConfigurationManager {
         Validate.notNull(event, "Wrong event id");
         Validate.isTrue(userManager.isOwnerOfOrganization(userManager.findUserByUsername(username), event.getOrganizationId()), "User is not owner of the organization. Therefore, delete is not allowed.");
         configurationRepository.deleteEventLevelByKey(key, eventId);
+        configurationModified(ConfigurationLevel.event(event), key);
     }
 
     public void deleteCategoryLevelByKey(String key, int eventId, int categoryId, String username) {
@@ -402,6 +412,7 @@ public class ConfigurationManager {
         Validate.notNull(event, "Wrong event id");
         Validate.isTrue(userManager.isOwnerOfOrganization(userManager.findUserByUsername(username), event.getOrganizationId()), "User is not owner of the organization. Therefore, delete is not allowed.");
         configurationRepository.deleteCategoryLevelByKey(key, eventId, categoryId);
+        configurationCache.invalidate(ConfigurationLevel.ticketCategory(event, categoryId));
     }
 
     private static Map<ConfigurationKeys.SettingCategory, List<Configuration>> collectConfigurationKeysByCategory(ConfigurationPathLevel pathLevel) {
@@ -496,6 +507,36 @@ public class ConfigurationManager {
     }
 
     public Map<ConfigurationKeys, MaybeConfiguration> getFor(Collection<ConfigurationKeys> keys, ConfigurationLevel configurationLevel) {
+        return configurationCache.get(configurationLevel, keys, () -> loadFor(keys, configurationLevel));
+    }
+
+    /**
+     * Notify that the configuration at the given level has been modified without using this class.
+     *
+     * @param configurationLevel the modified level
+     */
+    public void configurationModified(ConfigurationLevel configurationLevel) {
+        configurationCache.invalidate(configurationLevel);
+    }
+
+    private void configurationModified(ConfigurationLevel configurationLevel, String key) {
+        configurationCache.invalidate(configurationLevel);
+        if(TRANSLATION_OVERRIDE.getValue().equals(key)) {
+            switch (configurationLevel.getPathLevel()) {
+                case ORGANIZATION:
+                    messageSourceManager.overrideModified(((OrganizationLevel) configurationLevel).organizationId, null);
+                    break;
+                case EVENT:
+                    var eventLevel = (EventLevel) configurationLevel;
+                    messageSourceManager.overrideModified(eventLevel.organizationId, eventLevel.eventId);
+                    break;
+                default:
+                    messageSourceManager.overrideModified(null, null);
+            }
+        }
+    }
+
+    private Map<ConfigurationKeys, MaybeConfiguration> loadFor(Collection<ConfigurationKeys> keys, ConfigurationLevel configurationLevel) {
         var keysAsString = keys.stream().map(ConfigurationKeys::getValue).collect(Collectors.toSet());
         List<ConfigurationKeyValuePathLevel> found; // waiting for switch expressions...
         switch(configurationLevel.getPathLevel()) {
@@ -16,6 +16,7 @@
  */
 package alfio.manager.user;
 
+import alfio.manager.EventSnapshotCache;
 import alfio.model.result.ValidationResult;
 import alfio.model.user.*;
 import alfio.model.user.join.UserOrganization;
@@ -55,6 +56,7 @@ public class UserManager {
     private final UserRepository userRepository;
     private final PasswordEncoder passwordEncoder;
     private final InvoiceSequencesRepository invoiceSequencesRepository;
+    private final EventSnapshotCache eventSnapshotCache;
 
     private List<Authority> getUserAuthorities(User user) {
         return authorityRepository.findGrantedAuthorities(user.getUsername());
@@ -169,6 +171,8 @@ public class UserManager {
 
     public void updateOrganization(Integer id, String name, String email, String description) {
         organizationRepository.update(id, name, description, email);
+        // the organizer contact is part of the event snapshots
+        eventSnapshotCache.invalidateAll();
     }
 
     public ValidationResult validateOrganization(Integer id, String name, String email, String description) {
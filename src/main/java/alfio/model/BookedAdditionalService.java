@@ -22,13 +22,16 @@ import lombok.Getter;
 @Getter
 public class BookedAdditionalService {
 
+    private final String reservationId;
     private final String additionalServiceName;
     private final int additionalServiceId;
     private final int count;
 
-    public BookedAdditionalService(@Column("as_name") String additionalServiceName,
+    public BookedAdditionalService(@Column("reservation_id") String reservationId,
+                                   @Column("as_name") String additionalServiceName,
                                    @Column("as_id") int additionalServiceId,
                                    @Column("qty") int count) {
+        this.reservationId = reservationId;
         this.additionalServiceName = additionalServiceName;
         this.additionalServiceId = additionalServiceId;
         this.count = count;
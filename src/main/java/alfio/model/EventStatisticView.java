@@ -17,9 +17,13 @@
 package alfio.model;
 
 import ch.digitalfondue.npjt.ConstructorAnnotationRowMapper.Column;
+import lombok.EqualsAndHashCode;
 import lombok.Getter;
+import lombok.ToString;
 
 @Getter
+@EqualsAndHashCode
+@ToString
 public class EventStatisticView {
 
     public EventStatisticView(@Column("is_containing_orphan_tickets") boolean containsOrphanTickets,
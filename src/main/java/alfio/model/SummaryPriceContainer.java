@@ -29,20 +29,27 @@ public interface SummaryPriceContainer extends PriceContainer {
 
     static int getSummaryPriceBeforeVatCts(List<? extends SummaryPriceContainer> elements) {
         var currencyCode = !elements.isEmpty() ? elements.get(0).getCurrencyCode() : null;
-        return elements.stream().map(item -> {
-            PriceContainer.VatStatus vatStatus = item.getVatStatus();
-            if(vatStatus == PriceContainer.VatStatus.NOT_INCLUDED_EXEMPT) {
-                return MonetaryUtil.centsToUnit(item.getSrcPriceCts(), currencyCode);
-            } else if(vatStatus == PriceContainer.VatStatus.INCLUDED_EXEMPT) {
-            	var rawVat = vatStatus.extractRawVAT(centsToUnit(item.getSrcPriceCts(), item.getCurrencyCode()), item.getVatPercentageOrZero());
-                return MonetaryUtil.centsToUnit(item.getSrcPriceCts(), currencyCode).add(rawVat);
-            } else if(vatStatus == PriceContainer.VatStatus.INCLUDED) {
-            	var rawVat = vatStatus.extractRawVAT(centsToUnit(item.getSrcPriceCts(), item.getCurrencyCode()), item.getVatPercentageOrZero());
-            	return MonetaryUtil.centsToUnit(item.getSrcPriceCts(), currencyCode).subtract(rawVat);
-            } else {
-            	return MonetaryUtil.centsToUnit(item.getSrcPriceCts(), currencyCode);
-            }
-           
-        }).reduce(BigDecimal::add).map(p -> MonetaryUtil.unitToCents(p, currencyCode)).orElse(0);
+        return elements.stream().map(item -> getSummaryPriceBeforeVat(item, currencyCode))
+            .reduce(BigDecimal::add).map(p -> MonetaryUtil.unitToCents(p, currencyCode)).orElse(0);
+    }
+
+    /**
+     * @param item the element
+     * @param currencyCode the currency of the summary
+     * @return the price before VAT of a single element, not rounded
+     */
+    static BigDecimal getSummaryPriceBeforeVat(SummaryPriceContainer item, String currencyCode) {
+        PriceContainer.VatStatus vatStatus = item.getVatStatus();
+        if(vatStatus == PriceContainer.VatStatus.NOT_INCLUDED_EXEMPT) {
+            return MonetaryUtil.centsToUnit(item.getSrcPriceCts(), currencyCode);
+        } else if(vatStatus == PriceContainer.VatStatus.INCLUDED_EXEMPT) {
+            var rawVat = vatStatus.extractRawVAT(centsToUnit(item.getSrcPriceCts(), item.getCurrencyCode()), item.getVatPercentageOrZero());
+            return MonetaryUtil.centsToUnit(item.getSrcPriceCts(), currencyCode).add(rawVat);
+        } else if(vatStatus == PriceContainer.VatStatus.INCLUDED) {
+            var rawVat = vatStatus.extractRawVAT(centsToUnit(item.getSrcPriceCts(), item.getCurrencyCode()), item.getVatPercentageOrZero());
+            return MonetaryUtil.centsToUnit(item.getSrcPriceCts(), currencyCode).subtract(rawVat);
+        } else {
+            return MonetaryUtil.centsToUnit(item.getSrcPriceCts(), currencyCode);
+        }
     }
 }
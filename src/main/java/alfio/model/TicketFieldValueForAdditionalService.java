@@ -17,19 +17,24 @@
 package alfio.model;
 
 import ch.digitalfondue.npjt.ConstructorAnnotationRowMapper.Column;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import lombok.Getter;
 
 @Getter
 public class TicketFieldValueForAdditionalService {
 
+    @JsonIgnore
+    private final int ticketId;
     private final String fieldName;
     private final String fieldValue;
     private final int additionalServiceId;
 
 
-    public TicketFieldValueForAdditionalService(@Column("field_name") String fieldName,
+    public TicketFieldValueForAdditionalService(@Column("ticket_id") int ticketId,
+                                                @Column("field_name") String fieldName,
                                                 @Column("field_value") String fieldValue,
                                                 @Column("additional_service_id") int additionalServiceId) {
+        this.ticketId = ticketId;
         this.fieldName = fieldName;
         this.fieldValue = fieldValue;
         this.additionalServiceId = additionalServiceId;
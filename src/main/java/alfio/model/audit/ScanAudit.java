@@ -19,10 +19,12 @@ package alfio.model.audit;
 import alfio.manager.support.CheckInStatus;
 import ch.digitalfondue.npjt.ConstructorAnnotationRowMapper.Column;
 import lombok.Getter;
+import lombok.ToString;
 
 import java.time.ZonedDateTime;
 
 @Getter
+@ToString
 public class ScanAudit {
 
     public enum Operation {
@@ -0,0 +1,57 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.model.transaction;
+
+import ch.digitalfondue.npjt.ConstructorAnnotationRowMapper.Column;
+import lombok.Getter;
+
+import java.time.ZonedDateTime;
+
+@Getter
+public class PaymentWebhookInboxItem {
+
+    public enum Status {
+        PENDING, DONE, ERROR
+    }
+
+    private final int id;
+    private final PaymentMethod paymentMethod;
+    private final String providerEventId;
+    private final String body;
+    private final String signature;
+    private final Status status;
+    private final int attempts;
+    private final ZonedDateTime receivedTs;
+
+    public PaymentWebhookInboxItem(@Column("id") int id,
+                                   @Column("payment_method") PaymentMethod paymentMethod,
+                                   @Column("provider_event_id") String providerEventId,
+                                   @Column("body") String body,
+                                   @Column("signature") String signature,
+                                   @Column("status") Status status,
+                                   @Column("attempts") int attempts,
+                                   @Column("received_ts") ZonedDateTime receivedTs) {
+        this.id = id;
+        this.paymentMethod = paymentMethod;
+        this.providerEventId = providerEventId;
+        this.body = body;
+        this.signature = signature;
+        this.status = status;
+        this.attempts = attempts;
+        this.receivedTs = receivedTs;
+    }
+}
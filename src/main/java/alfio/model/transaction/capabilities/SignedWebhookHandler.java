@@ -21,6 +21,7 @@ import alfio.model.transaction.Capability;
 import alfio.model.transaction.PaymentContext;
 import alfio.model.transaction.Transaction;
 import alfio.model.transaction.TransactionWebhookPayload;
+import org.apache.commons.codec.digest.DigestUtils;
 
 import java.util.Optional;
 
@@ -30,6 +31,23 @@ public interface SignedWebhookHandler extends Capability {
 
     Optional<TransactionWebhookPayload> parseTransactionPayload(String body, String signature);
 
+    /**
+     * Parses a payload whose signature has already been verified by {@link #parseTransactionPayload(String, String)}
+     * when it was received. Implementations should skip any freshness check on the signature, as the payload
+     * could be processed long after its delivery.
+     */
+    default Optional<TransactionWebhookPayload> parseVerifiedTransactionPayload(String body, String signature) {
+        return parseTransactionPayload(body, signature);
+    }
+
+    /**
+     * Returns the identifier assigned by the provider to the notification, used to discard duplicate deliveries.
+     * Defaults to the digest of the body.
+     */
+    default String getWebhookEventId(String body) {
+        return DigestUtils.sha256Hex(body);
+    }
+
     PaymentWebhookResult processWebhook(TransactionWebhookPayload payload, Transaction transaction, PaymentContext paymentContext);
 
 }
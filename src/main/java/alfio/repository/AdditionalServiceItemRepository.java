@@ -22,6 +22,7 @@ import alfio.model.BookedAdditionalService;
 import ch.digitalfondue.npjt.*;
 
 import java.time.ZonedDateTime;
+import java.util.Collection;
 import java.util.List;
 
 @QueryRepository
@@ -49,19 +50,23 @@ public interface AdditionalServiceItemRepository {
         " where service_type = 'SUPPLEMENT' and tickets_reservation_uuid = :reservationId and final_price_cts > 0")
     boolean hasPaidSupplements(@Bind("reservationId") String reservationId);
 
-    @Query("select asd.value as as_name, ads.id as_id, count(ads.id) as qty from additional_service_item ai" +
+    /**
+     * Loads the additional services booked in the reservations of the given tickets, described in the language
+     * of each ticket.
+     */
+    @Query("select ai.tickets_reservation_uuid as reservation_id, asd.value as as_name, ads.id as_id, count(ads.id) as qty from additional_service_item ai" +
         "  join additional_service ads on additional_service_id_fk = ads.id" +
         "  join additional_service_description asd on ads.id = asd.additional_service_id_fk" +
+        "  join ticket t on t.tickets_reservation_id = ai.tickets_reservation_uuid" +
         "  where ai.event_id_fk = :eventId and ai.status = 'ACQUIRED'" +
         "  and ads.service_type <> 'DONATION'" +
         "  and ads.supplement_policy <> 'MANDATORY_ONE_FOR_TICKET'"+
-        "  and asd.locale = :language" +
+        "  and asd.locale = t.user_language" +
         "  and asd.type = 'TITLE'" +
-        "  and ai.tickets_reservation_uuid = :reservationId" +
-        "  group by ads.id, asd.value")
-    List<BookedAdditionalService> getAdditionalServicesBookedForReservation(@Bind("reservationId") String reservationId,
-                                                                      @Bind("language") String language,
-                                                                      @Bind("eventId") int eventId);
+        "  and t.id in (:ticketIds)" +
+        "  group by ai.tickets_reservation_uuid, ads.id, asd.value")
+    List<BookedAdditionalService> getAdditionalServicesBookedForTickets(@Bind("ticketIds") Collection<Integer> ticketIds,
+                                                                        @Bind("eventId") int eventId);
 
 
 
@@ -46,6 +46,9 @@ public interface AdditionalServiceRepository {
     @Query("select * from additional_service_with_currency where id = :id and event_id_fk = :eventId")
     AdditionalService getById(@Bind("id") int id, @Bind("eventId") int eventId);
 
+    @Query("select * from additional_service_with_currency where id in (:ids) and event_id_fk = :eventId")
+    List<AdditionalService> findAllByIds(@Bind("ids") Collection<Integer> ids, @Bind("eventId") int eventId);
+
     @Query("select * from additional_service_with_currency where id = :id and event_id_fk = :eventId")
     Optional<AdditionalService> getOptionalById(@Bind("id") int id, @Bind("eventId") int eventId);
 
@@ -44,19 +44,31 @@ public interface AdminReservationRequestRepository {
             .toArray(MapSqlParameterSource[]::new);
 
         getNamedParameterJdbcTemplate().batchUpdate("insert into admin_reservation_request(user_id, request_id, event_id, request_type, status, body) values(:userId, :requestId, :eventId, :requestType, :status, :body)", requests);
+        getNamedParameterJdbcTemplate().update("insert into admin_reservation_request_progress(request_id, user_id, event_id, count_pending, count_success, count_error) values(:requestId, :userId, :eventId, :count, 0, 0)",
+            new MapSqlParameterSource("requestId", requestId)
+                .addValue("userId", userId)
+                .addValue("eventId", event.getId())
+                .addValue("count", requests.length));
     }
 
-    @Query("select id from admin_reservation_request where status = 'PENDING' order by request_id limit :limit for update skip locked")
-    List<Long> findPendingForUpdate(@Bind("limit") int limit);
+    @Query("select event_id from admin_reservation_request where status = 'PENDING' group by event_id order by min(id)")
+    List<Long> findEventsWithPendingRequests();
+
+    @Query("select id from admin_reservation_request where status = 'PENDING' and event_id = :eventId order by request_id, id limit :limit for update skip locked")
+    List<Long> findPendingForUpdate(@Bind("eventId") long eventId, @Bind("limit") int limit);
 
-    @Query("select * from admin_reservation_request where id = :id")
-    AdminReservationRequest fetchCompleteById(@Bind("id") long id);
+    @Query("select * from admin_reservation_request where id in (:ids) order by request_id, id")
+    List<AdminReservationRequest> fetchCompleteByIds(@Bind("ids") List<Long> ids);
 
     //todo, would be better to have more sane parameters, we are leaking the details here
     default void updateStatus(List<MapSqlParameterSource> params) {
         getNamedParameterJdbcTemplate().batchUpdate("update admin_reservation_request set status = :status, reservation_id = :reservationId, failure_code = :failureCode where id = :id", params.toArray(new MapSqlParameterSource[0]));
     }
 
+    @Query("update admin_reservation_request_progress set count_pending = count_pending - :success - :error," +
+        " count_success = count_success + :success, count_error = count_error + :error where request_id = :requestId")
+    int updateProgress(@Bind("requestId") String requestId, @Bind("success") int success, @Bind("error") int error);
+
 
     @Query("select * from admin_reservation_request_stats where request_id = :requestId and event_id = :eventId")
     Optional<AdminReservationRequestStats> findStatsByRequestIdAndEventId(@Bind("requestId") String requestId, @Bind("eventId") long eventId);
@@ -22,6 +22,8 @@ import alfio.util.Json;
 import ch.digitalfondue.npjt.Bind;
 import ch.digitalfondue.npjt.Query;
 import ch.digitalfondue.npjt.QueryRepository;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 
 import java.time.ZonedDateTime;
 import java.util.Collection;
@@ -32,8 +34,10 @@ import java.util.Map;
 @QueryRepository
 public interface AuditingRepository {
 
-    @Query("insert into auditing(reservation_id, user_id, event_id, event_type, event_time, entity_type, entity_id, modifications) " +
-        " values (:reservationId, :userId, :eventId, :eventType, :eventTime, :entityType, :entityId, :modifications)")
+    String INSERT = "insert into auditing(reservation_id, user_id, event_id, event_type, event_time, entity_type, entity_id, modifications) " +
+        " values (:reservationId, :userId, :eventId, :eventType, :eventTime, :entityType, :entityId, :modifications)";
+
+    @Query(INSERT)
     int insert(@Bind("reservationId") String reservationId, @Bind("userId") Integer userId,
                @Bind("eventId") int eventId,
                @Bind("eventType") Audit.EventType eventType, @Bind("eventTime") Date eventTime,
@@ -65,4 +69,15 @@ public interface AuditingRepository {
     @Query("insert into auditing(reservation_id, user_id, event_id, event_type, event_time, entity_type, entity_id, modifications) " +
         " select tickets_reservation_id, null, event_id, 'UPDATE_TICKET_CATEGORY', current_timestamp, 'TICKET', concat('', id), null from ticket where category_id = :ticketCategoryId and tickets_reservation_id is not null")
     int insertUpdateTicketInCategoryId(@Bind("ticketCategoryId") int id);
+
+    NamedParameterJdbcTemplate getNamedParameterJdbcTemplate();
+
+    /**
+     * Batch insert, without modifications.
+     *
+     * @param args parameters: reservationId, userId, eventId, eventType, eventTime, entityType, entityId
+     */
+    default void bulkInsert(MapSqlParameterSource[] args) {
+        getNamedParameterJdbcTemplate().batchUpdate(INSERT, args);
+    }
 }
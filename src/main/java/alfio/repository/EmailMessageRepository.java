@@ -16,6 +16,7 @@
  */
 package alfio.repository;
 
+import alfio.model.DataVersion;
 import alfio.model.EmailMessage;
 import alfio.model.LightweightMailMessage;
 import ch.digitalfondue.npjt.Bind;
@@ -23,6 +24,7 @@ import ch.digitalfondue.npjt.Query;
 import ch.digitalfondue.npjt.QueryRepository;
 
 import java.time.ZonedDateTime;
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 import java.util.Optional;
@@ -64,8 +66,23 @@ public interface EmailMessageRepository {
     int updateStatusAndAttempts(@Bind("messageId") int messageId, @Bind("status") String status, @Bind("nextDate") Date date, @Bind("attempts") int attempts, @Bind("expectedStatuses") List<String> expectedStatuses);
 
 
-    @Query("select id from email_message where event_id = :eventId and (status = 'WAITING' or status = 'RETRY') and request_ts <= :date limit 100 for update skip locked")
-    List<Integer> loadIdsWaitingForProcessing(@Bind("eventId") int eventId, @Bind("date") Date date);
+    @Query("select id from email_message where event_id in (:eventIds) and (status = 'WAITING' or status = 'RETRY') and request_ts <= :date order by request_ts limit :limit for update skip locked")
+    List<Integer> loadIdsWaitingForProcessing(@Bind("eventIds") List<Integer> eventIds, @Bind("date") Date date, @Bind("limit") int limit);
+
+    @Query("update email_message set status = 'IN_PROCESS', claimed_ts = :claimedTs where id in (:ids)")
+    int setToInProcess(@Bind("ids") List<Integer> ids, @Bind("claimedTs") Date claimedTs);
+
+    @Query("select * from email_message where id in (:ids)")
+    List<EmailMessage> findByIds(@Bind("ids") List<Integer> ids);
+
+    @Query("update email_message set status = 'SENT', sent_ts = :sentTimestamp where id in (:ids) and status = 'IN_PROCESS'")
+    int updateStatusToSent(@Bind("ids") List<Integer> ids, @Bind("sentTimestamp") ZonedDateTime sentTimestamp);
+
+    @Query("update email_message set status = 'RETRY', attempts = attempts + 1, request_ts = now() + (attempts + 1) * interval '1 minute' where id in (:ids) and status = 'IN_PROCESS'")
+    int updateStatusToRetry(@Bind("ids") List<Integer> ids);
+
+    @Query("update email_message set status = 'ERROR' where id in (:ids) and status = 'IN_PROCESS'")
+    int updateStatusToError(@Bind("ids") List<Integer> ids);
 
     @Query("update email_message set status = 'SENT', sent_ts = :sentTimestamp where event_id = :eventId and checksum = :checksum and status in (:expectedStatuses)")
     int updateStatusToSent(@Bind("eventId") int eventId, @Bind("checksum") String checksum, @Bind("sentTimestamp") ZonedDateTime sentTimestamp, @Bind("expectedStatuses") List<String> expectedStatuses);
@@ -89,6 +106,21 @@ public interface EmailMessageRepository {
     @Query("select * from email_message where id = :messageId and event_id = :eventId")
     Optional<EmailMessage> findByEventIdAndMessageId(@Bind("eventId") int eventId, @Bind("messageId") int messageId);
 
-    @Query("update email_message set status = 'RETRY', attempts = coalesce(attempts, 0) +1 where status = 'IN_PROCESS' and request_ts < :date")
+    @Query("update email_message set status = 'RETRY', attempts = coalesce(attempts, 0) +1 where status = 'IN_PROCESS' and coalesce(claimed_ts, request_ts) < :date")
     int setToRetryOldInProcess(@Bind("date") Date date);
+
+    /**
+     * Fingerprints of the data used for rendering the attachments, besides their model: the ticket with its field values,
+     * the reservation and the event.
+     */
+    @Query("select t.uuid as id, md5(concat_ws('|', row_to_json(t)::text," +
+        " (select json_agg(v order by v.ticket_field_configuration_id_fk)::text from ticket_field_value v where v.ticket_id_fk = t.id))) as version" +
+        " from ticket t where t.uuid in (:ticketUuids)")
+    List<DataVersion> findTicketDataVersions(@Bind("ticketUuids") Collection<String> ticketUuids);
+
+    @Query("select r.id, md5(row_to_json(r)::text) as version from tickets_reservation r where r.id in (:reservationIds)")
+    List<DataVersion> findReservationDataVersions(@Bind("reservationIds") Collection<String> reservationIds);
+
+    @Query("select e.id::text as id, md5(row_to_json(e)::text) as version from event e where e.id in (:eventIds)")
+    List<DataVersion> findEventDataVersions(@Bind("eventIds") Collection<Integer> eventIds);
 }
@@ -168,12 +168,21 @@ public interface EventRepository {
     @Query("select * from event where short_name = :name for update")
     Optional<Event> findOptionalByShortNameForUpdate(@Bind("name") String shortName);
 
+    @Query("select * from event where short_name = :name for share")
+    Optional<Event> findOptionalByShortNameForShare(@Bind("name") String shortName);
+
     @Query("select * from events_statistics where id in (:ids)")
     List<EventStatisticView> findStatisticsFor(@Bind("ids") Set<Integer> integers);
 
     @Query("select * from events_statistics where id = :eventId")
     EventStatisticView findStatisticsFor(@Bind("eventId") int eventId);
 
+    @Query("select * from events_statistics")
+    List<EventStatisticView> findAllStatistics();
+
+    @Query("select pg_try_advisory_xact_lock(:key)")
+    boolean tryAdvisoryTransactionLock(@Bind("key") long key);
+
     @Query("select available_seats from events_statistics where id = :eventId")
     Integer countExistingTickets(@Bind("eventId") int eventId);
 
@@ -21,12 +21,16 @@ import alfio.model.ExtensionLog;
 import ch.digitalfondue.npjt.Bind;
 import ch.digitalfondue.npjt.Query;
 import ch.digitalfondue.npjt.QueryRepository;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 
 import java.util.List;
 
 @QueryRepository
 public interface ExtensionLogRepository {
 
+    String INSERT_WITH_TIMESTAMP = "insert into extension_log(effective_path, path, name, description, type, event_ts) values (:effectivePath, :path, :name, :description, :type, :eventTs)";
+
     @Query("insert into extension_log(effective_path, path, name, description, type) values (:effectivePath, :path, :name, :description, :type)")
     int insert(@Bind("effectivePath") String effectivePath,
                @Bind("path") String path,
@@ -47,4 +51,10 @@ public interface ExtensionLogRepository {
                                @Bind("type") String type,
                                @Bind("pageSize") int pageSize,
                                @Bind("offset") int offset);
+
+    NamedParameterJdbcTemplate getNamedParameterJdbcTemplate();
+
+    default void bulkInsert(MapSqlParameterSource[] params) {
+        getNamedParameterJdbcTemplate().batchUpdate(INSERT_WITH_TIMESTAMP, params);
+    }
 }
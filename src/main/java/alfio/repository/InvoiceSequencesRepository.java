@@ -20,6 +20,9 @@ import ch.digitalfondue.npjt.Bind;
 import ch.digitalfondue.npjt.Query;
 import ch.digitalfondue.npjt.QueryRepository;
 
+import java.time.ZonedDateTime;
+import java.util.Optional;
+
 @QueryRepository
 public interface InvoiceSequencesRepository {
 
@@ -31,4 +34,39 @@ public interface InvoiceSequencesRepository {
 
     @Query("insert into invoice_sequences(organization_id_fk, invoice_sequence) values (:orgId, 1)")
     int initFor(@Bind("orgId") int orgId);
+
+    @Query("select invoice_sequence from invoice_number_allocation where organization_id_fk = :orgId and status = 'RELEASED'" +
+        " order by invoice_sequence limit 1")
+    Optional<Integer> findFirstReleased(@Bind("orgId") int orgId);
+
+    @Query("insert into invoice_number_allocation(organization_id_fk, invoice_sequence, reservation_id, invoice_number, status)" +
+        " values(:orgId, :sequence, :reservationId, :invoiceNumber, 'ALLOCATED')")
+    int insertAllocation(@Bind("orgId") int orgId,
+                         @Bind("sequence") int sequence,
+                         @Bind("reservationId") String reservationId,
+                         @Bind("invoiceNumber") String invoiceNumber);
+
+    @Query("update invoice_number_allocation set status = 'ALLOCATED', reservation_id = :reservationId, invoice_number = :invoiceNumber," +
+        " allocation_ts = now() where organization_id_fk = :orgId and invoice_sequence = :sequence and status = 'RELEASED'")
+    int reassignReleased(@Bind("orgId") int orgId,
+                         @Bind("sequence") int sequence,
+                         @Bind("reservationId") String reservationId,
+                         @Bind("invoiceNumber") String invoiceNumber);
+
+    @Query("delete from invoice_number_allocation where organization_id_fk = :orgId and invoice_sequence = :sequence and status = 'RELEASED'")
+    int deleteReleased(@Bind("orgId") int orgId, @Bind("sequence") int sequence);
+
+    @Query("delete from invoice_number_allocation a where organization_id_fk = :orgId and invoice_sequence = :sequence" +
+        " and status = 'ALLOCATED' and exists(select 1 from tickets_reservation tr where tr.id = a.reservation_id and tr.invoice_number = a.invoice_number)")
+    int confirmAllocation(@Bind("orgId") int orgId, @Bind("sequence") int sequence);
+
+    @Query("update invoice_number_allocation set status = 'RELEASED' where organization_id_fk = :orgId and invoice_sequence = :sequence and status = 'ALLOCATED'")
+    int releaseAllocation(@Bind("orgId") int orgId, @Bind("sequence") int sequence);
+
+    @Query("delete from invoice_number_allocation a where status = 'ALLOCATED' and allocation_ts < :olderThan" +
+        " and exists(select 1 from tickets_reservation tr where tr.id = a.reservation_id and tr.invoice_number = a.invoice_number)")
+    int confirmStaleAllocations(@Bind("olderThan") ZonedDateTime olderThan);
+
+    @Query("update invoice_number_allocation set status = 'RELEASED' where status = 'ALLOCATED' and allocation_ts < :olderThan")
+    int releaseStaleAllocations(@Bind("olderThan") ZonedDateTime olderThan);
 }
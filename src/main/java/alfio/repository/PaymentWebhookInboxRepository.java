@@ -0,0 +1,58 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.repository;
+
+import alfio.model.transaction.PaymentWebhookInboxItem;
+import alfio.model.transaction.PaymentWebhookInboxStats;
+import ch.digitalfondue.npjt.Bind;
+import ch.digitalfondue.npjt.Query;
+import ch.digitalfondue.npjt.QueryRepository;
+
+import java.util.Optional;
+
+@QueryRepository
+public interface PaymentWebhookInboxRepository {
+
+    @Query("insert into payment_webhook_inbox(payment_method, provider_event_id, body, signature) values(:paymentMethod, :providerEventId, :body, :signature)" +
+        " on conflict (payment_method, provider_event_id) do nothing")
+    int insertIfAbsent(@Bind("paymentMethod") String paymentMethod,
+                       @Bind("providerEventId") String providerEventId,
+                       @Bind("body") String body,
+                       @Bind("signature") String signature);
+
+    @Query("select * from payment_webhook_inbox where status = 'PENDING' and next_attempt_ts <= now() order by received_ts limit 1 for update skip locked")
+    Optional<PaymentWebhookInboxItem> lockNextPending();
+
+    @Query("select * from payment_webhook_inbox where id = :id and status = 'PENDING' for update skip locked")
+    Optional<PaymentWebhookInboxItem> lockPendingById(@Bind("id") int id);
+
+    @Query("update payment_webhook_inbox set status = 'DONE', result = :result, attempts = attempts + 1, processed_ts = now(), last_error = null where id = :id")
+    int markAsDone(@Bind("id") int id, @Bind("result") String result);
+
+    @Query("update payment_webhook_inbox set status = :status, attempts = attempts + 1, last_error = :error," +
+        " next_attempt_ts = now() + make_interval(secs => :delaySeconds) where id = :id")
+    int markAsFailed(@Bind("id") int id, @Bind("status") String status, @Bind("error") String error, @Bind("delaySeconds") int delaySeconds);
+
+    @Query("select count(*) filter (where status = 'PENDING') as pending," +
+        " count(*) filter (where status = 'ERROR') as failed," +
+        " coalesce(extract(epoch from now() - min(received_ts) filter (where status = 'PENDING')), 0)::bigint as oldest_pending_age_seconds" +
+        " from payment_webhook_inbox where status in ('PENDING', 'ERROR')")
+    PaymentWebhookInboxStats getStats();
+
+    @Query("delete from payment_webhook_inbox where status = 'DONE' and processed_ts < now() - make_interval(days => :days)")
+    int deleteProcessedOlderThan(@Bind("days") int days);
+}
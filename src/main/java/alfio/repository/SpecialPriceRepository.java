@@ -65,8 +65,8 @@ public interface SpecialPriceRepository {
     @Query("select * from special_price where code = :code for update skip locked")
     Optional<SpecialPrice> getForUpdateByCode(@Bind("code") String code);
 
-    @Query("select count(*) from special_price where code = :code")
-    Integer countByCode(@Bind("code") String code);
+    @Query("select code from special_price where code in (:codes)")
+    List<String> findExistingCodes(@Bind("codes") Collection<String> codes);
 
     @Query("update special_price set status = :status, session_id = null, access_code_id_fk = :accessCodeId where id in (:ids)")
     int batchUpdateStatus(@Bind("ids") List<Integer> ids, @Bind("status") SpecialPrice.Status status, @Bind("accessCodeId") Integer accessCodeId);
@@ -88,11 +88,22 @@ public interface SpecialPriceRepository {
         " where id in (select special_price_id_fk from ticket where ticket.id in (:ticketIds) and special_price_id_fk is not null) ")
     int resetToFreeAndCleanupForTickets(@Bind("ticketIds") List<Integer> ticketIds);
 
-    @Query("update special_price set code = :code, status = 'FREE', sent_ts = null where id = :id")
-    int updateCode(@Bind("code") String code, @Bind("id") int id);
-
     NamedParameterJdbcTemplate getNamedParameterJdbcTemplate();
 
+    /**
+     * Assign the given codes, relying on the unique constraint on special_price.code: if one of the codes
+     * is already taken, the whole batch fails.
+     *
+     * @param codesById the new codes, by special price id
+     */
+    default void bulkUpdateCodes(Map<Integer, String> codesById) {
+        MapSqlParameterSource[] params = codesById.entrySet().stream()
+            .map(e -> new MapSqlParameterSource("id", e.getKey()).addValue("code", e.getValue()))
+            .toArray(MapSqlParameterSource[]::new);
+        getNamedParameterJdbcTemplate()
+            .batchUpdate("update special_price set code = :code, status = 'FREE', sent_ts = null where id = :id", params);
+    }
+
     default void bulkInsert(TicketCategory ticketCategory, int requiredTokens) {
 
         MapSqlParameterSource[] params = Stream.generate(MapSqlParameterSource::new)
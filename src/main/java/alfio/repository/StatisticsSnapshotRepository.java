@@ -0,0 +1,94 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.repository;
+
+import alfio.model.EventStatisticView;
+import alfio.model.TicketCategoryStatisticView;
+import ch.digitalfondue.npjt.Bind;
+import ch.digitalfondue.npjt.Query;
+import ch.digitalfondue.npjt.QueryRepository;
+import ch.digitalfondue.npjt.QueryType;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Statistics snapshot, served to the admin dashboard. See {@link alfio.manager.EventStatisticsSnapshotManager}.
+ */
+@QueryRepository
+public interface StatisticsSnapshotRepository {
+
+    @Query("select * from events_statistics_snapshot where id in (:ids)")
+    List<EventStatisticView> findEventStatisticsFor(@Bind("ids") Collection<Integer> ids);
+
+    @Query("select * from ticket_category_statistics_snapshot where event_id = :eventId")
+    List<TicketCategoryStatisticView> findTicketCategoryStatisticsFor(@Bind("eventId") int eventId);
+
+    @Query("select * from events_statistics_snapshot")
+    List<EventStatisticView> findAllEventStatistics();
+
+    @Query("select * from ticket_category_statistics_snapshot")
+    List<TicketCategoryStatisticView> findAllTicketCategoryStatistics();
+
+    /**
+     * @return the age, in seconds, of the oldest modification not yet applied to the snapshot (0 if there are none),
+     * or null if the snapshot has never been built
+     */
+    @Query("select case when exists(select 1 from statistics_snapshot_refresh)" +
+        " then coalesce(extract(epoch from (now() - (select min(change_ts) from statistics_snapshot_change)))::integer, 0) end")
+    Integer getDelaySeconds();
+
+    @Query(type = QueryType.MODIFYING_WITH_RETURN, value = "delete from statistics_snapshot_change returning event_id")
+    List<Integer> consumeChanges();
+
+    @Query("select id from event")
+    List<Integer> findAllEventIds();
+
+    @Query("delete from ticket_category_counts_snapshot where event_id in (:eventIds)")
+    int deleteTicketCategoryCounts(@Bind("eventIds") Collection<Integer> eventIds);
+
+    @Query("insert into ticket_category_counts_snapshot(ticket_category_id, event_id, organization_id_fk, pending_count," +
+        " released_count, checked_in_count, sold_tickets_count, stuck_count, refreshed_at)" +
+        " select tc.id, tc.event_id, tc.organization_id_fk," +
+        " coalesce(sum(case(t.status = 'PENDING') when true then 1 else 0 end), 0)," +
+        " coalesce(sum(case(t.status = 'RELEASED') when true then 1 else 0 end), 0)," +
+        " coalesce(sum(case(t.status = 'CHECKED_IN') when true then 1 else 0 end), 0)," +
+        " coalesce(sum(case(t.status in ('TO_BE_PAID', 'ACQUIRED')) when true then 1 else 0 end), 0)," +
+        " coalesce(sum(case(tr.status = 'STUCK') when true then 1 else 0 end), 0)," +
+        " now()" +
+        " from ticket_category tc" +
+        " left join ticket t on t.category_id = tc.id" +
+        " left join tickets_reservation tr on tr.id = t.tickets_reservation_id" +
+        " where tc.event_id in (:eventIds)" +
+        " group by tc.id, tc.event_id, tc.organization_id_fk")
+    int insertTicketCategoryCounts(@Bind("eventIds") Collection<Integer> eventIds);
+
+    @Query("delete from event_ticket_counts_snapshot where event_id in (:eventIds)")
+    int deleteEventCounts(@Bind("eventIds") Collection<Integer> eventIds);
+
+    @Query("insert into event_ticket_counts_snapshot(event_id, organization_id_fk, available_count, released_without_category_count, refreshed_at)" +
+        " select e.id, e.org_id," +
+        " (select count(id) from ticket where event_id = e.id and status not in ('INVALIDATED', 'EXPIRED'))," +
+        " (select count(id) from ticket where event_id = e.id and status = 'RELEASED' and category_id is null)," +
+        " now()" +
+        " from event e where e.id in (:eventIds)")
+    int insertEventCounts(@Bind("eventIds") Collection<Integer> eventIds);
+
+    @Query("insert into statistics_snapshot_refresh(id, refresh_ts) values (true, now())" +
+        " on conflict(id) do update set refresh_ts = excluded.refresh_ts")
+    int updateRefreshTimestamp();
+}
@@ -124,6 +124,9 @@ public interface TicketCategoryRepository {
     @Query("select * from ticket_category_statistics where event_id = :eventId")
     List<TicketCategoryStatisticView> findStatisticsForEventId(@Bind("eventId") int eventId);
 
+    @Query("select * from ticket_category_statistics")
+    List<TicketCategoryStatisticView> findAllStatistics();
+
     default Map<Integer, TicketCategoryStatisticView> findStatisticsForEventIdByCategoryId(int eventId) {
         return findStatisticsForEventId(eventId).stream().collect(Collectors.toMap(TicketCategoryStatisticView::getId, Function.identity()));
     }
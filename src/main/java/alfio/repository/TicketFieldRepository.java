@@ -23,6 +23,8 @@ import ch.digitalfondue.npjt.Bind;
 import ch.digitalfondue.npjt.Query;
 import ch.digitalfondue.npjt.QueryRepository;
 import org.apache.commons.lang3.StringUtils;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 
 import java.math.BigDecimal;
 import java.math.RoundingMode;
@@ -41,17 +43,17 @@ public interface TicketFieldRepository extends FieldRepository {
 
     @Query("select a.ticket_id_fk, a.ticket_field_configuration_id_fk, b.field_name, a.field_value, null as description " +
         "from ticket_field_value a inner join ticket_field_configuration b on a.ticket_field_configuration_id_fk = b.id " +
-        "where a.ticket_id_fk = :ticketId and b.field_name in (:fieldNames) and b.field_type <> 'select' " +
+        "where a.ticket_id_fk in (:ticketIds) and b.field_name in (:fieldNames) and b.field_type <> 'select' " +
         "union all " +
         "select a.ticket_id_fk, a.ticket_field_configuration_id_fk, b.field_name, a.field_value, c.description " +
         "from ticket_field_value a " +
         "inner join ticket_field_configuration b on a.ticket_field_configuration_id_fk = b.id " +
         "inner join ticket on a.ticket_id_fk = ticket.id "+
         "left join ticket_field_description c on c.ticket_field_configuration_id_fk = a.ticket_field_configuration_id_fk " +
-        "where a.ticket_id_fk = :ticketId and b.field_name in (:fieldNames) " +
+        "where a.ticket_id_fk in (:ticketIds) and b.field_name in (:fieldNames) " +
         "and c.field_locale = ticket.user_language " +
         "and b.field_type = 'select'")
-    List<TicketFieldValueAndDescription> findValueForTicketId(@Bind("ticketId") int id, @Bind("fieldNames") Set<String> fieldNames);
+    List<TicketFieldValueAndDescription> findValueForTicketIds(@Bind("ticketIds") List<Integer> ids, @Bind("fieldNames") Set<String> fieldNames);
 
     @Query("update ticket_field_value set field_value = :value where ticket_id_fk = :ticketId and ticket_field_configuration_id_fk = :fieldConfigurationId")
     int updateValue(@Bind("ticketId") int ticketId, @Bind("fieldConfigurationId") int fieldConfigurationId, @Bind("value") String value);
@@ -86,37 +88,76 @@ public interface TicketFieldRepository extends FieldRepository {
     @Query("select ticket_id_fk, ticket_field_configuration_id_fk, field_name, field_value from ticket_field_value inner join ticket_field_configuration on ticket_field_configuration_id_fk = id where ticket_id_fk in (:ticketIds)")
     List<TicketFieldValue> findAllValuesByTicketIds(@Bind("ticketIds") Collection<Integer> ticketIds);
 
+    @Query("select ticket_id_fk, ticket_field_configuration_id_fk, field_name, field_value from ticket_field_value inner join ticket_field_configuration on ticket_field_configuration_id_fk = id" +
+        " where ticket_id_fk in (:ticketIds) and field_name in (:fieldNames) and field_value is not null")
+    List<TicketFieldValue> findValuesByTicketIdsAndNames(@Bind("ticketIds") Collection<Integer> ticketIds, @Bind("fieldNames") Collection<String> fieldNames);
+
     default void updateOrInsert(Map<String, List<String>> values, int ticketId, int eventId) {
-        Map<String, TicketFieldValue> toUpdate = findAllByTicketIdGroupedByName(ticketId);
-        values = Optional.ofNullable(values).orElseGet(Collections::emptyMap);
+        bulkUpdateOrInsert(Collections.singletonMap(ticketId, values), eventId);
+    }
+
+    /**
+     * Updates or inserts the additional field values of many tickets at once. Existing values are loaded
+     * with a single query and modifications are sent as batches.
+     *
+     * @param valuesByTicketId the values to save, by ticket id
+     * @param eventId the event
+     */
+    default void bulkUpdateOrInsert(Map<Integer, Map<String, List<String>>> valuesByTicketId, int eventId) {
+        if(valuesByTicketId.isEmpty()) {
+            return;
+        }
         var additionalFieldsForEvent = findAdditionalFieldsForEvent(eventId);
         var readOnlyFields = additionalFieldsForEvent.stream().filter(TicketFieldConfiguration::isReadOnly).map(TicketFieldConfiguration::getName).collect(Collectors.toSet());
         Map<String, Integer> fieldNameToId = additionalFieldsForEvent.stream().collect(Collectors.toMap(TicketFieldConfiguration::getName, TicketFieldConfiguration::getId));
-
-        values.forEach((fieldName, fieldValues) -> {
-            String fieldValue;
-            if(fieldValues.size() == 1) {
-                fieldValue = fieldValues.get(0);
-            } else if(fieldValues.stream().anyMatch(StringUtils::isNotBlank)) {
-                fieldValue = Json.toJson(fieldValues);
-            } else {
-                fieldValue = "";
-            }
-
-            boolean isNotBlank = StringUtils.isNotBlank(fieldValue);
-            if(toUpdate.containsKey(fieldName)) {
-                if(!readOnlyFields.contains(fieldName)) {
-                    TicketFieldValue field = toUpdate.get(fieldName);
-                    if(isNotBlank) {
-                        updateValue(field.getTicketId(), field.getTicketFieldConfigurationId(), fieldValue);
-                    } else {
-                        deleteValue(field.getTicketId(), field.getTicketFieldConfigurationId());
+        Map<Integer, Map<String, TicketFieldValue>> existing = findAllValuesByTicketIds(valuesByTicketId.keySet()).stream()
+            .collect(Collectors.groupingBy(TicketFieldValue::getTicketId, Collectors.toMap(TicketFieldValue::getName, Function.identity())));
+
+        List<MapSqlParameterSource> toUpdate = new ArrayList<>();
+        List<MapSqlParameterSource> toDelete = new ArrayList<>();
+        List<MapSqlParameterSource> toInsert = new ArrayList<>();
+        valuesByTicketId.forEach((ticketId, values) -> {
+            var existingForTicket = existing.getOrDefault(ticketId, Map.of());
+            Optional.ofNullable(values).orElseGet(Collections::emptyMap).forEach((fieldName, fieldValues) -> {
+                String fieldValue = toFieldValue(fieldValues);
+                boolean isNotBlank = StringUtils.isNotBlank(fieldValue);
+                if(existingForTicket.containsKey(fieldName)) {
+                    if(!readOnlyFields.contains(fieldName)) {
+                        var params = new MapSqlParameterSource("ticketId", ticketId)
+                            .addValue("fieldConfigurationId", existingForTicket.get(fieldName).getTicketFieldConfigurationId());
+                        if(isNotBlank) {
+                            toUpdate.add(params.addValue("value", fieldValue));
+                        } else {
+                            toDelete.add(params);
+                        }
                     }
+                } else if(fieldNameToId.containsKey(fieldName) && isNotBlank) {
+                    toInsert.add(new MapSqlParameterSource("ticketId", ticketId)
+                        .addValue("fieldConfigurationId", fieldNameToId.get(fieldName))
+                        .addValue("value", fieldValue));
                 }
-            } else if(fieldNameToId.containsKey(fieldName) && isNotBlank) {
-                insertValue(ticketId, fieldNameToId.get(fieldName), fieldValue);
-            }
+            });
         });
+
+        var jdbc = getNamedParameterJdbcTemplate();
+        if(!toUpdate.isEmpty()) {
+            jdbc.batchUpdate("update ticket_field_value set field_value = :value where ticket_id_fk = :ticketId and ticket_field_configuration_id_fk = :fieldConfigurationId", toUpdate.toArray(new MapSqlParameterSource[0]));
+        }
+        if(!toDelete.isEmpty()) {
+            jdbc.batchUpdate("delete from ticket_field_value where ticket_id_fk = :ticketId and ticket_field_configuration_id_fk = :fieldConfigurationId", toDelete.toArray(new MapSqlParameterSource[0]));
+        }
+        if(!toInsert.isEmpty()) {
+            jdbc.batchUpdate("insert into ticket_field_value(ticket_id_fk, ticket_field_configuration_id_fk, field_value) values (:ticketId, :fieldConfigurationId, :value)", toInsert.toArray(new MapSqlParameterSource[0]));
+        }
+    }
+
+    private static String toFieldValue(List<String> fieldValues) {
+        if(fieldValues.size() == 1) {
+            return fieldValues.get(0);
+        } else if(fieldValues.stream().anyMatch(StringUtils::isNotBlank)) {
+            return Json.toJson(fieldValues);
+        }
+        return "";
     }
 
     default Map<String, TicketFieldValue> findAllByTicketIdGroupedByName(int id) {
@@ -180,11 +221,13 @@ public interface TicketFieldRepository extends FieldRepository {
 
     }
 
-    @Query("select c2.field_name as field_name, tfv.field_value as field_value, c2.additional_service_id as additional_service_id from ticket_field_value tfv" +
+    @Query("select tfv.ticket_id_fk as ticket_id, c2.field_name as field_name, tfv.field_value as field_value, c2.additional_service_id as additional_service_id from ticket_field_value tfv" +
         "  join ticket_field_configuration c2 on tfv.ticket_field_configuration_id_fk = c2.id" +
-        "  where tfv.ticket_id_fk = :ticketId" +
+        "  where tfv.ticket_id_fk in (:ticketIds)" +
         "  and c2.context = 'ADDITIONAL_SERVICE'" +
         "  and c2.additional_service_id in (:additionalServiceIds)")
-    List<TicketFieldValueForAdditionalService> loadTicketFieldsForAdditionalService(@Bind("ticketId") int ticketId,
-                                                                                    @Bind("additionalServiceIds") List<Integer> additionalServiceIds);
+    List<TicketFieldValueForAdditionalService> loadTicketFieldsForAdditionalService(@Bind("ticketIds") Collection<Integer> ticketIds,
+                                                                                    @Bind("additionalServiceIds") Collection<Integer> additionalServiceIds);
+
+    NamedParameterJdbcTemplate getNamedParameterJdbcTemplate();
 }
@@ -109,6 +109,20 @@ public interface TicketRepository {
     @Query("update ticket set status = :status where uuid = :uuid")
     int updateTicketStatusWithUUID(@Bind("uuid") String uuid, @Bind("status") String status);
 
+    @Query("update ticket set status = 'CHECKED_IN' where uuid = :uuid and status = 'ACQUIRED'")
+    int checkIn(@Bind("uuid") String uuid);
+
+    @Query("update ticket set status = 'CHECKED_IN' where uuid = :uuid and status = 'ACQUIRED' and tickets_reservation_id = :reservationId" +
+        " and category_id = :categoryId and full_name is not distinct from :fullName and first_name is not distinct from :firstName" +
+        " and last_name is not distinct from :lastName and email_address is not distinct from :email")
+    int checkInIfUnchanged(@Bind("uuid") String uuid,
+                           @Bind("reservationId") String reservationId,
+                           @Bind("categoryId") int categoryId,
+                           @Bind("fullName") String fullName,
+                           @Bind("firstName") String firstName,
+                           @Bind("lastName") String lastName,
+                           @Bind("email") String email);
+
     @Query("update ticket set status = 'INVALIDATED' where id in (:ids)")
     int invalidateTickets(@Bind("ids") List<Integer> ids);
 
@@ -143,6 +157,10 @@ public interface TicketRepository {
     @Query("select id from ticket where tickets_reservation_id = :reservationId " + SORT_TICKETS + " LIMIT 1 OFFSET 0")
     Optional<Integer> findFirstTicketIdInReservation(@Bind("reservationId") String reservationId);
 
+    @Query("select distinct on (tickets_reservation_id) id from ticket where tickets_reservation_id in (:reservationIds)" +
+        " order by tickets_reservation_id, category_id asc, uuid asc")
+    List<Integer> findFirstTicketIdInReservations(@Bind("reservationIds") Collection<String> reservationIds);
+
     @Query("select count(*) from ticket where tickets_reservation_id = :reservationId ")
     Integer countTicketsInReservation(@Bind("reservationId") String reservationId);
     
@@ -164,6 +182,10 @@ public interface TicketRepository {
     @Query("update ticket set email_address = :email, full_name = :fullName, first_name = :firstName, last_name = :lastName where id = :id")
     int updateTicketOwnerById(@Bind("id") int id, @Bind("email") String email, @Bind("fullName") String fullName, @Bind("firstName") String firstName, @Bind("lastName") String lastName);
 
+    default void bulkUpdateTicketOwnerById(List<MapSqlParameterSource> params) {
+        getNamedParameterJdbcTemplate().batchUpdate("update ticket set email_address = :email, full_name = :fullName, first_name = :firstName, last_name = :lastName where id = :id", params.toArray(new MapSqlParameterSource[0]));
+    }
+
     @Query("update ticket set locked_assignment = :lockedAssignment where id = :id and category_id = :categoryId")
     int toggleTicketLocking(@Bind("id") int ticketId, @Bind("categoryId") int categoryId, @Bind("lockedAssignment") boolean locked);
 
@@ -225,8 +247,20 @@ public interface TicketRepository {
             " where t.event_id = :eventId and t.full_name is not null and t.email_address is not null and (coalesce(ltu.last_update, t.creation) > :changedSince)  order by t.id asc")
     List<Integer> findAllAssignedByEventId(@Bind("eventId") int eventId, @Bind("changedSince") Date changedSince);
 
-    @Query("select * from reservation_and_ticket_and_tx where t_id is not null and t_status in (" + CONFIRMED + ") and t_event_id = :eventId order by tr_confirmation_ts, t_id")
-    List<TicketWithReservationAndTransaction> findAllConfirmedForCSV(@Bind("eventId") int eventId);
+    @Query("select t.id " +
+            " from ticket t " +
+            " left outer join latest_ticket_update ltu on t.id = ltu.ticket_id and ltu.event_id = :eventId " +
+            " where t.event_id = :eventId and t.full_name is not null and t.email_address is not null and (coalesce(ltu.last_update, t.creation) > :changedSince)" +
+            " and t.id > :afterId order by t.id asc limit :limit")
+    List<Integer> findAssignedByEventIdAfter(@Bind("eventId") int eventId, @Bind("changedSince") Date changedSince,
+                                            @Bind("afterId") int afterId, @Bind("limit") int limit);
+
+    @Query("select t.id from ticket t join tickets_reservation tr on t.tickets_reservation_id = tr.id" +
+        " where t.event_id = :eventId and t.status in (" + CONFIRMED + ") order by tr.confirmation_ts, t.id")
+    List<Integer> findAllConfirmedIdsForCSV(@Bind("eventId") int eventId);
+
+    @Query("select * from reservation_and_ticket_and_tx where t_id in (:ids) and t_status in (" + CONFIRMED + ") and t_event_id = :eventId order by tr_confirmation_ts, t_id")
+    List<TicketWithReservationAndTransaction> findAllConfirmedForCSV(@Bind("eventId") int eventId, @Bind("ids") List<Integer> ids);
 
     @Query("select a.*, b.confirmation_ts from ticket a, tickets_reservation b where a.event_id = :eventId and a.status in(" + CONFIRMED + ") and a.tickets_reservation_id = b.id order by b.confirmation_ts")
     List<Ticket> findAllConfirmed(@Bind("eventId") int eventId);
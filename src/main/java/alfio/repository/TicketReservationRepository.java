@@ -108,8 +108,11 @@ public interface TicketReservationRepository {
     @Query("select status, validated_for_overview from tickets_reservation where id = :id")
     Optional<TicketReservationStatusAndValidation> findOptionalStatusAndValidationById(@Bind("id") String id);
 
-    @Query("select id from tickets_reservation where validity < :date and status = 'PENDING' for update skip locked")
-    List<String> findExpiredReservationForUpdate(@Bind("date") Date date);
+    @Query("select id from tickets_reservation where validity < :date and status = 'PENDING' order by validity limit :limit for update skip locked")
+    List<String> findExpiredReservationForUpdate(@Bind("date") Date date, @Bind("limit") int limit);
+
+    @Query("select count(*) from tickets_reservation where validity < :date and status = 'PENDING'")
+    Integer countExpiredReservations(@Bind("date") Date date);
 
     @Query("select id from tickets_reservation where validity < :date and status = 'OFFLINE_PAYMENT' for update skip locked")
     List<String> findExpiredOfflineReservationsForUpdate(@Bind("date") Date date);
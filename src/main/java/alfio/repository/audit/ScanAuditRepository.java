@@ -21,13 +21,20 @@ import alfio.model.audit.ScanAudit;
 import ch.digitalfondue.npjt.Bind;
 import ch.digitalfondue.npjt.Query;
 import ch.digitalfondue.npjt.QueryRepository;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 
+import java.sql.Types;
 import java.time.ZonedDateTime;
+import java.util.GregorianCalendar;
 import java.util.List;
 
 @QueryRepository
 public interface ScanAuditRepository {
-    @Query("insert into scan_audit(ticket_uuid, event_id_fk, scan_ts, username, check_in_status, operation) values(:ticketUuid, :eventId, :scanTs, :username, :status, :operation)")
+
+    String INSERT = "insert into scan_audit(ticket_uuid, event_id_fk, scan_ts, username, check_in_status, operation) values(:ticketUuid, :eventId, :scanTs, :username, :status, :operation)";
+
+    @Query(INSERT)
     Integer insert(@Bind("ticketUuid") String ticketUuid,
                    @Bind("eventId") int eventId,
                    @Bind("scanTs") ZonedDateTime timestamp,
@@ -38,4 +45,17 @@ public interface ScanAuditRepository {
     @Query("select * from scan_audit where event_id_fk = :eventId")
     List<ScanAudit> findAllForEvent(@Bind("eventId") int eventId);
 
+    NamedParameterJdbcTemplate getNamedParameterJdbcTemplate();
+
+    default void bulkInsert(List<ScanAudit> audits) {
+        MapSqlParameterSource[] params = audits.stream().map(a -> new MapSqlParameterSource("ticketUuid", a.getTicketUuid())
+            .addValue("eventId", a.getEventId())
+            .addValue("scanTs", GregorianCalendar.from(a.getScanTimestamp()), Types.TIMESTAMP)
+            .addValue("username", a.getUsername())
+            .addValue("status", a.getCheckInStatus().name())
+            .addValue("operation", a.getOperation().name()))
+            .toArray(MapSqlParameterSource[]::new);
+        getNamedParameterJdbcTemplate().batchUpdate(INSERT, params);
+    }
+
 }
\ No newline at end of file
@@ -22,8 +22,10 @@ import alfio.model.system.AdminJobSchedule;
 import ch.digitalfondue.npjt.Bind;
 import ch.digitalfondue.npjt.Query;
 import ch.digitalfondue.npjt.QueryRepository;
+import ch.digitalfondue.npjt.QueryType;
 
 import java.time.ZonedDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -31,20 +33,52 @@ import java.util.Set;
 @QueryRepository
 public interface AdminJobQueueRepository {
 
-    @Query("select * from admin_job_queue where status = 'SCHEDULED' for update skip locked")
-    List<AdminJobSchedule> loadPendingSchedules();
+    /**
+     * Claims up to {@code limit} schedules for the given job, granting a lease to {@code owner}. A schedule can be
+     * claimed if it is due, or if the lease of the node which was running it has expired.
+     * The timestamps are bound from the application, like {@code request_ts}, since the columns don't have a time zone.
+     */
+    @Query(type = QueryType.MODIFYING_WITH_RETURN, value = "update admin_job_queue set status = 'RUNNING', lease_owner = :owner," +
+        " lease_expiration_ts = :leaseExpiration, attempts = attempts + 1" +
+        " where id in (select id from admin_job_queue where job_name = :jobName and" +
+        " ((status = 'SCHEDULED' and coalesce(next_attempt_ts, request_ts) <= :now)" +
+        " or (status = 'RUNNING' and lease_expiration_ts < :now and attempts < :maxAttempts))" +
+        " order by request_ts limit :limit for update skip locked) returning *")
+    List<AdminJobSchedule> claimSchedules(@Bind("jobName") String jobName,
+                                          @Bind("owner") String owner,
+                                          @Bind("now") ZonedDateTime now,
+                                          @Bind("leaseExpiration") ZonedDateTime leaseExpiration,
+                                          @Bind("maxAttempts") int maxAttempts,
+                                          @Bind("limit") int limit);
 
-    @Query("update admin_job_queue set status = :status, execution_ts = :executionDate, metadata = to_json(:metadata::json) where id = :id")
-    int updateSchedule(@Bind("id") long id,
-                       @Bind("status") AdminJobSchedule.Status status,
-                       @Bind("executionDate")ZonedDateTime executionDate,
-                       @Bind("metadata") @JSONData Map<String, Object> metadata);
+    @Query("update admin_job_queue set lease_expiration_ts = :leaseExpiration" +
+        " where id in (:ids) and lease_owner = :owner and status = 'RUNNING'")
+    int renewLeases(@Bind("ids") Collection<Long> ids, @Bind("owner") String owner, @Bind("leaseExpiration") ZonedDateTime leaseExpiration);
+
+    @Query("update admin_job_queue set status = :status, execution_ts = :executionDate, metadata = to_json(:metadata::json)," +
+        " lease_owner = null, lease_expiration_ts = null where id = :id and lease_owner = :owner")
+    int completeSchedule(@Bind("id") long id,
+                         @Bind("owner") String owner,
+                         @Bind("status") String status,
+                         @Bind("executionDate") ZonedDateTime executionDate,
+                         @Bind("metadata") @JSONData Map<String, Object> metadata);
+
+    @Query("update admin_job_queue set status = 'SCHEDULED', lease_owner = null, lease_expiration_ts = null," +
+        " next_attempt_ts = :nextAttempt where id = :id and lease_owner = :owner")
+    int rescheduleAfterFailure(@Bind("id") long id, @Bind("owner") String owner, @Bind("nextAttempt") ZonedDateTime nextAttempt);
+
+    @Query("update admin_job_queue set status = 'FAILED', lease_owner = null, lease_expiration_ts = null" +
+        " where status = 'RUNNING' and lease_expiration_ts < :now and attempts >= :maxAttempts")
+    int failAbandonedSchedules(@Bind("now") ZonedDateTime now, @Bind("maxAttempts") int maxAttempts);
 
     @Query("insert into admin_job_queue(job_name, request_ts, metadata, status) values(:jobName, :requestTs, to_json(:metadata::json), 'SCHEDULED')")
     int schedule(@Bind("jobName") JobName jobName,
                  @Bind("requestTs") ZonedDateTime requestTimestamp,
                  @Bind("metadata") @JSONData Map<String, Object> metadata);
 
-    @Query("delete from admin_job_queue where status in (:status) and request_ts <= :requestTs")
+    /**
+     * Removes the old schedules having one of the given statuses. Running schedules are never removed.
+     */
+    @Query("delete from admin_job_queue where status in (:status) and status <> 'RUNNING' and request_ts <= :requestTs")
     int removePastSchedules(@Bind("requestTs") ZonedDateTime requestTs, @Bind("status") Set<String> statuses);
 }
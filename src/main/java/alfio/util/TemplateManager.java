@@ -18,11 +18,15 @@ package alfio.util;
 
 import alfio.manager.UploadedResourceManager;
 import alfio.manager.i18n.MessageSourceManager;
+import alfio.manager.support.MetricsProvider;
 import alfio.model.EventAndOrganizationId;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import com.samskivert.mustache.Mustache;
 import com.samskivert.mustache.Mustache.Compiler;
 import com.samskivert.mustache.Mustache.Formatter;
 import com.samskivert.mustache.Template;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.lang3.tuple.Pair;
 import org.springframework.context.MessageSource;
 import org.springframework.core.io.ByteArrayResource;
@@ -35,6 +39,7 @@ import java.nio.charset.StandardCharsets;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -44,7 +49,7 @@ import static alfio.util.MustacheCustomTag.COUNTRY_NAME;
 /**
  * For hiding the ugliness :)
  * */
-public class TemplateManager {
+public class TemplateManager implements MetricsProvider {
 
 
     private final MessageSourceManager messageSourceManager;
@@ -59,6 +64,13 @@ public class TemplateManager {
 
     private final UploadedResourceManager uploadedResourceManager;
 
+    // compiled templates are thread safe, so we can share them. Key is (output, classpath location or content hash)
+    private final Cache<String, Template> compiledTemplates = Caffeine.newBuilder()
+        .maximumSize(500)
+        .expireAfterAccess(12, TimeUnit.HOURS)
+        .recordStats()
+        .build();
+
     private static final Formatter DATE_FORMATTER = o -> (o instanceof ZonedDateTime) ? DateTimeFormatter.ISO_ZONED_DATE_TIME.format((ZonedDateTime) o) : String.valueOf(o);
 
     public TemplateManager(MessageSourceManager messageSourceManager,
@@ -124,13 +136,49 @@ public class TemplateManager {
     }
 
     private Template compile(Resource resource, TemplateOutput templateOutput) {
-        try (InputStreamReader tmpl = new InputStreamReader(resource.getInputStream(), StandardCharsets.UTF_8)) {
+        if(resource instanceof ClassPathResource) {
+            // classpath resources cannot change at runtime
+            String key = templateOutput + ":classpath:" + ((ClassPathResource) resource).getPath();
+            return compiledTemplates.get(key, k -> compile(readContent(resource), templateOutput));
+        }
+        // the content hash is part of the key, so an overridden template will never match a stale entry
+        byte[] content = readContent(resource);
+        String key = templateOutput + ":" + DigestUtils.sha256Hex(content);
+        return compiledTemplates.get(key, k -> compile(content, templateOutput));
+    }
+
+    private Template compile(byte[] content, TemplateOutput templateOutput) {
+        try (InputStreamReader tmpl = new InputStreamReader(new ByteArrayInputStream(content), StandardCharsets.UTF_8)) {
             return compilers.get(templateOutput).compile(tmpl);
         } catch (IOException ioe) {
             throw new IllegalStateException(ioe);
         }
     }
 
+    private static byte[] readContent(Resource resource) {
+        try (InputStream is = resource.getInputStream()) {
+            return is.readAllBytes();
+        } catch (IOException ioe) {
+            throw new IllegalStateException(ioe);
+        }
+    }
+
+    @Override
+    public String getMetricsGroup() {
+        return "compiled-templates";
+    }
+
+    @Override
+    public Map<String, Number> getMetrics() {
+        var stats = compiledTemplates.stats();
+        return Map.of(
+            "size", compiledTemplates.estimatedSize(),
+            "hits", stats.hitCount(),
+            "misses", stats.missCount(),
+            "evictions", stats.evictionCount()
+        );
+    }
+
     private static final Pattern KEY_PATTERN = Pattern.compile("(.*?)[\\s\\[]");
     private static final Pattern ARGS_PATTERN = Pattern.compile("\\[(.*?)]");
 
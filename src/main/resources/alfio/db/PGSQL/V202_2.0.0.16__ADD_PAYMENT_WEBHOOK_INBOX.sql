@@ -0,0 +1,34 @@
+--
+-- This file is part of alf.io.
+--
+-- alf.io is free software: you can redistribute it and/or modify
+-- it under the terms of the GNU General Public License as published by
+-- the Free Software Foundation, either version 3 of the License, or
+-- (at your option) any later version.
+--
+-- alf.io is distributed in the hope that it will be useful,
+-- but WITHOUT ANY WARRANTY; without even the implied warranty of
+-- MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+-- GNU General Public License for more details.
+--
+-- You should have received a copy of the GNU General Public License
+-- along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+--
+
+create table payment_webhook_inbox (
+    id serial primary key not null,
+    payment_method varchar(255) not null,
+    provider_event_id varchar(255) not null,
+    body text not null,
+    signature text,
+    status varchar(32) not null default 'PENDING',
+    attempts integer not null default 0,
+    received_ts timestamp with time zone not null default now(),
+    next_attempt_ts timestamp with time zone not null default now(),
+    processed_ts timestamp with time zone,
+    result varchar(32),
+    last_error text
+);
+
+create unique index payment_webhook_inbox_provider_event_id_uq on payment_webhook_inbox(payment_method, provider_event_id);
+create index payment_webhook_inbox_pending_idx on payment_webhook_inbox(next_attempt_ts) where status = 'PENDING';
@@ -0,0 +1,23 @@
+--
+-- This file is part of alf.io.
+--
+-- alf.io is free software: you can redistribute it and/or modify
+-- it under the terms of the GNU General Public License as published by
+-- the Free Software Foundation, either version 3 of the License, or
+-- (at your option) any later version.
+--
+-- alf.io is distributed in the hope that it will be useful,
+-- but WITHOUT ANY WARRANTY; without even the implied warranty of
+-- MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+-- GNU General Public License for more details.
+--
+-- You should have received a copy of the GNU General Public License
+-- along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+--
+
+alter table admin_job_queue add column attempts integer not null default 0;
+alter table admin_job_queue add column next_attempt_ts timestamp;
+alter table admin_job_queue add column lease_owner varchar(255);
+alter table admin_job_queue add column lease_expiration_ts timestamp;
+
+create index admin_job_queue_pending_idx on admin_job_queue(job_name, request_ts) where status in ('SCHEDULED', 'RUNNING');
@@ -0,0 +1,50 @@
+--
+-- This file is part of alf.io.
+--
+-- alf.io is free software: you can redistribute it and/or modify
+-- it under the terms of the GNU General Public License as published by
+-- the Free Software Foundation, either version 3 of the License, or
+-- (at your option) any later version.
+--
+-- alf.io is distributed in the hope that it will be useful,
+-- but WITHOUT ANY WARRANTY; without even the implied warranty of
+-- MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+-- GNU General Public License for more details.
+--
+-- You should have received a copy of the GNU General Public License
+-- along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+--
+
+-- counters are updated by the bulk import workers, together with the status of the processed requests
+create table admin_reservation_request_progress (
+    request_id varchar(512) primary key not null,
+    user_id bigint not null,
+    event_id bigint not null,
+    count_pending integer not null,
+    count_success integer not null,
+    count_error integer not null,
+    organization_id_fk integer not null references organization(id)
+);
+
+insert into admin_reservation_request_progress(request_id, user_id, event_id, count_pending, count_success, count_error, organization_id_fk)
+    select request_id,
+        min(user_id),
+        min(event_id),
+        sum(case (status = 'PENDING') when true then 1 else 0 end),
+        sum(case (status = 'SUCCESS') when true then 1 else 0 end),
+        sum(case (status = 'ERROR') when true then 1 else 0 end),
+        min(organization_id_fk)
+    from admin_reservation_request
+    group by request_id;
+
+create trigger admin_reservation_request_progress_insert_org_id_fk_trigger
+    before insert on admin_reservation_request_progress
+    for each row execute procedure set_organization_id_fk_from_event_id();
+
+alter table admin_reservation_request_progress enable row level security;
+alter table admin_reservation_request_progress force row level security;
+create policy admin_reservation_request_progress_access_policy on admin_reservation_request_progress to public
+    using (alfio_check_row_access(organization_id_fk))
+    with check (alfio_check_row_access((select org_id from event where event.id = event_id)));
+
+create index admin_reservation_request_pending_idx on admin_reservation_request(event_id, request_id, id) where status = 'PENDING';
@@ -0,0 +1,36 @@
+--
+-- This file is part of alf.io.
+--
+-- alf.io is free software: you can redistribute it and/or modify
+-- it under the terms of the GNU General Public License as published by
+-- the Free Software Foundation, either version 3 of the License, or
+-- (at your option) any later version.
+--
+-- alf.io is distributed in the hope that it will be useful,
+-- but WITHOUT ANY WARRANTY; without even the implied warranty of
+-- MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+-- GNU General Public License for more details.
+--
+-- You should have received a copy of the GNU General Public License
+-- along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+--
+
+-- invoice numbers taken from invoice_sequences and not yet confirmed by the commit of the reservation.
+-- If the reservation transaction rolls back, the number is marked as RELEASED and assigned to the next invoice.
+create table invoice_number_allocation (
+    organization_id_fk integer not null references organization(id),
+    invoice_sequence integer not null,
+    reservation_id character(36) not null,
+    invoice_number text not null,
+    status varchar(32) not null,
+    allocation_ts timestamp with time zone not null default now(),
+    primary key (organization_id_fk, invoice_sequence)
+);
+
+create index invoice_number_allocation_released_idx on invoice_number_allocation(organization_id_fk, invoice_sequence) where status = 'RELEASED';
+
+alter table invoice_number_allocation enable row level security;
+alter table invoice_number_allocation force row level security;
+create policy invoice_number_allocation_access_policy on invoice_number_allocation to public
+    using (alfio_check_row_access(organization_id_fk))
+    with check (alfio_check_row_access(organization_id_fk));
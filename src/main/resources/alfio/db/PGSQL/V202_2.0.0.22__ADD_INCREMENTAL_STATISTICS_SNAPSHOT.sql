@@ -0,0 +1,117 @@
+--
+-- This file is part of alf.io.
+--
+-- alf.io is free software: you can redistribute it and/or modify
+-- it under the terms of the GNU General Public License as published by
+-- the Free Software Foundation, either version 3 of the License, or
+-- (at your option) any later version.
+--
+-- alf.io is distributed in the hope that it will be useful,
+-- but WITHOUT ANY WARRANTY; without even the implied warranty of
+-- MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+-- GNU General Public License for more details.
+--
+-- You should have received a copy of the GNU General Public License
+-- along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+--
+
+-- the statistics snapshot was a materialized view, refreshed as a whole. See afterMigrate__009_VIEW_statistics_snapshot.sql
+drop materialized view if exists events_statistics_snapshot;
+
+-- ticket counters, refreshed only for the events listed in statistics_snapshot_change. See EventStatisticsSnapshotManager
+create table ticket_category_counts_snapshot (
+    ticket_category_id integer primary key,
+    event_id integer not null,
+    organization_id_fk integer not null references organization(id),
+    pending_count bigint not null,
+    released_count bigint not null,
+    checked_in_count bigint not null,
+    sold_tickets_count bigint not null,
+    stuck_count bigint not null,
+    refreshed_at timestamp with time zone not null
+);
+create index ticket_category_counts_snapshot_event_id_idx on ticket_category_counts_snapshot(event_id);
+
+create table event_ticket_counts_snapshot (
+    event_id integer primary key,
+    organization_id_fk integer not null references organization(id),
+    available_count bigint not null,
+    released_without_category_count bigint not null,
+    refreshed_at timestamp with time zone not null
+);
+
+-- events modified after the last refresh. Rows are only appended by the triggers below, so that
+-- concurrent transactions don't wait on each other, and removed by the refresh
+create table statistics_snapshot_change (
+    event_id integer not null,
+    organization_id_fk integer not null,
+    change_ts timestamp with time zone not null default now()
+);
+create index statistics_snapshot_change_change_ts_idx on statistics_snapshot_change(change_ts);
+
+-- single row, absent until the first complete refresh
+create table statistics_snapshot_refresh (
+    id boolean primary key default true check (id),
+    refresh_ts timestamp with time zone not null
+);
+
+alter table ticket_category_counts_snapshot enable row level security;
+alter table ticket_category_counts_snapshot force row level security;
+create policy ticket_category_counts_snapshot_access_policy on ticket_category_counts_snapshot to public
+    using (alfio_check_row_access(organization_id_fk))
+    with check (alfio_check_row_access(organization_id_fk));
+
+alter table event_ticket_counts_snapshot enable row level security;
+alter table event_ticket_counts_snapshot force row level security;
+create policy event_ticket_counts_snapshot_access_policy on event_ticket_counts_snapshot to public
+    using (alfio_check_row_access(organization_id_fk))
+    with check (alfio_check_row_access(organization_id_fk));
+
+alter table statistics_snapshot_change enable row level security;
+alter table statistics_snapshot_change force row level security;
+create policy statistics_snapshot_change_access_policy on statistics_snapshot_change to public
+    using (alfio_check_row_access(organization_id_fk))
+    with check (alfio_check_row_access(organization_id_fk));
+
+-- one row per statement and event, only if status, category or event have been modified
+create or replace function track_ticket_statistics_change() returns trigger
+as $$ begin
+    if tg_op = 'INSERT' then
+        insert into statistics_snapshot_change(event_id, organization_id_fk)
+            select distinct event_id, organization_id_fk from new_rows;
+    elsif tg_op = 'DELETE' then
+        insert into statistics_snapshot_change(event_id, organization_id_fk)
+            select distinct event_id, organization_id_fk from old_rows;
+    else
+        insert into statistics_snapshot_change(event_id, organization_id_fk)
+            select distinct c.event_id, c.organization_id_fk from new_rows n inner join old_rows o on o.id = n.id,
+            lateral (values (n.event_id, n.organization_id_fk), (o.event_id, o.organization_id_fk)) as c(event_id, organization_id_fk)
+            where n.status is distinct from o.status or n.category_id is distinct from o.category_id or n.event_id is distinct from o.event_id;
+    end if;
+    return null;
+end;
+$$ language plpgsql;
+
+create trigger ticket_statistics_insert_trigger after insert on ticket
+    referencing new table as new_rows
+    for each statement execute procedure track_ticket_statistics_change();
+create trigger ticket_statistics_update_trigger after update on ticket
+    referencing old table as old_rows new table as new_rows
+    for each statement execute procedure track_ticket_statistics_change();
+create trigger ticket_statistics_delete_trigger after delete on ticket
+    referencing old table as old_rows
+    for each statement execute procedure track_ticket_statistics_change();
+
+-- the stuck tickets are counted by category
+create or replace function track_reservation_statistics_change() returns trigger
+as $$ begin
+    insert into statistics_snapshot_change(event_id, organization_id_fk)
+        select distinct n.event_id_fk, n.organization_id_fk from new_rows n inner join old_rows o on o.id = n.id
+        where n.event_id_fk is not null and n.status is distinct from o.status and 'STUCK' in (n.status, o.status);
+    return null;
+end;
+$$ language plpgsql;
+
+create trigger reservation_statistics_update_trigger after update on tickets_reservation
+    referencing old table as old_rows new table as new_rows
+    for each statement execute procedure track_reservation_statistics_change();
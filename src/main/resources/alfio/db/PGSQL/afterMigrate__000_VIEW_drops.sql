@@ -15,6 +15,8 @@
 -- along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
 --
 
+drop view if exists events_statistics_snapshot;
+drop view if exists ticket_category_statistics_snapshot;
 drop view if exists admin_reservation_request_stats;
 drop view if exists auditing_user;
 drop view if exists events_statistics;
@@ -19,9 +19,8 @@ create view admin_reservation_request_stats as (
    select request_id,
        user_id,
        event_id,
-       sum(case (status = 'PENDING') when true then 1 else 0 end) as count_pending,
-       sum(case (status = 'SUCCESS') when true then 1 else 0 end) as count_success,
-       sum(case (status = 'ERROR') when true then 1 else 0 end) as count_error
-   from admin_reservation_request
-   group by request_id, event_id, user_id
-);
\ No newline at end of file
+       count_pending,
+       count_success,
+       count_error
+   from admin_reservation_request_progress
+);
@@ -0,0 +1,87 @@
+--
+-- This file is part of alf.io.
+--
+-- alf.io is free software: you can redistribute it and/or modify
+-- it under the terms of the GNU General Public License as published by
+-- the Free Software Foundation, either version 3 of the License, or
+-- (at your option) any later version.
+--
+-- alf.io is distributed in the hope that it will be useful,
+-- but WITHOUT ANY WARRANTY; without even the implied warranty of
+-- MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+-- GNU General Public License for more details.
+--
+-- You should have received a copy of the GNU General Public License
+-- along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+--
+
+-- same as ticket_category_statistics, with the ticket counters taken from ticket_category_counts_snapshot.
+-- The counters are refreshed by EventStatisticsSnapshotManager; all the other columns are live
+create view ticket_category_statistics_snapshot as (select
+  res.*,
+  is_expired and not_sold_tickets > 0 as is_containing_orphan_tickets,
+  stuck_count > 0 as is_containing_stuck_tickets
+from
+
+(select
+  tc.id as ticket_category_id,
+  tc.max_tickets,
+  tc.bounded,
+  tc.expiration < now() as is_expired,
+  tc.event_id,
+  coalesce(counts.pending_count, 0) as pending_count,
+  coalesce(counts.checked_in_count, 0) as checked_in_count,
+  coalesce(counts.sold_tickets_count, 0) as sold_tickets_count,
+  coalesce(counts.released_count, 0) as released_count,
+  case(tc.bounded) when false then 0 else tc.max_tickets - coalesce(counts.sold_tickets_count, 0) - coalesce(counts.checked_in_count, 0) - coalesce(counts.pending_count, 0) end as not_sold_tickets,
+  coalesce(counts.stuck_count, 0) as stuck_count
+from ticket_category tc
+left join ticket_category_counts_snapshot counts on counts.ticket_category_id = tc.id
+) as res);
+
+-- same as events_statistics, built on top of ticket_category_statistics_snapshot and event_ticket_counts_snapshot
+create view events_statistics_snapshot as (select
+      event.id,
+      coalesce(counts.available_count, 0) as available_seats,
+      case(contains_unbounded_categories) when true then 0 else coalesce(counts.available_count, 0) - allocated_count end as not_allocated_tickets,
+      pending_count as pending_tickets,
+      sold_tickets_count as sold_tickets,
+      released_count + coalesce(counts.released_without_category_count, 0) as released_tickets,
+      stats.checked_in_count as checked_in_tickets,
+      case(contains_unbounded_categories) when true then
+        coalesce(counts.available_count, 0)
+          - allocated_count
+          - released_count
+          - sold_tickets_count_unbounded
+          - checked_in_count_unbounded
+          - pending_count_unbounded
+          - coalesce(counts.released_without_category_count, 0)
+          else 0 end as dynamic_allocation,
+      case (contains_unbounded_categories) when true then
+        allocated_count - sold_tickets_count_bounded - checked_in_count_bounded - pending_count_bounded
+      else
+        allocated_count - sold_tickets_count - stats.checked_in_count - pending_count
+      end as not_sold_tickets,
+      is_containing_orphan_tickets_count > 0 as is_containing_orphan_tickets,
+      is_containing_stuck_tickets_count > 0 as is_containing_stuck_tickets_count
+
+
+from
+(select
+	sum(sold_tickets_count) as sold_tickets_count,
+	sum(checked_in_count) as checked_in_count,
+	sum(pending_count) as pending_count,
+	sum(released_count) as released_count,
+	sum(case (bounded) when true then checked_in_count else 0 end) as checked_in_count_bounded,
+	sum(case (bounded = false) when true then checked_in_count else 0 end) as checked_in_count_unbounded,
+	sum(case (bounded) when true then max_tickets else 0 end) as allocated_count,
+	sum(case (bounded) when true then sold_tickets_count else 0 end) as sold_tickets_count_bounded,
+	sum(case (bounded = false) when true then sold_tickets_count else 0 end) as sold_tickets_count_unbounded,
+	sum(case (bounded = false) when true then pending_count else 0 end) as pending_count_unbounded,
+	sum(case (bounded) when true then pending_count else 0 end) as pending_count_bounded,
+	sum(case (bounded) when false then 1 else 0 end) > 0 contains_unbounded_categories,
+	sum(case (is_containing_orphan_tickets) when true then 1 else 0 end) is_containing_orphan_tickets_count,
+    sum(case (is_containing_stuck_tickets) when true then 1 else 0 end) is_containing_stuck_tickets_count,
+	event_id from ticket_category_statistics_snapshot group by event_id) as stats
+inner join event on event_id = event.id
+left join event_ticket_counts_snapshot counts on counts.event_id = event.id);
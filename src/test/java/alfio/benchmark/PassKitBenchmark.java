@@ -0,0 +1,172 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.benchmark;
+
+import alfio.manager.FileUploadManager;
+import alfio.manager.PassKitAssetsCache;
+import alfio.manager.PassKitManager;
+import alfio.manager.system.ClusterNotificationManager;
+import alfio.manager.system.ConfigurationCache;
+import alfio.manager.system.ConfigurationManager;
+import alfio.manager.system.ConfigurationManager.MaybeConfiguration;
+import alfio.model.Event;
+import alfio.model.Ticket;
+import alfio.model.TicketCategory;
+import alfio.model.system.ConfigurationKeys;
+import alfio.model.user.Organization;
+import alfio.repository.*;
+import alfio.repository.user.OrganizationRepository;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigInteger;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.cert.Certificate;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static alfio.model.system.ConfigurationKeys.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Measures how many Apple Wallet passes per second can be generated, with and without the {@link PassKitAssetsCache}.
+ * The keystore is a self-signed certificate generated during the setup.
+ * <p>
+ * Run with {@code ./gradlew jmh -PjmhInclude=PassKitBenchmark}
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class PassKitBenchmark {
+
+    private static final String KEYSTORE_PASSWORD = "benchmark";
+    private static final String KEY_ALIAS = "pass";
+
+    @Param({"true", "false"})
+    public boolean cacheEnabled;
+
+    private PassKitManager passKitManager;
+    private Ticket ticket;
+    private Event event;
+
+    @Setup
+    public void setUp() throws Exception {
+        var now = ZonedDateTime.now(ZoneId.of("Europe/Zurich"));
+        // stubOnly: mocks must not record the invocations, otherwise we would measure Mockito
+        event = mock(Event.class, withSettings().stubOnly());
+        when(event.getId()).thenReturn(1);
+        when(event.getOrganizationId()).thenReturn(1);
+        when(event.getShortName()).thenReturn("benchmark");
+        when(event.getDisplayName()).thenReturn("Benchmark Event");
+        when(event.getPrivateKey()).thenReturn("private-key");
+        when(event.getZoneId()).thenReturn(now.getZone());
+        when(event.getBegin()).thenReturn(now.plusDays(1));
+        when(event.getEnd()).thenReturn(now.plusDays(1).plusHours(8));
+        when(event.getLocation()).thenReturn("Piazza Indipendenza, Bellinzona");
+        when(event.getFileBlobId()).thenReturn("logo");
+
+        ticket = mock(Ticket.class, withSettings().stubOnly());
+        when(ticket.getUuid()).thenReturn(UUID.randomUUID().toString());
+        when(ticket.getUserLanguage()).thenReturn("en");
+        when(ticket.getCategoryId()).thenReturn(1);
+        when(ticket.ticketCode(anyString())).thenReturn("ticket-code");
+
+        var eventRepository = mock(EventRepository.class, withSettings().stubOnly());
+        when(eventRepository.findById(1)).thenReturn(event);
+        var organizationRepository = mock(OrganizationRepository.class, withSettings().stubOnly());
+        when(organizationRepository.getById(1)).thenReturn(new Organization(1, "Organization", "organization", "organization@example.org"));
+        var eventDescriptionRepository = mock(EventDescriptionRepository.class, withSettings().stubOnly());
+        when(eventDescriptionRepository.findDescriptionByEventIdTypeAndLocale(anyInt(), any(), anyString())).thenReturn(Optional.of("description"));
+        var category = mock(TicketCategory.class, withSettings().stubOnly());
+        when(category.getName()).thenReturn("Standard");
+        var ticketCategoryRepository = mock(TicketCategoryRepository.class, withSettings().stubOnly());
+        when(ticketCategoryRepository.getById(1)).thenReturn(category);
+        var fileUploadManager = mock(FileUploadManager.class, withSettings().stubOnly());
+        when(fileUploadManager.findMetadata(anyString())).thenReturn(Optional.empty());
+
+        var configuration = new EnumMap<ConfigurationKeys, MaybeConfiguration>(ConfigurationKeys.class);
+        configuration.put(ENABLE_PASS, maybeConfiguration("true"));
+        configuration.put(PASSBOOK_TYPE_IDENTIFIER, maybeConfiguration("pass.io.alf.benchmark"));
+        configuration.put(PASSBOOK_TEAM_IDENTIFIER, maybeConfiguration("TEAM"));
+        configuration.put(PASSBOOK_KEYSTORE, maybeConfiguration(Base64.getEncoder().encodeToString(generateKeystore())));
+        configuration.put(PASSBOOK_KEYSTORE_PASSWORD, maybeConfiguration(KEYSTORE_PASSWORD));
+        configuration.put(PASSBOOK_PRIVATE_KEY_ALIAS, maybeConfiguration(KEY_ALIAS));
+        var configurationManager = mock(ConfigurationManager.class, withSettings().stubOnly());
+        when(configurationManager.getFor(anyCollection(), any())).thenReturn(configuration);
+
+        var environment = new MockEnvironment().withProperty("alfio.cache.passkit-assets.enabled", String.valueOf(cacheEnabled));
+        var assetsCache = new PassKitAssetsCache(mock(ClusterNotificationManager.class, withSettings().stubOnly()),
+            mock(ConfigurationCache.class, withSettings().stubOnly()), fileUploadManager, environment);
+        passKitManager = new PassKitManager(eventRepository, organizationRepository, configurationManager, assetsCache,
+            eventDescriptionRepository, ticketCategoryRepository, mock(TicketRepository.class, withSettings().stubOnly()),
+            mock(TicketReservationRepository.class, withSettings().stubOnly()));
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public byte[] generatePass() throws Exception {
+        var out = new ByteArrayOutputStream();
+        passKitManager.writePass(ticket, event, out);
+        return out.toByteArray();
+    }
+
+    private static MaybeConfiguration maybeConfiguration(String value) {
+        var configuration = mock(MaybeConfiguration.class, withSettings().stubOnly());
+        when(configuration.getValue()).thenReturn(Optional.of(value));
+        when(configuration.getValueAsBooleanOrDefault(anyBoolean())).thenReturn(Boolean.parseBoolean(value));
+        return configuration;
+    }
+
+    private static byte[] generateKeystore() throws Exception {
+        var generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        var keyPair = generator.generateKeyPair();
+        var name = new X500Name("CN=Pass Type ID: pass.io.alf.benchmark");
+        var now = Instant.now();
+        var holder = new JcaX509v3CertificateBuilder(name, BigInteger.ONE, Date.from(now.minus(1, ChronoUnit.DAYS)),
+            Date.from(now.plus(365, ChronoUnit.DAYS)), name, keyPair.getPublic())
+            .build(new JcaContentSignerBuilder("SHA256withRSA").build(keyPair.getPrivate()));
+        Certificate certificate = new JcaX509CertificateConverter().getCertificate(holder);
+        var keyStore = KeyStore.getInstance("PKCS12");
+        keyStore.load(null, null);
+        keyStore.setKeyEntry(KEY_ALIAS, keyPair.getPrivate(), KEYSTORE_PASSWORD.toCharArray(), new Certificate[] { certificate });
+        var out = new ByteArrayOutputStream();
+        keyStore.store(out, KEYSTORE_PASSWORD.toCharArray());
+        return out.toByteArray();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(PassKitBenchmark.class.getSimpleName()).build()).run();
+    }
+}
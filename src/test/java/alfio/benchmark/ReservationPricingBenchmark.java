@@ -0,0 +1,146 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.benchmark;
+
+import alfio.manager.ReservationPricingEngine;
+import alfio.model.*;
+import alfio.repository.*;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.math.BigDecimal;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Measures the computation of total price and summary rows of a reservation with 100 tickets in 4 categories,
+ * 20 additional service items and a percentage discount.
+ * Repositories are stubbed, so only the computation is measured.
+ * <p>
+ * Run with {@code ./gradlew jmh -PjmhInclude=ReservationPricingBenchmark}
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class ReservationPricingBenchmark {
+
+    private static final String RESERVATION_ID = "benchmark-reservation";
+    private static final int TICKETS = 100;
+    private static final int CATEGORIES = 4;
+    private static final int ADDITIONAL_SERVICE_ITEMS = 20;
+
+    private ReservationPricingEngine engine;
+    private Event event;
+    private TicketReservation reservation;
+
+    @Setup
+    public void setUp() {
+        // stubOnly: mocks must not record the invocations, otherwise we would measure Mockito
+        event = mock(Event.class, withSettings().stubOnly());
+        when(event.getId()).thenReturn(1);
+        when(event.getCurrency()).thenReturn("CHF");
+        when(event.getVat()).thenReturn(new BigDecimal("7.7"));
+        when(event.getVatStatus()).thenReturn(PriceContainer.VatStatus.INCLUDED);
+
+        reservation = mock(TicketReservation.class, withSettings().stubOnly());
+        when(reservation.getId()).thenReturn(RESERVATION_ID);
+        when(reservation.getUserLanguage()).thenReturn("en");
+        when(reservation.getPromoCodeDiscountId()).thenReturn(1);
+
+        var promoCodeDiscount = mock(PromoCodeDiscount.class, withSettings().stubOnly());
+        when(promoCodeDiscount.getPromoCode()).thenReturn("BENCHMARK");
+        when(promoCodeDiscount.getDiscountAmount()).thenReturn(10);
+        when(promoCodeDiscount.getDiscountType()).thenReturn(PromoCodeDiscount.DiscountType.PERCENTAGE);
+        when(promoCodeDiscount.getCodeType()).thenReturn(PromoCodeDiscount.CodeType.DISCOUNT);
+        when(promoCodeDiscount.getCategories()).thenReturn(Set.of(1, 2));
+        var promoCodeDiscountRepository = mock(PromoCodeDiscountRepository.class, withSettings().stubOnly());
+        when(promoCodeDiscountRepository.findById(1)).thenReturn(promoCodeDiscount);
+
+        List<Ticket> tickets = IntStream.range(0, TICKETS).mapToObj(i -> {
+            var ticket = mock(Ticket.class, withSettings().stubOnly());
+            int categoryId = 1 + i % CATEGORIES;
+            when(ticket.getId()).thenReturn(i);
+            when(ticket.getCategoryId()).thenReturn(categoryId);
+            when(ticket.getSrcPriceCts()).thenReturn(categoryId * 2500);
+            when(ticket.getCurrencyCode()).thenReturn("CHF");
+            return ticket;
+        }).sorted(Comparator.comparing(Ticket::getCategoryId)).collect(Collectors.toList());
+        var ticketRepository = mock(TicketRepository.class, withSettings().stubOnly());
+        when(ticketRepository.findTicketsInReservation(RESERVATION_ID)).thenReturn(tickets);
+
+        List<TicketCategory> categories = IntStream.rangeClosed(1, CATEGORIES).mapToObj(id -> {
+            var category = mock(TicketCategory.class, withSettings().stubOnly());
+            when(category.getId()).thenReturn(id);
+            when(category.getName()).thenReturn("Category " + id);
+            return category;
+        }).collect(Collectors.toList());
+        var ticketCategoryRepository = mock(TicketCategoryRepository.class, withSettings().stubOnly());
+        when(ticketCategoryRepository.findByIds(anyCollection())).thenReturn(categories);
+
+        List<AdditionalServiceItem> items = IntStream.range(0, ADDITIONAL_SERVICE_ITEMS).mapToObj(i -> {
+            var item = mock(AdditionalServiceItem.class, withSettings().stubOnly());
+            when(item.getAdditionalServiceId()).thenReturn(1 + i % 2);
+            when(item.getSrcPriceCts()).thenReturn(1000);
+            return item;
+        }).collect(Collectors.toList());
+        var additionalServiceItemRepository = mock(AdditionalServiceItemRepository.class, withSettings().stubOnly());
+        when(additionalServiceItemRepository.findByReservationUuid(RESERVATION_ID)).thenReturn(items);
+
+        List<AdditionalService> additionalServices = new ArrayList<>();
+        List<AdditionalServiceText> titles = new ArrayList<>();
+        for(int id = 1; id <= 2; id++) {
+            var additionalService = mock(AdditionalService.class, withSettings().stubOnly());
+            when(additionalService.getId()).thenReturn(id);
+            when(additionalService.getVatType()).thenReturn(AdditionalService.VatType.INHERITED);
+            when(additionalService.getType()).thenReturn(AdditionalService.AdditionalServiceType.SUPPLEMENT);
+            additionalServices.add(additionalService);
+            var title = mock(AdditionalServiceText.class, withSettings().stubOnly());
+            when(title.getAdditionalServiceId()).thenReturn(id);
+            when(title.getLocale()).thenReturn("en");
+            when(title.getType()).thenReturn(AdditionalServiceText.TextType.TITLE);
+            when(title.getValue()).thenReturn("Additional Service " + id);
+            titles.add(title);
+        }
+        var additionalServiceRepository = mock(AdditionalServiceRepository.class, withSettings().stubOnly());
+        when(additionalServiceRepository.findAllByIds(anyCollection(), eq(1))).thenReturn(additionalServices);
+        var additionalServiceTextRepository = mock(AdditionalServiceTextRepository.class, withSettings().stubOnly());
+        when(additionalServiceTextRepository.findAllByAdditionalServiceIds(anyCollection())).thenReturn(titles);
+
+        engine = new ReservationPricingEngine(ticketRepository, ticketCategoryRepository,
+            additionalServiceRepository, additionalServiceItemRepository, additionalServiceTextRepository,
+            promoCodeDiscountRepository);
+    }
+
+    @Benchmark
+    public ReservationPricingEngine.ReservationPrice orderSummary() {
+        return engine.get(event, reservation);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(ReservationPricingBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,132 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.benchmark;
+
+import alfio.manager.EventManager;
+import alfio.model.EventAndOrganizationId;
+import alfio.model.Ticket;
+import alfio.model.TicketFieldValue;
+import alfio.model.TicketWithReservationAndTransaction;
+import alfio.model.user.Organization;
+import alfio.repository.EventRepository;
+import alfio.repository.TicketFieldRepository;
+import alfio.repository.TicketRepository;
+import alfio.repository.user.OrganizationRepository;
+import com.opencsv.CSVWriter;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Measures the in-memory overhead of paging the confirmed tickets of a synthetic 100k-ticket event and writing them
+ * to CSV. Every repository is mocked, so this benchmark says nothing about query time, number of round trips or
+ * database load, and it cannot be used to compare the paged export with the previous implementation: it only guards
+ * against regressions in the Java code between the queries and the writer.
+ * <p>
+ * Run with {@code ./gradlew jmh -PjmhInclude=TicketExportBenchmark}
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class TicketExportBenchmark {
+
+    private static final int TICKETS = 100_000;
+    private static final int DISTINCT_ROWS = 1_000;
+    private static final Set<String> ADDITIONAL_FIELDS = Set.of("company", "jobTitle");
+
+    private EventManager eventManager;
+
+    @Setup
+    public void setUp() {
+        // stubOnly: mocks must not record the invocations, otherwise we would measure Mockito
+        var eventRepository = mock(EventRepository.class, withSettings().stubOnly());
+        var organizationRepository = mock(OrganizationRepository.class, withSettings().stubOnly());
+        var ticketRepository = mock(TicketRepository.class, withSettings().stubOnly());
+        var ticketFieldRepository = mock(TicketFieldRepository.class, withSettings().stubOnly());
+
+        var event = mock(EventAndOrganizationId.class, withSettings().stubOnly());
+        when(event.getId()).thenReturn(1);
+        when(event.getOrganizationId()).thenReturn(1);
+        when(eventRepository.findOptionalEventAndOrganizationIdByShortName("benchmark")).thenReturn(Optional.of(event));
+        when(organizationRepository.findOrganizationForUser(anyString(), anyInt()))
+            .thenReturn(Optional.of(new Organization(1, "Organization", "organization", "organization@example.org")));
+
+        // the synthetic rows are recycled, so the custom field values are keyed by the recycled ticket id as well
+        var rows = IntStream.range(0, DISTINCT_ROWS).mapToObj(TicketExportBenchmark::row).collect(Collectors.toList());
+        when(ticketRepository.findAllConfirmedIdsForCSV(1))
+            .thenReturn(IntStream.range(0, TICKETS).boxed().collect(Collectors.toList()));
+        when(ticketRepository.findAllConfirmedForCSV(eq(1), anyList())).thenAnswer(invocation -> {
+            List<Integer> ids = invocation.getArgument(1);
+            return ids.stream().map(id -> rows.get(id % DISTINCT_ROWS)).collect(Collectors.toList());
+        });
+        when(ticketFieldRepository.findValuesByTicketIdsAndNames(anyCollection(), anyCollection())).thenAnswer(invocation -> {
+            List<Integer> ids = invocation.getArgument(0);
+            return ids.stream()
+                .flatMap(id -> ADDITIONAL_FIELDS.stream().map(name -> new TicketFieldValue(id % DISTINCT_ROWS, 1, name, name + "-" + id)))
+                .collect(Collectors.toList());
+        });
+
+        eventManager = new EventManager(null, eventRepository, null, null, null, ticketRepository, null, null, null,
+            ticketFieldRepository, null, null, null, null, null, organizationRepository, null, null, null, null, null, null);
+    }
+
+    @Benchmark
+    public int exportTickets() throws IOException {
+        var counter = new int[1];
+        try (var writer = new CSVWriter(Writer.nullWriter())) {
+            eventManager.exportAllConfirmedTicketsForCSV("benchmark", "admin", ADDITIONAL_FIELDS, tickets -> tickets.forEachOrdered(p -> {
+                var ticket = p.getLeft().getTicket();
+                var values = p.getRight();
+                writer.writeNext(new String[] { ticket.getUuid(), ticket.getFullName(), ticket.getEmail(),
+                    values.getOrDefault("company", ""), values.getOrDefault("jobTitle", "") });
+                counter[0]++;
+            }));
+        }
+        return counter[0];
+    }
+
+    private static TicketWithReservationAndTransaction row(int id) {
+        var ticket = mock(Ticket.class, withSettings().stubOnly());
+        when(ticket.getId()).thenReturn(id);
+        when(ticket.getUuid()).thenReturn("uuid-" + id);
+        when(ticket.getFullName()).thenReturn("Attendee " + id);
+        when(ticket.getEmail()).thenReturn("attendee" + id + "@example.org");
+        var row = mock(TicketWithReservationAndTransaction.class, withSettings().stubOnly());
+        when(row.getTicket()).thenReturn(ticket);
+        return row;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(TicketExportBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,108 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.benchmark;
+
+import alfio.controller.support.PdfRenderingService;
+import alfio.manager.ExtensionManager;
+import alfio.manager.UploadedResourceManager;
+import alfio.manager.i18n.MessageSourceManager;
+import alfio.model.Event;
+import alfio.model.user.Organization;
+import alfio.util.CustomResourceBundleMessageSource;
+import alfio.util.TemplateManager;
+import alfio.util.TemplateResource;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Measures how many tickets per second can be rendered using the stock TICKET_PDF template.
+ * <p>
+ * Run with {@code ./gradlew jmh -PjmhInclude=TicketPdfRenderingBenchmark}
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class TicketPdfRenderingBenchmark {
+
+    private TemplateManager templateManager;
+    private PdfRenderingService pdfRenderingService;
+    private Event event;
+    private Map<String, Object> model;
+
+    @Setup
+    public void setUp() {
+        var messageSource = new CustomResourceBundleMessageSource();
+        messageSource.setBasenames("alfio.i18n.public", "alfio.i18n.admin");
+        messageSource.setDefaultEncoding(StandardCharsets.UTF_8.displayName());
+        messageSource.setFallbackToSystemLocale(false);
+        messageSource.setAlwaysUseMessageFormat(true);
+
+        // stubOnly: mocks must not record the invocations, otherwise we would measure Mockito
+        var messageSourceManager = mock(MessageSourceManager.class, withSettings().stubOnly());
+        when(messageSourceManager.getMessageSourceForEvent(any())).thenReturn(messageSource);
+        var uploadedResourceManager = mock(UploadedResourceManager.class, withSettings().stubOnly());
+        when(uploadedResourceManager.findCascading(anyInt(), anyInt(), anyString())).thenReturn(Optional.empty());
+        templateManager = new TemplateManager(messageSourceManager, uploadedResourceManager);
+        pdfRenderingService = new PdfRenderingService(mock(ExtensionManager.class, withSettings().stubOnly()), new MockEnvironment());
+
+        var now = ZonedDateTime.now(ZoneId.of("Europe/Zurich"));
+        event = mock(Event.class, withSettings().stubOnly());
+        when(event.getId()).thenReturn(1);
+        when(event.getOrganizationId()).thenReturn(1);
+        when(event.getShortName()).thenReturn("benchmark");
+        when(event.getDisplayName()).thenReturn("Benchmark Event");
+        when(event.getPrivateKey()).thenReturn("private-key");
+        when(event.getZoneId()).thenReturn(now.getZone());
+        when(event.getBegin()).thenReturn(now.plusDays(1));
+        when(event.getEnd()).thenReturn(now.plusDays(1).plusHours(8));
+        when(event.getLocation()).thenReturn("Piazza Indipendenza, Bellinzona");
+        var organization = new Organization(1, "Organization", "organization", "organization@example.org");
+        model = TemplateResource.TICKET_PDF.prepareSampleModel(organization, event, Optional.empty());
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public byte[] renderTicket() throws IOException {
+        var page = templateManager.renderTemplate(event, TemplateResource.TICKET_PDF, model, Locale.ENGLISH);
+        var os = new ByteArrayOutputStream();
+        pdfRenderingService.renderToPdf(page, os, event);
+        return os.toByteArray();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(TicketPdfRenderingBenchmark.class.getSimpleName()).build()).run();
+    }
+}
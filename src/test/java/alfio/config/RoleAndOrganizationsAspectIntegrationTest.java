@@ -0,0 +1,150 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.config;
+
+import alfio.TestConfiguration;
+import alfio.manager.EventManager;
+import alfio.manager.user.UserManager;
+import alfio.model.Event;
+import alfio.model.modification.DateTimeModification;
+import alfio.model.modification.TicketCategoryModification;
+import alfio.repository.EventRepository;
+import alfio.repository.system.ConfigurationRepository;
+import alfio.repository.user.OrganizationRepository;
+import alfio.test.util.IntegrationTestUtil;
+import org.apache.commons.lang3.tuple.Pair;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.DefaultTransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static alfio.test.util.IntegrationTestUtil.AVAILABLE_SEATS;
+import static alfio.test.util.IntegrationTestUtil.DESCRIPTION;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(classes = {DataSourceConfiguration.class, TestConfiguration.class})
+@ActiveProfiles({Initializer.PROFILE_DEV, Initializer.PROFILE_DISABLE_JOBS, Initializer.PROFILE_INTEGRATION_TEST})
+public class RoleAndOrganizationsAspectIntegrationTest {
+
+    @Autowired
+    private RoleAndOrganizationsAspect aspect;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+    @Autowired
+    private ConfigurationRepository configurationRepository;
+    @Autowired
+    private OrganizationRepository organizationRepository;
+    @Autowired
+    private UserManager userManager;
+    @Autowired
+    private EventManager eventManager;
+    @Autowired
+    private EventRepository eventRepository;
+
+    @After
+    public void tearDown() {
+        RequestContextHolder.resetRequestAttributes();
+        SecurityContextHolder.clearContext();
+    }
+
+    @Test
+    public void otherOrganizationsAreHiddenAlsoAfterNestedRollback() {
+        new TransactionTemplate(transactionManager).execute(status -> {
+            IntegrationTestUtil.ensureMinimalConfiguration(configurationRepository);
+            var own = initEvent();
+            var other = initEvent();
+            var eventIds = Set.of(own.getLeft().getId(), other.getLeft().getId());
+
+            // row security policies are not applied to superusers
+            var jdbc = jdbcTemplate.getJdbcTemplate();
+            jdbc.execute("create role alfio_row_access_test");
+            jdbc.execute("grant select on all tables in schema public to alfio_row_access_test");
+            jdbc.execute("set local role alfio_row_access_test");
+            loginAs(own.getRight());
+
+            var nestedTransactionTemplate = new TransactionTemplate(transactionManager, new DefaultTransactionDefinition(TransactionDefinition.PROPAGATION_NESTED));
+            nestedTransactionTemplate.execute(nested -> {
+                // the first manager call of the transaction happens after the savepoint
+                assertEquals(List.of(own.getLeft().getId()), visibleEvents(eventIds));
+                nested.setRollbackOnly();
+                return null;
+            });
+
+            // the rollback has reverted the variables, which must have been applied again
+            assertEquals(List.of(own.getLeft().getId()), visibleEvents(eventIds));
+            status.setRollbackOnly();
+            return null;
+        });
+    }
+
+    private Pair<Event, String> initEvent() {
+        var categories = List.of(new TicketCategoryModification(null, "default", AVAILABLE_SEATS,
+            new DateTimeModification(LocalDate.now().minusDays(1), LocalTime.now()),
+            new DateTimeModification(LocalDate.now().plusDays(1), LocalTime.now()),
+            DESCRIPTION, BigDecimal.TEN, false, "", false, null, null, null, null, null, 0, null, null));
+        return IntegrationTestUtil.initEvent(categories, organizationRepository, userManager, eventManager, eventRepository);
+    }
+
+    private static void loginAs(String username) {
+        var request = new MockHttpServletRequest("GET", "/admin/api/events");
+        request.setServletPath("/admin/api/events");
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(request));
+        SecurityContextHolder.getContext().setAuthentication(new UsernamePasswordAuthenticationToken(username, null,
+            List.of(new SimpleGrantedAuthority("ROLE_OPERATOR"))));
+    }
+
+    /**
+     * Simulates a call to a transactional manager, then reads the events.
+     */
+    private List<Integer> visibleEvents(Set<Integer> eventIds) {
+        try {
+            aspect.setRoleAndVariable(mock(ProceedingJoinPoint.class));
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+        return eventRepository.findAll().stream()
+            .map(Event::getId)
+            .filter(eventIds::contains)
+            .collect(Collectors.toList());
+    }
+}
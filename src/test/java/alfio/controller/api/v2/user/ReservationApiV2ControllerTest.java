@@ -0,0 +1,145 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.controller.api.v2.user;
+
+import alfio.controller.api.support.TicketHelper;
+import alfio.controller.support.PdfRenderingService;
+import alfio.manager.*;
+import alfio.manager.i18n.MessageSourceManager;
+import alfio.manager.system.ClusterNotificationManager;
+import alfio.manager.system.ConfigurationManager;
+import alfio.model.Event;
+import alfio.model.TicketReservation.TicketReservationStatus;
+import alfio.model.TicketReservationStatusAndValidation;
+import alfio.repository.AdditionalServiceItemRepository;
+import alfio.repository.EventRepository;
+import alfio.repository.TicketFieldRepository;
+import alfio.repository.TicketReservationRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.security.web.DefaultSecurityFilterChain;
+import org.springframework.security.web.FilterChainProxy;
+import org.springframework.security.web.context.SecurityContextPersistenceFilter;
+import org.springframework.security.web.context.request.async.WebAsyncManagerIntegrationFilter;
+import org.springframework.security.web.util.matcher.AnyRequestMatcher;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.filter.CharacterEncodingFilter;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+class ReservationApiV2ControllerTest {
+
+    private static final String WAIT_URL = "/api/v2/public/event/{eventName}/reservation/{reservationId}/status/wait";
+
+    private TicketReservationRepository ticketReservationRepository;
+    private ReservationStatusNotifier reservationStatusNotifier;
+    private MockMvc mockMvc;
+
+    @BeforeEach
+    void setUp() {
+        ticketReservationRepository = mock(TicketReservationRepository.class);
+        reservationStatusNotifier = new ReservationStatusNotifier(mock(ClusterNotificationManager.class), new MockEnvironment());
+        var eventSnapshotCache = mock(EventSnapshotCache.class);
+        when(eventSnapshotCache.findByShortName("event"))
+            .thenReturn(Optional.of(new EventSnapshotCache.EventSnapshot(mock(Event.class), Map.of(), null, List.of(), Map.of(), 0, 0)));
+        var controller = new ReservationApiV2Controller(mock(EventManager.class), mock(EventRepository.class), mock(TicketReservationManager.class),
+            ticketReservationRepository, mock(TicketFieldRepository.class), mock(MessageSourceManager.class), mock(ConfigurationManager.class),
+            mock(PaymentManager.class), mock(FileUploadManager.class), mock(TemplateManager.class), mock(ExtensionManager.class),
+            mock(PdfRenderingService.class), mock(TicketHelper.class), mock(EuVatChecker.class), mock(RecaptchaService.class),
+            mock(AdditionalServiceItemRepository.class), eventSnapshotCache, reservationStatusNotifier);
+        // same filters which are applied to the request in production, async dispatches included
+        var securityFilterChain = new FilterChainProxy(new DefaultSecurityFilterChain(AnyRequestMatcher.INSTANCE,
+            new WebAsyncManagerIntegrationFilter(), new SecurityContextPersistenceFilter()));
+        mockMvc = MockMvcBuilders.standaloneSetup(controller)
+            .addFilters(new CharacterEncodingFilter("UTF-8", true), securityFilterChain)
+            .build();
+    }
+
+    @AfterEach
+    void tearDown() {
+        reservationStatusNotifier.shutdown();
+    }
+
+    @Test
+    void returnTheNewStatusWhenItChanges() throws Exception {
+        when(ticketReservationRepository.findOptionalStatusAndValidationById("reservation"))
+            .thenReturn(status(TicketReservationStatus.PENDING), status(TicketReservationStatus.COMPLETE));
+
+        MvcResult result = mockMvc.perform(get(WAIT_URL, "event", "reservation").param("status", "PENDING"))
+            .andExpect(request().asyncStarted())
+            .andReturn();
+
+        reservationStatusNotifier.statusChanged("reservation");
+
+        mockMvc.perform(asyncDispatch(result))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.status").value("COMPLETE"));
+    }
+
+    @Test
+    void returnImmediatelyIfTheKnownStatusIsOutdated() throws Exception {
+        when(ticketReservationRepository.findOptionalStatusAndValidationById("reservation")).thenReturn(status(TicketReservationStatus.IN_PAYMENT));
+
+        MvcResult result = mockMvc.perform(get(WAIT_URL, "event", "reservation").param("status", "PENDING"))
+            .andExpect(request().asyncStarted())
+            .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.status").value("IN_PAYMENT"));
+    }
+
+    @Test
+    void notFoundIfTheEventDoesNotExist() throws Exception {
+        MvcResult result = mockMvc.perform(get(WAIT_URL, "not-existing", "reservation").param("status", "PENDING"))
+            .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
+            .andExpect(status().isNotFound());
+    }
+
+    @Test
+    void notFoundIfTheReservationHasBeenRemoved() throws Exception {
+        when(ticketReservationRepository.findOptionalStatusAndValidationById("reservation"))
+            .thenReturn(status(TicketReservationStatus.PENDING), Optional.empty());
+
+        MvcResult result = mockMvc.perform(get(WAIT_URL, "event", "reservation").param("status", "PENDING"))
+            .andExpect(request().asyncStarted())
+            .andReturn();
+
+        reservationStatusNotifier.statusChanged("reservation");
+
+        mockMvc.perform(asyncDispatch(result))
+            .andExpect(status().isNotFound());
+    }
+
+    private static Optional<TicketReservationStatusAndValidation> status(TicketReservationStatus status) {
+        return Optional.of(new TicketReservationStatusAndValidation(status, false));
+    }
+}
@@ -0,0 +1,138 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.controller.support;
+
+import alfio.manager.ExtensionManager;
+import alfio.manager.FileUploadManager;
+import alfio.model.Event;
+import alfio.model.FileBlobMetadata;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class PdfRenderingServiceTest {
+
+    private static final String PAGE = "<html><body><p>ticket</p></body></html>";
+
+    private ExtensionManager extensionManager;
+    private Event event;
+
+    @BeforeEach
+    void setUp() {
+        extensionManager = mock(ExtensionManager.class);
+        event = mock(Event.class);
+    }
+
+    @Test
+    void renderPdf() throws IOException {
+        var service = new PdfRenderingService(extensionManager, new MockEnvironment());
+        var os = new ByteArrayOutputStream();
+        service.renderToPdf(PAGE, os, event);
+        assertTrue(new String(os.toByteArray(), 0, 5, StandardCharsets.ISO_8859_1).startsWith("%PDF"));
+        assertEquals(1L, service.getMetrics().get("rendered").longValue());
+    }
+
+    @Test
+    void extensionTakesOverRendering() throws IOException {
+        var service = new PdfRenderingService(extensionManager, new MockEnvironment());
+        when(extensionManager.handlePdfTransformation(eq(PAGE), eq(event), any())).thenReturn(true);
+        var os = new ByteArrayOutputStream();
+        service.renderToPdf(PAGE, os, event);
+        assertEquals(0, os.size());
+        assertEquals(0L, service.getMetrics().get("rendered").longValue());
+    }
+
+    @Test
+    void concurrentRendersAreBounded() throws Exception {
+        var service = new PdfRenderingService(extensionManager, new MockEnvironment().withProperty("alfio.pdf.max-concurrent-renders", "1"));
+        var writing = new CountDownLatch(1);
+        var proceed = new CountDownLatch(1);
+        var blockingStream = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                writing.countDown();
+                try {
+                    proceed.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+        };
+        var executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<?> first = executor.submit(() -> { service.renderToPdf(PAGE, blockingStream, event); return null; });
+            assertTrue(writing.await(30, TimeUnit.SECONDS));
+            Future<?> second = executor.submit(() -> { service.renderToPdf(PAGE, new ByteArrayOutputStream(), event); return null; });
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (service.getMetrics().get("waitingCallers").intValue() == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(1, service.getMetrics().get("waitingCallers").intValue());
+            assertEquals(0, service.getMetrics().get("availablePermits").intValue());
+            proceed.countDown();
+            first.get(30, TimeUnit.SECONDS);
+            second.get(30, TimeUnit.SECONDS);
+        } finally {
+            proceed.countDown();
+            executor.shutdownNow();
+        }
+        assertEquals(2L, service.getMetrics().get("rendered").longValue());
+        assertEquals(1, service.getMetrics().get("availablePermits").intValue());
+    }
+
+    @Test
+    void decodedImagesAreCachedByBlobId() {
+        var service = new PdfRenderingService(extensionManager, new MockEnvironment());
+        var metadata = mock(FileBlobMetadata.class);
+        when(metadata.getId()).thenReturn("blob");
+        when(metadata.getAttributes()).thenReturn(Map.of(FileBlobMetadata.ATTR_IMG_WIDTH, "100", FileBlobMetadata.ATTR_IMG_HEIGHT, "50"));
+        var fileUploadManager = mock(FileUploadManager.class);
+        when(fileUploadManager.findMetadata("blob")).thenReturn(Optional.of(metadata));
+        when(event.getFileBlobIdIsPresent()).thenReturn(true);
+        when(event.getFileBlobId()).thenReturn("blob");
+
+        assertTrue(service.extractImageModel(event, fileUploadManager).isPresent());
+        assertTrue(service.extractImageModel(event, fileUploadManager).isPresent());
+        verify(fileUploadManager, times(1)).findMetadata("blob");
+        verify(fileUploadManager, times(1)).outputFile(eq("blob"), any());
+    }
+
+    @Test
+    void missingImagesAreNotCached() {
+        var service = new PdfRenderingService(extensionManager, new MockEnvironment());
+        var fileUploadManager = mock(FileUploadManager.class);
+        when(fileUploadManager.findMetadata("blob")).thenReturn(Optional.empty());
+        when(event.getFileBlobIdIsPresent()).thenReturn(true);
+        when(event.getFileBlobId()).thenReturn("blob");
+
+        assertTrue(service.extractImageModel(event, fileUploadManager).isEmpty());
+        assertTrue(service.extractImageModel(event, fileUploadManager).isEmpty());
+        verify(fileUploadManager, times(2)).findMetadata("blob");
+    }
+}
@@ -0,0 +1,117 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.extension;
+
+import alfio.manager.system.ClusterNotificationManager;
+import alfio.model.ExtensionSupport.NameAndValue;
+import alfio.model.ExtensionSupport.ScriptPathNameHash;
+import alfio.repository.ExtensionRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class ExtensionDispatchTableTest {
+
+    private static final String EVENT = "RESERVATION_CONFIRMED";
+    private static final Set<String> EVENT_PATHS = Set.of("-", "-1", "-1-2");
+
+    private ExtensionRepository extensionRepository;
+    private ClusterNotificationManager clusterNotificationManager;
+    private ExtensionDispatchTable table;
+
+    @BeforeEach
+    void setUp() {
+        extensionRepository = mock(ExtensionRepository.class);
+        clusterNotificationManager = mock(ClusterNotificationManager.class);
+        table = new ExtensionDispatchTable(extensionRepository, clusterNotificationManager, new MockEnvironment());
+    }
+
+    @Test
+    void scriptsAreResolvedOnce() {
+        var script = new ScriptPathNameHash("-1", "script", "hash");
+        when(extensionRepository.findActive(EVENT_PATHS, false, EVENT)).thenReturn(List.of(script));
+        when(extensionRepository.findParametersForScript("script", "-1", EVENT_PATHS)).thenReturn(List.of(new NameAndValue("apiKey", "key")));
+        when(extensionRepository.findMandatoryParametersForScript("script", "-1")).thenReturn(List.of("apiKey", "listId"));
+
+        var scripts = table.getScripts(EVENT, "-1-2", false);
+        assertEquals(scripts, table.getScripts(EVENT, "-1-2", false));
+
+        assertEquals(1, scripts.size());
+        var resolved = scripts.get(0);
+        assertSame(script, resolved.getScript());
+        assertEquals(Map.of("apiKey", "key"), resolved.getParameters());
+        assertEquals(Set.of("listId"), resolved.getMissingMandatoryParameters());
+        verify(extensionRepository, times(1)).findActive(anySet(), anyBoolean(), anyString());
+        verify(extensionRepository, times(1)).findParametersForScript(anyString(), anyString(), anySet());
+        assertEquals(1L, table.getMetrics().get("hits").longValue());
+    }
+
+    @Test
+    void emptyResultIsCached() {
+        when(extensionRepository.findActive(anySet(), anyBoolean(), anyString())).thenReturn(List.of());
+        assertTrue(table.getScripts(EVENT, "-1-2", false).isEmpty());
+        assertTrue(table.getScripts(EVENT, "-1-2", false).isEmpty());
+        verify(extensionRepository, times(1)).findActive(anySet(), anyBoolean(), anyString());
+    }
+
+    @Test
+    void keyIncludesEventPathAndExecutionMode() {
+        when(extensionRepository.findActive(anySet(), anyBoolean(), anyString())).thenReturn(List.of());
+        table.getScripts(EVENT, "-1-2", false);
+        table.getScripts(EVENT, "-1-2", true);
+        table.getScripts(EVENT, "-1-3", false);
+        table.getScripts("TICKET_ASSIGNED", "-1-2", false);
+        verify(extensionRepository).findActive(EVENT_PATHS, false, EVENT);
+        verify(extensionRepository).findActive(EVENT_PATHS, true, EVENT);
+        verify(extensionRepository).findActive(Set.of("-", "-1", "-1-3"), false, EVENT);
+        verify(extensionRepository).findActive(EVENT_PATHS, false, "TICKET_ASSIGNED");
+        assertEquals(4L, table.getMetrics().get("misses").longValue());
+    }
+
+    @Test
+    void invalidateEvictsEverythingOnAllNodes() {
+        when(extensionRepository.findActive(anySet(), anyBoolean(), anyString())).thenReturn(List.of());
+        table.getScripts(EVENT, "-1-2", false);
+        table.getScripts(EVENT, "-1-3", false);
+
+        table.invalidate();
+
+        verify(clusterNotificationManager).publish("alfio_cache_extension_dispatch", "*");
+        table.getScripts(EVENT, "-1-2", false);
+        table.getScripts(EVENT, "-1-3", false);
+        verify(extensionRepository, times(4)).findActive(anySet(), anyBoolean(), anyString());
+    }
+
+    @Test
+    void disabledTableAlwaysResolves() {
+        table = new ExtensionDispatchTable(extensionRepository, null,
+            new MockEnvironment().withProperty("alfio.cache.extension-dispatch.enabled", "false"));
+        when(extensionRepository.findActive(anySet(), anyBoolean(), anyString())).thenReturn(List.of());
+        table.getScripts(EVENT, "-1-2", false);
+        table.getScripts(EVENT, "-1-2", false);
+        table.invalidate();
+        verify(extensionRepository, times(2)).findActive(anySet(), anyBoolean(), anyString());
+    }
+}
@@ -0,0 +1,133 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.extension;
+
+import alfio.model.ExtensionLog;
+import alfio.repository.ExtensionLogRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static alfio.test.util.TestTransactionManager.mockTransactionManager;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class ExtensionLogWriterTest {
+
+    private ExtensionLogRepository extensionLogRepository;
+    private ExtensionLogWriter writer;
+
+    @BeforeEach
+    void setUp() {
+        extensionLogRepository = mock(ExtensionLogRepository.class);
+    }
+
+    @AfterEach
+    void tearDown() {
+        if(writer != null) {
+            writer.shutdown();
+        }
+    }
+
+    @Test
+    void pendingRowsAreWrittenOnShutdown() {
+        writer = buffered("3");
+        write(3);
+        verify(extensionLogRepository, never()).bulkInsert(any());
+
+        writer.shutdown();
+
+        var captor = ArgumentCaptor.forClass(MapSqlParameterSource[].class);
+        verify(extensionLogRepository).bulkInsert(captor.capture());
+        assertEquals(List.of("name-0", "name-1", "name-2"), names(captor.getValue()));
+        assertEquals(3L, metric("written"));
+        assertEquals(0L, metric("pending"));
+    }
+
+    @Test
+    void fullBatchIsWrittenImmediately() {
+        writer = buffered("1000");
+        write(500);
+        verify(extensionLogRepository, timeout(5000)).bulkInsert(any());
+    }
+
+    @Test
+    void failedBatchIsDiscardedAndTheNextOneIsWritten() {
+        writer = buffered("1000");
+        doThrow(new IllegalStateException("database unavailable"))
+            .doNothing()
+            .when(extensionLogRepository).bulkInsert(any());
+        // the first batch always contains 500 rows, either written right away or on shutdown
+        write(599);
+
+        writer.shutdown();
+
+        verify(extensionLogRepository, atLeast(2)).bulkInsert(any());
+        assertEquals(500L, metric("dropped"));
+        assertEquals(1L, metric("flushErrors"));
+        assertEquals(99L, metric("written"));
+    }
+
+    @Test
+    void rowsExceedingTheQueueSizeAreDiscarded() {
+        writer = buffered("2");
+        write(3);
+        assertEquals(1L, metric("overflow"));
+        writer.shutdown();
+        assertEquals(2L, metric("written"));
+    }
+
+    @Test
+    void writeImmediatelyIfNotBuffered() {
+        writer = new ExtensionLogWriter(extensionLogRepository, mockTransactionManager(),
+            new MockEnvironment().withProperty("alfio.extension.log.buffered", "false"));
+        writer.write("-", "-", "name", "description", ExtensionLog.Type.INFO);
+        verify(extensionLogRepository).insert("-", "-", "name", "description", ExtensionLog.Type.INFO);
+        verify(extensionLogRepository, never()).bulkInsert(any());
+    }
+
+    private ExtensionLogWriter buffered(String maxPending) {
+        var environment = new MockEnvironment()
+            .withProperty("alfio.extension.log.buffered", "true")
+            // the scheduled flush must not interfere with the tests
+            .withProperty("alfio.extension.log.flush-interval-ms", "3600000")
+            .withProperty("alfio.extension.log.max-pending", maxPending);
+        return new ExtensionLogWriter(extensionLogRepository, mockTransactionManager(), environment);
+    }
+
+    private void write(int count) {
+        for(int i = 0; i < count; i++) {
+            writer.write("-", "-", "name-" + i, "description", ExtensionLog.Type.INFO);
+        }
+    }
+
+    private long metric(String name) {
+        return writer.getMetrics().get(name).longValue();
+    }
+
+    private static List<String> names(MapSqlParameterSource[] params) {
+        return Arrays.stream(params).map(p -> (String) p.getValue("name")).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,132 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.extension;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.contains;
+import static org.mockito.Mockito.*;
+
+class ScriptingExecutionServiceTest {
+
+    // the script engine ignores interrupts: this script keeps running until it is released
+    private static final String STUCK_SCRIPT = "while(!release.get()) {}";
+    private static final String COUNTING_SCRIPT = "executions.incrementAndGet()";
+
+    private final AtomicBoolean release = new AtomicBoolean();
+    private final AtomicInteger executions = new AtomicInteger();
+    private MockEnvironment environment;
+    private ScriptingExecutionService service;
+
+    @BeforeEach
+    void setUp() {
+        environment = new MockEnvironment()
+            .withProperty("alfio.extension.sync.timeout-ms", "200")
+            .withProperty("alfio.extension.async.timeout-ms", "200");
+    }
+
+    @AfterEach
+    void tearDown() {
+        release.set(true);
+        if(service != null) {
+            service.shutdown();
+        }
+    }
+
+    @Test
+    void syncExecutionTimesOut() {
+        service = new ScriptingExecutionService(environment);
+        var logger = mock(ExtensionLogger.class);
+
+        assertThrows(IllegalStateException.class, () -> executeSync("stuck", STUCK_SCRIPT, logger));
+
+        verify(logger).logError(contains("timed out"));
+        assertEquals(1L, metric("timeouts"));
+        assertEquals(1, metric("stuckSyncWorkers"));
+    }
+
+    @Test
+    void syncExecutionIsRejectedWhenAllWorkersAreStuck() {
+        service = new ScriptingExecutionService(environment.withProperty("alfio.extension.sync.threads", "1"));
+        assertThrows(IllegalStateException.class, () -> executeSync("stuck", STUCK_SCRIPT, mock(ExtensionLogger.class)));
+
+        var logger = mock(ExtensionLogger.class);
+        assertThrows(IllegalStateException.class, () -> executeSync("counting", COUNTING_SCRIPT, logger));
+
+        // the script must not have been run on the caller's thread
+        assertEquals(0, executions.get());
+        verify(logger).logError(contains("too many concurrent executions"));
+        assertEquals(1L, metric("rejected"));
+    }
+
+    @Test
+    void asyncTimeoutReleasesTheSlotOfThePath() {
+        service = new ScriptingExecutionService(environment.withProperty("alfio.extension.async.threads", "2"));
+        var stuckLogger = mock(ExtensionLogger.class);
+        var logger = mock(ExtensionLogger.class);
+
+        executeAsync("path", "stuck", STUCK_SCRIPT, stuckLogger);
+        executeAsync("path", "counting", COUNTING_SCRIPT, logger);
+
+        verify(stuckLogger, timeout(5000)).logError(contains("timed out"));
+        verify(logger, timeout(5000)).logSuccess(anyString());
+        assertEquals(1, executions.get());
+        assertEquals(1, metric("stuckAsyncWorkers"));
+    }
+
+    @Test
+    void asyncExecutionIsRejectedWhenAllWorkersAreStuck() {
+        service = new ScriptingExecutionService(environment.withProperty("alfio.extension.async.threads", "1"));
+        var stuckLogger = mock(ExtensionLogger.class);
+        executeAsync("first", "stuck", STUCK_SCRIPT, stuckLogger);
+        verify(stuckLogger, timeout(5000)).logError(contains("timed out"));
+
+        var logger = mock(ExtensionLogger.class);
+        executeAsync("second", "counting", COUNTING_SCRIPT, logger);
+
+        verify(logger).logWarning(contains("stuck"));
+        verify(logger, never()).logSuccess(anyString());
+        assertEquals(0, executions.get());
+        assertEquals(1L, metric("rejected"));
+        assertEquals(0, metric("queueDepth.second"));
+    }
+
+    private Object executeSync(String name, String script, ExtensionLogger logger) {
+        return service.executeScript("path", name, name, () -> script, params(), Object.class, logger);
+    }
+
+    private void executeAsync(String path, String name, String script, ExtensionLogger logger) {
+        service.executeScriptAsync(path, name, name, () -> script, params(), logger);
+    }
+
+    private Map<String, Object> params() {
+        return Map.of("release", release, "executions", executions);
+    }
+
+    private Number metric(String name) {
+        return service.getMetrics().getOrDefault(name, 0);
+    }
+}
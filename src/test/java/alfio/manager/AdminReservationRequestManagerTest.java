@@ -0,0 +1,175 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.manager;
+
+import alfio.model.*;
+import alfio.model.modification.AdminReservationModification;
+import alfio.model.result.ErrorCode;
+import alfio.model.result.Result;
+import alfio.model.user.User;
+import alfio.repository.AdminReservationRequestRepository;
+import alfio.repository.EventRepository;
+import alfio.repository.user.UserRepository;
+import org.apache.commons.lang3.tuple.Pair;
+import org.apache.commons.lang3.tuple.Triple;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+
+import static alfio.test.util.TestTransactionManager.mockTransactionManager;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class AdminReservationRequestManagerTest {
+
+    private static final long EVENT_ID = 1L;
+
+    private AdminReservationManager adminReservationManager;
+    private AdminReservationRequestRepository adminReservationRequestRepository;
+    private EventRepository eventRepository;
+    private UserRepository userRepository;
+    private AdminReservationRequestManager manager;
+
+    @BeforeEach
+    void setUp() {
+        adminReservationManager = mock(AdminReservationManager.class);
+        adminReservationRequestRepository = mock(AdminReservationRequestRepository.class);
+        eventRepository = mock(EventRepository.class);
+        userRepository = mock(UserRepository.class);
+
+        var event = mock(Event.class);
+        when(event.getShortName()).thenReturn("event");
+        when(eventRepository.findOptionalById((int) EVENT_ID)).thenReturn(Optional.of(event));
+        var user = mock(User.class);
+        when(user.getUsername()).thenReturn("admin");
+        when(userRepository.findOptionalById(1)).thenReturn(Optional.of(user));
+        when(adminReservationRequestRepository.findEventsWithPendingRequests()).thenReturn(List.of(EVENT_ID));
+
+        manager = manager(2, 1);
+    }
+
+    private AdminReservationRequestManager manager(int chunkSize, int workersPerEvent) {
+        var environment = new MockEnvironment()
+            .withProperty("alfio.admin-reservation.chunk-size", String.valueOf(chunkSize))
+            .withProperty("alfio.admin-reservation.workers-per-event", String.valueOf(workersPerEvent));
+        return new AdminReservationRequestManager(adminReservationManager, mock(EventManager.class), userRepository,
+            adminReservationRequestRepository, eventRepository, mockTransactionManager(), environment);
+    }
+
+    @AfterEach
+    void tearDown() {
+        manager.shutdown();
+    }
+
+    @Test
+    void processPendingReservationsInChunks() {
+        var first = request(1L, "A", true);
+        var second = request(2L, "A", false);
+        var third = request(3L, "B", true);
+        when(adminReservationRequestRepository.findPendingForUpdate(EVENT_ID, 2)).thenReturn(List.of(1L, 2L), List.of(3L));
+        when(adminReservationRequestRepository.fetchCompleteByIds(List.of(1L, 2L))).thenReturn(List.of(first, second));
+        when(adminReservationRequestRepository.fetchCompleteByIds(List.of(3L))).thenReturn(List.of(third));
+
+        assertEquals(Pair.of(2, 1), manager.processPendingReservations());
+
+        verify(adminReservationRequestRepository, times(2)).updateStatus(anyList());
+        verify(adminReservationRequestRepository).updateProgress("A", 1, 1);
+        verify(adminReservationRequestRepository).updateProgress("B", 1, 0);
+        verify(adminReservationManager, times(2)).confirmReservation(eq("event"), anyString(), eq("admin"), any());
+    }
+
+    @Test
+    void processRequestsOfTheSameEventConcurrently() throws Exception {
+        manager.shutdown();
+        manager = manager(1, 2);
+        var barrier = new CyclicBarrier(2);
+        var first = request(1L, "A", true);
+        var second = request(2L, "A", true);
+        var chunks = new ConcurrentLinkedQueue<>(List.of(List.of(1L), List.of(2L)));
+        when(adminReservationRequestRepository.findPendingForUpdate(EVENT_ID, 1)).thenAnswer(invocation -> Optional.ofNullable(chunks.poll()).orElse(List.of()));
+        when(adminReservationRequestRepository.fetchCompleteByIds(List.of(1L))).thenReturn(List.of(first));
+        when(adminReservationRequestRepository.fetchCompleteByIds(List.of(2L))).thenReturn(List.of(second));
+        for (var request : List.of(first, second)) {
+            var reservation = mock(TicketReservation.class);
+            when(reservation.getId()).thenReturn("reservation-" + request.getId());
+            Result<Pair<TicketReservation, List<Ticket>>> result = Result.success(Pair.of(reservation, List.of()));
+            when(adminReservationManager.createReservation(same(request.getBody()), eq("event"), eq("admin"), eq(false))).thenAnswer(invocation -> {
+                // both requests must be in progress at the same time
+                barrier.await(10, TimeUnit.SECONDS);
+                return result;
+            });
+        }
+
+        assertEquals(Pair.of(2, 0), manager.processPendingReservations());
+        verify(adminReservationManager, never()).createReservation(any(), anyString(), anyString(), eq(true));
+    }
+
+    @Test
+    void switchToExclusiveLockIfRequired() {
+        var body = mock(AdminReservationModification.class);
+        var request = mock(AdminReservationRequest.class);
+        when(request.getId()).thenReturn(1L);
+        when(request.getRequestId()).thenReturn("A");
+        when(request.getUserId()).thenReturn(1L);
+        when(request.getBody()).thenReturn(body);
+        var reservation = mock(TicketReservation.class);
+        when(reservation.getId()).thenReturn("reservation-1");
+        when(adminReservationManager.createReservation(same(body), eq("event"), eq("admin"), eq(false)))
+            .thenReturn(Result.error(ErrorCode.custom(AdminReservationManager.EXCLUSIVE_EVENT_LOCK_REQUIRED, "")));
+        when(adminReservationManager.createReservation(same(body), eq("event"), eq("admin"), eq(true))).thenReturn(Result.success(Pair.of(reservation, List.of())));
+        when(adminReservationManager.confirmReservation(eq("event"), eq("reservation-1"), eq("admin"), any()))
+            .thenReturn(Result.success(Triple.of(reservation, List.of(), mock(Event.class))));
+        // the request is left pending, and claimed again
+        when(adminReservationRequestRepository.findPendingForUpdate(EVENT_ID, 2)).thenReturn(List.of(1L), List.of());
+        when(adminReservationRequestRepository.fetchCompleteByIds(List.of(1L))).thenReturn(List.of(request));
+
+        assertEquals(Pair.of(1, 0), manager.processPendingReservations());
+
+        var inOrder = inOrder(adminReservationManager);
+        inOrder.verify(adminReservationManager).createReservation(same(body), eq("event"), eq("admin"), eq(false));
+        inOrder.verify(adminReservationManager).createReservation(same(body), eq("event"), eq("admin"), eq(true));
+        verify(adminReservationRequestRepository, times(1)).updateStatus(anyList());
+        verify(adminReservationRequestRepository).updateProgress("A", 1, 0);
+    }
+
+    private AdminReservationRequest request(long id, String requestId, boolean success) {
+        var body = mock(AdminReservationModification.class);
+        var request = mock(AdminReservationRequest.class);
+        when(request.getId()).thenReturn(id);
+        when(request.getRequestId()).thenReturn(requestId);
+        when(request.getUserId()).thenReturn(1L);
+        when(request.getBody()).thenReturn(body);
+        if(success) {
+            var reservation = mock(TicketReservation.class);
+            when(reservation.getId()).thenReturn("reservation-" + id);
+            when(adminReservationManager.createReservation(same(body), eq("event"), eq("admin"), anyBoolean())).thenReturn(Result.success(Pair.of(reservation, List.of())));
+            when(adminReservationManager.confirmReservation(eq("event"), eq("reservation-" + id), eq("admin"), any()))
+                .thenReturn(Result.success(Triple.of(reservation, List.of(), mock(Event.class))));
+        } else {
+            when(adminReservationManager.createReservation(same(body), eq("event"), eq("admin"), anyBoolean())).thenReturn(Result.error(ErrorCode.CategoryError.NOT_ENOUGH_SEATS));
+        }
+        return request;
+    }
+}
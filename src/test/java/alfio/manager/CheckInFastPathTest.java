@@ -0,0 +1,192 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.manager;
+
+import alfio.manager.support.CheckInStatus;
+import alfio.model.Audit;
+import alfio.model.Ticket;
+import alfio.model.TicketCategory;
+import alfio.model.audit.ScanAudit;
+import alfio.repository.AuditingRepository;
+import alfio.repository.TicketCategoryRepository;
+import alfio.repository.TicketRepository;
+import alfio.repository.audit.ScanAuditRepository;
+import alfio.repository.user.UserRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.ZonedDateTime;
+import java.util.Date;
+import java.util.List;
+
+import static alfio.test.util.TestTransactionManager.mockTransactionManager;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class CheckInFastPathTest {
+
+    private static final String RESERVATION_ID = "reservation";
+
+    private TicketRepository ticketRepository;
+    private TicketCategoryRepository ticketCategoryRepository;
+    private ScanAuditRepository scanAuditRepository;
+    private AuditingRepository auditingRepository;
+    private PlatformTransactionManager transactionManager;
+    private CheckInFastPath fastPath;
+
+    @BeforeEach
+    void setUp() {
+        ticketRepository = mock(TicketRepository.class);
+        ticketCategoryRepository = mock(TicketCategoryRepository.class);
+        scanAuditRepository = mock(ScanAuditRepository.class);
+        auditingRepository = mock(AuditingRepository.class);
+        transactionManager = mockTransactionManager();
+        var environment = new MockEnvironment()
+            .withProperty("alfio.check-in.fast-path.enabled", "true")
+            .withProperty("alfio.check-in.fast-path.retry-interval-ms", "10");
+        fastPath = new CheckInFastPath(environment, ticketRepository, ticketCategoryRepository, mock(UserRepository.class),
+            scanAuditRepository, auditingRepository, transactionManager);
+    }
+
+    @AfterEach
+    void tearDown() {
+        fastPath.shutdown();
+        if(TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    void rowsAreWrittenOnlyAfterCommit() {
+        TransactionSynchronizationManager.initSynchronization();
+        checkIn();
+        verifyZeroInteractions(transactionManager, auditingRepository, scanAuditRepository);
+
+        var synchronizations = TransactionSynchronizationManager.getSynchronizations();
+        TransactionSynchronizationManager.clearSynchronization();
+        synchronizations.forEach(TransactionSynchronization::afterCommit);
+
+        verify(auditingRepository, timeout(5000)).bulkInsert(any());
+        verify(scanAuditRepository, timeout(5000)).bulkInsert(anyList());
+    }
+
+    @Test
+    void rowsAreDiscardedOnRollback() {
+        TransactionSynchronizationManager.initSynchronization();
+        checkIn();
+        var synchronizations = TransactionSynchronizationManager.getSynchronizations();
+        TransactionSynchronizationManager.clearSynchronization();
+        synchronizations.forEach(s -> s.afterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK));
+
+        fastPath.shutdown();
+        verifyZeroInteractions(auditingRepository, scanAuditRepository);
+        assertEquals(0L, fastPath.getMetrics().get("pending").longValue());
+    }
+
+    @Test
+    void failedWritesAreRetriedUntilTheySucceed() {
+        doThrow(new IllegalStateException("database unavailable"))
+            .doThrow(new IllegalStateException("database unavailable"))
+            .doThrow(new IllegalStateException("database unavailable"))
+            .doThrow(new IllegalStateException("database unavailable"))
+            .doNothing()
+            .when(auditingRepository).bulkInsert(any());
+
+        checkIn();
+
+        verify(auditingRepository, timeout(5000).times(5)).bulkInsert(any());
+        fastPath.shutdown();
+        assertEquals(2L, fastPath.getMetrics().get("written").longValue());
+        assertEquals(4L, fastPath.getMetrics().get("writeErrors").longValue());
+        assertEquals(0L, fastPath.getMetrics().get("notWrittenOnShutdown").longValue());
+    }
+
+    @Test
+    void dailyScansAreWrittenInTheCallerTransaction() {
+        var category = mock(TicketCategory.class);
+        when(category.getTicketCheckInStrategy()).thenReturn(TicketCategory.TicketCheckInStrategy.ONCE_PER_DAY);
+        when(ticketCategoryRepository.findAllTicketCategories(1)).thenReturn(List.of(category));
+        TransactionSynchronizationManager.initSynchronization();
+
+        fastPath.audit(RESERVATION_ID, 1, 1, Audit.EventType.BADGE_SCAN, new Date(), Audit.EntityType.TICKET, "1");
+        fastPath.audit(RESERVATION_ID, 1, 1, Audit.EventType.CHECK_IN, new Date(), Audit.EntityType.TICKET, "1");
+        fastPath.audit(RESERVATION_ID, 1, 1, Audit.EventType.REVERT_CHECK_IN, new Date(), Audit.EntityType.TICKET, "1");
+
+        verify(auditingRepository).insert(eq(RESERVATION_ID), eq(1), eq(1), eq(Audit.EventType.BADGE_SCAN), any(), eq(Audit.EntityType.TICKET), eq("1"));
+        verify(auditingRepository).insert(eq(RESERVATION_ID), eq(1), eq(1), eq(Audit.EventType.CHECK_IN), any(), eq(Audit.EntityType.TICKET), eq("1"));
+        verify(ticketCategoryRepository).findAllTicketCategories(1);
+        // other types are still written asynchronously
+        assertEquals(1, TransactionSynchronizationManager.getSynchronizations().size());
+    }
+
+    @Test
+    void checkInsAreWrittenAsynchronouslyForOtherEvents() {
+        var category = mock(TicketCategory.class);
+        when(category.getTicketCheckInStrategy()).thenReturn(TicketCategory.TicketCheckInStrategy.ONCE);
+        when(ticketCategoryRepository.findAllTicketCategories(1)).thenReturn(List.of(category));
+
+        checkIn();
+
+        verify(auditingRepository, timeout(5000)).bulkInsert(any());
+        verify(auditingRepository, never()).insert(any(), any(), anyInt(), any(), any(), any(), any());
+    }
+
+    @Test
+    void ticketsAreLoadedOncePerEvent() {
+        var ticket = mock(Ticket.class);
+        when(ticket.getUuid()).thenReturn("uuid");
+        when(ticketRepository.findAllConfirmed(1)).thenReturn(List.of(ticket));
+
+        assertSame(ticket, fastPath.findIndexedTicket(1, "uuid").orElseThrow());
+        assertTrue(fastPath.findIndexedTicket(1, "another-uuid").isEmpty());
+        verify(ticketRepository, times(1)).findAllConfirmed(1);
+        assertEquals(1L, fastPath.getMetrics().get("indexHits").longValue());
+        assertEquals(1L, fastPath.getMetrics().get("indexMisses").longValue());
+
+        fastPath.ticketModified(1, "uuid");
+        assertTrue(fastPath.findIndexedTicket(1, "uuid").isEmpty());
+        verify(ticketRepository, times(1)).findAllConfirmed(1);
+    }
+
+    @Test
+    void ticketIndexIsNotUsedIfDisabled() {
+        var disabled = new CheckInFastPath(new MockEnvironment(), ticketRepository, ticketCategoryRepository, mock(UserRepository.class),
+            scanAuditRepository, auditingRepository, transactionManager);
+        assertTrue(disabled.findIndexedTicket(1, "uuid").isEmpty());
+        verifyZeroInteractions(ticketRepository);
+    }
+
+    @Test
+    void pendingRowsAreWrittenOnShutdown() {
+        checkIn();
+        fastPath.shutdown();
+        verify(auditingRepository).bulkInsert(any());
+        verify(scanAuditRepository).bulkInsert(anyList());
+        assertEquals(2L, fastPath.getMetrics().get("written").longValue());
+    }
+
+    private void checkIn() {
+        fastPath.scanAudit("uuid", 1, ZonedDateTime.now(), "user", CheckInStatus.SUCCESS, ScanAudit.Operation.SCAN);
+        fastPath.audit(RESERVATION_ID, 1, 1, Audit.EventType.CHECK_IN, new Date(), Audit.EntityType.TICKET, "1");
+    }
+}
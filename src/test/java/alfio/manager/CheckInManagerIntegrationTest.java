@@ -31,8 +31,11 @@ import alfio.repository.TicketRepository;
 import alfio.repository.system.ConfigurationRepository;
 import alfio.repository.user.OrganizationRepository;
 import alfio.test.util.IntegrationTestUtil;
+import alfio.util.Json;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.lang3.time.DateUtils;
 import org.apache.commons.lang3.tuple.Pair;
+import org.apache.commons.lang3.tuple.Triple;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -45,10 +48,7 @@ import java.math.BigDecimal;
 import java.time.LocalDate;
 import java.time.LocalTime;
 import java.time.ZonedDateTime;
-import java.util.Date;
-import java.util.List;
-import java.util.Locale;
-import java.util.Optional;
+import java.util.*;
 import java.util.stream.Collectors;
 
 import static alfio.test.util.IntegrationTestUtil.*;
@@ -81,6 +81,53 @@ public class CheckInManagerIntegrationTest {
 
     @Test
     public void testReturnOnlyOnce() {
+        String reservationId = initReservationWithAdditionalService().getMiddle();
+
+        var returnedAdditionalServices = ticketReservationManager.findTicketsInReservation(reservationId).stream()
+            .filter(ticket -> !checkInManager.getAdditionalServicesForTicket(ticket).isEmpty())
+            .collect(Collectors.toList());
+        //
+        assertEquals(1, returnedAdditionalServices.size());
+        assertEquals((int) ticketRepository.findFirstTicketIdInReservation(reservationId).orElseThrow(), returnedAdditionalServices.get(0).getId());
+
+    }
+
+    @Test
+    public void testOfflineFeed() {
+        var data = initReservationWithAdditionalService();
+        Event event = data.getLeft();
+        String reservationId = data.getMiddle();
+        String username = data.getRight();
+        ticketReservationManager.findTicketsInReservation(reservationId)
+            .forEach(t -> ticketRepository.updateTicketOwnerById(t.getId(), "attendee" + t.getId() + "@example.com", "full name", "full", "name"));
+
+        var since = new Date(0);
+        List<Integer> allIds = ticketRepository.findAllAssignedByEventId(event.getId(), since);
+        assertEquals(AVAILABLE_SEATS, allIds.size());
+
+        // keyset pagination must return every ticket exactly once
+        List<Integer> pagedIds = new ArrayList<>();
+        int afterId = 0;
+        List<Integer> page;
+        while(!(page = checkInManager.getAttendeesIdentifiers(event, since, afterId, 7, username)).isEmpty()) {
+            assertTrue(page.size() <= 7);
+            pagedIds.addAll(page);
+            afterId = page.get(page.size() - 1);
+        }
+        assertEquals(allIds, pagedIds);
+
+        Map<String, String> encrypted = checkInManager.getEncryptedAttendeesInformation(event, Set.of("company"), allIds);
+        assertEquals(AVAILABLE_SEATS, encrypted.size());
+        int firstTicketId = ticketRepository.findFirstTicketIdInReservation(reservationId).orElseThrow();
+        for(Ticket ticket : ticketReservationManager.findTicketsInReservation(reservationId)) {
+            String payload = encrypted.get(DigestUtils.sha256Hex(ticket.hmacTicketInfo(event.getPrivateKey())));
+            Map<?, ?> info = Json.fromJson(CheckInManager.decrypt(ticket.ticketCode(event.getPrivateKey()), payload), Map.class);
+            assertEquals(ticket.getUuid(), info.get("uuid"));
+            assertEquals(ticket.getId() == firstTicketId, info.containsKey("additionalServicesInfoJson"));
+        }
+    }
+
+    private Triple<Event, String, String> initReservationWithAdditionalService() {
         IntegrationTestUtil.ensureMinimalConfiguration(configurationRepository);
         List<TicketCategoryModification> categories = List.of(
             new TicketCategoryModification(null, "default", AVAILABLE_SEATS,
@@ -128,14 +175,7 @@ public class CheckInManagerIntegrationTest {
         PaymentResult result = ticketReservationManager.performPayment(specification, reservationCost, Optional.of(PaymentProxy.OFFLINE));
         assertTrue(result.isSuccessful());
         ticketReservationManager.confirmOfflinePayment(event, reservationId, eventAndUser.getRight());
-
-        var returnedAdditionalServices = ticketReservationManager.findTicketsInReservation(reservationId).stream()
-            .filter(ticket -> !checkInManager.getAdditionalServicesForTicket(ticket).isEmpty())
-            .collect(Collectors.toList());
-        //
-        assertEquals(1, returnedAdditionalServices.size());
-        assertEquals((int) ticketRepository.findFirstTicketIdInReservation(reservationId).orElseThrow(), returnedAdditionalServices.get(0).getId());
-
+        return Triple.of(event, reservationId, eventAndUser.getRight());
     }
 
 }
\ No newline at end of file
@@ -61,7 +61,7 @@ public class CheckInManagerTest {
         when(organizationRepository.findOrganizationForUser(USERNAME, ORG_ID)).thenReturn(Optional.of(organization));
         when(organization.getId()).thenReturn(ORG_ID);
         when(eventRepository.retrieveCheckInStatisticsForEvent(EVENT_ID)).thenReturn(new CheckInStatistics(0, 0, new Date()));
-        checkInManager = new CheckInManager(null, eventRepository, null, null, null, null,
+        checkInManager = new CheckInManager(null, eventRepository, null, null, null,
             null, configurationManager, organizationRepository, null, null, null, null);
     }
 
@@ -0,0 +1,130 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.manager;
+
+import alfio.model.EventAndOrganizationId;
+import alfio.model.Ticket;
+import alfio.model.TicketFieldValue;
+import alfio.model.TicketWithReservationAndTransaction;
+import alfio.model.user.Organization;
+import alfio.repository.EventRepository;
+import alfio.repository.TicketFieldRepository;
+import alfio.repository.TicketRepository;
+import alfio.repository.user.OrganizationRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@DisplayName("EventManager: export confirmed tickets")
+class EventManagerExportTicketsTest {
+
+    private static final String EVENT_NAME = "myEvent";
+    private static final String USERNAME = "username";
+    private static final int TICKETS = 2_500;
+
+    private TicketRepository ticketRepository;
+    private TicketFieldRepository ticketFieldRepository;
+    private EventManager eventManager;
+
+    @BeforeEach
+    void setUp() {
+        var eventRepository = mock(EventRepository.class);
+        var organizationRepository = mock(OrganizationRepository.class);
+        ticketRepository = mock(TicketRepository.class);
+        ticketFieldRepository = mock(TicketFieldRepository.class);
+        var event = mock(EventAndOrganizationId.class);
+        when(event.getId()).thenReturn(1);
+        when(event.getOrganizationId()).thenReturn(2);
+        when(eventRepository.findOptionalEventAndOrganizationIdByShortName(EVENT_NAME)).thenReturn(Optional.of(event));
+        when(organizationRepository.findOrganizationForUser(USERNAME, 2))
+            .thenReturn(Optional.of(new Organization(2, "Organization", "organization", "organization@example.org")));
+        when(ticketRepository.findAllConfirmedIdsForCSV(1)).thenReturn(IntStream.range(0, TICKETS).boxed().collect(Collectors.toList()));
+        var rows = IntStream.range(0, TICKETS).mapToObj(EventManagerExportTicketsTest::row).collect(Collectors.toList());
+        when(ticketRepository.findAllConfirmedForCSV(eq(1), anyList())).thenAnswer(invocation -> {
+            List<Integer> ids = invocation.getArgument(1);
+            return ids.stream().map(rows::get).collect(Collectors.toList());
+        });
+        when(ticketFieldRepository.findValuesByTicketIdsAndNames(anyCollection(), anyCollection())).thenAnswer(invocation -> {
+            List<Integer> ids = invocation.getArgument(0);
+            return ids.stream().map(id -> new TicketFieldValue(id, 1, "company", "company-" + id)).collect(Collectors.toList());
+        });
+        eventManager = new EventManager(null, eventRepository, null, null, null, ticketRepository, null, null, null,
+            ticketFieldRepository, null, null, null, null, null, organizationRepository, null, null, null, null, null, null);
+    }
+
+    @Test
+    @DisplayName("should load tickets and field values one page at a time, while the consumer reads them")
+    void loadPagesWhileConsuming() {
+        var exported = new ArrayList<String>();
+        eventManager.exportAllConfirmedTicketsForCSV(EVENT_NAME, USERNAME, Set.of("company"), tickets -> {
+            // nothing is loaded until the stream is consumed
+            verify(ticketRepository, never()).findAllConfirmedForCSV(anyInt(), anyList());
+            tickets.forEachOrdered(p -> exported.add(p.getLeft().getTicket().getUuid() + ":" + p.getRight().get("company")));
+        });
+        assertEquals(TICKETS, exported.size());
+        assertEquals("uuid-0:company-0", exported.get(0));
+        assertEquals("uuid-2499:company-2499", exported.get(TICKETS - 1));
+        verify(ticketRepository, times(3)).findAllConfirmedForCSV(eq(1), anyList());
+        verify(ticketFieldRepository, times(3)).findValuesByTicketIdsAndNames(anyCollection(), eq(Set.of("company")));
+    }
+
+    @Test
+    @DisplayName("should not query the field values if no additional field has been requested")
+    void noAdditionalFields() {
+        var count = new int[1];
+        eventManager.exportAllConfirmedTicketsForCSV(EVENT_NAME, USERNAME, Set.of(), tickets -> tickets.forEach(p -> {
+            assertEquals(Map.of(), p.getRight());
+            count[0]++;
+        }));
+        assertEquals(TICKETS, count[0]);
+        verify(ticketFieldRepository, never()).findValuesByTicketIdsAndNames(anyCollection(), anyCollection());
+    }
+
+    @Test
+    @DisplayName("should not export the tickets of an event which doesn't belong to the user's organizations")
+    void checkOwnership() {
+        var eventRepository = mock(EventRepository.class);
+        var event = mock(EventAndOrganizationId.class);
+        when(event.getOrganizationId()).thenReturn(3);
+        when(eventRepository.findOptionalEventAndOrganizationIdByShortName(EVENT_NAME)).thenReturn(Optional.of(event));
+        var manager = new EventManager(null, eventRepository, null, null, null, ticketRepository, null, null, null,
+            ticketFieldRepository, null, null, null, null, null, mock(OrganizationRepository.class), null, null, null, null, null, null);
+        assertThrows(IllegalArgumentException.class, () -> manager.exportAllConfirmedTicketsForCSV(EVENT_NAME, USERNAME, Set.of(), tickets -> fail()));
+        verify(ticketRepository, never()).findAllConfirmedIdsForCSV(anyInt());
+    }
+
+    private static TicketWithReservationAndTransaction row(int id) {
+        var ticket = mock(Ticket.class);
+        when(ticket.getId()).thenReturn(id);
+        when(ticket.getUuid()).thenReturn("uuid-" + id);
+        var row = mock(TicketWithReservationAndTransaction.class);
+        when(row.getTicket()).thenReturn(ticket);
+        return row;
+    }
+}
@@ -0,0 +1,102 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.manager;
+
+import alfio.manager.system.ClusterNotificationManager;
+import alfio.model.Event;
+import alfio.repository.*;
+import alfio.repository.user.OrganizationRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class EventSnapshotCacheTest {
+
+    private ClusterNotificationManager clusterNotificationManager;
+    private EventRepository eventRepository;
+    private EventSnapshotCache cache;
+
+    @BeforeEach
+    void setUp() {
+        clusterNotificationManager = mock(ClusterNotificationManager.class);
+        eventRepository = mock(EventRepository.class);
+        var eventDescriptionRepository = mock(EventDescriptionRepository.class);
+        var ticketCategoryRepository = mock(TicketCategoryRepository.class);
+        var promoCodeDiscountRepository = mock(PromoCodeDiscountRepository.class);
+        var event = mock(Event.class);
+        when(event.getId()).thenReturn(1);
+        when(event.getOrganizationId()).thenReturn(2);
+        when(eventRepository.findOptionalByShortName(anyString())).thenReturn(Optional.empty());
+        when(eventRepository.findOptionalByShortName("event")).thenReturn(Optional.of(event));
+        when(eventDescriptionRepository.findDescriptionByEventIdAsMap(1)).thenReturn(Map.of("en", "description"));
+        when(ticketCategoryRepository.findAllTicketCategories(1)).thenReturn(List.of());
+        when(ticketCategoryRepository.countAccessRestrictedRepositoryByEventId(1)).thenReturn(0);
+        when(promoCodeDiscountRepository.countByEventAndOrganizationId(1, 2)).thenReturn(3);
+        cache = new EventSnapshotCache(clusterNotificationManager, new MockEnvironment(), eventRepository,
+            eventDescriptionRepository, mock(OrganizationRepository.class), ticketCategoryRepository,
+            mock(TicketCategoryDescriptionRepository.class), promoCodeDiscountRepository);
+    }
+
+    @Test
+    void cacheHit() {
+        var snapshot = cache.findByShortName("event").orElseThrow();
+        assertEquals(Map.of("en", "description"), snapshot.getDescriptions());
+        assertEquals(3, snapshot.getPromoCodesCount());
+        assertTrue(cache.findEventByShortName("event").isPresent());
+        verify(eventRepository, times(1)).findOptionalByShortName("event");
+    }
+
+    @Test
+    void missingEventIsNotCached() {
+        assertTrue(cache.findByShortName("missing").isEmpty());
+        assertTrue(cache.findByShortName("missing").isEmpty());
+        verify(eventRepository, times(2)).findOptionalByShortName("missing");
+    }
+
+    @Test
+    void invalidateByEventId() {
+        cache.findByShortName("event");
+        cache.invalidate(2);
+        cache.findByShortName("event");
+        verify(eventRepository, times(1)).findOptionalByShortName("event");
+        cache.invalidate(1);
+        verify(clusterNotificationManager).publish(eq("alfio_cache_event_snapshot"), eq("1"));
+        cache.findByShortName("event");
+        verify(eventRepository, times(2)).findOptionalByShortName("event");
+    }
+
+    @Test
+    void invalidationDoesNotLoadOrCountAsHit() {
+        cache.findByShortName("event");
+        cache.findByShortName("missing");
+        cache.invalidate(3);
+        var metrics = cache.getMetrics();
+        assertEquals(0L, metrics.get("hits").longValue());
+        assertEquals(2L, metrics.get("misses").longValue());
+        assertEquals(1L, metrics.get("size").longValue());
+        verify(eventRepository, times(1)).findOptionalByShortName("missing");
+    }
+}
@@ -0,0 +1,142 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.manager;
+
+import alfio.TestConfiguration;
+import alfio.config.DataSourceConfiguration;
+import alfio.config.Initializer;
+import alfio.manager.user.UserManager;
+import alfio.model.Event;
+import alfio.model.EventStatisticView;
+import alfio.model.TicketCategory;
+import alfio.model.modification.DateTimeModification;
+import alfio.model.modification.TicketCategoryModification;
+import alfio.repository.EventRepository;
+import alfio.repository.StatisticsSnapshotRepository;
+import alfio.repository.TicketCategoryRepository;
+import alfio.repository.TicketRepository;
+import alfio.repository.TicketReservationRepository;
+import alfio.repository.user.OrganizationRepository;
+import alfio.util.BaseIntegrationTest;
+import org.apache.commons.lang3.time.DateUtils;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZonedDateTime;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+
+import static alfio.test.util.IntegrationTestUtil.DESCRIPTION;
+import static alfio.test.util.IntegrationTestUtil.initEvent;
+import static org.junit.Assert.assertEquals;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(classes = {DataSourceConfiguration.class, TestConfiguration.class})
+@ActiveProfiles({Initializer.PROFILE_DEV, Initializer.PROFILE_DISABLE_JOBS, Initializer.PROFILE_INTEGRATION_TEST})
+@Transactional
+public class EventStatisticsSnapshotManagerIntegrationTest extends BaseIntegrationTest {
+
+    @Autowired
+    private EventRepository eventRepository;
+    @Autowired
+    private TicketCategoryRepository ticketCategoryRepository;
+    @Autowired
+    private StatisticsSnapshotRepository statisticsSnapshotRepository;
+    @Autowired
+    private OrganizationRepository organizationRepository;
+    @Autowired
+    private UserManager userManager;
+    @Autowired
+    private EventManager eventManager;
+    @Autowired
+    private TicketRepository ticketRepository;
+    @Autowired
+    private TicketReservationRepository ticketReservationRepository;
+
+    private EventStatisticsSnapshotManager snapshotManager;
+    private Event event;
+    private int categoryId;
+
+    @Before
+    public void setUp() {
+        // the snapshot is disabled by default for the integration tests
+        snapshotManager = new EventStatisticsSnapshotManager(eventRepository, ticketCategoryRepository, statisticsSnapshotRepository,
+            new MockEnvironment().withProperty("alfio.statistics.snapshot.enabled", "true"));
+        List<TicketCategoryModification> categories = Collections.singletonList(
+            new TicketCategoryModification(null, "default", 10,
+                new DateTimeModification(LocalDate.now(), LocalTime.now()),
+                new DateTimeModification(LocalDate.now().plusDays(1), LocalTime.now()),
+                DESCRIPTION, BigDecimal.TEN, false, "", true, null, null, null, null, null, 0, null, null));
+        event = initEvent(categories, organizationRepository, userManager, eventManager, eventRepository).getKey();
+        categoryId = ticketCategoryRepository.findAllTicketCategories(event.getId()).stream().findFirst().map(TicketCategory::getId).orElseThrow();
+        snapshotManager.refresh();
+    }
+
+    @Test
+    public void snapshotIsConsistentWithLiveViews() {
+        assertEquals(0, statisticsSnapshotRepository.getDelaySeconds().intValue());
+        assertEquals(List.of(), snapshotManager.checkConsistency());
+        assertEquals(eventRepository.findStatisticsFor(event.getId()), snapshotManager.findStatisticsFor(event.getId()));
+    }
+
+    @Test
+    public void modifiedEventsAreTrackedAndRefreshed() {
+        String reservationId = reserveTickets(5);
+        assertEquals(0, snapshotManager.findTicketCategoryStatisticsFor(event.getId()).get(categoryId).getPendingCount());
+
+        snapshotManager.refresh();
+        assertEquals(5, snapshotManager.findTicketCategoryStatisticsFor(event.getId()).get(categoryId).getPendingCount());
+        assertEquals(5, snapshotManager.findStatisticsFor(Set.of(event.getId())).get(0).getPendingTickets());
+        assertEquals(List.of(), snapshotManager.checkConsistency());
+
+        ticketReservationRepository.updateReservationStatus(reservationId, "STUCK");
+        snapshotManager.refresh();
+        assertEquals(5, snapshotManager.findTicketCategoryStatisticsFor(event.getId()).get(categoryId).getStuckCount());
+        assertEquals(List.of(), snapshotManager.checkConsistency());
+    }
+
+    @Test
+    public void untrackedModificationsAreFixedByTheConsistencyCheck() {
+        reserveTickets(2);
+        // simulate a lost modification
+        statisticsSnapshotRepository.consumeChanges();
+        assertEquals(List.of(event.getId()), snapshotManager.checkConsistency());
+        assertEquals(List.of(), snapshotManager.checkConsistency());
+        EventStatisticView statistics = snapshotManager.findStatisticsFor(event.getId());
+        assertEquals(2, statistics.getPendingTickets());
+    }
+
+    private String reserveTickets(int count) {
+        List<Integer> ids = ticketRepository.selectNotAllocatedTicketsForUpdate(event.getId(), count, Collections.singletonList(TicketRepository.FREE));
+        String reservationId = "reservation-" + count;
+        ticketReservationRepository.createNewReservation(reservationId, ZonedDateTime.now(), DateUtils.addDays(new Date(), 1), null, "en", event.getId(), event.getVat(), event.isVatIncluded(), event.getCurrency());
+        assertEquals(count, ticketRepository.reserveTickets(reservationId, ids, categoryId, "it", 100, "CHF"));
+        return reservationId;
+    }
+}
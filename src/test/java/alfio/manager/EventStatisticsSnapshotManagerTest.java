@@ -0,0 +1,157 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.manager;
+
+import alfio.model.EventStatisticView;
+import alfio.model.TicketCategoryStatisticView;
+import alfio.repository.EventRepository;
+import alfio.repository.StatisticsSnapshotRepository;
+import alfio.repository.TicketCategoryRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class EventStatisticsSnapshotManagerTest {
+
+    private EventRepository eventRepository;
+    private TicketCategoryRepository ticketCategoryRepository;
+    private StatisticsSnapshotRepository snapshotRepository;
+    private EventStatisticsSnapshotManager manager;
+
+    @BeforeEach
+    void setUp() {
+        eventRepository = mock(EventRepository.class);
+        ticketCategoryRepository = mock(TicketCategoryRepository.class);
+        snapshotRepository = mock(StatisticsSnapshotRepository.class);
+        manager = new EventStatisticsSnapshotManager(eventRepository, ticketCategoryRepository, snapshotRepository, new MockEnvironment());
+    }
+
+    @Test
+    void readFromSnapshotIfFresh() {
+        when(snapshotRepository.getDelaySeconds()).thenReturn(10);
+        when(snapshotRepository.findEventStatisticsFor(Set.of(1))).thenReturn(List.of(stat(1, 5)));
+        assertEquals(List.of(stat(1, 5)), manager.findStatisticsFor(Set.of(1)));
+        verify(eventRepository, never()).findStatisticsFor(any(Set.class));
+    }
+
+    @Test
+    void readFromLiveViewIfStale() {
+        when(snapshotRepository.getDelaySeconds()).thenReturn(61);
+        when(eventRepository.findStatisticsFor(Set.of(1))).thenReturn(List.of(stat(1, 6)));
+        assertEquals(List.of(stat(1, 6)), manager.findStatisticsFor(Set.of(1)));
+        verify(snapshotRepository, never()).findEventStatisticsFor(any());
+    }
+
+    @Test
+    void readFromLiveViewIfNeverBuilt() {
+        when(snapshotRepository.getDelaySeconds()).thenReturn(null);
+        when(ticketCategoryRepository.findStatisticsForEventIdByCategoryId(1)).thenReturn(Map.of(2, categoryStat(2, 1, 5)));
+        assertEquals(Map.of(2, categoryStat(2, 1, 5)), manager.findTicketCategoryStatisticsFor(1));
+        verify(snapshotRepository, never()).findTicketCategoryStatisticsFor(anyInt());
+    }
+
+    @Test
+    void readCategoriesFromSnapshotIfFresh() {
+        when(snapshotRepository.getDelaySeconds()).thenReturn(0);
+        when(snapshotRepository.findTicketCategoryStatisticsFor(1)).thenReturn(List.of(categoryStat(2, 1, 5), categoryStat(3, 1, 0)));
+        assertEquals(Map.of(2, categoryStat(2, 1, 5), 3, categoryStat(3, 1, 0)), manager.findTicketCategoryStatisticsFor(1));
+        verify(ticketCategoryRepository, never()).findStatisticsForEventIdByCategoryId(anyInt());
+    }
+
+    @Test
+    void loadMissingEventsFromLiveView() {
+        when(snapshotRepository.getDelaySeconds()).thenReturn(10);
+        when(snapshotRepository.findEventStatisticsFor(Set.of(1, 2))).thenReturn(List.of(stat(1, 5)));
+        when(eventRepository.findStatisticsFor(Set.of(2))).thenReturn(List.of(stat(2, 3)));
+        assertEquals(List.of(stat(1, 5), stat(2, 3)), manager.findStatisticsFor(Set.of(1, 2)));
+    }
+
+    @Test
+    void refreshOnlyIfLocked() {
+        when(eventRepository.tryAdvisoryTransactionLock(anyLong())).thenReturn(false);
+        manager.refresh();
+        verifyZeroInteractions(snapshotRepository);
+    }
+
+    @Test
+    void refreshOnlyModifiedEvents() {
+        when(eventRepository.tryAdvisoryTransactionLock(anyLong())).thenReturn(true);
+        when(snapshotRepository.getDelaySeconds()).thenReturn(3);
+        when(snapshotRepository.consumeChanges()).thenReturn(List.of(2, 1, 2));
+        manager.refresh();
+        verify(snapshotRepository).deleteTicketCategoryCounts(List.of(1, 2));
+        verify(snapshotRepository).insertTicketCategoryCounts(List.of(1, 2));
+        verify(snapshotRepository).deleteEventCounts(List.of(1, 2));
+        verify(snapshotRepository).insertEventCounts(List.of(1, 2));
+        verify(snapshotRepository).updateRefreshTimestamp();
+        verify(snapshotRepository, never()).findAllEventIds();
+        assertEquals(2L, manager.getMetrics().get("refreshedEvents").longValue());
+    }
+
+    @Test
+    void nothingToDoWithoutModifications() {
+        when(eventRepository.tryAdvisoryTransactionLock(anyLong())).thenReturn(true);
+        when(snapshotRepository.getDelaySeconds()).thenReturn(0);
+        when(snapshotRepository.consumeChanges()).thenReturn(List.of());
+        manager.refresh();
+        verify(snapshotRepository, never()).insertEventCounts(any());
+        verify(snapshotRepository, never()).updateRefreshTimestamp();
+    }
+
+    @Test
+    void buildAllEventsTheFirstTime() {
+        when(eventRepository.tryAdvisoryTransactionLock(anyLong())).thenReturn(true);
+        when(snapshotRepository.getDelaySeconds()).thenReturn(null);
+        when(snapshotRepository.consumeChanges()).thenReturn(List.of(1));
+        when(snapshotRepository.findAllEventIds()).thenReturn(List.of(1, 2, 3));
+        manager.refresh();
+        verify(snapshotRepository).insertTicketCategoryCounts(List.of(1, 2, 3));
+        verify(snapshotRepository).insertEventCounts(List.of(1, 2, 3));
+        verify(snapshotRepository).updateRefreshTimestamp();
+    }
+
+    @Test
+    void detectInconsistencies() {
+        when(eventRepository.tryAdvisoryTransactionLock(anyLong())).thenReturn(true);
+        when(snapshotRepository.findAllEventStatistics()).thenReturn(List.of(stat(1, 5), stat(2, 3), stat(3, 1)));
+        when(eventRepository.findAllStatistics()).thenReturn(List.of(stat(1, 5), stat(2, 4), stat(3, 1)));
+        when(snapshotRepository.findAllTicketCategoryStatistics()).thenReturn(List.of(categoryStat(10, 1, 5), categoryStat(30, 3, 1)));
+        when(ticketCategoryRepository.findAllStatistics()).thenReturn(List.of(categoryStat(10, 1, 5), categoryStat(30, 3, 0)));
+        assertEquals(List.of(2, 3), manager.checkConsistency());
+        // the comparison must be done on the data which has been served so far, and only the differences are refreshed
+        var inOrder = inOrder(snapshotRepository);
+        inOrder.verify(snapshotRepository).findAllEventStatistics();
+        inOrder.verify(snapshotRepository).insertEventCounts(List.of(2, 3));
+        assertEquals(2L, manager.getMetrics().get("lastInconsistencies").longValue());
+    }
+
+    private static EventStatisticView stat(int eventId, int soldTickets) {
+        return new EventStatisticView(false, false, 10, 10 - soldTickets, soldTickets, 0, 0, 0, 0, 0, eventId);
+    }
+
+    private static TicketCategoryStatisticView categoryStat(int categoryId, int eventId, int soldTickets) {
+        return new TicketCategoryStatisticView(categoryId, 10, true, false, eventId, 0, 0, soldTickets, 10 - soldTickets, 0, 0, false, false);
+    }
+}
@@ -0,0 +1,81 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.manager;
+
+import alfio.repository.TicketReservationRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.Date;
+
+import static alfio.test.util.TestTransactionManager.mockTransactionManager;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class ExpiredReservationsCleanerTest {
+
+    private TicketReservationManager ticketReservationManager;
+    private TicketReservationRepository ticketReservationRepository;
+    private PlatformTransactionManager transactionManager;
+    private final Date expirationDate = new Date();
+
+    @BeforeEach
+    void setUp() {
+        ticketReservationManager = mock(TicketReservationManager.class);
+        ticketReservationRepository = mock(TicketReservationRepository.class);
+        transactionManager = mockTransactionManager();
+    }
+
+    @Test
+    void removeChunksInSeparateTransactions() {
+        when(ticketReservationManager.cleanupExpiredReservations(expirationDate, 10)).thenReturn(10, 10, 3);
+        var cleaner = cleaner("60000");
+
+        assertEquals(23, cleaner.cleanup(expirationDate));
+
+        verify(ticketReservationManager, times(3)).cleanupExpiredReservations(expirationDate, 10);
+        verify(transactionManager, times(3)).getTransaction(any());
+        verify(transactionManager, times(3)).commit(any());
+        verifyZeroInteractions(ticketReservationRepository);
+        assertEquals(0L, cleaner.getMetrics().get("backlog"));
+        assertEquals(23L, cleaner.getMetrics().get("removed"));
+    }
+
+    @Test
+    void stopWhenTimeBudgetIsExhausted() {
+        when(ticketReservationManager.cleanupExpiredReservations(expirationDate, 10)).thenReturn(10);
+        when(ticketReservationRepository.countExpiredReservations(eq(expirationDate))).thenReturn(42);
+        var cleaner = cleaner("0");
+
+        assertEquals(10, cleaner.cleanup(expirationDate));
+
+        verify(ticketReservationManager, times(1)).cleanupExpiredReservations(expirationDate, 10);
+        assertEquals(42L, cleaner.getMetrics().get("backlog"));
+        assertEquals(1L, cleaner.getMetrics().get("budgetExhausted"));
+    }
+
+    private ExpiredReservationsCleaner cleaner(String timeBudgetMs) {
+        var environment = new MockEnvironment()
+            .withProperty("alfio.reservation.cleanup.chunk-size", "10")
+            .withProperty("alfio.reservation.cleanup.time-budget-ms", timeBudgetMs);
+        return new ExpiredReservationsCleaner(ticketReservationManager, ticketReservationRepository, transactionManager, environment);
+    }
+}
@@ -0,0 +1,248 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.manager;
+
+import alfio.TestConfiguration;
+import alfio.config.DataSourceConfiguration;
+import alfio.config.Initializer;
+import alfio.manager.user.UserManager;
+import alfio.model.Event;
+import alfio.model.TicketCategory;
+import alfio.model.modification.DateTimeModification;
+import alfio.model.modification.TicketCategoryModification;
+import alfio.model.modification.TicketReservationModification;
+import alfio.model.modification.TicketReservationWithOptionalCodeModification;
+import alfio.repository.EventRepository;
+import alfio.repository.TicketCategoryRepository;
+import alfio.repository.TicketReservationRepository;
+import alfio.repository.system.ConfigurationRepository;
+import alfio.repository.user.AuthorityRepository;
+import alfio.repository.user.OrganizationRepository;
+import alfio.repository.user.UserRepository;
+import alfio.test.util.IntegrationTestUtil;
+import org.apache.commons.lang3.time.DateUtils;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static alfio.test.util.IntegrationTestUtil.*;
+import static org.junit.Assert.*;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(classes = {DataSourceConfiguration.class, TestConfiguration.class})
+@ActiveProfiles({Initializer.PROFILE_DEV, Initializer.PROFILE_DISABLE_JOBS, Initializer.PROFILE_INTEGRATION_TEST})
+public class InvoiceNumberAllocatorIntegrationTest {
+
+    private static final Map<String, String> DESCRIPTION = Collections.singletonMap("en", "desc");
+    // same as the dedicated allocation pool: every number is allocated in a separate transaction
+    private static final int ALLOCATION_POOL_SIZE = 2;
+    // the test pool has 5 connections
+    private static final int MORE_THAN_POOL_SIZE = 12;
+
+    @Autowired
+    private EventManager eventManager;
+    @Autowired
+    private OrganizationRepository organizationRepository;
+    @Autowired
+    private UserManager userManager;
+    @Autowired
+    private UserRepository userRepository;
+    @Autowired
+    private AuthorityRepository authorityRepository;
+    @Autowired
+    private EventRepository eventRepository;
+    @Autowired
+    private ConfigurationRepository configurationRepository;
+    @Autowired
+    private TicketCategoryRepository ticketCategoryRepository;
+    @Autowired
+    private TicketReservationManager ticketReservationManager;
+    @Autowired
+    private TicketReservationRepository ticketReservationRepository;
+    @Autowired
+    private InvoiceNumberAllocator invoiceNumberAllocator;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Test
+    public void testParallelConfirmationsProduceGaplessNumbers() throws Exception {
+        withEvent((event, reservationIds) -> {
+            // every third confirmation fails after having got its invoice number
+            Set<String> failing = failing(reservationIds);
+            confirmInParallel(event, reservationIds, failing, true, ALLOCATION_POOL_SIZE);
+
+            assertEquals(failing.size(), countAllocations(event, "RELEASED"));
+            assertEquals(reservationIds.size() - failing.size(), countInvoiceNumbers(reservationIds));
+
+            // retry the failed confirmations: the released numbers must be reused
+            confirmInParallel(event, new ArrayList<>(failing), Set.of(), true, ALLOCATION_POOL_SIZE);
+
+            assertEquals(IntStream.rangeClosed(1, reservationIds.size()).boxed().collect(Collectors.toList()), sortedInvoiceNumbers(reservationIds));
+            assertEquals(0, countAllocations(event, "ALLOCATED"));
+            assertEquals(0, countAllocations(event, "RELEASED"));
+        });
+    }
+
+    @Test
+    public void testMoreParallelConfirmationsThanConnections() throws Exception {
+        withEvent((event, reservationIds) -> {
+            Set<String> failing = failing(reservationIds);
+            // some numbers are allocated in the confirmation transaction, because there are not enough allocation connections
+            confirmInParallel(event, reservationIds, failing, true, MORE_THAN_POOL_SIZE);
+            assertEquals(reservationIds.size() - failing.size(), countInvoiceNumbers(reservationIds));
+
+            confirmInParallel(event, new ArrayList<>(failing), Set.of(), true, MORE_THAN_POOL_SIZE);
+
+            assertEquals(IntStream.rangeClosed(1, reservationIds.size()).boxed().collect(Collectors.toList()), sortedInvoiceNumbers(reservationIds));
+            assertEquals(0, countAllocations(event, "RELEASED"));
+        });
+    }
+
+    @Test
+    public void testNumbersFollowTheConfirmationOrderByDefault() throws Exception {
+        withEvent((event, reservationIds) -> {
+            Set<String> failing = failing(reservationIds);
+            confirmInParallel(event, reservationIds, failing, false, MORE_THAN_POOL_SIZE);
+
+            // the numbers of the failed confirmations are given to the following ones
+            int confirmed = reservationIds.size() - failing.size();
+            assertEquals(IntStream.rangeClosed(1, confirmed).boxed().collect(Collectors.toList()), sortedInvoiceNumbers(reservationIds));
+            assertEquals(0, countAllocations(event, "ALLOCATED") + countAllocations(event, "RELEASED"));
+
+            List<String> retries = new ArrayList<>(failing);
+            confirmInParallel(event, retries, Set.of(), false, MORE_THAN_POOL_SIZE);
+            assertTrue(ticketReservationRepository.findByIds(retries).stream().allMatch(r -> Integer.parseInt(r.getInvoiceNumber()) > confirmed));
+            assertEquals(IntStream.rangeClosed(1, reservationIds.size()).boxed().collect(Collectors.toList()), sortedInvoiceNumbers(reservationIds));
+        });
+    }
+
+    private interface EventTest {
+        void run(Event event, List<String> reservationIds) throws Exception;
+    }
+
+    private void withEvent(EventTest test) throws Exception {
+        IntegrationTestUtil.ensureMinimalConfiguration(configurationRepository);
+        initAdminUser(userRepository, authorityRepository);
+        List<TicketCategoryModification> categories = Collections.singletonList(
+            new TicketCategoryModification(null, "default", AVAILABLE_SEATS,
+                new DateTimeModification(LocalDate.now().minusDays(1), LocalTime.now()),
+                new DateTimeModification(LocalDate.now().plusDays(1), LocalTime.now()),
+                DESCRIPTION, BigDecimal.TEN, false, "", false, null, null, null, null, null, 0, null, null));
+        Event event = initEvent(categories, organizationRepository, userManager, eventManager, eventRepository).getKey();
+        try {
+            TicketCategory category = ticketCategoryRepository.findAllTicketCategories(event.getId()).get(0);
+            List<String> reservationIds = IntStream.range(0, AVAILABLE_SEATS)
+                .mapToObj(i -> createReservation(event, category))
+                .collect(Collectors.toList());
+            test.run(event, reservationIds);
+        } finally {
+            eventManager.deleteEvent(event.getId(), UserManager.ADMIN_USERNAME);
+            removeAdminUser(userRepository, authorityRepository);
+        }
+    }
+
+    private static Set<String> failing(List<String> reservationIds) {
+        return IntStream.range(0, reservationIds.size()).filter(i -> i % 3 == 0)
+            .mapToObj(reservationIds::get)
+            .collect(Collectors.toSet());
+    }
+
+    private long countInvoiceNumbers(List<String> reservationIds) {
+        return ticketReservationRepository.findByIds(reservationIds).stream()
+            .filter(r -> r.getInvoiceNumber() != null).count();
+    }
+
+    private List<Integer> sortedInvoiceNumbers(List<String> reservationIds) {
+        return ticketReservationRepository.findByIds(reservationIds).stream()
+            .filter(r -> r.getInvoiceNumber() != null)
+            .map(r -> Integer.parseInt(r.getInvoiceNumber()))
+            .sorted()
+            .collect(Collectors.toList());
+    }
+
+    private String createReservation(Event event, TicketCategory category) {
+        TicketReservationModification tr = new TicketReservationModification();
+        tr.setAmount(1);
+        tr.setTicketCategoryId(category.getId());
+        TicketReservationWithOptionalCodeModification mod = new TicketReservationWithOptionalCodeModification(tr, Optional.empty());
+        return ticketReservationManager.createTicketReservation(event, List.of(mod), Collections.emptyList(), DateUtils.addDays(new Date(), 1), Optional.empty(), Locale.ENGLISH, false);
+    }
+
+    private void confirmInParallel(Event event, List<String> reservationIds, Set<String> failing, boolean reuseReleasedNumbers, int parallelism) throws Exception {
+        TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+        List<Callable<Void>> calls = reservationIds.stream()
+            .map(reservationId -> (Callable<Void>) () -> {
+                transactionTemplate.execute(status -> {
+                    String invoiceNumber = invoiceNumberAllocator.allocate(event.getOrganizationId(), reservationId, reuseReleasedNumbers, String::valueOf);
+                    ticketReservationRepository.setInvoiceNumber(reservationId, invoiceNumber);
+                    if(failing.contains(reservationId)) {
+                        status.setRollbackOnly();
+                    }
+                    return null;
+                });
+                return null;
+            })
+            .collect(Collectors.toList());
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        try {
+            for(Future<Void> future : executor.invokeAll(calls, 1, TimeUnit.MINUTES)) {
+                assertFalse("confirmation timed out", future.isCancelled());
+                // rethrows the error of the confirmation, if any
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(1, TimeUnit.MINUTES));
+        }
+        awaitCompletedAllocations(event);
+    }
+
+    private void awaitCompletedAllocations(Event event) throws InterruptedException {
+        // completions which could not get a connection are done in background
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(30);
+        while(countAllocations(event, "ALLOCATED") > 0) {
+            assertTrue("allocations not completed", System.currentTimeMillis() < deadline);
+            Thread.sleep(50);
+        }
+    }
+
+    private int countAllocations(Event event, String status) {
+        return jdbcTemplate.queryForObject("select count(*) from invoice_number_allocation where organization_id_fk = :orgId and status = :status",
+            new MapSqlParameterSource("orgId", event.getOrganizationId()).addValue("status", status), Integer.class);
+    }
+}
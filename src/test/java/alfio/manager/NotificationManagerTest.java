@@ -0,0 +1,141 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.manager;
+
+import alfio.controller.support.PdfRenderingService;
+import alfio.manager.i18n.MessageSourceManager;
+import alfio.manager.support.AttachmentStore;
+import alfio.manager.system.ConfigurationManager;
+import alfio.manager.system.ConfigurationManager.MaybeConfiguration;
+import alfio.manager.system.Mailer;
+import alfio.model.DataVersion;
+import alfio.model.EmailMessage;
+import alfio.model.EventAndOrganizationId;
+import alfio.model.system.ConfigurationKeys;
+import alfio.repository.*;
+import alfio.repository.user.OrganizationRepository;
+import alfio.util.Json;
+import alfio.util.TemplateManager;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static alfio.test.util.TestTransactionManager.mockTransactionManager;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class NotificationManagerTest {
+
+    private static final int EVENT_ID = 1;
+
+    private Mailer mailer;
+    private EmailMessageRepository emailMessageRepository;
+    private AttachmentStore attachmentStore;
+    private NotificationManager notificationManager;
+
+    @BeforeEach
+    void setUp() {
+        mailer = mock(Mailer.class);
+        emailMessageRepository = mock(EmailMessageRepository.class);
+        attachmentStore = mock(AttachmentStore.class);
+        var eventRepository = mock(EventRepository.class);
+        var configurationManager = mock(ConfigurationManager.class);
+        when(eventRepository.findAllActiveIds(any())).thenReturn(List.of(EVENT_ID));
+        when(eventRepository.findEventAndOrganizationIdById(EVENT_ID)).thenReturn(mock(EventAndOrganizationId.class));
+        when(eventRepository.getDisplayNameById(EVENT_ID)).thenReturn("event");
+        when(configurationManager.getFor(anySet(), any())).thenReturn(Map.of(
+            ConfigurationKeys.MAIL_ATTEMPTS_COUNT, new MaybeConfiguration(ConfigurationKeys.MAIL_ATTEMPTS_COUNT),
+            ConfigurationKeys.MAILER_TYPE, new MaybeConfiguration(ConfigurationKeys.MAILER_TYPE)));
+        var environment = new MockEnvironment()
+            .withProperty("alfio.email.dispatch.threads", "1")
+            .withProperty("alfio.email.dispatch.batch-size", "10")
+            .withProperty("alfio.email.dispatch.status-flush-size", "2");
+        notificationManager = new NotificationManager(mailer, mock(MessageSourceManager.class), mockTransactionManager(), emailMessageRepository,
+            eventRepository, mock(EventDescriptionRepository.class), mock(OrganizationRepository.class), configurationManager,
+            mock(FileUploadManager.class), mock(TemplateManager.class), mock(TicketReservationRepository.class), mock(TicketCategoryRepository.class),
+            mock(PassKitManager.class), mock(TicketRepository.class), mock(TicketFieldRepository.class), mock(AdditionalServiceItemRepository.class),
+            mock(PdfRenderingService.class), environment, attachmentStore);
+    }
+
+    @Test
+    void persistOutcomeInSmallBatchesWhileSending() {
+        when(emailMessageRepository.loadIdsWaitingForProcessing(eq(List.of(EVENT_ID)), any(), eq(10))).thenReturn(List.of(1, 2, 3));
+        when(emailMessageRepository.findByIds(List.of(1, 2, 3))).thenReturn(List.of(message(1, "a@example.com"), message(2, "b@example.com"), message(3, "c@example.com")));
+        doThrow(new IllegalStateException("boom")).when(mailer).send(any(), anyString(), eq("b@example.com"), any(), anyString(), anyString(), any(), any());
+
+        assertEquals(2, notificationManager.sendWaitingMessages());
+
+        var inOrder = inOrder(mailer, emailMessageRepository);
+        inOrder.verify(emailMessageRepository).setToInProcess(eq(List.of(1, 2, 3)), any());
+        inOrder.verify(mailer).send(any(), anyString(), eq("a@example.com"), any(), anyString(), anyString(), any(), any());
+        inOrder.verify(mailer).send(any(), anyString(), eq("b@example.com"), any(), anyString(), anyString(), any(), any());
+        inOrder.verify(emailMessageRepository).updateStatusToSent(eq(List.of(1)), any());
+        inOrder.verify(emailMessageRepository).updateStatusToRetry(List.of(2));
+        inOrder.verify(mailer).send(any(), anyString(), eq("c@example.com"), any(), anyString(), anyString(), any(), any());
+        inOrder.verify(emailMessageRepository).updateStatusToSent(eq(List.of(3)), any());
+        verify(emailMessageRepository, times(2)).updateStatusToSent(anyList(), any());
+        verify(emailMessageRepository, never()).updateStatusToError(any());
+        assertEquals(2L, notificationManager.getMetrics().get("sent"));
+        assertEquals(1L, notificationManager.getMetrics().get("failed"));
+    }
+
+    @Test
+    void renderAttachmentsAgainWhenTicketChanges() {
+        var model = Map.of("ticket", "{\"uuid\":\"ticket-uuid\",\"ticketsReservationId\":\"reservation-id\",\"eventId\":1}",
+            "reservationId", "reservation-id", "organizationId", "1");
+        var attachment = new JsonObject();
+        attachment.addProperty("filename", "ticket.pdf");
+        attachment.addProperty("contentType", "application/pdf");
+        attachment.addProperty("identifier", Mailer.AttachmentIdentifier.TICKET_PDF.name());
+        attachment.addProperty("model", Json.toJson(model));
+        var attachments = new JsonArray();
+        attachments.add(attachment);
+        var message = new EmailMessage(1, EVENT_ID, "IN_PROCESS", "a@example.com", "subject", "text", attachments.toString(), "checksum", null, null, 0, null);
+        when(emailMessageRepository.loadIdsWaitingForProcessing(eq(List.of(EVENT_ID)), any(), eq(10))).thenReturn(List.of(1));
+        when(emailMessageRepository.findByIds(List.of(1))).thenReturn(List.of(message));
+        // the attendee is modified between the first (failed) attempt and the retry
+        when(emailMessageRepository.findTicketDataVersions(Set.of("ticket-uuid")))
+            .thenReturn(List.of(new DataVersion("ticket-uuid", "v1")), List.of(new DataVersion("ticket-uuid", "v2")));
+        when(emailMessageRepository.findReservationDataVersions(Set.of("reservation-id"))).thenReturn(List.of(new DataVersion("reservation-id", "r")));
+        when(emailMessageRepository.findEventDataVersions(Set.of(EVENT_ID))).thenReturn(List.of(new DataVersion(Integer.toString(EVENT_ID), "e")));
+        doThrow(new IllegalStateException("boom")).doNothing().when(mailer).send(any(), anyString(), anyString(), any(), anyString(), anyString(), any(), any());
+
+        assertEquals(0, notificationManager.sendWaitingMessages());
+        assertEquals(1, notificationManager.sendWaitingMessages());
+
+        // one query per table for each dispatched batch
+        verify(emailMessageRepository, times(2)).findTicketDataVersions(Set.of("ticket-uuid"));
+        verify(emailMessageRepository, times(2)).findReservationDataVersions(Set.of("reservation-id"));
+        verify(emailMessageRepository, times(2)).findEventDataVersions(Set.of(EVENT_ID));
+        var identifier = Mailer.AttachmentIdentifier.TICKET_PDF;
+        verify(attachmentStore).getOrRender(eq(AttachmentStore.key(identifier, model, "v1|r|e")), any());
+        verify(attachmentStore).getOrRender(eq(AttachmentStore.key(identifier, model, "v2|r|e")), any());
+        assertNotEquals(AttachmentStore.key(identifier, model, "v1|r|e"), AttachmentStore.key(identifier, model, "v2|r|e"));
+    }
+
+    private static EmailMessage message(int id, String recipient) {
+        return new EmailMessage(id, EVENT_ID, "IN_PROCESS", recipient, "subject", "text", null, "checksum", null, null, 0, null);
+    }
+}
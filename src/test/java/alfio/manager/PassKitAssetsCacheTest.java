@@ -0,0 +1,144 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.manager;
+
+import alfio.manager.system.ClusterNotificationManager;
+import alfio.manager.system.ConfigurationCache;
+import alfio.manager.system.ConfigurationLevel;
+import alfio.model.Event;
+import alfio.model.system.ConfigurationKeys;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigInteger;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.cert.Certificate;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+import java.util.function.Consumer;
+
+import static alfio.model.system.ConfigurationKeys.*;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class PassKitAssetsCacheTest {
+
+    private static final String KEYSTORE_PASSWORD = "password";
+    private static final String KEY_ALIAS = "pass";
+    private static String keystore;
+
+    private FileUploadManager fileUploadManager;
+    private PassKitAssetsCache cache;
+    private Consumer<ConfigurationLevel> dependent;
+    private Event event;
+
+    @BeforeAll
+    static void generateKeystore() throws Exception {
+        var generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        var keyPair = generator.generateKeyPair();
+        var name = new X500Name("CN=Pass Type ID: pass.io.alf.test");
+        var now = Instant.now();
+        var holder = new JcaX509v3CertificateBuilder(name, BigInteger.ONE, Date.from(now.minus(1, ChronoUnit.DAYS)),
+            Date.from(now.plus(1, ChronoUnit.DAYS)), name, keyPair.getPublic())
+            .build(new JcaContentSignerBuilder("SHA256withRSA").build(keyPair.getPrivate()));
+        Certificate certificate = new JcaX509CertificateConverter().getCertificate(holder);
+        var keyStore = KeyStore.getInstance("PKCS12");
+        keyStore.load(null, null);
+        keyStore.setKeyEntry(KEY_ALIAS, keyPair.getPrivate(), KEYSTORE_PASSWORD.toCharArray(), new Certificate[] { certificate });
+        var out = new ByteArrayOutputStream();
+        keyStore.store(out, KEYSTORE_PASSWORD.toCharArray());
+        keystore = Base64.getEncoder().encodeToString(out.toByteArray());
+    }
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        fileUploadManager = mock(FileUploadManager.class);
+        when(fileUploadManager.findMetadata(anyString())).thenReturn(Optional.empty());
+        var configurationCache = mock(ConfigurationCache.class);
+        cache = new PassKitAssetsCache(mock(ClusterNotificationManager.class), configurationCache, fileUploadManager, new MockEnvironment());
+        ArgumentCaptor<Consumer<ConfigurationLevel>> captor = ArgumentCaptor.forClass(Consumer.class);
+        verify(configurationCache).addDependent(captor.capture());
+        dependent = captor.getValue();
+        event = mock(Event.class);
+        when(event.getId()).thenReturn(1);
+        when(event.getOrganizationId()).thenReturn(1);
+        when(event.getFileBlobId()).thenReturn("logo");
+    }
+
+    @Test
+    void reuseAssetsForTheSameConfiguration() throws Exception {
+        var first = cache.get(event, config("TEAM"));
+        var second = cache.get(event, config("TEAM"));
+        assertSame(first, second);
+        assertEquals(3, first.toPassResources().length);
+        verify(fileUploadManager, times(1)).findMetadata("logo");
+    }
+
+    @Test
+    void reloadWhenTheConfigurationOrTheLogoChange() throws Exception {
+        var first = cache.get(event, config("TEAM"));
+        assertNotSame(first, cache.get(event, config("OTHER-TEAM")));
+        verify(fileUploadManager, times(2)).findMetadata("logo");
+
+        when(event.getFileBlobId()).thenReturn("new-logo");
+        cache.get(event, config("TEAM"));
+        verify(fileUploadManager).findMetadata("new-logo");
+    }
+
+    @Test
+    void evictOnlyWhenAnAffectedLevelIsModified() throws Exception {
+        cache.get(event, config("TEAM"));
+
+        dependent.accept(ConfigurationLevel.organization(2));
+        cache.get(event, config("TEAM"));
+        verify(fileUploadManager, times(1)).findMetadata("logo");
+
+        dependent.accept(ConfigurationLevel.organization(1));
+        cache.get(event, config("TEAM"));
+        verify(fileUploadManager, times(2)).findMetadata("logo");
+
+        dependent.accept(ConfigurationLevel.event(event));
+        cache.get(event, config("TEAM"));
+        verify(fileUploadManager, times(3)).findMetadata("logo");
+
+        dependent.accept(ConfigurationLevel.system());
+        cache.get(event, config("TEAM"));
+        verify(fileUploadManager, times(4)).findMetadata("logo");
+    }
+
+    private static Map<ConfigurationKeys, String> config(String teamIdentifier) {
+        var config = new EnumMap<ConfigurationKeys, String>(ConfigurationKeys.class);
+        config.put(PASSBOOK_TYPE_IDENTIFIER, "pass.io.alf.test");
+        config.put(PASSBOOK_TEAM_IDENTIFIER, teamIdentifier);
+        config.put(PASSBOOK_KEYSTORE, keystore);
+        config.put(PASSBOOK_KEYSTORE_PASSWORD, KEYSTORE_PASSWORD);
+        config.put(PASSBOOK_PRIVATE_KEY_ALIAS, KEY_ALIAS);
+        return config;
+    }
+}
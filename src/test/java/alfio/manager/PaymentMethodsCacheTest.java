@@ -0,0 +1,147 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.manager;
+
+import alfio.manager.system.ClusterNotificationManager;
+import alfio.manager.system.ConfigurationCache;
+import alfio.manager.system.ConfigurationLevel;
+import alfio.model.Event;
+import alfio.model.transaction.PaymentProxy;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.*;
+
+class PaymentMethodsCacheTest {
+
+    private static final ZoneId ZONE_ID = ZoneId.of("Europe/Zurich");
+
+    private PaymentMethodsCache cache;
+    private Consumer<ConfigurationLevel> dependent;
+    private final AtomicInteger loads = new AtomicInteger();
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        var configurationCache = mock(ConfigurationCache.class);
+        cache = new PaymentMethodsCache(mock(ClusterNotificationManager.class), configurationCache, new MockEnvironment());
+        ArgumentCaptor<Consumer<ConfigurationLevel>> captor = ArgumentCaptor.forClass(Consumer.class);
+        verify(configurationCache).addDependent(captor.capture());
+        dependent = captor.getValue();
+    }
+
+    @Test
+    void evictOnlyAffectedOrganizations() {
+        load(1);
+        load(2);
+        assertEquals(2, loads.get());
+
+        dependent.accept(ConfigurationLevel.organization(1));
+        load(1);
+        load(2);
+        assertEquals(3, loads.get());
+
+        dependent.accept(ConfigurationLevel.system());
+        load(2);
+        assertEquals(4, loads.get());
+    }
+
+    @Test
+    void reloadWhenTheEventPaymentSettingsChange() {
+        var event = event(1, List.of(PaymentProxy.STRIPE), 10);
+        load(event);
+        load(event);
+        assertEquals(1, loads.get());
+
+        when(event.getAllowedPaymentProxies()).thenReturn(List.of(PaymentProxy.STRIPE, PaymentProxy.OFFLINE));
+        load(event);
+        assertEquals(2, loads.get());
+
+        // the availability of offline payments depends on the days left before the event
+        when(event.getBegin()).thenReturn(ZonedDateTime.now(ZONE_ID).plusDays(20));
+        load(event);
+        assertEquals(3, loads.get());
+    }
+
+    @Test
+    void evictEventsOfTheModifiedOrganization() {
+        var first = event(1, List.of(PaymentProxy.STRIPE), 10);
+        var second = event(2, List.of(PaymentProxy.STRIPE), 10);
+        load(first);
+        load(second);
+        assertEquals(2, loads.get());
+
+        dependent.accept(ConfigurationLevel.event(first));
+        load(first);
+        load(second);
+        assertEquals(3, loads.get());
+
+        dependent.accept(ConfigurationLevel.organization(2));
+        load(first);
+        load(second);
+        assertEquals(3, loads.get());
+
+        dependent.accept(ConfigurationLevel.organization(1));
+        load(first);
+        load(second);
+        assertEquals(5, loads.get());
+    }
+
+    @Test
+    void alwaysLoadIfDisabled() {
+        var environment = new MockEnvironment().withProperty("alfio.cache.payment-methods.enabled", "false");
+        cache = new PaymentMethodsCache(null, mock(ConfigurationCache.class), environment);
+        load(1);
+        load(1);
+        assertEquals(2, loads.get());
+        assertEquals(0L, cache.getMetrics().get("size"));
+    }
+
+    private void load(Event event) {
+        cache.get(event, ConfigurationLevel.event(event), k -> {
+            loads.incrementAndGet();
+            return new PaymentMethodsCache.PaymentMethodsSnapshot(List.of(), Map.of());
+        });
+    }
+
+    private static Event event(int id, List<PaymentProxy> allowedProxies, int daysBeforeBegin) {
+        var event = mock(Event.class);
+        when(event.getId()).thenReturn(id);
+        when(event.getOrganizationId()).thenReturn(1);
+        when(event.getZoneId()).thenReturn(ZONE_ID);
+        when(event.getBegin()).thenReturn(ZonedDateTime.now(ZONE_ID).plusDays(daysBeforeBegin));
+        when(event.getAllowedPaymentProxies()).thenReturn(allowedProxies);
+        return event;
+    }
+
+    private void load(int organizationId) {
+        cache.get(null, ConfigurationLevel.organization(organizationId), k -> {
+            loads.incrementAndGet();
+            return new PaymentMethodsCache.PaymentMethodsSnapshot(List.of(), Map.of());
+        });
+    }
+}
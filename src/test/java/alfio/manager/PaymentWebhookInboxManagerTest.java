@@ -0,0 +1,169 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.manager;
+
+import alfio.manager.payment.StripeWebhookPaymentManager;
+import alfio.manager.support.PaymentWebhookResult;
+import alfio.model.transaction.PaymentMethod;
+import alfio.model.transaction.PaymentWebhookInboxItem;
+import alfio.model.transaction.TransactionWebhookPayload;
+import alfio.repository.PaymentWebhookInboxRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.UnexpectedRollbackException;
+
+import java.time.ZonedDateTime;
+import java.util.Optional;
+
+import static alfio.test.util.TestTransactionManager.mockTransactionManager;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class PaymentWebhookInboxManagerTest {
+
+    private static final String BODY = "{\"id\":\"evt_1\"}";
+
+    private StripeWebhookPaymentManager handler;
+    private TicketReservationManager ticketReservationManager;
+    private PaymentWebhookInboxRepository repository;
+    private PlatformTransactionManager transactionManager;
+    private PaymentWebhookInboxManager manager;
+
+    @BeforeEach
+    void setUp() {
+        handler = mock(StripeWebhookPaymentManager.class);
+        var paymentManager = mock(PaymentManager.class);
+        when(paymentManager.lookupProviderByMethod(eq(PaymentMethod.CREDIT_CARD), any())).thenReturn(Optional.of(handler));
+        ticketReservationManager = mock(TicketReservationManager.class);
+        repository = mock(PaymentWebhookInboxRepository.class);
+        transactionManager = mockTransactionManager();
+        var environment = new MockEnvironment().withProperty("alfio.payment.webhook.inbox.max-attempts", "2");
+        manager = new PaymentWebhookInboxManager(paymentManager, ticketReservationManager, repository, transactionManager, environment);
+    }
+
+    @Test
+    void rejectUnverifiedPayload() {
+        when(handler.parseTransactionPayload(BODY, "sig")).thenReturn(Optional.empty());
+        assertTrue(manager.receive(BODY, "sig", PaymentMethod.CREDIT_CARD).isError());
+        verify(repository, never()).insertIfAbsent(anyString(), anyString(), anyString(), anyString());
+    }
+
+    @Test
+    void acceptDuplicatesWithoutStoringThem() {
+        when(handler.parseTransactionPayload(BODY, "sig")).thenReturn(Optional.of(mock(TransactionWebhookPayload.class)));
+        when(handler.getWebhookEventId(BODY)).thenReturn("evt_1");
+        when(repository.insertIfAbsent("CREDIT_CARD", "evt_1", BODY, "sig")).thenReturn(1, 0);
+        var first = manager.receive(BODY, "sig", PaymentMethod.CREDIT_CARD);
+        var second = manager.receive(BODY, "sig", PaymentMethod.CREDIT_CARD);
+        assertTrue(first.isAccepted());
+        assertTrue(second.isAccepted());
+        assertEquals(1L, manager.getMetrics().get("received"));
+        assertEquals(1L, manager.getMetrics().get("duplicates"));
+        verify(ticketReservationManager, never()).processTransactionWebhook(any(), any());
+    }
+
+    @Test
+    void markProcessedPayloadAsDone() {
+        var payload = mock(TransactionWebhookPayload.class);
+        when(repository.lockNextPending()).thenReturn(Optional.of(item(0)), Optional.empty());
+        when(handler.parseVerifiedTransactionPayload(BODY, "sig")).thenReturn(Optional.of(payload));
+        when(ticketReservationManager.processTransactionWebhook(payload, PaymentMethod.CREDIT_CARD)).thenReturn(PaymentWebhookResult.notRelevant("test"));
+        assertEquals(1, manager.processPending());
+        verify(repository).markAsDone(1, "NOT_RELEVANT");
+        verify(repository, never()).markAsFailed(anyInt(), anyString(), anyString(), anyInt());
+    }
+
+    @Test
+    void retryFailedPayloadUntilMaxAttempts() {
+        var payload = mock(TransactionWebhookPayload.class);
+        when(repository.lockNextPending()).thenReturn(Optional.of(item(0)), Optional.of(item(1)), Optional.empty());
+        when(handler.parseVerifiedTransactionPayload(BODY, "sig")).thenReturn(Optional.of(payload));
+        when(ticketReservationManager.processTransactionWebhook(payload, PaymentMethod.CREDIT_CARD)).thenThrow(new IllegalStateException("boom"));
+        assertEquals(2, manager.processPending());
+        verify(repository).markAsFailed(1, "PENDING", "boom", 5);
+        verify(repository).markAsFailed(1, "ERROR", "boom", 10);
+        verify(repository, never()).markAsDone(anyInt(), anyString());
+    }
+
+    @Test
+    void recordFailureInTheTransactionWhichLockedTheRow() {
+        var payload = mock(TransactionWebhookPayload.class);
+        when(repository.lockNextPending()).thenReturn(Optional.of(item(0)), Optional.empty());
+        when(handler.parseVerifiedTransactionPayload(BODY, "sig")).thenReturn(Optional.of(payload));
+        when(ticketReservationManager.processTransactionWebhook(payload, PaymentMethod.CREDIT_CARD)).thenReturn(PaymentWebhookResult.error("boom"));
+        assertEquals(1, manager.processPending());
+
+        InOrder inOrder = inOrder(transactionManager, repository, ticketReservationManager);
+        inOrder.verify(transactionManager).getTransaction(argThat(d -> d.getPropagationBehavior() == TransactionDefinition.PROPAGATION_REQUIRES_NEW));
+        inOrder.verify(repository).lockNextPending();
+        inOrder.verify(transactionManager).getTransaction(argThat(d -> d.getPropagationBehavior() == TransactionDefinition.PROPAGATION_NESTED));
+        inOrder.verify(ticketReservationManager).processTransactionWebhook(payload, PaymentMethod.CREDIT_CARD);
+        // only the savepoint is rolled back
+        inOrder.verify(transactionManager).commit(argThat(s -> s.isRollbackOnly()));
+        inOrder.verify(repository).markAsFailed(1, "PENDING", "boom", 5);
+        inOrder.verify(transactionManager).commit(argThat(s -> !s.isRollbackOnly()));
+        // lock attempts only, no separate transaction for the failure
+        verify(transactionManager, times(2)).getTransaction(argThat(d -> d.getPropagationBehavior() == TransactionDefinition.PROPAGATION_REQUIRES_NEW));
+    }
+
+    @Test
+    void recordFailureInNewTransactionIfTheProcessingOneIsRolledBack() {
+        var payload = mock(TransactionWebhookPayload.class);
+        when(repository.lockNextPending()).thenReturn(Optional.of(item(0)), Optional.empty());
+        when(repository.lockPendingById(1)).thenReturn(Optional.of(item(0)));
+        when(handler.parseVerifiedTransactionPayload(BODY, "sig")).thenReturn(Optional.of(payload));
+        when(ticketReservationManager.processTransactionWebhook(payload, PaymentMethod.CREDIT_CARD)).thenReturn(PaymentWebhookResult.successful(null));
+        // savepoint released, then the outer transaction turns out to be rollback-only
+        doNothing()
+            .doThrow(new UnexpectedRollbackException("rollback-only"))
+            .doNothing()
+            .when(transactionManager).commit(any());
+        assertEquals(1, manager.processPending());
+
+        InOrder inOrder = inOrder(repository);
+        inOrder.verify(repository).markAsDone(1, "SUCCESSFUL");
+        inOrder.verify(repository).lockPendingById(1);
+        inOrder.verify(repository).markAsFailed(1, "PENDING", "rollback-only", 5);
+        verify(repository, times(2)).lockNextPending();
+    }
+
+    @Test
+    void doNotRecordFailureIfTheRowHasBeenClaimedAgain() {
+        var payload = mock(TransactionWebhookPayload.class);
+        when(repository.lockNextPending()).thenReturn(Optional.of(item(0)), Optional.empty());
+        when(repository.lockPendingById(1)).thenReturn(Optional.empty());
+        when(handler.parseVerifiedTransactionPayload(BODY, "sig")).thenReturn(Optional.of(payload));
+        when(ticketReservationManager.processTransactionWebhook(payload, PaymentMethod.CREDIT_CARD)).thenReturn(PaymentWebhookResult.successful(null));
+        doNothing()
+            .doThrow(new UnexpectedRollbackException("rollback-only"))
+            .doNothing()
+            .when(transactionManager).commit(any());
+        assertEquals(1, manager.processPending());
+        verify(repository).lockPendingById(1);
+        verify(repository, never()).markAsFailed(anyInt(), anyString(), anyString(), anyInt());
+    }
+
+    private static PaymentWebhookInboxItem item(int attempts) {
+        return new PaymentWebhookInboxItem(1, PaymentMethod.CREDIT_CARD, "evt_1", BODY, "sig",
+            PaymentWebhookInboxItem.Status.PENDING, attempts, ZonedDateTime.now());
+    }
+}
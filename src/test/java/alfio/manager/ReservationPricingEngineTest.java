@@ -0,0 +1,132 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.manager;
+
+import alfio.model.*;
+import alfio.model.decorator.TicketPriceContainer;
+import alfio.repository.*;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static alfio.util.MonetaryUtil.unitToCents;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.*;
+
+class ReservationPricingEngineTest {
+
+    private static final String RESERVATION_ID = "reservation";
+    private static final String CURRENCY = "CHF";
+    private static final BigDecimal VAT = new BigDecimal("7.7");
+
+    private Event event;
+    private TicketReservation reservation;
+    private TicketRepository ticketRepository;
+    private TicketCategoryRepository ticketCategoryRepository;
+    private ReservationPricingEngine engine;
+
+    @BeforeEach
+    void setUp() {
+        event = mock(Event.class);
+        when(event.getId()).thenReturn(1);
+        when(event.getCurrency()).thenReturn(CURRENCY);
+        when(event.getVat()).thenReturn(VAT);
+        when(event.getVatStatus()).thenReturn(PriceContainer.VatStatus.NOT_INCLUDED);
+        reservation = mock(TicketReservation.class);
+        when(reservation.getId()).thenReturn(RESERVATION_ID);
+        when(reservation.getUserLanguage()).thenReturn("en");
+        ticketRepository = mock(TicketRepository.class);
+        ticketCategoryRepository = mock(TicketCategoryRepository.class);
+        var categories = List.of(category(1, "first"), category(2, "second"));
+        when(ticketCategoryRepository.findByIds(anyCollection())).thenReturn(categories);
+        engine = new ReservationPricingEngine(ticketRepository,
+            ticketCategoryRepository,
+            mock(AdditionalServiceRepository.class),
+            mock(AdditionalServiceItemRepository.class),
+            mock(AdditionalServiceTextRepository.class),
+            mock(PromoCodeDiscountRepository.class));
+    }
+
+    @Test
+    void groupTicketsByCategoryAndPrice() {
+        // not sorted by category: rows must be sorted by category id anyway
+        var tickets = List.of(ticket(1, 2, 2000), ticket(2, 1, 1000), ticket(3, 2, 2000), ticket(4, 1, 1500), ticket(5, 1, 1000));
+        when(ticketRepository.findTicketsInReservation(RESERVATION_ID)).thenReturn(tickets);
+
+        var price = engine.get(event, reservation);
+
+        var summary = price.getSummary();
+        assertEquals(2, summary.size());
+        var first = summary.get(0);
+        assertEquals("first", first.getName());
+        assertEquals(3, first.getAmount());
+        assertEquals(3500, first.getOriginalSubTotal());
+        assertEquals("10.00", first.getPrice());
+        var second = summary.get(1);
+        assertEquals("second", second.getName());
+        assertEquals(2, second.getAmount());
+        assertEquals(4000, second.getOriginalSubTotal());
+
+        // same result as summing the single tickets
+        var containers = tickets.stream()
+            .map(t -> TicketPriceContainer.from(t, null, VAT, PriceContainer.VatStatus.NOT_INCLUDED, null))
+            .collect(Collectors.toList());
+        var expectedNet = containers.stream().map(PriceContainer::getFinalPrice).reduce(BigDecimal.ZERO, BigDecimal::add);
+        var expectedVat = containers.stream().map(PriceContainer::getRawVAT).reduce(BigDecimal.ZERO, BigDecimal::add);
+        assertEquals(unitToCents(expectedNet, CURRENCY), price.getTotalPrice().getPriceWithVAT());
+        assertEquals(unitToCents(expectedVat, CURRENCY), price.getTotalPrice().getVAT());
+    }
+
+    @Test
+    void alwaysUseTheStoredData() {
+        var changing = ticket(2, 1, 1000);
+        var tickets = List.of(ticket(1, 1, 1000), changing);
+        when(ticketRepository.findTicketsInReservation(RESERVATION_ID)).thenReturn(tickets);
+
+        var price = engine.get(event, reservation);
+        assertEquals("first", price.getSummary().get(0).getName());
+
+        when(changing.getSrcPriceCts()).thenReturn(1500);
+        when(ticketCategoryRepository.findByIds(anyCollection())).thenReturn(List.of(category(1, "renamed")));
+        var updated = engine.get(event, reservation);
+
+        assertNotEquals(price.getTotalPrice().getPriceWithVAT(), updated.getTotalPrice().getPriceWithVAT());
+        assertEquals(2500, updated.getSummary().get(0).getOriginalSubTotal());
+        assertEquals("renamed", updated.getSummary().get(0).getName());
+    }
+
+    private static Ticket ticket(int id, int categoryId, int srcPriceCts) {
+        var ticket = mock(Ticket.class);
+        when(ticket.getId()).thenReturn(id);
+        when(ticket.getCategoryId()).thenReturn(categoryId);
+        when(ticket.getSrcPriceCts()).thenReturn(srcPriceCts);
+        when(ticket.getCurrencyCode()).thenReturn(CURRENCY);
+        return ticket;
+    }
+
+    private static TicketCategory category(int id, String name) {
+        var category = mock(TicketCategory.class);
+        when(category.getId()).thenReturn(id);
+        when(category.getName()).thenReturn(name);
+        return category;
+    }
+}
@@ -0,0 +1,86 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.manager;
+
+import alfio.manager.system.ClusterNotificationManager;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class ReservationStatusNotifierTest {
+
+    private ClusterNotificationManager clusterNotificationManager;
+    private ClusterNotificationManager.Listener listener;
+    private ReservationStatusNotifier notifier;
+
+    @BeforeEach
+    void setUp() {
+        clusterNotificationManager = mock(ClusterNotificationManager.class);
+        notifier = new ReservationStatusNotifier(clusterNotificationManager, new MockEnvironment());
+        var captor = ArgumentCaptor.forClass(ClusterNotificationManager.Listener.class);
+        verify(clusterNotificationManager).subscribe(eq("alfio_reservation_status"), captor.capture());
+        listener = captor.getValue();
+    }
+
+    @AfterEach
+    void tearDown() {
+        notifier.shutdown();
+    }
+
+    @Test
+    void wakeUpWaitersOfTheChangedReservation() throws Exception {
+        var changed = notifier.awaitChange("first");
+        var notChanged = notifier.awaitChange("second");
+
+        notifier.statusChanged("first");
+
+        changed.get(1, TimeUnit.SECONDS);
+        assertFalse(notChanged.isDone());
+        verify(clusterNotificationManager).publish("alfio_reservation_status", "first");
+        assertEquals(1, notifier.getMetrics().get("waiters"));
+    }
+
+    @Test
+    void wakeUpFromOtherNodes() throws Exception {
+        var changed = notifier.awaitChange("first");
+        listener.onNotification("first");
+        changed.get(1, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void wakeUpEveryoneOnConnectionReset() throws Exception {
+        var first = notifier.awaitChange("first");
+        var second = notifier.awaitChange("second");
+        listener.onConnectionReset();
+        first.get(1, TimeUnit.SECONDS);
+        second.get(1, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void removeCancelledWaiters() {
+        notifier.awaitChange("first").cancel(false);
+        assertEquals(0, notifier.getMetrics().get("waitingReservations"));
+    }
+}
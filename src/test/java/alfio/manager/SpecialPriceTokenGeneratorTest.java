@@ -0,0 +1,124 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.manager;
+
+import alfio.manager.system.ConfigurationManager;
+import alfio.manager.system.ConfigurationManager.MaybeConfiguration;
+import alfio.model.EventAndOrganizationId;
+import alfio.model.SpecialPrice;
+import alfio.model.TicketCategory;
+import alfio.model.system.ConfigurationKeys;
+import alfio.repository.EventRepository;
+import alfio.repository.SpecialPriceRepository;
+import alfio.repository.TicketCategoryRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DuplicateKeyException;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static alfio.test.util.TestTransactionManager.mockTransactionManager;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class SpecialPriceTokenGeneratorTest {
+
+    private static final int CATEGORY_ID = 1;
+    private static final int REQUIRED_CODES = SpecialPriceTokenGenerator.BATCH_SIZE * 2 + 500;
+
+    private SpecialPriceRepository specialPriceRepository;
+    private ConfigurationManager configurationManager;
+    private TicketCategoryRepository ticketCategoryRepository;
+    private SpecialPriceTokenGenerator generator;
+    private final List<Map<Integer, String>> writtenBatches = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        specialPriceRepository = mock(SpecialPriceRepository.class);
+        configurationManager = mock(ConfigurationManager.class);
+        ticketCategoryRepository = mock(TicketCategoryRepository.class);
+        var eventRepository = mock(EventRepository.class);
+        var transactionManager = mockTransactionManager();
+
+        var category = mock(TicketCategory.class);
+        when(category.getId()).thenReturn(CATEGORY_ID);
+        when(category.getEventId()).thenReturn(2);
+        when(ticketCategoryRepository.getByIdAndActive(CATEGORY_ID)).thenReturn(Optional.of(category));
+        var event = mock(EventAndOrganizationId.class);
+        when(event.getId()).thenReturn(2);
+        when(eventRepository.findEventAndOrganizationIdById(2)).thenReturn(event);
+        when(configurationManager.getFor(eq(ConfigurationKeys.SPECIAL_PRICE_CODE_LENGTH), any()))
+            .thenReturn(new MaybeConfiguration(ConfigurationKeys.SPECIAL_PRICE_CODE_LENGTH));
+        when(specialPriceRepository.findWaitingElementsForCategory(CATEGORY_ID)).thenReturn(IntStream.range(0, REQUIRED_CODES)
+            .mapToObj(id -> new SpecialPrice.SpecialPriceTicketCategoryId(id, CATEGORY_ID))
+            .collect(Collectors.toList()));
+        doAnswer(invocation -> writtenBatches.add(new HashMap<>(invocation.getArgument(0))))
+            .when(specialPriceRepository).bulkUpdateCodes(anyMap());
+
+        generator = new SpecialPriceTokenGenerator(configurationManager, specialPriceRepository, ticketCategoryRepository, eventRepository, transactionManager);
+    }
+
+    @Test
+    void resolveConfigurationOnceAndWriteInBatches() {
+        generator.generatePendingCodesForCategory(CATEGORY_ID);
+
+        verify(ticketCategoryRepository, times(1)).getByIdAndActive(CATEGORY_ID);
+        verify(configurationManager, times(1)).getFor(eq(ConfigurationKeys.SPECIAL_PRICE_CODE_LENGTH), any());
+        assertEquals(3, writtenBatches.size());
+        var codes = writtenBatches.stream().flatMap(m -> m.values().stream()).collect(Collectors.toSet());
+        assertEquals(REQUIRED_CODES, codes.size());
+        assertTrue(codes.stream().allMatch(c -> c.length() == 6));
+        var ids = writtenBatches.stream().flatMap(m -> m.keySet().stream()).collect(Collectors.toSet());
+        assertEquals(REQUIRED_CODES, ids.size());
+    }
+
+    @Test
+    void skipExistingCodes() {
+        var existing = new AtomicReference<String>();
+        when(specialPriceRepository.findExistingCodes(anyCollection())).thenAnswer(invocation -> {
+            Collection<String> candidates = invocation.getArgument(0);
+            if(existing.get() == null) {
+                existing.set(candidates.iterator().next());
+                return List.of(existing.get());
+            }
+            return List.of();
+        });
+
+        generator.generatePendingCodesForCategory(CATEGORY_ID);
+
+        var codes = writtenBatches.stream().flatMap(m -> m.values().stream()).collect(Collectors.toSet());
+        assertEquals(REQUIRED_CODES, codes.size());
+        assertFalse(codes.contains(existing.get()));
+    }
+
+    @Test
+    void retryBatchOnDuplicateKey() {
+        doThrow(new DuplicateKeyException("duplicate"))
+            .doAnswer(invocation -> writtenBatches.add(new HashMap<>(invocation.getArgument(0))))
+            .when(specialPriceRepository).bulkUpdateCodes(anyMap());
+
+        generator.generatePendingCodesForCategory(CATEGORY_ID);
+
+        verify(specialPriceRepository, times(4)).bulkUpdateCodes(anyMap());
+        var ids = writtenBatches.stream().flatMap(m -> m.keySet().stream()).collect(Collectors.toSet());
+        assertEquals(REQUIRED_CODES, ids.size());
+    }
+}
@@ -549,7 +549,7 @@ public class TicketReservationManagerIntegrationTest extends BaseIntegrationTest
         Assert.assertEquals(1, reservationIdPending.size());
         Assert.assertEquals(reservationId, reservationIdPending.get(0));
 
-        ticketReservationManager.cleanupExpiredReservations(now);
+        ticketReservationManager.cleanupExpiredReservations(now, 100);
 
         Assert.assertTrue(idsPendingQuery.get().isEmpty());
     }
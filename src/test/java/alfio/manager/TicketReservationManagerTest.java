@@ -47,6 +47,7 @@ import alfio.util.WorkingDaysAdjusters;
 import ch.digitalfondue.npjt.AffectedRowCountAndKey;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
 import org.springframework.context.MessageSource;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.jdbc.core.namedparam.SqlParameterSource;
@@ -125,6 +126,7 @@ class TicketReservationManagerTest {
     private Json json;
     private UserRepository userRepository;
     private AuditingRepository auditingRepository;
+    private ReservationStatusNotifier reservationStatusNotifier;
 
     private Set<ConfigurationKeys> BANKING_KEY = Set.of(INVOICE_ADDRESS, BANK_ACCOUNT_NR, BANK_ACCOUNT_OWNER);
     private Map<ConfigurationKeys, ConfigurationManager.MaybeConfiguration> BANKING_INFO = Map.of(
@@ -138,6 +140,7 @@ class TicketReservationManagerTest {
         messageSource = mock(MessageSource.class);
         messageSourceManager = mock(MessageSourceManager.class);
         ticketReservationRepository = mock(TicketReservationRepository.class);
+        reservationStatusNotifier = mock(ReservationStatusNotifier.class);
         ticketFieldRepository = mock(TicketFieldRepository.class);
         configurationManager = mock(ConfigurationManager.class);
         eventRepository = mock(EventRepository.class);
@@ -155,7 +158,7 @@ class TicketReservationManagerTest {
         AdditionalServiceRepository additionalServiceRepository = mock(AdditionalServiceRepository.class);
         AdditionalServiceTextRepository additionalServiceTextRepository = mock(AdditionalServiceTextRepository.class);
         AdditionalServiceItemRepository additionalServiceItemRepository = mock(AdditionalServiceItemRepository.class);
-        InvoiceSequencesRepository invoiceSequencesRepository = mock(InvoiceSequencesRepository.class);
+        InvoiceNumberAllocator invoiceNumberAllocator = mock(InvoiceNumberAllocator.class);
         auditingRepository = mock(AuditingRepository.class);
         event = mock(Event.class);
         specialPrice = mock(SpecialPrice.class);
@@ -184,6 +187,7 @@ class TicketReservationManagerTest {
         ExtensionManager extensionManager = mock(ExtensionManager.class);
         billingDocumentRepository = mock(BillingDocumentRepository.class);
         when(ticketCategoryRepository.getByIdAndActive(anyInt(), eq(EVENT_ID))).thenReturn(ticketCategory);
+        when(ticketCategoryRepository.findByIds(anyCollection())).thenReturn(List.of(ticketCategory));
         when(ticketCategory.getName()).thenReturn("Category Name");
         when(ticketCategory.getCurrencyCode()).thenReturn(CATEGORY_CURRENCY);
         when(configurationManager.getFor(eq(VAT_NR), any())).thenReturn(new ConfigurationManager.MaybeConfiguration(VAT_NR));
@@ -215,7 +219,7 @@ class TicketReservationManagerTest {
             additionalServiceRepository,
             additionalServiceItemRepository,
             additionalServiceTextRepository,
-            invoiceSequencesRepository,
+            invoiceNumberAllocator,
             auditingRepository,
             userRepository,
             extensionManager,
@@ -223,7 +227,14 @@ class TicketReservationManagerTest {
             groupManager,
             billingDocumentRepository,
             jdbcTemplate,
-            json);
+            json,
+            new ReservationPricingEngine(ticketRepository,
+                ticketCategoryRepository,
+                additionalServiceRepository,
+                additionalServiceItemRepository,
+                additionalServiceTextRepository,
+                promoCodeDiscountRepository),
+            reservationStatusNotifier);
 
         when(event.getId()).thenReturn(EVENT_ID);
         when(event.getOrganizationId()).thenReturn(ORGANIZATION_ID);
@@ -642,9 +653,9 @@ class TicketReservationManagerTest {
     @Test
     void doNothingIfNoReservations() {
         Date now = new Date();
-        when(ticketReservationRepository.findExpiredReservationForUpdate(eq(now))).thenReturn(Collections.emptyList());
-        trm.cleanupExpiredReservations(now);
-        verify(ticketReservationRepository).findExpiredReservationForUpdate(eq(now));
+        when(ticketReservationRepository.findExpiredReservationForUpdate(eq(now), eq(100))).thenReturn(Collections.emptyList());
+        assertEquals(0, trm.cleanupExpiredReservations(now, 100));
+        verify(ticketReservationRepository).findExpiredReservationForUpdate(eq(now), eq(100));
         verifyNoMoreInteractions(ticketReservationRepository, specialPriceRepository, ticketRepository, waitingQueueManager);
     }
 
@@ -652,18 +663,31 @@ class TicketReservationManagerTest {
     void cancelExpiredReservations() {
         Date now = new Date();
         List<String> reservationIds = singletonList("reservation-id");
-        when(ticketReservationRepository.findExpiredReservationForUpdate(eq(now))).thenReturn(reservationIds);
-        trm.cleanupExpiredReservations(now);
-        verify(ticketReservationRepository).findExpiredReservationForUpdate(eq(now));
+        when(ticketReservationRepository.findExpiredReservationForUpdate(eq(now), eq(100))).thenReturn(reservationIds);
+        assertEquals(1, trm.cleanupExpiredReservations(now, 100));
+        verify(ticketReservationRepository).findExpiredReservationForUpdate(eq(now), eq(100));
         verify(specialPriceRepository).resetToFreeAndCleanupForReservation(eq(reservationIds));
         verify(ticketRepository).resetCategoryIdForUnboundedCategories(eq(reservationIds));
         verify(ticketRepository).freeFromReservation(eq(reservationIds));
         verify(ticketReservationRepository).remove(eq(reservationIds));
         verify(waitingQueueManager).cleanExpiredReservations(eq(reservationIds));
         verify(ticketReservationRepository).getReservationIdAndEventId(eq(reservationIds));
+        verify(reservationStatusNotifier).statusChanged("reservation-id");
         verifyNoMoreInteractions(ticketReservationRepository, specialPriceRepository, ticketRepository);
     }
 
+    @Test
+    void signalReservationsMarkedAsStuck() {
+        Date now = new Date();
+        List<String> reservationIds = List.of("first", "second");
+        when(ticketReservationRepository.findStuckReservationsForUpdate(eq(now))).thenReturn(reservationIds);
+        trm.markExpiredInPaymentReservationAsStuck(now);
+        InOrder inOrder = inOrder(ticketReservationRepository, reservationStatusNotifier);
+        inOrder.verify(ticketReservationRepository).updateReservationsStatus(eq(reservationIds), eq(TicketReservationStatus.STUCK.name()));
+        inOrder.verify(reservationStatusNotifier).statusChanged("first");
+        inOrder.verify(reservationStatusNotifier).statusChanged("second");
+    }
+
     @Test
     void countAvailableTickets() {
         //count how many tickets yet available for a category
@@ -0,0 +1,88 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.manager;
+
+import alfio.manager.system.ClusterNotificationManager;
+import alfio.repository.UploadedResourceRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class UploadedResourceManagerTest {
+
+    private UploadedResourceRepository uploadedResourceRepository;
+    private ClusterNotificationManager clusterNotificationManager;
+    private UploadedResourceManager manager;
+
+    @BeforeEach
+    void setUp() {
+        uploadedResourceRepository = mock(UploadedResourceRepository.class);
+        clusterNotificationManager = mock(ClusterNotificationManager.class);
+        when(uploadedResourceRepository.hasResource(1, 2, "template")).thenReturn(true);
+        doAnswer(invocation -> {
+            OutputStream out = invocation.getArgument(3);
+            out.write("content".getBytes(StandardCharsets.UTF_8));
+            return null;
+        }).when(uploadedResourceRepository).fileContent(eq(1), eq(2), eq("template"), any(OutputStream.class));
+        manager = new UploadedResourceManager(uploadedResourceRepository, clusterNotificationManager, new MockEnvironment());
+    }
+
+    @Test
+    void cacheHit() {
+        assertEquals("content", new String(manager.findCascading(1, 2, "template").orElseThrow(), StandardCharsets.UTF_8));
+        assertEquals("content", new String(manager.findCascading(1, 2, "template").orElseThrow(), StandardCharsets.UTF_8));
+        verify(uploadedResourceRepository, times(1)).fileContent(eq(1), eq(2), eq("template"), any(OutputStream.class));
+        assertEquals(1L, manager.getMetrics().get("hits").longValue());
+    }
+
+    @Test
+    void missingResourceIsResolvedOnEveryLevel() {
+        assertTrue(manager.findCascading(1, 2, "missing").isEmpty());
+        verify(uploadedResourceRepository).hasResource(1, 2, "missing");
+        verify(uploadedResourceRepository).hasResource(1, "missing");
+        verify(uploadedResourceRepository).hasResource("missing");
+        assertTrue(manager.findCascading(1, 2, "missing").isEmpty());
+        verify(uploadedResourceRepository, times(1)).hasResource("missing");
+    }
+
+    @Test
+    void keyIncludesOrganizationAndEvent() {
+        assertTrue(manager.findCascading(1, 2, "template").isPresent());
+        assertTrue(manager.findCascading(1, 3, "template").isEmpty());
+        assertEquals(2L, manager.getMetrics().get("misses").longValue());
+    }
+
+    @Test
+    void deleteResourceInvalidatesByName() {
+        manager.findCascading(1, 2, "template");
+        manager.findCascading(1, 2, "other");
+        manager.deleteResource(1, "template");
+        verify(clusterNotificationManager).publish(eq("alfio_cache_uploaded_resource"), eq("template"));
+        manager.findCascading(1, 2, "template");
+        manager.findCascading(1, 2, "other");
+        verify(uploadedResourceRepository, times(2)).hasResource(1, 2, "template");
+        verify(uploadedResourceRepository, times(1)).hasResource(1, 2, "other");
+    }
+}
@@ -0,0 +1,114 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.manager.i18n;
+
+import alfio.manager.system.ClusterNotificationManager;
+import alfio.model.EventAndOrganizationId;
+import alfio.repository.system.ConfigurationRepository;
+import alfio.util.CustomResourceBundleMessageSource;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.util.Locale;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class MessageSourceManagerTest {
+
+    private ConfigurationRepository configurationRepository;
+    private ClusterNotificationManager clusterNotificationManager;
+    private MessageSourceManager manager;
+    private EventAndOrganizationId event;
+    private EventAndOrganizationId otherEvent;
+
+    @BeforeEach
+    void setUp() {
+        configurationRepository = mock(ConfigurationRepository.class);
+        clusterNotificationManager = mock(ClusterNotificationManager.class);
+        event = mock(EventAndOrganizationId.class);
+        when(event.getId()).thenReturn(1);
+        when(event.getOrganizationId()).thenReturn(2);
+        otherEvent = mock(EventAndOrganizationId.class);
+        when(otherEvent.getId()).thenReturn(3);
+        when(otherEvent.getOrganizationId()).thenReturn(4);
+        when(configurationRepository.getEventOverrideMessages(2, 1)).thenReturn(Map.of("en", Map.of("greeting", "hello {0}")));
+        when(configurationRepository.getEventOverrideMessages(4, 3)).thenReturn(Map.of());
+        when(configurationRepository.getSystemOverrideMessages()).thenReturn(Map.of("en", Map.of("greeting", "hi {0}")));
+        manager = new MessageSourceManager(mock(CustomResourceBundleMessageSource.class), configurationRepository,
+            clusterNotificationManager, new MockEnvironment());
+    }
+
+    @Test
+    void cacheHit() {
+        var messageSource = manager.getMessageSourceForEvent(event);
+        assertEquals("hello world", messageSource.getMessage("greeting", new Object[] {"world"}, Locale.ENGLISH));
+        assertSame(messageSource, manager.getMessageSourceForEvent(event));
+        assertEquals(Map.of("greeting", "hello {0}"), manager.getMessageSourceForEventAndOverride(event).getRight().get("en"));
+        verify(configurationRepository, times(1)).getEventOverrideMessages(2, 1);
+        assertEquals(2L, manager.getMetrics().get("hits").longValue());
+    }
+
+    @Test
+    void cacheMissForEachEventAndSystem() {
+        manager.getMessageSourceForEvent(event);
+        manager.getMessageSourceForEvent(otherEvent);
+        var root = manager.getRootMessageSource();
+        assertEquals("hi all", root.getMessage("greeting", new Object[] {"all"}, Locale.ENGLISH));
+        assertSame(root, manager.getRootMessageSource());
+        verify(configurationRepository, times(1)).getSystemOverrideMessages();
+        assertEquals(3L, manager.getMetrics().get("misses").longValue());
+    }
+
+    @Test
+    void eventOverrideModified() {
+        manager.getMessageSourceForEvent(event);
+        manager.getMessageSourceForEvent(otherEvent);
+        manager.overrideModified(2, 1);
+        verify(clusterNotificationManager).publish(eq("alfio_cache_message_source"), eq("event:1"));
+        manager.getMessageSourceForEvent(event);
+        manager.getMessageSourceForEvent(otherEvent);
+        verify(configurationRepository, times(2)).getEventOverrideMessages(2, 1);
+        verify(configurationRepository, times(1)).getEventOverrideMessages(4, 3);
+    }
+
+    @Test
+    void organizationOverrideModified() {
+        manager.getMessageSourceForEvent(event);
+        manager.getMessageSourceForEvent(otherEvent);
+        manager.overrideModified(4, null);
+        manager.getMessageSourceForEvent(event);
+        manager.getMessageSourceForEvent(otherEvent);
+        verify(configurationRepository, times(1)).getEventOverrideMessages(2, 1);
+        verify(configurationRepository, times(2)).getEventOverrideMessages(4, 3);
+    }
+
+    @Test
+    void systemOverrideModified() {
+        manager.getMessageSourceForEvent(event);
+        manager.getRootMessageSource();
+        manager.overrideModified(null, null);
+        manager.getMessageSourceForEvent(event);
+        manager.getRootMessageSource();
+        verify(configurationRepository, times(2)).getEventOverrideMessages(2, 1);
+        verify(configurationRepository, times(2)).getSystemOverrideMessages();
+    }
+}
@@ -0,0 +1,79 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.manager.support;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AttachmentStoreTest {
+
+    private final AttachmentStore store = new AttachmentStore(new MockEnvironment());
+
+    @Test
+    void concurrentCallsRenderOnce() throws Exception {
+        var renderings = new AtomicInteger();
+        var started = new CountDownLatch(1);
+        var executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<byte[]>> results = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                results.add(executor.submit(() -> {
+                    started.await();
+                    return store.getOrRender("key", () -> {
+                        renderings.incrementAndGet();
+                        try {
+                            Thread.sleep(50);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        return new byte[] {1};
+                    });
+                }));
+            }
+            started.countDown();
+            for (Future<byte[]> result : results) {
+                assertArrayEquals(new byte[] {1}, result.get(10, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, renderings.get());
+    }
+
+    @Test
+    void emptyResultsAreNotStored() {
+        assertNull(store.getOrRender("key", () -> null));
+        assertArrayEquals(new byte[0], store.getOrRender("key", () -> new byte[0]));
+        assertArrayEquals(new byte[] {1}, store.getOrRender("key", () -> new byte[] {1}));
+    }
+
+    @Test
+    void releasedEntriesAreRenderedAgain() {
+        var renderings = new AtomicInteger();
+        store.getOrRender("key", () -> new byte[] {(byte) renderings.incrementAndGet()});
+        assertArrayEquals(new byte[] {1}, store.getOrRender("key", () -> new byte[] {(byte) renderings.incrementAndGet()}));
+        store.release(List.of("key"));
+        assertArrayEquals(new byte[] {2}, store.getOrRender("key", () -> new byte[] {(byte) renderings.incrementAndGet()}));
+    }
+}
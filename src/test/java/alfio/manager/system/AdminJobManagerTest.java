@@ -0,0 +1,115 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.manager.system;
+
+import alfio.manager.system.AdminJobExecutor.JobName;
+import alfio.model.system.AdminJobSchedule;
+import alfio.repository.system.AdminJobQueueRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static alfio.test.util.TestTransactionManager.mockTransactionManager;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class AdminJobManagerTest {
+
+    private AdminJobExecutor executor;
+    private AdminJobQueueRepository repository;
+    private AdminJobManager manager;
+
+    @BeforeEach
+    void setUp() {
+        executor = mock(AdminJobExecutor.class);
+        when(executor.getJobNames()).thenReturn(EnumSet.of(JobName.CHECK_OFFLINE_PAYMENTS));
+        repository = mock(AdminJobQueueRepository.class);
+        when(repository.claimSchedules(anyString(), anyString(), any(), any(), anyInt(), anyInt())).thenReturn(List.of());
+        when(repository.completeSchedule(anyLong(), anyString(), anyString(), any(), any())).thenReturn(1);
+        when(repository.rescheduleAfterFailure(anyLong(), anyString(), any())).thenReturn(1);
+        var transactionManager = mockTransactionManager();
+        manager = new AdminJobManager(List.of(executor), repository, transactionManager, new MockEnvironment());
+    }
+
+    @Test
+    void completeSuccessfulJob() {
+        when(repository.claimSchedules(eq("CHECK_OFFLINE_PAYMENTS"), anyString(),
+            any(), any(), eq(3), eq(1))).thenReturn(List.of(schedule(1)));
+        when(executor.process(any())).thenReturn("OK");
+        runAndWait();
+        // the lease is computed by the application, not by the database
+        var now = ArgumentCaptor.forClass(ZonedDateTime.class);
+        var leaseExpiration = ArgumentCaptor.forClass(ZonedDateTime.class);
+        verify(repository).claimSchedules(eq("CHECK_OFFLINE_PAYMENTS"), anyString(), now.capture(), leaseExpiration.capture(), eq(3), eq(1));
+        assertEquals(Duration.ofSeconds(300), Duration.between(now.getValue(), leaseExpiration.getValue()));
+        verify(repository).completeSchedule(eq(1L), anyString(), eq("EXECUTED"), any(), eq(Map.of()));
+        assertEquals(1L, manager.getMetrics().get("CHECK_OFFLINE_PAYMENTS.executions"));
+    }
+
+    @Test
+    void retryFailedJobWithBackoff() {
+        when(repository.claimSchedules(eq("CHECK_OFFLINE_PAYMENTS"), anyString(), any(), any(), anyInt(), anyInt())).thenReturn(List.of(schedule(2)));
+        when(executor.process(any())).thenThrow(new IllegalStateException("boom"));
+        var before = ZonedDateTime.now();
+        runAndWait();
+        var nextAttempt = ArgumentCaptor.forClass(ZonedDateTime.class);
+        verify(repository).rescheduleAfterFailure(eq(1L), anyString(), nextAttempt.capture());
+        assertFalse(nextAttempt.getValue().isBefore(before.plusSeconds(120)));
+        assertFalse(nextAttempt.getValue().isAfter(ZonedDateTime.now().plusSeconds(120)));
+        verify(repository, never()).completeSchedule(anyLong(), anyString(), anyString(), any(), any());
+    }
+
+    @Test
+    void failJobAfterMaxAttempts() {
+        when(repository.claimSchedules(eq("CHECK_OFFLINE_PAYMENTS"), anyString(), any(), any(), anyInt(), anyInt())).thenReturn(List.of(schedule(3)));
+        when(executor.process(any())).thenThrow(new IllegalStateException("boom"));
+        runAndWait();
+        verify(repository).completeSchedule(eq(1L), anyString(), eq("FAILED"), any(), eq(Map.of()));
+        verify(repository, never()).rescheduleAfterFailure(anyLong(), anyString(), any());
+    }
+
+    @Test
+    void neverRemoveRunningSchedules() {
+        manager.cleanupExpiredRequests();
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<Set<String>> statuses = ArgumentCaptor.forClass(Set.class);
+        verify(repository, times(2)).removePastSchedules(any(), statuses.capture());
+        assertEquals(Set.of("EXECUTED"), statuses.getAllValues().get(0));
+        assertEquals(Set.of("SCHEDULED", "FAILED"), statuses.getAllValues().get(1));
+        verify(repository).failAbandonedSchedules(any(), eq(3));
+    }
+
+    private void runAndWait() {
+        manager.processPendingRequests();
+        manager.shutdown();
+    }
+
+    private static AdminJobSchedule schedule(int attempts) {
+        return new AdminJobSchedule(1L, JobName.CHECK_OFFLINE_PAYMENTS.name(), ZonedDateTime.now(),
+            AdminJobSchedule.Status.RUNNING, null, Map.of(), attempts);
+    }
+}
@@ -0,0 +1,118 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.manager.system;
+
+import alfio.manager.system.ConfigurationManager.MaybeConfiguration;
+import alfio.model.EventAndOrganizationId;
+import alfio.model.system.ConfigurationKeys;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static alfio.model.system.ConfigurationKeys.BASE_URL;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class ConfigurationCacheTest {
+
+    private static final EventAndOrganizationId EVENT = new EventAndOrganizationId(1, 2);
+
+    private ClusterNotificationManager clusterNotificationManager;
+    private ConfigurationCache cache;
+    private AtomicInteger loads;
+    private Supplier<Map<ConfigurationKeys, MaybeConfiguration>> loader;
+
+    @BeforeEach
+    void setUp() {
+        clusterNotificationManager = mock(ClusterNotificationManager.class);
+        cache = new ConfigurationCache(clusterNotificationManager, new MockEnvironment());
+        loads = new AtomicInteger();
+        loader = () -> {
+            loads.incrementAndGet();
+            var result = new EnumMap<ConfigurationKeys, MaybeConfiguration>(ConfigurationKeys.class);
+            result.put(BASE_URL, new MaybeConfiguration(BASE_URL));
+            return result;
+        };
+    }
+
+    @Test
+    void cacheHit() {
+        cache.get(ConfigurationLevel.event(EVENT), Set.of(BASE_URL), loader);
+        cache.get(ConfigurationLevel.event(new EventAndOrganizationId(1, 2)), Set.of(BASE_URL), loader);
+        assertEquals(1, loads.get());
+        assertEquals(1L, cache.getMetrics().get("hits"));
+        assertEquals(1L, cache.getMetrics().get("misses"));
+    }
+
+    @Test
+    void invalidateOrganizationEvictsEventEntries() {
+        cache.get(ConfigurationLevel.event(EVENT), Set.of(BASE_URL), loader);
+        cache.get(ConfigurationLevel.organization(3), Set.of(BASE_URL), loader);
+        cache.invalidate(ConfigurationLevel.organization(2));
+        verify(clusterNotificationManager).publish(eq("alfio_cache_configuration"), eq("ORGANIZATION:2"));
+        cache.get(ConfigurationLevel.event(EVENT), Set.of(BASE_URL), loader);
+        cache.get(ConfigurationLevel.organization(3), Set.of(BASE_URL), loader);
+        assertEquals(3, loads.get());
+    }
+
+    @Test
+    void invalidateCategoryDoesNotEvictEvent() {
+        cache.get(ConfigurationLevel.event(EVENT), Set.of(BASE_URL), loader);
+        cache.get(ConfigurationLevel.ticketCategory(EVENT, 5), Set.of(BASE_URL), loader);
+        cache.invalidate(ConfigurationLevel.ticketCategory(EVENT, 5));
+        cache.get(ConfigurationLevel.event(EVENT), Set.of(BASE_URL), loader);
+        cache.get(ConfigurationLevel.ticketCategory(EVENT, 5), Set.of(BASE_URL), loader);
+        assertEquals(3, loads.get());
+    }
+
+    @Test
+    void invalidateSystemEvictsEverything() {
+        cache.get(ConfigurationLevel.system(), Set.of(BASE_URL), loader);
+        cache.get(ConfigurationLevel.ticketCategory(EVENT, 5), Set.of(BASE_URL), loader);
+        cache.invalidate(ConfigurationLevel.system());
+        cache.get(ConfigurationLevel.system(), Set.of(BASE_URL), loader);
+        cache.get(ConfigurationLevel.ticketCategory(EVENT, 5), Set.of(BASE_URL), loader);
+        assertEquals(4, loads.get());
+    }
+
+    @Test
+    void payloadRoundTrip() {
+        for (var level : new ConfigurationLevel[] {ConfigurationLevel.system(), ConfigurationLevel.organization(2), ConfigurationLevel.event(EVENT), ConfigurationLevel.ticketCategory(EVENT, 5)}) {
+            assertEquals(level, ConfigurationCache.fromPayload(ConfigurationCache.toPayload(level)));
+        }
+        assertNull(ConfigurationCache.fromPayload("UNKNOWN"));
+    }
+
+    @Test
+    void disabledInIntegrationTests() {
+        var environment = new MockEnvironment();
+        environment.setActiveProfiles("integration-test");
+        var disabled = new ConfigurationCache(clusterNotificationManager, environment);
+        disabled.get(ConfigurationLevel.system(), Set.of(BASE_URL), loader);
+        disabled.get(ConfigurationLevel.system(), Set.of(BASE_URL), loader);
+        assertEquals(2, loads.get());
+        verify(clusterNotificationManager, times(1)).subscribe(eq("alfio_cache_configuration"), any());
+    }
+}
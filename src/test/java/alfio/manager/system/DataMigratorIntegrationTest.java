@@ -20,9 +20,9 @@ import alfio.TestConfiguration;
 import alfio.config.DataSourceConfiguration;
 import alfio.config.Initializer;
 import alfio.controller.form.UpdateTicketOwnerForm;
+import alfio.controller.support.PdfRenderingService;
 import alfio.controller.support.TemplateProcessor;
 import alfio.manager.EventManager;
-import alfio.manager.ExtensionManager;
 import alfio.manager.FileUploadManager;
 import alfio.manager.TicketReservationManager;
 import alfio.manager.user.UserManager;
@@ -95,7 +95,7 @@ public class DataMigratorIntegrationTest extends BaseIntegrationTest {
     @Autowired
     private TicketReservationRepository ticketReservationRepository;
     @Autowired
-    private ExtensionManager extensionManager;
+    private PdfRenderingService pdfRenderingService;
     @Value("${alfio.version}")
     private String currentVersion;
     @Value("${alfio.build-ts}")
@@ -299,7 +299,7 @@ public class DataMigratorIntegrationTest extends BaseIntegrationTest {
             second.setLastName("Name");
 	        TemplateProcessor.renderPDFTicket(Locale.ITALIAN, event, ticketReservationManager.findById(reservationId).get(),
                 tickets.get(0), ticketCategoryRepository.getByIdAndActive(tickets.get(0).getCategoryId(), event.getId()), organizationRepository.getById(event.getOrganizationId()),
-                templateManager, fileUploadManager, "", new ByteArrayOutputStream(), t -> Collections.emptyList(), extensionManager);
+                templateManager, fileUploadManager, "", new ByteArrayOutputStream(), t -> Collections.emptyList(), pdfRenderingService);
 	        ticketReservationManager.updateTicketOwner(tickets.get(0), Locale.ITALIAN, event, first, (t) -> "", (t) -> "", Optional.empty());
 	        ticketReservationManager.updateTicketOwner(tickets.get(1), Locale.ITALIAN, event, second, (t) -> "", (t) -> "", Optional.empty());
 	        //FIXME
@@ -0,0 +1,51 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.test.util;
+
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.SavepointManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Mock {@link PlatformTransactionManager} for unit tests of components which build their own TransactionTemplates.
+ * Every call to getTransaction returns a new status, which supports savepoints as no-ops.
+ */
+public final class TestTransactionManager {
+
+    private TestTransactionManager() {
+    }
+
+    public static PlatformTransactionManager mockTransactionManager() {
+        var transactionManager = mock(PlatformTransactionManager.class);
+        when(transactionManager.getTransaction(any())).thenAnswer(invocation -> new SavepointAwareStatus());
+        return transactionManager;
+    }
+
+    private static class SavepointAwareStatus extends SimpleTransactionStatus {
+
+        private final SavepointManager savepointManager = mock(SavepointManager.class);
+
+        @Override
+        protected SavepointManager getSavepointManager() {
+            return savepointManager;
+        }
+    }
+}
@@ -17,11 +17,18 @@
 package alfio.util;
 
 
+import alfio.manager.UploadedResourceManager;
+import alfio.manager.i18n.MessageSourceManager;
 import org.junit.Assert;
 import org.junit.jupiter.api.Test;
 import org.springframework.context.support.StaticMessageSource;
+import org.springframework.core.io.ClassPathResource;
 
+import java.io.ByteArrayOutputStream;
 import java.util.Locale;
+import java.util.Map;
+
+import static org.mockito.Mockito.mock;
 
 public class TemplateManagerTest {
 
@@ -81,4 +88,39 @@ public class TemplateManagerTest {
     public void simpleParams() {
         Assert.assertEquals("3-2-1", TemplateManager.translate("{{#i18n}}parameter [1] [2] [3]{{/i18n}}", Locale.ENGLISH, messageSource));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void compiledTemplateIsReusedForSameContent() {
+        var templateManager = new TemplateManager(mock(MessageSourceManager.class), mock(UploadedResourceManager.class));
+        Assert.assertEquals("hello a", templateManager.renderString(null, "hello {{name}}", Map.of("name", "a"), Locale.ENGLISH, TemplateManager.TemplateOutput.TEXT));
+        Assert.assertEquals("hello b", templateManager.renderString(null, "hello {{name}}", Map.of("name", "b"), Locale.ENGLISH, TemplateManager.TemplateOutput.TEXT));
+        Assert.assertEquals(1L, templateManager.getMetrics().get("hits").longValue());
+        Assert.assertEquals(1L, templateManager.getMetrics().get("misses").longValue());
+    }
+
+    @Test
+    public void modifiedContentIsNotServedFromCache() {
+        var templateManager = new TemplateManager(mock(MessageSourceManager.class), mock(UploadedResourceManager.class));
+        templateManager.renderString(null, "hello {{name}}", Map.of("name", "a"), Locale.ENGLISH, TemplateManager.TemplateOutput.TEXT);
+        Assert.assertEquals("bye a", templateManager.renderString(null, "bye {{name}}", Map.of("name", "a"), Locale.ENGLISH, TemplateManager.TemplateOutput.TEXT));
+        Assert.assertEquals(0L, templateManager.getMetrics().get("hits").longValue());
+        Assert.assertEquals(2L, templateManager.getMetrics().get("misses").longValue());
+    }
+
+    @Test
+    public void outputTypeIsPartOfTheKey() {
+        var templateManager = new TemplateManager(mock(MessageSourceManager.class), mock(UploadedResourceManager.class));
+        Assert.assertEquals("<b>", templateManager.renderString(null, "{{name}}", Map.of("name", "<b>"), Locale.ENGLISH, TemplateManager.TemplateOutput.TEXT));
+        Assert.assertEquals("&lt;b&gt;", templateManager.renderString(null, "{{name}}", Map.of("name", "<b>"), Locale.ENGLISH, TemplateManager.TemplateOutput.HTML));
+    }
+
+    @Test
+    public void classpathTemplateIsCompiledOnce() {
+        var templateManager = new TemplateManager(mock(MessageSourceManager.class), mock(UploadedResourceManager.class));
+        var resource = new ClassPathResource("alfio-public-frontend-index.html");
+        templateManager.renderHtml(resource, Map.of(), new ByteArrayOutputStream());
+        templateManager.renderHtml(resource, Map.of(), new ByteArrayOutputStream());
+        Assert.assertEquals(1L, templateManager.getMetrics().get("size").longValue());
+        Assert.assertEquals(1L, templateManager.getMetrics().get("hits").longValue());
+    }
+}